@@ -16,13 +16,22 @@ import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.Result;
+import hudson.plugins.android_emulator.logcat.LogcatAction;
+import hudson.plugins.android_emulator.logcat.LogcatIndex;
+import hudson.plugins.android_emulator.logcat.LogcatIndexingOutputStream;
+import hudson.plugins.android_emulator.logcat.LogcatSegmentUploader;
+import hudson.plugins.android_emulator.screenrecord.ScreenRecordArchiver;
+import hudson.plugins.android_emulator.screenrecord.ScreenRecorder;
 import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.Tool;
 import hudson.plugins.android_emulator.sdk.cli.AdbShellCommands;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
+import hudson.plugins.android_emulator.sdk.repository.ManifestCache;
+import hudson.plugins.android_emulator.util.SystemImagePrefetcher;
 import hudson.plugins.android_emulator.util.Utils;
 import hudson.plugins.android_emulator.util.ValidationResult;
+import hudson.plugins.android_emulator.util.VolatileImages;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildWrapper;
@@ -31,7 +40,6 @@ import hudson.util.ArgumentListBuilder;
 import hudson.util.ForkOutputStream;
 import hudson.util.FormValidation;
 import hudson.util.NullStream;
-import jenkins.model.ArtifactManager;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 
@@ -53,10 +61,13 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -73,6 +84,15 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
     /** Interval during which killing a process should complete. */
     private static final int KILL_PROCESS_TIMEOUT_MS = 10 * 1000;
 
+    /** Duration for which emulator startup waits for system image files to be prefetched. */
+    private static final int PREFETCH_TIMEOUT_MS = 60 * 1000;
+
+    /** Maximum amount of output forwarded to the build log from each of the emulator's stdout and stderr. */
+    private static final long EMULATOR_OUTPUT_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    /** Prefix for messages written by this plugin to the build log. */
+    static final String LOG_PREFIX = "[android] ";
+
     private DescriptorImpl descriptor;
 
     // Config properties: AVD name
@@ -101,6 +121,9 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
     @Exported public final String commandLineOptions;
     @Exported public final String executable;
     private int adbTimeout;
+    private int logcatSegmentSize;
+    private int screenRecordMinutes;
+    private boolean prefetchSystemImage;
 
 
     @DataBoundConstructor
@@ -181,6 +204,27 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                 deviceLocale, targetAbi, deviceDefinition, avdNameSuffix);
     }
 
+    /**
+     * Estimates the space which this emulator's volatile images can take up, if they're placed in
+     * {@linkplain VolatileStorageProperty volatile storage}.  Sizes which contain variables can't
+     * be determined before the build, so the emulator's defaults are assumed.
+     *
+     * @return The estimated number of bytes, or zero if a named emulator is used.
+     */
+    public long getVolatileStorageBytes() {
+        return getUseNamedEmulator() ? 0 : getVolatileStorageBytes(sdCardSize, hardwareProperties);
+    }
+
+    private static long getVolatileStorageBytes(String sdCardSize, HardwareProperty[] hardwareProperties) {
+        final Map<String, String> properties = new HashMap<>();
+        if (hardwareProperties != null) {
+            for (HardwareProperty property : hardwareProperties) {
+                properties.put(property.key, property.value);
+            }
+        }
+        return VolatileImages.estimateSize(sdCardSize, properties);
+    }
+
     @Override
     @SuppressWarnings({"unchecked", "rawtypes"})
     public Environment setUp(AbstractBuild build, final Launcher launcher, BuildListener listener)
@@ -283,20 +327,44 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             }
         }
 
-        if (descriptor.shouldKeepInWorkspace) {
-            SdkInstaller.optOutOfSdkStatistics(launcher, listener, androidSdkHome);
-        }
+        // If this build deferred the installation of some SDK components, but fails before waiting
+        // for them, make sure that later builds don't wait for, or run, the installation on its behalf
+        try {
+            if (descriptor.shouldKeepInWorkspace) {
+                SdkInstaller.optOutOfSdkStatistics(launcher, listener, androidSdkHome);
+                SdkInstaller.linkSharedHomeFiles(launcher, listener, androidSdkHome);
+            }
 
-        // Install the required SDK components for the desired platform, if necessary
-        if (descriptor.shouldInstallSdk) {
-            SdkInstaller.installDependencies(logger, launcher, androidSdk, emuConfig);
-        }
+            // Install the required SDK components for the desired platform, if necessary
+            if (descriptor.shouldInstallSdk) {
+                SdkInstaller.installDependencies(logger, launcher, androidSdk, emuConfig);
 
-        // Ok, everything looks good.. let's go
-        String displayHome = androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : Messages.USING_PATH();
-        log(logger, Messages.USING_SDK(displayHome));
+                // Anything not needed to boot the emulator can be installed while it starts up
+                SdkInstaller.startDeferredInstall(listener);
+            }
+
+            // Ok, everything looks good.. let's go
+            String displayHome = androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : Messages.USING_PATH();
+            log(logger, Messages.USING_SDK(displayHome));
+
+            final Environment environment = doSetUp(build, launcher, listener, androidSdk, emuConfig, expandedProperties);
+            if (environment == null) {
+                return null;
+            }
 
-        return doSetUp(build, launcher, listener, androidSdk, emuConfig, expandedProperties);
+            // Build steps may need the components being installed in the background, e.g. build-tools
+            try {
+                SdkInstaller.awaitDeferredInstall(listener);
+            } catch (SdkInstallationException e) {
+                log(logger, e.getMessage(), e);
+                build.setResult(Result.NOT_BUILT);
+                environment.tearDown(build, listener);
+                return null;
+            }
+            return environment;
+        } finally {
+            SdkInstaller.abandonDeferredInstall(listener);
+        }
     }
 
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
@@ -325,8 +393,9 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             return null;
         }
 
-        // Update emulator configuration with desired hardware properties
-        if (!emuConfig.isNamedEmulator() && hardwareProperties.length != 0) {
+        // Update emulator configuration with desired hardware properties; this is done even if there
+        // are none, so that any set by previous builds can be removed
+        if (!emuConfig.isNamedEmulator()) {
             Callable<Void, IOException> task = emuConfig.getEmulatorConfigTask(hardwareProperties, listener);
             channel.call(task);
         }
@@ -335,6 +404,11 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         Callable<Void, IOException> authFileTask = emuConfig.getEmulatorAuthFileTask();
         channel.callAsync(authFileTask);
 
+        // Mark the AVD as recently used, so that it's not evicted when disk space runs low
+        if (!emuConfig.isNamedEmulator()) {
+            channel.callAsync(emuConfig.getEmulatorUsageTask(androidSdk));
+        }
+
         // Delay start up by the configured amount of time
         final int delaySecs = startupDelay;
         if (delaySecs > 0) {
@@ -342,6 +416,10 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             Thread.sleep(delaySecs * 1000);
         }
 
+        // Read the system image into the page cache while adb starts, so that booting doesn't stall on disk I/O
+        final Future<SystemImagePrefetcher.Result> prefetch = prefetchSystemImage
+                ? channel.callAsync(emuConfig.getSystemImagePrefetchTask(androidSdk)) : null;
+
         final AndroidEmulatorContext emu = new AndroidEmulatorContext(build, launcher, listener, androidSdk);
 
         // We manually start the adb-server so that later commands will not have to start it,
@@ -357,6 +435,25 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             log(logger, Messages.SNAPSHOTS_NOT_SUPPORTED());
         }
 
+        // Check whether this machine keeps emulator images in volatile storage
+        final Node node = build.getBuiltOn();
+        final VolatileStorageProperty volatileStorage = node == null || emuConfig.isNamedEmulator() ? null
+                : node.getNodeProperties().get(VolatileStorageProperty.class);
+
+        // Start a newly-created AVD from the snapshot of a template booted by an earlier build, if any;
+        // templates aren't used with volatile storage, as their snapshots refer to the AVD's own images
+        final boolean canUseTemplates = useSnapshots && androidSdk.supportsSnapshots() && !emuConfig.isNamedEmulator()
+                && volatileStorage == null;
+        if (canUseTemplates && !emulatorAlreadyExists) {
+            try {
+                if (channel.call(emuConfig.getEmulatorTemplateTask(androidSdk, false))) {
+                    log(logger, Messages.AVD_TEMPLATE_RESTORED(emuConfig.getAvdName()));
+                }
+            } catch (IOException e) {
+                log(logger, Messages.AVD_TEMPLATE_FAILED(e.getMessage()));
+            }
+        }
+
         // Determine whether we need to create the first snapshot
         final SnapshotState snapshotState;
         if (useSnapshots && androidSdk.supportsSnapshots()) {
@@ -375,6 +472,51 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             snapshotState = SnapshotState.NONE;
         }
 
+        // Reset the user data by cloning it from the system image, which is much quicker than having
+        // the emulator wipe it, if the AVD is known to have been created from the installed image;
+        // this also deletes the AVD's snapshots, so isn't done when booting from the "jenkins" snapshot
+        if (emuConfig.shouldWipeData() && !emuConfig.isNamedEmulator() && snapshotState != SnapshotState.BOOT) {
+            try {
+                if (channel.call(emuConfig.getEmulatorDataResetTask(androidSdk))) {
+                    emuConfig.setDataReset();
+                }
+            } catch (IOException e) {
+                log(logger, Messages.AVD_DATA_RESET_FAILED(e.getMessage()));
+            }
+        }
+
+        // Place the images that the emulator writes to in volatile storage, if there's enough space
+        if (volatileStorage != null) {
+            final long requiredBytes = getVolatileStorageBytes(emuConfig.getSdCardSize(), hardwareProperties);
+            try {
+                final Map<String, String> images = !volatileStorage.canFit(requiredBytes) ? null
+                        : channel.call(emuConfig.getVolatileImagesPreparationTask(volatileStorage.path, requiredBytes));
+                if (images == null) {
+                    log(logger, Messages.VOLATILE_IMAGES_INSUFFICIENT_SPACE(volatileStorage.path));
+                } else {
+                    emuConfig.setVolatileImages(volatileStorage.path, images);
+                    log(logger, Messages.VOLATILE_IMAGES_PLACED(volatileStorage.path));
+                }
+            } catch (IOException e) {
+                log(logger, Messages.VOLATILE_IMAGES_FAILED(e.getMessage()));
+            }
+        }
+
+        // Wait for the system image to be prefetched, though it's not worth holding up the build for long
+        if (prefetch != null) {
+            try {
+                final SystemImagePrefetcher.Result result = prefetch.get(PREFETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    log(logger, Messages.SYSTEM_IMAGE_PREFETCHED(result.totalBytes / (1024 * 1024),
+                            result.residentBytes / (1024 * 1024)));
+                }
+            } catch (ExecutionException e) {
+                log(logger, Messages.SYSTEM_IMAGE_PREFETCH_FAILED(e.getCause().getMessage()));
+            } catch (TimeoutException e) {
+                log(logger, Messages.SYSTEM_IMAGE_PREFETCH_FAILED(e.getClass().getSimpleName()));
+            }
+        }
+
         // Compile complete command for starting emulator
         final String emulatorArgs = emuConfig.getCommandArguments(snapshotState, androidSdk,
                 emu.userPort(), emu.adbPort(), emu.getEmulatorCallbackPort(), adbTimeout);
@@ -394,23 +536,32 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         }
         final long bootTime = System.currentTimeMillis();
 
-        // Prepare to capture and log emulator standard output
-        ByteArrayOutputStream emulatorOutput = new ByteArrayOutputStream();
-        ForkOutputStream emulatorLogger = new ForkOutputStream(logger, emulatorOutput);
+        // Prepare to log emulator output, watching stdout for well-known messages as we go
+        final EmulatorLogForwarder outputForwarder = new EmulatorLogForwarder(logger, build.getFullDisplayName());
+        final EmulatorOutputMonitor outputMonitor = new EmulatorOutputMonitor();
+        ForkOutputStream emulatorLogger = new ForkOutputStream(
+                outputForwarder.newSource("stdout", EMULATOR_OUTPUT_BUDGET_BYTES), outputMonitor);
+        final OutputStream emulatorErrorLogger = outputForwarder.newSource("stderr", EMULATOR_OUTPUT_BUDGET_BYTES);
+        emu.setOutputForwarder(outputForwarder);
 
         final SdkCliCommand cmd = new SdkCliCommand(emuConfig.getExecutable(), emulatorArgs);
         final Proc emulatorProcess = emu.getToolProcStarter(cmd, additionalEnvVars)
-                .stdout(emulatorLogger).stderr(logger).start();
+                .stdout(emulatorLogger).stderr(emulatorErrorLogger).start();
         emu.setProcess(emulatorProcess);
 
-        // Give the emulator process a chance to initialise
-        Thread.sleep(5 * 1000);
-
-        // Check whether a failure was reported on stdout
-        if (emulatorOutput.toString().contains("image is used by another emulator")) {
+        // Give the emulator process a chance to initialise, unless it reports a failure on stdout first
+        final EmulatorOutputMonitor.Event failure = outputMonitor.awaitFatalEvent(5 * 1000);
+        if (failure == EmulatorOutputMonitor.Event.IMAGE_IN_USE) {
+            outputForwarder.close();
             log(logger, Messages.EMULATOR_ALREADY_IN_USE(emuConfig.getAvdName()));
             return null;
         }
+        if (failure == EmulatorOutputMonitor.Event.KVM_UNAVAILABLE) {
+            log(logger, Messages.EMULATOR_ACCELERATION_UNAVAILABLE(outputMonitor.getLine(failure)));
+            build.setResult(Result.NOT_BUILT);
+            cleanUp(emuConfig, emu, androidSdk);
+            return null;
+        }
 
         // Sitting on the socket appears to break adb. If you try and do this you always end up with device offline.
         // A much better way is to use report-console to tell us what the port is (and hence when its available). So
@@ -444,13 +595,17 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         else if (!emulatorAlreadyExists || emuConfig.shouldWipeData() || snapshotState == SnapshotState.INITIALISE) {
             bootTimeout *= 2;
         }
-        boolean bootSucceeded = waitForBootCompletion(ignoreProcess, bootTimeout, emuConfig, emu);
+        boolean bootSucceeded = waitForBootCompletion(ignoreProcess, bootTimeout, emuConfig, emu, outputMonitor);
         if (!bootSucceeded) {
             if ((System.currentTimeMillis() - bootTime) < bootTimeout) {
                 log(logger, Messages.EMULATOR_STOPPED_DURING_BOOT());
             } else {
                 log(logger, Messages.BOOT_COMPLETION_TIMED_OUT(bootTimeout / 1000));
             }
+            final String error = outputMonitor.getLine(EmulatorOutputMonitor.Event.ERROR);
+            if (error != null) {
+                log(logger, Messages.EMULATOR_REPORTED_ERROR(error));
+            }
             build.setResult(Result.NOT_BUILT);
             cleanUp(emuConfig, emu, androidSdk);
             return null;
@@ -464,9 +619,21 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         if (workspace == null) {
             throw new BuildNodeUnavailableException();
         }
-        final ArtifactManager artifactManager = build.getArtifactManager();
-        final FilePath logcatFile = workspace.createTextTempFile("logcat_", ".log", "", false);
-        final OutputStream logcatStream = logcatFile.write();
+        final FilePath logcatFile;
+        final LogcatSegmentUploader logcatUploader;
+        final OutputStream logcatOutput;
+        if (logcatSegmentSize > 0) {
+            // Archive the logcat output in segments as the build runs, rather than all at the end
+            logcatFile = null;
+            logcatUploader = new LogcatSegmentUploader(workspace, "logcat_", logcatSegmentSize * 1024L * 1024L,
+                    build.getArtifactManager(), launcher, listener);
+            logcatOutput = logcatUploader;
+        } else {
+            logcatFile = workspace.createTextTempFile("logcat_", ".log", "", false);
+            logcatUploader = null;
+            logcatOutput = logcatFile.write();
+        }
+        final LogcatIndexingOutputStream logcatStream = new LogcatIndexingOutputStream(logcatOutput);
         final SdkCliCommand adbSetLogCatFormatCmd = adbShellCmds.getSetLogCatFormatToTimeCommand(emu.serial());
         final Proc logWriter = emu.getToolProcStarter(adbSetLogCatFormatCmd)
                 .stdout(logcatStream).stderr(new NullStream()).start();
@@ -523,19 +690,46 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                 boolean success = emu.sendCommand("avd snapshot save "+ Constants.SNAPSHOT_NAME, creationTimeout);
                 if (!success) {
                     log(logger, Messages.SNAPSHOT_CREATION_FAILED());
+                } else if (emuConfig.hasVolatileImages()) {
+                    // The snapshot depends on the state of the images, so they must be kept along with it
+                    try {
+                        channel.call(emuConfig.getVolatileImagesCleanupTask(true));
+                    } catch (IOException e) {
+                        log(logger, Messages.VOLATILE_IMAGES_FAILED(e.getMessage()));
+                    }
+                } else if (canUseTemplates) {
+                    // While the emulator is paused, keep the freshly-booted AVD as a template for new AVDs
+                    try {
+                        if (channel.call(emuConfig.getEmulatorTemplateTask(androidSdk, true))) {
+                            log(logger, Messages.AVD_TEMPLATE_CAPTURED(emuConfig.getAvdName()));
+                        }
+                    } catch (IOException e) {
+                        log(logger, Messages.AVD_TEMPLATE_FAILED(e.getMessage()));
+                    }
                 }
 
                 // Restart emulator execution
                 boolean restarted = emu.sendCommand("avd start");
                 if (!restarted) {
                     log(logger, Messages.EMULATOR_RESUME_FAILED());
-                    cleanUp(emuConfig, emu, androidSdk, logWriter, logcatFile, logcatStream, artifactManager, launcher, listener);
+                    cleanUp(emuConfig, emu, androidSdk, logWriter, logcatFile, logcatUploader, logcatStream,
+                            build, launcher, listener);
                 }
             } else {
                 log(logger, Messages.SNAPSHOT_CREATION_FAILED());
             }
         }
 
+        // Record the screen in the background, so that we can see what happened if the build fails
+        if (screenRecordMinutes > 0) {
+            if (emulatorAPILevel > 0 && emulatorAPILevel < 21) {
+                log(logger, Messages.SCREEN_RECORDING_UNSUPPORTED());
+            } else {
+                log(logger, Messages.STARTING_SCREEN_RECORDING(screenRecordMinutes));
+                emu.startScreenRecording(adbShellCmds, Utils.getScreenRecordDirectory(node), screenRecordMinutes);
+            }
+        }
+
         // Done!
         final long bootCompleteTime = System.currentTimeMillis();
         log(logger, Messages.EMULATOR_IS_READY((bootCompleteTime - bootTime) / 1000));
@@ -550,7 +744,9 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                 env.put(Constants.ENV_VAR_ANDROID_AVD_USER_PORT, Integer.toString(emu.userPort()));
                 env.put(Constants.ENV_VAR_ANDROID_AVD_NAME, emuConfig.getAvdName());
                 env.put(Constants.ENV_VAR_ANDROID_ADB_SERVER_PORT, Integer.toString(emu.adbServerPort()));
-                env.put(Constants.ENV_VAR_ANDROID_TMP_LOGCAT_FILE, logcatFile.getRemote());
+                if (logcatFile != null) {
+                    env.put(Constants.ENV_VAR_ANDROID_TMP_LOGCAT_FILE, logcatFile.getRemote());
+                }
                 if (!emuConfig.isNamedEmulator()) {
                     env.put(Constants.ENV_VAR_ANDROID_AVD_OS, emuConfig.getOsVersion().toString());
                     env.put(Constants.ENV_VAR_ANDROID_AVD_DENSITY, emuConfig.getScreenDensity().toString());
@@ -575,33 +771,39 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             @SuppressWarnings("rawtypes")
             public boolean tearDown(AbstractBuild build, BuildListener listener)
                     throws IOException, InterruptedException {
-                cleanUp(emuConfig, emu, androidSdk, logWriter, logcatFile, logcatStream, artifactManager, launcher, listener);
+                cleanUp(emuConfig, emu, androidSdk, logWriter, logcatFile, logcatUploader, logcatStream,
+                        build, launcher, listener);
                 return true;
             }
         };
     }
 
     /* Helper method for writing to the build log in a consistent manner. */
-    public synchronized static void log(final PrintStream logger, final String message) {
+    public static void log(final PrintStream logger, final String message) {
         log(logger, message, false);
     }
 
     /* Helper method for writing to the build log in a consistent manner. */
-    public synchronized static void log(final PrintStream logger, final String message, final Throwable t) {
-        log(logger, message, false);
+    public static void log(final PrintStream logger, final String message, final Throwable t) {
         StringWriter s = new StringWriter();
         t.printStackTrace(new PrintWriter(s));
-        log(logger, s.toString(), false);
+        // Write everything at once, so that output from other threads can't end up in the middle
+        logger.println(format(message, false) + System.lineSeparator() + format(s.toString(), false));
     }
 
     /* Helper method for writing to the build log in a consistent manner. */
-    public synchronized static void log(final PrintStream logger, String message, boolean indent) {
+    public static void log(final PrintStream logger, String message, boolean indent) {
+        // A single println is atomic, so there's no need to synchronise here
+        logger.println(format(message, indent));
+    }
+
+    private static String format(String message, boolean indent) {
         if (indent) {
-            message = '\t' + message.replace("\n", "\n\t");
+            return '\t' + message.replace("\n", "\n\t");
         } else if (message.length() > 0) {
-            logger.print("[android] ");
+            return LOG_PREFIX + message;
         }
-        logger.println(message);
+        return message;
     }
 
     /**
@@ -611,7 +813,7 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
      * @param androidSdk The current android SDK
      */
     private void cleanUp(EmulatorConfig emulatorConfig, AndroidEmulatorContext emu, final AndroidSdk androidSdk) throws IOException, InterruptedException {
-        cleanUp(emulatorConfig, emu, androidSdk, null, null, null, null, null, null);
+        cleanUp(emulatorConfig, emu, androidSdk, null, null, null, null, null, null, null);
     }
 
     /**
@@ -620,21 +822,39 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
      * @param emu The emulator context
      * @param androidSdk The current android SDK
      * @param logcatProcess The adb logcat process.
-     * @param logcatFile The file the logcat output is being written to.
-     * @param logcatStream The stream the logcat output is being written to.
-     * @param artifactManager The artifact manager. Used to archive the logcatFile.
+     * @param logcatFile The file the logcat output is being written to, unless it is being archived in segments.
+     * @param logcatUploader The uploader archiving logcat segments, if the output is not written to logcatFile.
+     * @param logcatStream The stream the logcat output is being written to, which also indexes the tests.
+     * @param build The build whose artifact manager is used to archive the logcatFile.
      * @param launcher a launcher used by artifactManager to archive the logcatFile.
      * @param listener a listener used by artifactManager to archive the logcatFile.
      */
     private void cleanUp(EmulatorConfig emulatorConfig, AndroidEmulatorContext emu, AndroidSdk androidSdk,
-                         @Nullable Proc logcatProcess, @Nullable FilePath logcatFile, @Nullable OutputStream logcatStream,
-                         @Nullable ArtifactManager artifactManager, @Nullable Launcher launcher, @Nullable BuildListener listener)
+                         @Nullable Proc logcatProcess, @Nullable FilePath logcatFile,
+                         @Nullable LogcatSegmentUploader logcatUploader,
+                         @Nullable LogcatIndexingOutputStream logcatStream, @Nullable AbstractBuild<?, ?> build,
+                         @Nullable Launcher launcher, @Nullable BuildListener listener)
            throws IOException, InterruptedException {
 
         // FIXME: Sometimes on Windows neither the emulator.exe nor the adb.exe processes die.
         //        Launcher.kill(EnvVars) does not appear to help either.
         //        This is (a) inconsistent; (b) very annoying.
 
+        // Stop recording the screen; how much is archived depends on the final build result,
+        // which may still be changed by publishers, so the recording is archived once the build completes
+        final ScreenRecorder screenRecorder = emu.stopScreenRecording();
+        if (screenRecorder != null) {
+            if (build != null) {
+                ScreenRecordArchiver.archiveOnCompletion(build, screenRecorder);
+            } else {
+                try {
+                    screenRecorder.discard();
+                } catch (IOException e) {
+                    log(emu.logger(), Messages.SCREEN_RECORDING_FAILED(), e);
+                }
+            }
+        }
+
         // Stop emulator process
         log(emu.logger(), Messages.STOPPING_EMULATOR());
         boolean killed = emu.sendCommand("kill");
@@ -659,18 +879,53 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                     Utils.killProcess(logcatProcess, KILL_PROCESS_TIMEOUT_MS);
                 }
             }
+            // When archiving in segments, this also waits for the final segment to be archived
             try {
                 logcatStream.close();
-            } catch (Exception ignore) {}
+            } catch (Exception e) {
+                if (logcatUploader != null) {
+                    log(emu.logger(), Messages.LOGCAT_SEGMENT_ARCHIVING_FAILED(), e);
+                }
+            }
 
-            // Archive the logs
-            if (logcatFile.length() != 0 && artifactManager != null && launcher != null && listener != null) {
+            // Archive the logs, along with the byte ranges of each test that was run
+            final boolean hasOutput = logcatUploader != null ? logcatUploader.getSegmentCount() > 0
+                    : logcatFile.length() != 0;
+            final FilePath workspace = build == null ? null : build.getWorkspace();
+            if (hasOutput && workspace != null && launcher != null && listener != null) {
                 log(emu.logger(), Messages.ARCHIVING_LOG());
-                final FilePath workspace = logcatFile.getParent();
-                final Map<String, String> artifacts = Collections.singletonMap("logcat.txt", logcatFile.getName());
-                artifactManager.archive(workspace, launcher, listener, artifacts);
+                final Map<String, String> artifacts = new HashMap<>();
+                if (logcatFile != null) {
+                    artifacts.put(LogcatAction.LOGCAT_ARTIFACT, logcatFile.getName());
+                }
+
+                final LogcatIndex index = logcatStream.getIndex();
+                FilePath indexFile = null;
+                if (!index.isEmpty()) {
+                    indexFile = workspace.createTempFile("logcat_", ".index");
+                    try (OutputStream out = indexFile.write()) {
+                        index.write(out);
+                    }
+                    artifacts.put(LogcatAction.INDEX_ARTIFACT, indexFile.getName());
+                }
+
+                if (!artifacts.isEmpty()) {
+                    build.getArtifactManager().archive(workspace, launcher, listener, artifacts);
+                }
+                if (indexFile != null) {
+                    log(emu.logger(), Messages.LOGCAT_TESTS_INDEXED(index.getEntries().size()));
+                    indexFile.delete();
+                }
+                if (logcatUploader != null) {
+                    build.addAction(new LogcatAction(index.getEntries().size(),
+                            logcatSegmentSize * 1024L * 1024L, logcatUploader.getSegmentCount()));
+                } else {
+                    build.addAction(new LogcatAction(index.getEntries().size()));
+                }
+            }
+            if (logcatFile != null) {
+                logcatFile.delete();
             }
-            logcatFile.delete();
         }
 
         final SdkCliCommand killCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk).getAdbKillServerCommand();
@@ -679,6 +934,19 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
 
         emu.cleanUp();
 
+        // Free up the volatile storage used by the emulator images
+        if (emulatorConfig.hasVolatileImages()) {
+            try {
+                VirtualChannel channel = emu.launcher().getChannel();
+                if (channel == null) {
+                    throw new IllegalStateException("Channel is not configured");
+                }
+                channel.call(emulatorConfig.getVolatileImagesCleanupTask(false));
+            } catch (IOException ex) {
+                log(emu.logger(), Messages.VOLATILE_IMAGES_FAILED(ex.getLocalizedMessage()));
+            }
+        }
+
         // Delete the emulator, if required
         if (deleteAfterBuild) {
             try {
@@ -759,11 +1027,12 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
      * @param ignoreProcess Whether to bypass checking that the process is alive (e.g. on Windows).
      * @param timeout How long to keep trying (in milliseconds) before giving up.
      * @param emu The emulator context
+     * @param outputMonitor Monitor of the emulator output, used to check again as soon as boot completion is reported.
      * @return <code>true</code> if the emulator has booted, <code>false</code> if we timed-out.
      */
     @SuppressFBWarnings({"DM_DEFAULT_ENCODING", "ICAST_IDIV_CAST_TO_DOUBLE"})
-    private boolean waitForBootCompletion(final boolean ignoreProcess,
-            final int timeout, EmulatorConfig config, AndroidEmulatorContext emu) {
+    private boolean waitForBootCompletion(final boolean ignoreProcess, final int timeout, EmulatorConfig config,
+            AndroidEmulatorContext emu, EmulatorOutputMonitor outputMonitor) {
         long start = System.currentTimeMillis();
         int sleep = timeout / (int) (Math.sqrt(timeout / 1000) * 2);
 
@@ -779,7 +1048,9 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
 
         try {
             final long adbTimeout = timeout / 8;
-            while (System.currentTimeMillis() < start + timeout && (ignoreProcess || emu.process().isAlive())) {
+            boolean bootReported = false;
+            while (System.currentTimeMillis() < start + timeout && (ignoreProcess || emu.process().isAlive())
+                    && outputMonitor.getFatalEvent() == null) {
                 ByteArrayOutputStream stream = new ByteArrayOutputStream(16);
 
                 // Run "getprop", timing-out in case adb hangs
@@ -794,7 +1065,12 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                     }
                 }
 
-                Thread.sleep(sleep);
+                // Wake up early if the emulator itself reports that it has finished booting
+                if (bootReported) {
+                    Thread.sleep(sleep);
+                } else {
+                    bootReported = outputMonitor.await(EmulatorOutputMonitor.Event.BOOT_COMPLETED, sleep);
+                }
             }
         } catch (InterruptedException ex) {
             log(emu.logger(), Messages.INTERRUPTED_DURING_BOOT_COMPLETION());
@@ -815,6 +1091,36 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         this.adbTimeout = adbTimeout;
     }
 
+    public int getLogcatSegmentSize() {
+        return logcatSegmentSize;
+    }
+
+    /** @param logcatSegmentSize Size in MiB of the logcat segments to archive during the build, or zero to archive at the end. */
+    @DataBoundSetter
+    public void setLogcatSegmentSize(int logcatSegmentSize) {
+        this.logcatSegmentSize = Math.max(0, logcatSegmentSize);
+    }
+
+    public int getScreenRecordMinutes() {
+        return screenRecordMinutes;
+    }
+
+    /** @param screenRecordMinutes Minutes of screen recording to keep, or zero to disable recording; all of it is kept if the build fails. */
+    @DataBoundSetter
+    public void setScreenRecordMinutes(int screenRecordMinutes) {
+        this.screenRecordMinutes = Math.max(0, screenRecordMinutes);
+    }
+
+    public boolean getPrefetchSystemImage() {
+        return prefetchSystemImage;
+    }
+
+    /** @param prefetchSystemImage Whether to read the system image into the page cache before starting the emulator. */
+    @DataBoundSetter
+    public void setPrefetchSystemImage(boolean prefetchSystemImage) {
+        this.prefetchSystemImage = prefetchSystemImage;
+    }
+
     /**
      * Migrate old data.
      *
@@ -849,6 +1155,30 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         /** Whether the emulators should be kept in the workspace. */
         public boolean shouldKeepInWorkspace = false;
 
+        /**
+         * Location of the cache of SDK package archives shared between build machines: a directory,
+         * or a <tt>file:</tt> or <tt>http(s):</tt> URL.  If <code>null</code>, no cache is used.
+         */
+        public String sdkArchiveCache;
+
+        /**
+         * Directory of pre-fetched SDK packages to install from, instead of the official repository,
+         * or <code>null</code> to use the official repository.
+         */
+        public String sdkOfflineRepository;
+
+        /** Whether the SDK should only be verified against the offline repository, rather than installed. */
+        public boolean sdkOfflineVerifyOnly = false;
+
+        /** Hours for which downloaded SDK repository manifests are reused; zero to always download them. */
+        public int sdkManifestCacheHours = (int) ManifestCache.DEFAULT_TTL_HOURS;
+
+        /** Total size, in GB, above which unused AVDs and system images are deleted; zero for no limit. */
+        public int avdDiskQuotaGb = 0;
+
+        /** Free disk space, in GB, below which unused AVDs and system images are deleted; zero for no limit. */
+        public int minFreeDiskSpaceGb = 0;
+
         public DescriptorImpl() {
             super(AndroidEmulator.class);
             load();
@@ -864,6 +1194,13 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             androidHome = json.optString("androidHome");
             shouldInstallSdk = json.optBoolean("shouldInstallSdk", true);
             shouldKeepInWorkspace = json.optBoolean("shouldKeepInWorkspace", false);
+            sdkArchiveCache = Util.fixEmptyAndTrim(json.optString("sdkArchiveCache"));
+            sdkOfflineRepository = Util.fixEmptyAndTrim(json.optString("sdkOfflineRepository"));
+            sdkOfflineVerifyOnly = json.optBoolean("sdkOfflineVerifyOnly", false);
+            sdkManifestCacheHours = Math.max(0, json.optInt("sdkManifestCacheHours",
+                    (int) ManifestCache.DEFAULT_TTL_HOURS));
+            avdDiskQuotaGb = Math.max(0, json.optInt("avdDiskQuotaGb", 0));
+            minFreeDiskSpaceGb = Math.max(0, json.optInt("minFreeDiskSpaceGb", 0));
             save();
             return true;
         }
@@ -886,6 +1223,9 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             int startupDelay = 0;
             int startupTimeout = 0;
             int adbTimeout = ADB_CONNECT_TIMEOUT;
+            int logcatSegmentSize = 0;
+            int screenRecordMinutes = 0;
+            boolean prefetchSystemImage = false;
             String commandLineOptions = null;
             String executable = null;
             String avdNameSuffix = null;
@@ -909,6 +1249,7 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             showWindow = formData.getBoolean("showWindow");
             useSnapshots = formData.getBoolean("useSnapshots");
             deleteAfterBuild = formData.getBoolean("deleteAfterBuild");
+            prefetchSystemImage = formData.optBoolean("prefetchSystemImage");
             commandLineOptions = formData.getString("commandLineOptions");
             executable = formData.getString("executable");
 
@@ -921,12 +1262,21 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             try {
                 adbTimeout = Integer.parseInt(formData.getString("adbTimeout"));
             } catch (NumberFormatException e) {}
+            try {
+                logcatSegmentSize = Integer.parseInt(formData.optString("logcatSegmentSize"));
+            } catch (NumberFormatException e) {}
+            try {
+                screenRecordMinutes = Integer.parseInt(formData.optString("screenRecordMinutes"));
+            } catch (NumberFormatException e) {}
 
             AndroidEmulator androidEmulator = new AndroidEmulator(avdName, osVersion, screenDensity, screenResolution,
                     deviceLocale, sdCardSize, hardware.toArray(new HardwareProperty[0]), wipeData,
                     showWindow, useSnapshots, deleteAfterBuild, startupDelay, startupTimeout, commandLineOptions,
                     targetAbi, deviceDefinition, executable, avdNameSuffix);
             androidEmulator.setAdbTimeout(adbTimeout);
+            androidEmulator.setLogcatSegmentSize(logcatSegmentSize);
+            androidEmulator.setScreenRecordMinutes(screenRecordMinutes);
+            androidEmulator.setPrefetchSystemImage(prefetchSystemImage);
             return androidEmulator;
         }
 
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import hudson.EnvVars;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
 import hudson.Proc;
@@ -13,7 +14,9 @@ import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.TaskListener;
+import hudson.plugins.android_emulator.screenrecord.ScreenRecorder;
 import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.plugins.android_emulator.sdk.cli.AdbShellCommands;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
 import hudson.plugins.android_emulator.util.Utils;
 import hudson.util.ArgumentListBuilder;
@@ -28,6 +31,8 @@ public class AndroidEmulatorContext {
 
 	private PortAllocationManager portAllocator;
 	private Proc emulatorProcess;
+	private EmulatorLogForwarder outputForwarder;
+	private ScreenRecorder screenRecorder;
 
 	private AndroidSdk sdk;
 
@@ -90,6 +95,15 @@ public class AndroidEmulatorContext {
     }
 
     public void cleanUp() {
+        // Write out whatever emulator output is still pending
+        if (outputForwarder != null) {
+            try {
+                outputForwarder.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         // Free up the TCP ports that we reserved
         portAllocator.free(adbPort);
         portAllocator.free(userPort);
@@ -131,6 +145,38 @@ public class AndroidEmulatorContext {
 	public void setProcess(Proc process) {
 		emulatorProcess = process;
 	}
+	void setOutputForwarder(EmulatorLogForwarder forwarder) {
+		outputForwarder = forwarder;
+	}
+
+	/**
+	 * Starts recording the emulator screen in the background, keeping only the most recent footage.
+	 *
+	 * @param adbShellCmds The adb commands for the emulator's API level.
+	 * @param recordingRoot Directory in which to store the recording, outside of the workspace.
+	 * @param keepMinutes How many minutes of footage to keep.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void startScreenRecording(AdbShellCommands adbShellCmds, FilePath recordingRoot, int keepMinutes)
+			throws IOException, InterruptedException {
+		screenRecorder = ScreenRecorder.start(this, adbShellCmds, recordingRoot, keepMinutes);
+	}
+
+	/**
+	 * Stops the screen recording, if one was started.
+	 *
+	 * @return The stopped recorder, from which the recording can be retrieved, or {@code null}.
+	 */
+	public ScreenRecorder stopScreenRecording() {
+		final ScreenRecorder recorder = screenRecorder;
+		screenRecorder = null;
+		if (recorder != null) {
+			recorder.stop();
+		}
+		return recorder;
+	}
 
 	/**
 	 * Sets up a standard {@link ProcStarter} for the current context. 
@@ -144,6 +190,24 @@ public class AndroidEmulatorContext {
 	 */
 	public ProcStarter getProcStarter(final ArgumentListBuilder command, final EnvVars env)
 			throws IOException, InterruptedException {
+		final ProcStarter procStarter = launcher.launch().stdout(new NullStream()).stderr(logger());
+		procStarter.envs(getEnvironment(env));
+		if (command != null) {
+			procStarter.cmds(command);
+		}
+		return procStarter;
+	}
+
+	/**
+	 * Determines the environment in which tools should be run for the current context.
+	 *
+	 * @param env Additional environment variables to set
+	 * @return The build environment, plus the variables required by the SDK tools
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public EnvVars getEnvironment(final EnvVars env) throws IOException, InterruptedException {
 		final EnvVars buildEnvironment = build.getEnvironment(TaskListener.NULL);
 		buildEnvironment.put(Constants.ENV_VAR_ANDROID_ADB_SERVER_PORT, Integer.toString(adbServerPort));
         if (sdk.hasKnownRoot()) {
@@ -161,13 +225,7 @@ public class AndroidEmulatorContext {
 		if (env != null) {
 			buildEnvironment.putAll(env);
 		}
-
-		final ProcStarter procStarter = launcher.launch().stdout(new NullStream()).stderr(logger());
-		procStarter.envs(buildEnvironment);
-		if (command != null) {
-			procStarter.cmds(command);
-		}
-		return procStarter;
+		return buildEnvironment;
 	}
 
 	/**
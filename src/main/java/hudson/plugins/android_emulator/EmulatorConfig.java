@@ -7,14 +7,24 @@ import hudson.Util;
 import hudson.model.BuildListener;
 import hudson.model.TaskListener;
 import hudson.plugins.android_emulator.AndroidEmulator.HardwareProperty;
+import hudson.plugins.android_emulator.cleanup.LruEvictor;
 import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.Tool;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
-import hudson.plugins.android_emulator.util.ConfigFileUtils;
-import hudson.plugins.android_emulator.util.StdoutReader;
+import hudson.plugins.android_emulator.util.AvdFingerprint;
+import hudson.plugins.android_emulator.util.AvdTemplateStore;
+import hudson.plugins.android_emulator.util.AvdWriter;
+import hudson.plugins.android_emulator.util.ConfigFileEditor;
+import hudson.plugins.android_emulator.util.FileLinker;
+import hudson.plugins.android_emulator.util.ProcessInteraction;
+import hudson.plugins.android_emulator.util.SdCardImage;
+import hudson.plugins.android_emulator.util.SystemImagePrefetcher;
+import hudson.plugins.android_emulator.util.UserDataReset;
 import hudson.plugins.android_emulator.util.Utils;
+import hudson.plugins.android_emulator.util.VolatileImages;
 import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
 
 import static hudson.plugins.android_emulator.AndroidEmulator.log;
@@ -22,10 +32,14 @@ import static hudson.plugins.android_emulator.AndroidEmulator.log;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import jenkins.security.MasterToSlaveCallable;
 
@@ -46,12 +60,15 @@ class EmulatorConfig implements Serializable {
     private String targetAbi;
     private String deviceDefinition;
     private boolean wipeData;
+    private boolean dataReset;
     private final boolean showWindow;
     private final boolean useSnapshots;
     private final String commandLineOptions;
     private final String androidSdkHome;
     private final String executable;
     private final String avdNameSuffix;
+    private String volatileStorageRoot;
+    private Map<String, String> volatileImages;
 
     private EmulatorConfig(String avdName, boolean wipeData, boolean showWindow,
             boolean useSnapshots, String commandLineOptions, String androidSdkHome, String executable, String
@@ -223,6 +240,26 @@ class EmulatorConfig implements Serializable {
         return wipeData;
     }
 
+    /** Records that the AVD's user data has already been reset, so the emulator needn't wipe it. */
+    public void setDataReset() {
+        dataReset = true;
+    }
+
+    /**
+     * Records that the AVD's volatile images have been placed in volatile storage.
+     *
+     * @param root The volatile storage directory configured for the machine.
+     * @param images Emulator options, mapped to the path of the image each should refer to.
+     */
+    public void setVolatileImages(String root, Map<String, String> images) {
+        volatileStorageRoot = root;
+        volatileImages = new TreeMap<>(images);
+    }
+
+    public boolean hasVolatileImages() {
+        return volatileImages != null;
+    }
+
     public boolean shouldShowWindow() {
         return showWindow;
     }
@@ -274,6 +311,72 @@ class EmulatorConfig implements Serializable {
         return new EmulatorAuthFileTask();
     }
 
+    /**
+     * Gets a task that records that the AVD, and its system image, are being used.
+     *
+     * @param androidSdk The SDK containing the AVD's system image.
+     * @return A Callable that will mark the AVD as recently used.
+     */
+    public Callable<Void, IOException> getEmulatorUsageTask(AndroidSdk androidSdk) {
+        return new EmulatorUsageTask(androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : null);
+    }
+
+    /**
+     * Gets a task that captures the AVD as a template, or restores a newly-created AVD from one.
+     *
+     * @param androidSdk The SDK with which the AVD is run.
+     * @param capture {@code true} to capture the (paused) AVD; {@code false} to restore it.
+     * @return A Callable that returns whether the template was captured or restored.
+     */
+    public Callable<Boolean, IOException> getEmulatorTemplateTask(AndroidSdk androidSdk, boolean capture) {
+        return new EmulatorTemplateTask(androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : null, capture);
+    }
+
+    /**
+     * Gets a task that reads the AVD's system image files into the page cache.
+     *
+     * @param androidSdk The SDK containing the AVD's system image.
+     * @return A Callable that returns the amount of data prefetched, or {@code null} if the system
+     *         image could not be found.
+     */
+    public Callable<SystemImagePrefetcher.Result, IOException> getSystemImagePrefetchTask(AndroidSdk androidSdk) {
+        return new SystemImagePrefetchTask(androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : null);
+    }
+
+    /**
+     * Gets a task that resets the AVD's user data from its system image, instead of the emulator
+     * wiping it on startup.
+     *
+     * @param androidSdk The SDK containing the AVD's system image.
+     * @return A Callable that returns whether the data was reset.
+     */
+    public Callable<Boolean, IOException> getEmulatorDataResetTask(AndroidSdk androidSdk) {
+        return new EmulatorDataResetTask(androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : null);
+    }
+
+    /**
+     * Gets a task that copies the AVD's volatile images into volatile storage, if there's enough space.
+     *
+     * @param root The volatile storage directory configured for the machine.
+     * @param requiredBytes Space which the images can take up.
+     * @return A Callable that returns the emulator options which refer to the copied images, or
+     *         {@code null} if there's not enough space.
+     */
+    public Callable<Map<String, String>, IOException> getVolatileImagesPreparationTask(String root,
+                                                                                       long requiredBytes) {
+        return new VolatileImagesPreparationTask(root, requiredBytes);
+    }
+
+    /**
+     * Gets a task that copies the AVD's volatile images back into the AVD, or deletes them.
+     *
+     * @param persist {@code true} to copy the images into the (paused) AVD; {@code false} to delete them.
+     * @return A Callable that will persist or delete the images.
+     */
+    public Callable<Void, IOException> getVolatileImagesCleanupTask(boolean persist) {
+        return new VolatileImagesCleanupTask(persist);
+    }
+
     /**
      * Gets a task that deletes the AVD corresponding to this instance's configuration.
      *
@@ -302,31 +405,37 @@ class EmulatorConfig implements Serializable {
         return new File(getAvdDirectory(homeDir), "config.ini");
     }
 
-    private Map<String,String> parseAvdConfigFile(File homeDir) throws IOException {
-        File configFile = getAvdConfigFile(homeDir);
-        return ConfigFileUtils.parseConfigFile(configFile);
-    }
-
-    private void writeAvdConfigFile(File homeDir, Map<String,String> values) throws IOException {
-        final File configFile = getAvdConfigFile(homeDir);
-        ConfigFileUtils.writeConfigFile(configFile, values);
+    /**
+     * Deletes the AVD directory and its metadata file.
+     *
+     * @param homeDir AVD home directory.
+     * @param logger Logs things.
+     */
+    private void deleteAvd(File homeDir, PrintStream logger) throws IOException, InterruptedException {
+        // Recursively delete the contents
+        new FilePath(getAvdDirectory(homeDir)).deleteRecursive();
+
+        // Delete the metadata file
+        final File avdMetaDataFile = new File(getAvdHome(homeDir), getAvdName() + ".ini");
+        if (!avdMetaDataFile.delete()) {
+            log(logger, Messages.FAILED_TO_DELETE_FILE(avdMetaDataFile.getAbsolutePath()));
+        }
     }
 
     /**
-     * Sets or overwrites a key-value pair in the AVD config file.
+     * Sets or overwrites key-value pairs in the AVD config file, writing it once.
      *
      * @param homeDir AVD home directory.
-     * @param key Key to set.
-     * @param value Value to set.
+     * @param values Key-value pairs to set.
      * @throws EmulatorCreationException If reading or writing the file failed.
      */
-    private void setAvdConfigValue(File homeDir, String key, String value)
+    private void setAvdConfigValues(File homeDir, Map<String, String> values)
             throws EmulatorCreationException {
-        Map<String, String> configValues;
+        if (values.isEmpty()) {
+            return;
+        }
         try {
-            configValues = parseAvdConfigFile(homeDir);
-            configValues.put(key, value);
-            writeAvdConfigFile(homeDir, configValues);
+            ConfigFileEditor.open(getAvdConfigFile(homeDir)).setAll(values).commit();
         } catch (IOException e) {
             throw new EmulatorCreationException(Messages.AVD_CONFIG_NOT_READABLE(), e);
         }
@@ -374,19 +483,31 @@ class EmulatorConfig implements Serializable {
         sb.append(" -avd ");
         sb.append(getAvdName());
 
+        // Use the copies of the images in volatile storage, if any
+        if (volatileImages != null) {
+            for (Map.Entry<String, String> image : volatileImages.entrySet()) {
+                sb.append(String.format(" %s %s", image.getKey(), image.getValue()));
+            }
+        }
+
         // Snapshots
         if (snapshotState == SnapshotState.BOOT) {
             // For builds after initial snapshot setup, start directly from the "jenkins" snapshot
             sb.append(" -snapshot "+ Constants.SNAPSHOT_NAME);
             sb.append(" -no-snapshot-save");
-        } else if (androidSdk.supportsSnapshots()) {
-            // For the first boot, or snapshot-free builds, do not load any snapshots that may exist
+        } else if (snapshotState == SnapshotState.INITIALISE
+                || (androidSdk.supportsSnapshots() && !androidSdk.supportsQuickBootSnapshots())) {
+            // For the first boot, or snapshot-free builds, do not load any snapshots that may exist;
+            // with Quick Boot, snapshot-free builds keep the emulator's default behaviour
             sb.append(" -no-snapshot-load");
             sb.append(" -no-snapshot-save");
+        } else if (shouldWipeData() || dataReset) {
+            // Otherwise Quick Boot would load its default snapshot, whose state predates the wiped data
+            sb.append(" -no-snapshot-load");
         }
 
         // Options
-        if (shouldWipeData()) {
+        if (shouldWipeData() && !dataReset) {
             sb.append(" -wipe-data");
         }
         if (!shouldShowWindow()) {
@@ -409,6 +530,16 @@ class EmulatorConfig implements Serializable {
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     public boolean hasExistingSnapshot(Launcher launcher, AndroidSdk androidSdk)
             throws IOException, InterruptedException {
+        // Quick Boot snapshots are stored in the AVD directory, so we can check for one directly,
+        // rather than having to start the emulator to list them
+        if (androidSdk.supportsQuickBootSnapshots()) {
+            final VirtualChannel channel = launcher.getChannel();
+            if (channel == null) {
+                throw new IllegalStateException("Channel is not configured");
+            }
+            return channel.call(new QuickBootSnapshotTask());
+        }
+
         final PrintStream logger = launcher.getListener().getLogger();
 
         // List available snapshots for this emulator
@@ -433,6 +564,12 @@ class EmulatorConfig implements Serializable {
     private final class EmulatorCreationTask extends MasterToSlaveCallable<Boolean, AndroidEmulatorException> {
 
         private static final long serialVersionUID = 1L;
+
+        /** How long AVD creation may produce no output before we assume it's waiting for input. */
+        private static final long AVD_CREATION_IDLE_TIMEOUT_MS = 5000;
+
+        /** Directory within the AVD home in which pristine SD card images are kept, for cloning. */
+        private static final String SD_CARD_CACHE_DIR = ".jenkins-sdcards";
         private final AndroidSdk androidSdk;
 
         private final TaskListener listener;
@@ -450,13 +587,21 @@ class EmulatorConfig implements Serializable {
 
             final File homeDir = Utils.getAndroidSdkHomeDirectory(androidSdk.getSdkHome());
             final File avdDirectory = getAvdDirectory(homeDir);
-            final boolean emulatorExists = getAvdConfigFile(homeDir).exists();
+            boolean emulatorExists = getAvdConfigFile(homeDir).exists();
 
             // Can't do anything if a named emulator doesn't exist
             if (isNamedEmulator() && !emulatorExists) {
                 throw new EmulatorDiscoveryException(Messages.AVD_DOES_NOT_EXIST(avdName, avdDirectory));
             }
 
+            // Check whether an existing generated AVD still matches what's required, patching or
+            // deleting it if not; named AVDs are managed by the user, so are left alone, and without
+            // the SDK we can't tell which system image revision is installed
+            final AvdFingerprint fingerprint = isNamedEmulator() ? null : getFingerprint();
+            if (emulatorExists && fingerprint != null && androidSdk.hasKnownRoot()) {
+                emulatorExists = checkFingerprint(homeDir, fingerprint);
+            }
+
             // Check whether AVD needs to be created
             boolean createSdCard = false;
             boolean createSnapshot = false;
@@ -466,8 +611,9 @@ class EmulatorConfig implements Serializable {
                 File sdCardFile = new File(avdDirectory, "sdcard.img");
                 boolean sdCardRequired = getSdCardSize() != null;
 
-                // Check if anything needs to be done for snapshot-enabled builds
-                if (shouldUseSnapshots() && androidSdk.supportsSnapshots()) {
+                // Check if anything needs to be done for snapshot-enabled builds; Quick Boot
+                // snapshots need no setup, and depend on the state of the existing SD card
+                if (shouldUseSnapshots() && androidSdk.requiresSnapshotImage()) {
                     if (!snapshotsFile.exists()) {
                         createSnapshot = true;
                     }
@@ -502,25 +648,35 @@ class EmulatorConfig implements Serializable {
                 throw new EmulatorCreationException(Messages.SDK_NOT_FOUND(androidSdk.getSdkRoot()));
             }
 
+            // Collect any config changes for an existing emulator, so the config is only written once
+            final Map<String, String> configValues = new LinkedHashMap<>();
+
             // If we need to initialise snapshot support for an existing emulator, do so
             if (createSnapshot) {
-                // Copy the snapshots file into place
+                // Clone the snapshots file into place; it will be written to, so mustn't be hard-linked
                 File snapshotDir = new File(sdkRoot, "tools/lib/emulator");
-                Util.copyFile(new File(snapshotDir, "snapshots.img"), snapshotsFile);
+                try {
+                    FileLinker.cloneFile(new File(snapshotDir, "snapshots.img"), snapshotsFile);
+                } catch (IOException e) {
+                    throw new EmulatorCreationException(Messages.AVD_CREATION_FAILED(), e);
+                }
 
-                // Update the AVD config file mark snapshots as enabled
-                setAvdConfigValue(homeDir, "snapshot.present", "true");
+                // Mark snapshots as enabled
+                configValues.put("snapshot.present", "true");
             }
 
             // If we need create an SD card for an existing emulator, do so
-            if (createSdCard) {
-                AndroidEmulator.log(logger, Messages.ADDING_SD_CARD(sdCardSize, getAvdName()));
-                if (!createSdCard(homeDir)) {
-                    throw new EmulatorCreationException(Messages.SD_CARD_CREATION_FAILED());
+            try {
+                if (createSdCard) {
+                    AndroidEmulator.log(logger, Messages.ADDING_SD_CARD(sdCardSize, getAvdName()));
+                    if (!createSdCard(homeDir)) {
+                        throw new EmulatorCreationException(Messages.SD_CARD_CREATION_FAILED());
+                    }
+                    configValues.put("sdcard.size", sdCardSize);
                 }
-
-                // Update the AVD config file
-                setAvdConfigValue(homeDir, "sdcard.size", sdCardSize);
+            } finally {
+                // Update the AVD config file, including any changes made before a failure
+                setAvdConfigValues(homeDir, configValues);
             }
 
             // Return if everything is now ready for use
@@ -529,10 +685,21 @@ class EmulatorConfig implements Serializable {
             }
 
             final SdkCliCommand sdkCreateAvdCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk)
-                    .getCreatedAvdCommand(getAvdName(), androidSdk.supportsSnapshots(),
+                    .getCreatedAvdCommand(getAvdName(), androidSdk.requiresSnapshotImage(),
                             sdCardSize, screenResolution.getSkinName(), deviceDefinition,
                             osVersion.getAndroidTargetName(), osVersion.getPackagePathOfSystemImage(targetAbi),
                             osVersion.getTagFromAbiString(targetAbi));
+
+            // Where we have everything avdmanager would use, write the AVD ourselves, which is much quicker
+            final AvdWriter avdWriter = new AvdWriter(getAvdHome(homeDir), sdkRoot);
+            if (Tool.AVDMANAGER.equals(sdkCreateAvdCmd.getTool()) && Util.fixEmpty(deviceDefinition) == null
+                    && Util.fixEmpty(targetAbi) != null && osVersion.requiresAbi()
+                    && avdWriter.canWrite(osVersion.getPackagePathOfSystemImage(targetAbi))) {
+                writeAvd(avdWriter, homeDir, sdkRoot);
+                writeFingerprint(avdDirectory, fingerprint, null);
+                return false;
+            }
+
             boolean isUnix = !Functions.isWindows();
             ArgumentListBuilder builder = Utils.getToolCommand(androidSdk, isUnix, sdkCreateAvdCmd);
 
@@ -575,54 +742,37 @@ class EmulatorConfig implements Serializable {
                 throw new EmulatorCreationException(Messages.AVD_CREATION_FAILED());
             }
 
-            final OutputStream procstdin = process.getOutputStream();
-            final StdoutReader procstdout = StdoutReader.createAndRunAsyncReader(process.getInputStream());
-
-            // Command may prompt us whether we want to further customise the AVD.
-            // Just "press" Enter to continue with the selected target's defaults.
-            try {
-                int waitCnt = 0;
-                while (Utils.isProcessAlive(process)) {
-                    final String line = procstdout.readLine();
-                    if (line != null && !line.isEmpty()) {
+            // Command may prompt us whether we want to further customise the AVD; answer as soon
+            // as the prompt appears, so that we continue with the selected target's defaults
+            final ProcessInteraction interaction = new ProcessInteraction(process.getInputStream(), process.getOutputStream())
+                    .respond("custom hardware", "no")
+                    .onLine(line -> {
                         AndroidEmulator.log(logger, line, true);
-
-                        if (line.contains("custom hardware")) {
-                            procstdin.write("no\r\n".getBytes());
-                            procstdin.flush();
-                        } else if (line.contains("list targets")) {
+                        if (line.contains("list targets")) {
                             AndroidEmulator.log(logger, Messages.INVALID_AVD_TARGET(osVersion.getTargetName()));
                         } else if (line.contains("more than one ABI")) {
                             AndroidEmulator.log(logger, Messages.MORE_THAN_ONE_ABI(osVersion.getTargetName()), true);
                         }
-                    } else {
-                        // Write CRLF, if required
-                        if (waitCnt++ > 5) {
-                            waitCnt = 0;
-
-                            AndroidEmulator.log(logger, "> Process took a while, may wait for input.", true);
-                            AndroidEmulator.log(logger, "> <SENDING ENTER>", true);
-
-                            try {
-                                procstdin.write("\r\n".getBytes());
-                                procstdin.flush();
-                            } catch (IOException ioex) {
-                                AndroidEmulator.log(logger, "> " + ioex.getMessage(), true);
-                            }
-                        }
+                    })
+                    .start();
 
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException ex) {
-                        }
+            try {
+                // In case of any other prompt, "press" Enter if the process goes quiet for a while
+                while (!interaction.awaitCompletion(AVD_CREATION_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if (interaction.getIdleMillis() < AVD_CREATION_IDLE_TIMEOUT_MS) {
+                        continue;
+                    }
+                    AndroidEmulator.log(logger, "> Process took a while, may wait for input.", true);
+                    AndroidEmulator.log(logger, "> <SENDING ENTER>", true);
+                    try {
+                        interaction.send("");
+                    } catch (IOException ioex) {
+                        AndroidEmulator.log(logger, "> " + ioex.getMessage(), true);
                     }
                 }
 
                 // Wait for happy ending
                 process.waitFor();
-            } catch (IOException e) {
-                AndroidEmulator.log(logger, ExceptionUtils.getFullStackTrace(e), true);
-                throw new EmulatorCreationException(Messages.AVD_CREATION_ABORTED(), e);
             } catch (InterruptedException e) {
                 AndroidEmulator.log(logger, ExceptionUtils.getFullStackTrace(e), true);
                 throw new EmulatorCreationException(Messages.AVD_CREATION_INTERRUPTED(), e);
@@ -630,16 +780,12 @@ class EmulatorConfig implements Serializable {
                 process.destroy();
             }
 
-            // print the rest of stdout (for debugging purposes)
-            final String output = procstdout.readContent();
-            if (output != null && !output.isEmpty()) {
-                    AndroidEmulator.log(logger, output, true);
-            }
-
             // Do a sanity check to ensure the AVD was really created
             if (getAvdConfigFile(homeDir).exists()) {
                 // Set the screen density
-                setAvdConfigValue(homeDir, "hw.lcd.density", String.valueOf(getScreenDensity().getDpi()));
+                setAvdConfigValues(homeDir, Collections.singletonMap(
+                        "hw.lcd.density", String.valueOf(getScreenDensity().getDpi())));
+                writeFingerprint(avdDirectory, fingerprint, null);
             } else {
                 AndroidEmulator.log(logger, Messages.AVD_CREATION_FAILED());
                 throw new EmulatorCreationException(Messages.AVD_CREATION_FAILED());
@@ -649,8 +795,171 @@ class EmulatorConfig implements Serializable {
             return false;
         }
 
+        /**
+         * Creates the AVD by writing its config files directly, setting the screen density, skin
+         * and SD card, rather than via avdmanager.
+         */
+        private void writeAvd(AvdWriter avdWriter, File homeDir, File sdkRoot) throws AndroidEmulatorException {
+            final Map<String, String> properties = new LinkedHashMap<>();
+            properties.put("hw.lcd.density", String.valueOf(getScreenDensity().getDpi()));
+            properties.put("hw.lcd.width", String.valueOf(screenResolution.getWidth()));
+            properties.put("hw.lcd.height", String.valueOf(screenResolution.getHeight()));
+
+            // Use the named skin, if the SDK has it; otherwise the emulator just uses the screen size
+            final String skinName = screenResolution.getSkinName();
+            final File skinDir = findSkin(sdkRoot, skinName);
+            properties.put("skin.name", skinName);
+            properties.put("skin.path", skinDir != null ? skinDir.getAbsolutePath() : "_no_skin");
+            if (skinDir == null) {
+                properties.put("skin.dynamic", "yes");
+            }
+            if (sdCardSize != null) {
+                properties.put("sdcard.size", sdCardSize);
+            }
+
+            // Initialise snapshot support, regardless of whether we will actually use it
+            final File snapshotTemplate = new File(sdkRoot, "tools/lib/emulator/snapshots.img");
+            final boolean addSnapshots = androidSdk.requiresSnapshotImage() && snapshotTemplate.isFile();
+            if (addSnapshots) {
+                properties.put("snapshot.present", "true");
+            }
+
+            final File avdDirectory;
+            try {
+                avdDirectory = avdWriter.write(getAvdName(), osVersion.getAndroidTargetName(),
+                        osVersion.getPackagePathOfSystemImage(targetAbi), properties);
+                if (addSnapshots) {
+                    FileLinker.cloneFile(snapshotTemplate, new File(avdDirectory, "snapshots.img"));
+                }
+            } catch (IOException e) {
+                AndroidEmulator.log(logger, Messages.AVD_CREATION_FAILED());
+                throw new EmulatorCreationException(Messages.AVD_CREATION_FAILED(), e);
+            }
+
+            if (sdCardSize != null) {
+                AndroidEmulator.log(logger, Messages.ADDING_SD_CARD(sdCardSize, getAvdName()));
+                if (!createSdCard(homeDir)) {
+                    throw new EmulatorCreationException(Messages.SD_CARD_CREATION_FAILED());
+                }
+            }
+        }
+
+        /** @return The inputs from which this AVD is created. */
+        private AvdFingerprint getFingerprint() {
+            final File sdkRoot = androidSdk.hasKnownRoot() ? new File(androidSdk.getSdkRoot()) : null;
+            final String systemImage = targetAbi != null || !osVersion.requiresAbi()
+                    ? osVersion.getPackagePathOfSystemImage(targetAbi) : null;
+            return new AvdFingerprint()
+                    .put(AvdFingerprint.TARGET, osVersion.getAndroidTargetName())
+                    .put(AvdFingerprint.SYSTEM_IMAGE, systemImage)
+                    .put(AvdFingerprint.SYSTEM_IMAGE_REVISION, AvdFingerprint.getPackageRevision(sdkRoot, systemImage))
+                    .put(AvdFingerprint.DEVICE, Util.fixEmpty(deviceDefinition))
+                    .put(AvdFingerprint.SKIN, screenResolution.getSkinName())
+                    .put(AvdFingerprint.DENSITY, String.valueOf(screenDensity.getDpi()))
+                    .put(AvdFingerprint.SD_CARD, sdCardSize);
+        }
+
+        /**
+         * Compares the existing AVD with the required fingerprint, updating the AVD in place where
+         * possible, or deleting it if it must be rebuilt.
+         *
+         * @return {@code true} if the AVD can be used, or {@code false} if it was deleted.
+         */
+        private boolean checkFingerprint(File homeDir, AvdFingerprint required) throws EmulatorCreationException {
+            final File avdDirectory = getAvdDirectory(homeDir);
+            final AvdFingerprint existing = AvdFingerprint.read(avdDirectory);
+            if (existing == null) {
+                // Created before fingerprints were recorded, or by hand; trust it, as we always have
+                writeFingerprint(avdDirectory, required, null);
+                return true;
+            }
+
+            final Set<String> changed = existing.getChangedInputs(required);
+            if (changed.isEmpty()) {
+                return true;
+            }
+            if (AvdFingerprint.requiresRebuild(changed)) {
+                // Never delete an AVD while an emulator is running it, e.g. for a concurrent build
+                final String[] locks = avdDirectory.list((dir, name) -> name.endsWith(".lock"));
+                if (locks != null && locks.length != 0) {
+                    AndroidEmulator.log(logger, Messages.AVD_FINGERPRINT_IN_USE(getAvdName(), changed));
+                    return true;
+                }
+                AndroidEmulator.log(logger, Messages.AVD_FINGERPRINT_REBUILD(getAvdName(), changed));
+                try {
+                    deleteAvd(homeDir, logger);
+                } catch (IOException | InterruptedException e) {
+                    throw new EmulatorCreationException(Messages.AVD_CREATION_FAILED(), e);
+                }
+                return false;
+            }
+
+            AndroidEmulator.log(logger, Messages.AVD_FINGERPRINT_PATCH(getAvdName(), changed));
+            try {
+                final ConfigFileEditor config = ConfigFileEditor.open(getAvdConfigFile(homeDir));
+                if (changed.contains(AvdFingerprint.DENSITY)) {
+                    config.set("hw.lcd.density", String.valueOf(screenDensity.getDpi()));
+                }
+                if (changed.contains(AvdFingerprint.SD_CARD)) {
+                    // Remove the SD card; it'll be recreated with the new size, if one is still required
+                    final File sdCardFile = new File(avdDirectory, "sdcard.img");
+                    if (sdCardFile.exists() && !sdCardFile.delete()) {
+                        log(logger, Messages.FAILED_TO_DELETE_FILE(sdCardFile.getAbsolutePath()));
+                    }
+                    config.remove("sdcard.size");
+                }
+                config.commit();
+            } catch (IOException e) {
+                throw new EmulatorCreationException(Messages.AVD_CONFIG_NOT_WRITEABLE(), e);
+            }
+            writeFingerprint(avdDirectory, required, existing);
+            return true;
+        }
+
+        /**
+         * Stores the fingerprint in the AVD; failure isn't fatal, as the AVD is still usable.
+         *
+         * @param existing The previous fingerprint, whose hardware properties should be kept; may be {@code null}.
+         */
+        private void writeFingerprint(File avdDirectory, AvdFingerprint fingerprint, AvdFingerprint existing) {
+            if (existing != null) {
+                fingerprint.setHardwareProperties(existing.getHardwareProperties());
+            }
+            try {
+                fingerprint.write(avdDirectory);
+            } catch (IOException e) {
+                AndroidEmulator.log(logger, Messages.AVD_FINGERPRINT_NOT_WRITTEN(getAvdName(), e.getMessage()));
+            }
+        }
+
+        /** @return The directory of the given skin within the SDK, or {@code null} if it doesn't exist. */
+        private File findSkin(File sdkRoot, String skinName) {
+            final File[] candidates = {
+                    new File(sdkRoot, "platforms/" + osVersion.getAndroidTargetName() + "/skins/" + skinName),
+                    new File(sdkRoot, "skins/" + skinName) };
+            for (File candidate : candidates) {
+                if (candidate.isDirectory()) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
         private boolean createSdCard(File homeDir) {
-            final String absoluteSdCardName = new File(getAvdDirectory(homeDir), "sdcard.img").getAbsolutePath();
+            final File sdCardFile = new File(getAvdDirectory(homeDir), "sdcard.img");
+
+            // Write a sparse image ourselves, rather than having mksdcard write out every byte of it
+            final long sdCardBytes = SdCardImage.parseSize(sdCardSize);
+            if (sdCardBytes > 0) {
+                try {
+                    SdCardImage.create(sdCardFile, sdCardBytes, new File(getAvdHome(homeDir), SD_CARD_CACHE_DIR));
+                    return true;
+                } catch (IOException e) {
+                    AndroidEmulator.log(logger, Messages.SD_CARD_IMAGE_FAILED(e.getMessage()));
+                }
+            }
+
+            final String absoluteSdCardName = sdCardFile.getAbsolutePath();
             final SdkCliCommand mksdcardCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk)
                     .getCreateSdkCardCommand(absoluteSdCardName, sdCardSize);
 
@@ -698,19 +1007,41 @@ class EmulatorConfig implements Serializable {
 
             final File homeDir = Utils.getAndroidSdkHomeDirectory(androidSdkHome);
 
-            // Parse the AVD's config
-            Map<String, String> configValues;
-            configValues = parseAvdConfigFile(homeDir);
+            // Open the AVD's config
+            final ConfigFileEditor config = ConfigFileEditor.open(getAvdConfigFile(homeDir));
+            final Map<String, String> requested = new TreeMap<>();
+            for (HardwareProperty prop : hardwareProperties) {
+                requested.put(prop.key, prop.value);
+            }
+
+            // Remove any hardware properties set by a previous build which are no longer wanted,
+            // so that the emulator uses its defaults again
+            final File avdDirectory = getAvdDirectory(homeDir);
+            final AvdFingerprint fingerprint = AvdFingerprint.read(avdDirectory);
+            if (fingerprint != null) {
+                for (String key : fingerprint.getHardwareProperties().keySet()) {
+                    if (!requested.containsKey(key)) {
+                        config.remove(key);
+                    }
+                }
+            }
 
             // Insert any hardware properties we want to override
-            AndroidEmulator.log(logger, Messages.SETTING_HARDWARE_PROPERTIES());
+            if (hardwareProperties.length != 0) {
+                AndroidEmulator.log(logger, Messages.SETTING_HARDWARE_PROPERTIES());
+            }
             for (HardwareProperty prop : hardwareProperties) {
                 AndroidEmulator.log(logger, String.format("%s: %s", prop.key, prop.value), true);
-                configValues.put(prop.key, prop.value);
+                config.set(prop.key, prop.value);
             }
 
-            // Update config file
-            writeAvdConfigFile(homeDir, configValues);
+            // Update config file, if anything actually changed
+            config.commit();
+
+            // Record which hardware properties we've set
+            if (fingerprint != null && !requested.equals(fingerprint.getHardwareProperties())) {
+                fingerprint.setHardwareProperties(requested).write(avdDirectory);
+            }
 
             return null;
         }
@@ -740,6 +1071,180 @@ class EmulatorConfig implements Serializable {
 
     }
 
+    /** Marks the AVD and its system image as recently used, so they aren't evicted to free disk space. */
+    private final class EmulatorUsageTask extends MasterToSlaveCallable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String sdkRoot;
+
+        public EmulatorUsageTask(String sdkRoot) {
+            this.sdkRoot = sdkRoot;
+        }
+
+        public Void call() throws IOException {
+            final File homeDir = Utils.getAndroidSdkHomeDirectory(androidSdkHome);
+            final File avdDirectory = getAvdDirectory(homeDir);
+            if (avdDirectory.isDirectory()) {
+                LruEvictor.recordUse(avdDirectory, sdkRoot == null ? null : new File(sdkRoot));
+            }
+            return null;
+        }
+
+    }
+
+    /** Captures or restores a booted and snapshotted template of this AVD. */
+    private final class EmulatorTemplateTask extends MasterToSlaveCallable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String sdkRoot;
+        private final boolean capture;
+
+        public EmulatorTemplateTask(String sdkRoot, boolean capture) {
+            this.sdkRoot = sdkRoot;
+            this.capture = capture;
+        }
+
+        public Boolean call() throws IOException {
+            final File homeDir = Utils.getAndroidSdkHomeDirectory(androidSdkHome);
+            final File avdDirectory = getAvdDirectory(homeDir);
+            final AvdFingerprint fingerprint = AvdFingerprint.read(avdDirectory);
+            final File userHome = Utils.getHomeDirectory();
+            final String emulatorRevision = sdkRoot == null ? null
+                    : AvdFingerprint.getPackageRevision(new File(sdkRoot), "emulator");
+            if (fingerprint == null || userHome == null || emulatorRevision == null) {
+                return false;
+            }
+
+            // The booted state also depends on the locale and the emulator used, whose snapshots
+            // can't be loaded by other emulator versions, nor by an AVD at another location
+            final Map<String, String> inputs = fingerprint.getValues();
+            inputs.put("locale", getDeviceLocale());
+            inputs.put("emulator", emulatorRevision);
+            inputs.put("path", avdDirectory.getAbsolutePath());
+
+            final AvdTemplateStore store = new AvdTemplateStore(new File(userHome, AvdTemplateStore.DEFAULT_DIR));
+            final String key = AvdTemplateStore.getKey(inputs);
+            return capture ? store.capture(key, avdDirectory) : store.restore(key, avdDirectory);
+        }
+
+    }
+
+    /** A task that determines whether the AVD has a Quick Boot snapshot with the Jenkins snapshot name. */
+    private final class QuickBootSnapshotTask extends MasterToSlaveCallable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Boolean call() throws IOException {
+            final File avdDirectory = getAvdDirectory(Utils.getAndroidSdkHomeDirectory(androidSdkHome));
+            final File snapshotDir = new File(new File(avdDirectory, "snapshots"), Constants.SNAPSHOT_NAME);
+            return new File(snapshotDir, "snapshot.pb").isFile();
+        }
+
+    }
+
+    /** A task that reads the AVD's system image files into the page cache. */
+    private final class SystemImagePrefetchTask extends MasterToSlaveCallable<SystemImagePrefetcher.Result, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String sdkRoot;
+
+        public SystemImagePrefetchTask(String sdkRoot) {
+            this.sdkRoot = sdkRoot;
+        }
+
+        public SystemImagePrefetcher.Result call() throws IOException {
+            final File configFile = getAvdConfigFile(Utils.getAndroidSdkHomeDirectory(androidSdkHome));
+            if (sdkRoot == null || !configFile.isFile()) {
+                return null;
+            }
+            final String systemImage = ConfigFileEditor.open(configFile).get("image.sysdir.1");
+            if (systemImage == null) {
+                return null;
+            }
+            return SystemImagePrefetcher.prefetch(new File(sdkRoot, systemImage));
+        }
+
+    }
+
+    /** A task that resets the AVD's user data from its system image. */
+    private final class EmulatorDataResetTask extends MasterToSlaveCallable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String sdkRoot;
+
+        public EmulatorDataResetTask(String sdkRoot) {
+            this.sdkRoot = sdkRoot;
+        }
+
+        public Boolean call() throws IOException {
+            if (sdkRoot == null) {
+                return false;
+            }
+            final File avdDirectory = getAvdDirectory(Utils.getAndroidSdkHomeDirectory(androidSdkHome));
+            return UserDataReset.reset(avdDirectory, new File(sdkRoot));
+        }
+
+    }
+
+    /** A task that copies the AVD's volatile images into volatile storage. */
+    private final class VolatileImagesPreparationTask extends MasterToSlaveCallable<Map<String, String>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String root;
+        private final long requiredBytes;
+
+        public VolatileImagesPreparationTask(String root, long requiredBytes) {
+            this.root = root;
+            this.requiredBytes = requiredBytes;
+        }
+
+        public Map<String, String> call() throws IOException {
+            final File rootDir = new File(root);
+            if (!rootDir.isDirectory()) {
+                throw new IOException(Messages.VOLATILE_STORAGE_NOT_FOUND(rootDir));
+            }
+            final File avdDirectory = getAvdDirectory(Utils.getAndroidSdkHomeDirectory(androidSdkHome));
+            final File directory = VolatileImages.getDirectory(rootDir, avdDirectory);
+
+            // Images left behind by a build that didn't finish cleanly don't count against the space
+            VolatileImages.delete(directory);
+            if (rootDir.getUsableSpace() < requiredBytes) {
+                return null;
+            }
+            return new TreeMap<>(VolatileImages.prepare(avdDirectory, directory));
+        }
+
+    }
+
+    /** A task that copies the AVD's volatile images back into the AVD, or deletes them. */
+    private final class VolatileImagesCleanupTask extends MasterToSlaveCallable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean persist;
+
+        public VolatileImagesCleanupTask(boolean persist) {
+            this.persist = persist;
+        }
+
+        public Void call() throws IOException {
+            final File avdDirectory = getAvdDirectory(Utils.getAndroidSdkHomeDirectory(androidSdkHome));
+            final File directory = VolatileImages.getDirectory(new File(volatileStorageRoot), avdDirectory);
+            if (persist) {
+                VolatileImages.persist(directory, avdDirectory);
+            } else {
+                VolatileImages.delete(directory);
+            }
+            return null;
+        }
+
+    }
+
     /** A task that deletes the AVD corresponding to our local state. */
     private final class EmulatorDeletionTask extends MasterToSlaveCallable<Boolean, Exception> {
 
@@ -766,14 +1271,7 @@ class EmulatorConfig implements Serializable {
                 return false;
             }
 
-            // Recursively delete the contents
-            new FilePath(avdDirectory).deleteRecursive();
-
-            // Delete the metadata file
-            final File avdMetaDataFile = getAvdMetadataFile();
-            if (!avdMetaDataFile.delete()) {
-                log(logger, Messages.FAILED_TO_DELETE_FILE(avdMetaDataFile.getAbsolutePath()));
-            }
+            deleteAvd(homeDir, logger);
 
             // Success!
             return true;
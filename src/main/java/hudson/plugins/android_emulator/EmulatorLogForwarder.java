@@ -0,0 +1,220 @@
+package hudson.plugins.android_emulator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards the output of the emulator process to the build log, without letting a chatty emulator
+ * flood the log, or hold up the process which is writing the output.
+ * <p>
+ * Each source of output (e.g. stdout and stderr) is split into lines, consecutive repeats of a line
+ * are collapsed into a single summary, and once a source has used up its byte budget, its remaining
+ * output is dropped.  Lines are written to the build log by a separate thread, one per build; if
+ * that thread falls too far behind, further lines are dropped, and counted, rather than blocking.
+ */
+class EmulatorLogForwarder {
+
+    /** Lines longer than this are truncated. */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    /** How long to wait for queued lines to be written to the build log when closing. */
+    private static final long CLOSE_TIMEOUT_MS = 5 * 1000;
+
+    /** Maximum number of lines waiting to be written to the build log. */
+    static final int QUEUE_CAPACITY = 1024;
+
+    /** Marks the end of the queue. */
+    private static final Object END = new Object();
+
+    private final PrintStream logger;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<SourceStream> sources = new CopyOnWriteArrayList<>();
+    private final Thread writer;
+
+    EmulatorLogForwarder(final PrintStream logger, String name) {
+        this.logger = logger;
+        this.writer = new Thread(this::writeLines, "Android emulator log forwarder for " + name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Creates a stream for one source of emulator output.
+     *
+     * @param source Name of the output source, used when reporting that output was suppressed.
+     * @param budget Maximum number of bytes to forward from this source.
+     * @return A stream which forwards the output to the build log.
+     */
+    OutputStream newSource(String source, long budget) {
+        final SourceStream stream = new SourceStream(source, budget);
+        sources.add(stream);
+        return stream;
+    }
+
+    /**
+     * Closes all sources, waits for their queued output to be written to the build log, then
+     * stops the writer thread.  This should be called once the emulator process has exited.
+     */
+    void close() throws InterruptedException {
+        for (SourceStream source : sources) {
+            source.close();
+        }
+        if (!queue.offer(END, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            writer.interrupt();
+        }
+        writer.join(CLOSE_TIMEOUT_MS);
+    }
+
+    /**
+     * Queues a line of emulator output, without waiting for space in the queue.
+     *
+     * @return {@code false} if the line was dropped, as the writer has fallen behind.
+     */
+    private boolean enqueue(String line) {
+        return queue.offer(line);
+    }
+
+    /** Queues a summary once the output has ended, waiting a while for space in the queue. */
+    private void enqueueSummary(String line) {
+        try {
+            queue.offer(line, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLines() {
+        try {
+            for (Object line = queue.take(); line != END; line = queue.take()) {
+                logger.println(line);
+            }
+        } catch (InterruptedException ignore) {
+        }
+    }
+
+    /** Splits a source into lines, collapsing repeats and enforcing its budget. */
+    private final class SourceStream extends OutputStream {
+
+        private final String source;
+        private final long budget;
+
+        private final byte[] line = new byte[MAX_LINE_LENGTH];
+        private int lineLength;
+
+        private String previousLine;
+        private int repeats;
+        private long forwarded;
+        private long dropped;
+        private long skippedLines;
+        private boolean closed;
+
+        SourceStream(String source, long budget) {
+            this.source = source;
+            this.budget = budget;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (closed) {
+                return;
+            }
+            if (b == '\n') {
+                endLine();
+            } else if (b != '\r' && lineLength < MAX_LINE_LENGTH) {
+                line[lineLength++] = (byte) b;
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (closed) {
+                return;
+            }
+            final int end = off + len;
+            int start = off;
+            for (int i = off; i < end; i++) {
+                if (b[i] == '\n' || b[i] == '\r') {
+                    append(b, start, i);
+                    if (b[i] == '\n') {
+                        endLine();
+                    }
+                    start = i + 1;
+                }
+            }
+            append(b, start, end);
+        }
+
+        /** Appends the given bytes, containing no line endings, to the current line. */
+        private void append(byte[] b, int start, int end) {
+            final int count = Math.min(end - start, MAX_LINE_LENGTH - lineLength);
+            if (count > 0) {
+                System.arraycopy(b, start, line, lineLength, count);
+                lineLength += count;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (lineLength > 0) {
+                endLine();
+            }
+            flushRepeats();
+            if (dropped > 0) {
+                enqueueSummary(AndroidEmulator.LOG_PREFIX + Messages.EMULATOR_OUTPUT_DROPPED(source, dropped / 1024));
+            }
+            if (skippedLines > 0) {
+                enqueueSummary(AndroidEmulator.LOG_PREFIX + Messages.EMULATOR_OUTPUT_SKIPPED(source, skippedLines));
+            }
+        }
+
+        private void endLine() {
+            final String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+            final int length = lineLength + 1;
+            lineLength = 0;
+
+            if (text.equals(previousLine)) {
+                repeats++;
+                return;
+            }
+            flushRepeats();
+            previousLine = text;
+
+            if (forwarded >= budget) {
+                dropped += length;
+                return;
+            }
+            forwarded += length;
+            forward(text);
+            if (forwarded >= budget) {
+                forward(AndroidEmulator.LOG_PREFIX + Messages.EMULATOR_OUTPUT_BUDGET_EXCEEDED(source, budget / 1024));
+            }
+        }
+
+        private void flushRepeats() {
+            if (repeats == 0) {
+                return;
+            }
+            if (forwarded < budget) {
+                forward(AndroidEmulator.LOG_PREFIX + Messages.EMULATOR_OUTPUT_REPEATED(repeats));
+            }
+            repeats = 0;
+        }
+
+        private void forward(String text) {
+            if (!enqueue(text)) {
+                skippedLines++;
+            }
+        }
+    }
+
+}
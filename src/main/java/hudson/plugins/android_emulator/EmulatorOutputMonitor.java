@@ -0,0 +1,181 @@
+package hudson.plugins.android_emulator;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Watches emulator output as it is streamed, and records well-known failure and readiness
+ * messages as they appear, so that we don't need to keep the emulator output around.
+ * <p>
+ * Only the current line is buffered, up to a fixed size; anything beyond that is not matched.
+ */
+class EmulatorOutputMonitor extends OutputStream {
+
+    /** Notable messages which the emulator may print. */
+    enum Event {
+        /** The AVD is already in use by another emulator instance. */
+        IMAGE_IN_USE(true, "image is used by another emulator", "Running multiple emulators with the same AVD"),
+        /** Hardware acceleration is required by the system image, but is not available. */
+        KVM_UNAVAILABLE(true, "requires hardware acceleration", "KVM is required",
+                "/dev/kvm is not found", "/dev/kvm device: permission denied"),
+        /** Any other error reported by the emulator; not necessarily fatal, but logged if boot fails. */
+        ERROR(false, "emulator: ERROR:", "ERROR   |"),
+        /** The emulator has reported that the system finished booting. */
+        BOOT_COMPLETED(false, "boot completed", "Boot completed");
+
+        private final boolean fatal;
+        private final byte[][] needles;
+
+        Event(boolean fatal, String... needles) {
+            this.fatal = fatal;
+            this.needles = new byte[needles.length][];
+            for (int i = 0; i < needles.length; i++) {
+                this.needles[i] = needles[i].getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        /** @return {@code true} if the emulator will not be able to start after this event. */
+        boolean isFatal() {
+            return fatal;
+        }
+    }
+
+    /** Emulator messages are short; longer lines are truncated before matching. */
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength;
+
+    /** The first line seen for each event. */
+    private final Map<Event, String> events = new EnumMap<>(Event.class);
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n' || b == '\r') {
+            endLine();
+        } else if (lineLength < MAX_LINE_LENGTH) {
+            line[lineLength++] = (byte) b;
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        // Copy each run of bytes up to a line break in one go, rather than byte by byte
+        final int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n' || b[i] == '\r') {
+                append(b, start, i);
+                endLine();
+                start = i + 1;
+            }
+        }
+        append(b, start, end);
+    }
+
+    @Override
+    public synchronized void close() {
+        endLine();
+    }
+
+    /**
+     * @param event The event to check for.
+     * @return The output line which triggered the event, or {@code null} if it has not occurred.
+     */
+    synchronized String getLine(Event event) {
+        return events.get(event);
+    }
+
+    /** @return The first fatal event seen, or {@code null} if there has been none. */
+    synchronized Event getFatalEvent() {
+        for (Event event : events.keySet()) {
+            if (event.isFatal()) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits until a fatal event occurs, or the given time elapses.
+     *
+     * @param timeoutMs How long to wait, in milliseconds.
+     * @return The fatal event which occurred, or {@code null} if we timed-out.
+     */
+    synchronized Event awaitFatalEvent(long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        Event event;
+        long remaining;
+        while ((event = getFatalEvent()) == null && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        return event;
+    }
+
+    /**
+     * Waits until the given event occurs, or the given time elapses.
+     *
+     * @param event The event to wait for.
+     * @param timeoutMs How long to wait, in milliseconds.
+     * @return {@code true} if the event has occurred.
+     */
+    synchronized boolean await(Event event, long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        long remaining;
+        while (!events.containsKey(event) && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        return events.containsKey(event);
+    }
+
+    /** Appends the given bytes to the current line, truncating it at {@link #MAX_LINE_LENGTH}. */
+    private void append(byte[] b, int start, int end) {
+        final int count = Math.min(end - start, MAX_LINE_LENGTH - lineLength);
+        if (count > 0) {
+            System.arraycopy(b, start, line, lineLength, count);
+            lineLength += count;
+        }
+    }
+
+    private void endLine() {
+        if (lineLength == 0) {
+            return;
+        }
+        boolean matched = false;
+        for (Event event : Event.values()) {
+            if (!events.containsKey(event) && matches(event)) {
+                events.put(event, new String(line, 0, lineLength, StandardCharsets.UTF_8).trim());
+                matched = true;
+            }
+        }
+        lineLength = 0;
+        if (matched) {
+            notifyAll();
+        }
+    }
+
+    private boolean matches(Event event) {
+        for (byte[] needle : event.needles) {
+            if (indexOf(needle) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(byte[] needle) {
+        outer:
+        for (int i = 0; i <= lineLength - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (line[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+}
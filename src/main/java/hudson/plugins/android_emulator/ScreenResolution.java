@@ -92,6 +92,14 @@ public class ScreenResolution implements Serializable {
         return skinName;
     }
 
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
     public String getDimensionString() {
         return width +"x"+ height;
     }
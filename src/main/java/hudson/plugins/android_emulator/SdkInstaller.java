@@ -16,13 +16,20 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -37,15 +44,24 @@ import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.plugins.android_emulator.SdkInstaller.AndroidInstaller.SdkUnavailableException;
 import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.plugins.android_emulator.sdk.SdkPackageIndex;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
 import hudson.plugins.android_emulator.sdk.cli.SdkToolsCommands;
+import hudson.plugins.android_emulator.sdk.cli.SdkToolsCommandsCurrentBase;
+import hudson.plugins.android_emulator.sdk.repository.ManifestCache;
+import hudson.plugins.android_emulator.sdk.repository.OfflineRepository;
+import hudson.plugins.android_emulator.sdk.repository.RepositoryManifest;
+import hudson.plugins.android_emulator.sdk.repository.SdkArchiveCache;
+import hudson.plugins.android_emulator.sdk.repository.SdkArchiveInstaller;
 import hudson.plugins.android_emulator.util.ConfigFileUtils;
+import hudson.plugins.android_emulator.util.FileLinker;
 import hudson.plugins.android_emulator.util.Utils;
 import hudson.plugins.android_emulator.util.ValidationResult;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
+import hudson.util.StreamTaskListener;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.security.MasterToSlaveCallable;
 
@@ -57,6 +73,9 @@ public class SdkInstaller {
     /** Map of nodes to locks, to ensure only one executor attempts SDK installation at once. */
     private static final Map<Node, Semaphore> mutexByNode = new WeakHashMap<Node, Semaphore>();
 
+    /** Map of nodes to the SDK components whose installation has been deferred until after boot. */
+    private static final Map<Node, DeferredInstall> deferredByNode = new WeakHashMap<Node, DeferredInstall>();
+
     /**
      * Downloads and installs the Android SDK on the machine we're executing on.
      *
@@ -83,6 +102,17 @@ public class SdkInstaller {
             throw new BuildNodeUnavailableException();
         }
 
+        // Check, rather than install, the SDK if it's managed via the offline repository
+        if (Utils.isSdkOfflineVerifyOnly()) {
+            final String androidHome = Utils.getSdkInstallDirectory(node).getRemote();
+            final List<String> problems = verifyAgainstOfflineRepository(listener.getLogger(), launcher,
+                    androidHome, null);
+            if (!problems.isEmpty()) {
+                throw new SdkInstallationException(Messages.OFFLINE_SDK_VERIFICATION_FAILED(problems.size()));
+            }
+            return Utils.getAndroidSdk(launcher, androidHome, androidSdkHome);
+        }
+
         // Install the SDK if required
         String androidHome;
         try {
@@ -93,46 +123,166 @@ public class SdkInstaller {
             throw new SdkInstallationException(Messages.SDK_DOWNLOAD_FAILED(), e);
         }
 
+        // Another build may still be installing the remaining components, in which case we wait for it later
+        final boolean isDeferred = getDeferredInstall(node) != null;
+
         // Check whether we need to install the SDK components
-        if (!isSdkInstallComplete(node, androidHome)) {
+        if (!isDeferred && !isSdkInstallComplete(node, androidHome)) {
             PrintStream logger = listener.getLogger();
             log(logger, Messages.INSTALLING_REQUIRED_COMPONENTS());
             AndroidSdk sdk = getAndroidSdkForNode(node, androidHome, androidSdkHome);
 
             // Upgrade the tools if necessary and add the latest build-tools component
-            List<String> components = new ArrayList<>(5);
+            List<String> components = new ArrayList<>(2);
 
             // do not update 'tools', as they were updated above to current compatible version
 
-            // Get the latest platform-tools
+            // Get the latest platform-tools and emulator, which are needed to boot an emulator
             components.add("platform-tool");
-
-            String buildTools = getBuildToolsPackageName(logger, launcher, sdk);
-            if (buildTools != null) {
-                components.add(buildTools);
-            }
-
-            // Add the local maven repos for Gradle
-            components.add("extra-android-m2repository");
-            components.add("extra-google-m2repository");
             components.add("emulator");
 
             // Install the lot
             installComponent(logger, launcher, sdk, components);
 
-
             // As this SDK will not be used manually, opt out of the stats gathering;
             // this also prevents the opt-in dialog from popping up during execution
             optOutOfSdkStatistics(launcher, listener, androidSdkHome);
-        }
 
-        // If we made it this far, confirm completion by writing our our metadata file
-        getInstallationInfoFilename(node).write(Constants.SDK_TOOLS_DEFAULT_BUILD_ID, "UTF-8");
+            // Components which are only needed by build steps can be installed while the emulator boots
+            List<String> deferredComponents = new ArrayList<>(3);
+            String buildTools = getBuildToolsPackageName(logger, launcher, sdk);
+            if (buildTools != null) {
+                deferredComponents.add(buildTools);
+            }
+
+            // Add the local maven repos for Gradle
+            deferredComponents.add("extra-android-m2repository");
+            deferredComponents.add("extra-google-m2repository");
+
+            // Installation is only complete, and recorded as such, once these have been installed
+            registerDeferredInstall(new DeferredInstall(node, listener, deferredComponents, () -> {
+                // Take the lock, so that other builds don't consider the SDK complete until we're done
+                Semaphore semaphore = acquireLock(node);
+                try {
+                    installComponent(listener.getLogger(), launcher, sdk, deferredComponents);
+                    getInstallationInfoFilename(node).write(Constants.SDK_TOOLS_DEFAULT_BUILD_ID, "UTF-8");
+                } finally {
+                    semaphore.release();
+                }
+                log(listener.getLogger(), Messages.DEFERRED_SDK_INSTALL_COMPLETE());
+                return null;
+            }));
+        } else if (!isDeferred) {
+            // If we made it this far, confirm completion by writing our our metadata file
+            getInstallationInfoFilename(node).write(Constants.SDK_TOOLS_DEFAULT_BUILD_ID, "UTF-8");
+        }
 
         // Create an SDK object now that all the components exist
         return Utils.getAndroidSdk(launcher, androidHome, androidSdkHome);
     }
 
+    /**
+     * Starts installing, in the background, the SDK components which {@link #install} deferred on
+     * the current build machine, if any.
+     * <p>
+     * These components aren't needed to boot an emulator, so can be installed while it boots; build
+     * steps which need them must first call {@link #awaitDeferredInstall}.
+     *
+     * @param listener Used to access logger.
+     */
+    public static void startDeferredInstall(BuildListener listener) {
+        startDeferredInstall(getCurrentNode(), listener, Computer.threadPoolForRemoting);
+    }
+
+    static void startDeferredInstall(Node node, BuildListener listener, ExecutorService executor) {
+        final DeferredInstall deferred = node == null ? null : getDeferredInstall(node);
+        if (deferred != null && deferred.started.compareAndSet(false, true)) {
+            log(listener.getLogger(), Messages.DEFERRED_SDK_INSTALL_STARTED(
+                    StringUtils.join(deferred.components, ',')));
+            executor.submit(deferred.task);
+        }
+    }
+
+    /**
+     * Waits until any SDK components deferred by {@link #install} on the current build machine have
+     * been installed, installing them now if that hasn't started yet.
+     *
+     * @param listener Used to access logger.
+     * @throws SdkInstallationException If the deferred components could not be installed.
+     */
+    public static void awaitDeferredInstall(BuildListener listener)
+            throws SdkInstallationException, InterruptedException {
+        awaitDeferredInstall(getCurrentNode(), listener);
+    }
+
+    static void awaitDeferredInstall(Node node, BuildListener listener)
+            throws SdkInstallationException, InterruptedException {
+        final DeferredInstall deferred = node == null ? null : getDeferredInstall(node);
+        if (deferred == null) {
+            return;
+        }
+        if (deferred.started.compareAndSet(false, true)) {
+            deferred.task.run();
+        } else if (!deferred.task.isDone()) {
+            log(listener.getLogger(), Messages.DEFERRED_SDK_INSTALL_WAITING());
+        }
+
+        try {
+            deferred.task.get();
+        } catch (ExecutionException e) {
+            throw new SdkInstallationException(Messages.DEFERRED_SDK_INSTALL_FAILED(), e.getCause());
+        } finally {
+            removeDeferredInstall(deferred);
+        }
+    }
+
+    /**
+     * Forgets about any SDK components whose installation was deferred by {@link #install} for the
+     * given build, but which the build has not {@linkplain #awaitDeferredInstall awaited}, e.g.
+     * because it failed or was aborted before then.
+     * <p>
+     * Otherwise later builds would keep waiting for, or running, an installation which logs to, and
+     * launches processes via, a build which has finished.  If the installation is already running,
+     * it carries on, and the SDK lock keeps other builds from installing anything until it is done.
+     *
+     * @param listener The listener of the build which called {@link #install}.
+     */
+    public static void abandonDeferredInstall(BuildListener listener) {
+        abandonDeferredInstall(getCurrentNode(), listener);
+    }
+
+    static void abandonDeferredInstall(Node node, BuildListener listener) {
+        final DeferredInstall deferred = node == null ? null : getDeferredInstall(node);
+        if (deferred != null && deferred.owner == listener) {
+            removeDeferredInstall(deferred);
+        }
+    }
+
+    private static Node getCurrentNode() {
+        final Computer computer = Computer.currentComputer();
+        return computer == null ? null : computer.getNode();
+    }
+
+    static void registerDeferredInstall(DeferredInstall deferred) {
+        synchronized (deferredByNode) {
+            deferredByNode.put(deferred.node, deferred);
+        }
+    }
+
+    private static void removeDeferredInstall(DeferredInstall deferred) {
+        synchronized (deferredByNode) {
+            if (deferredByNode.get(deferred.node) == deferred) {
+                deferredByNode.remove(deferred.node);
+            }
+        }
+    }
+
+    static DeferredInstall getDeferredInstall(Node node) {
+        synchronized (deferredByNode) {
+            return deferredByNode.get(node);
+        }
+    }
+
     private static AndroidSdk getAndroidSdkForNode(Node node, final String androidHome,
             final String androidSdkHome) throws IOException, InterruptedException {
         final VirtualChannel channel = node.getChannel();
@@ -145,6 +295,33 @@ public class SdkInstaller {
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private static String getBuildToolsPackageName(PrintStream logger, Launcher launcher, AndroidSdk sdk)
     throws IOException, InterruptedException {
+        // Prefer whichever build-tools are already installed, rather than asking the SDK manager
+        final SdkPackageIndex index = SdkPackageIndex.load(launcher, sdk);
+        if (index != null) {
+            final String installed = index.getLatestPackage("build-tools");
+            if (installed != null) {
+                return installed;
+            }
+        }
+
+        // Otherwise resolve the latest version from the repository manifest, rather than the SDK tools' output
+        if (sdk.hasKnownRoot() && !sdk.useLegacySdkStructure()) {
+            try {
+                final VirtualChannel channel = launcher.getChannel();
+                if (channel == null) {
+                    throw new IllegalStateException("Channel is not configured");
+                }
+                final String latest = channel.call(new LatestPackageCallable(sdk.getSdkRoot(),
+                        getRepositoryUrl(logger, launcher, sdk), "build-tools",
+                        Utils.getConfiguredSdkManifestCacheHours()));
+                if (latest != null) {
+                    return latest;
+                }
+            } catch (IOException e) {
+                log(logger, Messages.SDK_MANIFEST_UNAVAILABLE(e.getMessage()));
+            }
+        }
+
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         final SdkCliCommand sdkListComponentsCmd = SdkCliCommandFactory.getCommandsForSdk(sdk)
                 .getListSdkComponentsCommand();
@@ -172,9 +349,15 @@ public class SdkInstaller {
         final FilePath toolsSubdir = installDir.child("tools");
 
         // Download the SDK, if required
-        boolean wasNowInstalled = installDir.act(new DownloadSDKCallable(toolsSubdir, listener, downloadUrl));
-
-        if (wasNowInstalled) {
+        final SdkArchiveCache cache = SdkArchiveCache.forLocation(Utils.getConfiguredSdkArchiveCache());
+        final OfflineRepository offlineRepository =
+                OfflineRepository.forLocation(Utils.getConfiguredSdkOfflineRepository());
+        final String repositoryUrl = getRepositoryUrl(listener.getLogger(), installDir.getChannel(),
+                installDir.getRemote());
+        final SdkDownloadResult result = installDir.act(new DownloadSDKCallable(toolsSubdir, listener, downloadUrl,
+                repositoryUrl, cache, offlineRepository, Utils.getConfiguredSdkManifestCacheHours()));
+
+        if (result == SdkDownloadResult.DOWNLOADED) {
             // If the SDK was required, pull files up from the intermediate directory
             toolsSubdir.listDirectories().get(0).moveAllChildrenTo(toolsSubdir);
 
@@ -182,13 +365,13 @@ public class SdkInstaller {
             if (installer == AndroidInstaller.MAC_OS_X) {
                 setPermissions(toolsSubdir);
             }
-
-            // Success!
-            log(listener.getLogger(), Messages.BASE_SDK_INSTALLED());
-        } else {
+        } else if (result != SdkDownloadResult.EXTRACTED) {
             throw new IOException("Failed to donwload SDK archive");
         }
 
+        // Success!
+        log(listener.getLogger(), Messages.BASE_SDK_INSTALLED());
+
         return installDir;
     }
 
@@ -202,7 +385,24 @@ public class SdkInstaller {
      */
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private static void installComponent(PrintStream logger, Launcher launcher, AndroidSdk sdk,
-            final List<String> components) throws IOException, InterruptedException {
+            List<String> components) throws IOException, InterruptedException {
+        // Only check the components, if the SDK is managed via the offline repository
+        if (Utils.isSdkOfflineVerifyOnly() && sdk.hasKnownRoot()) {
+            final List<String> packagePaths = new ArrayList<>();
+            for (String component : components) {
+                packagePaths.add(SdkToolsCommandsCurrentBase.getPackagePath(component));
+            }
+            verifyAgainstOfflineRepository(logger, launcher, sdk.getSdkRoot(), packagePaths);
+            return;
+        }
+
+        // Install what we can directly from the package archives, and leave the rest to the SDK tools
+        final String repositoryUrl = getRepositoryUrl(logger, launcher, sdk);
+        components = installFromArchives(logger, launcher, sdk, components, repositoryUrl);
+        if (components.isEmpty()) {
+            return;
+        }
+
         String proxySettings = getProxySettings();
 
         // Build the command to install the given component(s)
@@ -217,6 +417,9 @@ public class SdkInstaller {
         if (sdk.hasKnownHome()) {
             env.put(Constants.ENV_VAR_ANDROID_SDK_HOME, sdk.getSdkHome());
         }
+        if (!RepositoryManifest.BASE_URL.equals(repositoryUrl)) {
+            env.put(OfflineRepository.ENV_VAR_SDK_BASE_URL, repositoryUrl);
+        }
         procStarter = procStarter.envs(env);
 
         // Run the command and accept any licence requests during installation
@@ -246,6 +449,112 @@ public class SdkInstaller {
         }
     }
 
+    /**
+     * Determines which repository SDK components should be installed from: the official
+     * repository, or one generated on the remote node from the configured offline repository.
+     *
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param sdk Root of the SDK installation to install components for.
+     * @return The base URL of the repository, ending with a slash.
+     */
+    private static String getRepositoryUrl(PrintStream logger, Launcher launcher, AndroidSdk sdk)
+            throws IOException, InterruptedException {
+        if (!sdk.hasKnownRoot()) {
+            return RepositoryManifest.BASE_URL;
+        }
+        return getRepositoryUrl(logger, launcher.getChannel(), sdk.getSdkRoot());
+    }
+
+    /**
+     * Determines which repository SDK components should be installed from, for an SDK which may
+     * not have been installed yet.
+     *
+     * @param logger Logs things.
+     * @param channel Channel to the remote node.
+     * @param sdkRoot Root of the SDK installation to install components for.
+     * @return The base URL of the repository, ending with a slash.
+     */
+    private static String getRepositoryUrl(PrintStream logger, VirtualChannel channel, String sdkRoot)
+            throws IOException, InterruptedException {
+        final OfflineRepository offlineRepository =
+                OfflineRepository.forLocation(Utils.getConfiguredSdkOfflineRepository());
+        if (offlineRepository == null) {
+            return RepositoryManifest.BASE_URL;
+        }
+        log(logger, Messages.OFFLINE_SDK_REPOSITORY_USED(offlineRepository.getDirectory()));
+        if (channel == null) {
+            throw new IllegalStateException("Channel is not configured");
+        }
+        return channel.call(new OfflineRepositoryCallable(offlineRepository, sdkRoot));
+    }
+
+    /**
+     * Checks the given SDK installation against the configured offline repository.
+     *
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param sdkRoot Root of the SDK installation to check.
+     * @param packagePaths Paths of the packages which must be installed, or {@code null} to check
+     *        every installed package.
+     * @return A description of each problem found, each of which has been logged.
+     */
+    private static List<String> verifyAgainstOfflineRepository(PrintStream logger, Launcher launcher,
+            String sdkRoot, List<String> packagePaths) throws IOException, InterruptedException {
+        final OfflineRepository offlineRepository =
+                OfflineRepository.forLocation(Utils.getConfiguredSdkOfflineRepository());
+        final VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IllegalStateException("Channel is not configured");
+        }
+        final List<String> problems = channel.call(
+                new OfflineVerificationCallable(offlineRepository, sdkRoot, packagePaths));
+        for (String problem : problems) {
+            log(logger, problem);
+        }
+        log(logger, problems.isEmpty() ? Messages.OFFLINE_SDK_VERIFIED()
+                : Messages.OFFLINE_SDK_VERIFICATION_FAILED(problems.size()));
+        return problems;
+    }
+
+    /**
+     * Installs the given SDK component(s) directly from their archives, in parallel, via the
+     * configured SDK archive cache, if any.
+     *
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param sdk Root of the SDK installation to install components for.
+     * @param components Name of the component(s) to install.
+     * @param repositoryUrl Base URL of the repository to install from.
+     * @return The component(s) which were not installed.
+     */
+    private static List<String> installFromArchives(PrintStream logger, Launcher launcher,
+            AndroidSdk sdk, List<String> components, String repositoryUrl)
+            throws IOException, InterruptedException {
+        if (!sdk.hasKnownRoot() || sdk.useLegacySdkStructure()) {
+            return components;
+        }
+        SdkArchiveCache cache = SdkArchiveCache.forLocation(Utils.getConfiguredSdkArchiveCache());
+        if (cache == null) {
+            cache = SdkArchiveCache.NONE;
+        }
+
+        final Map<String, String> componentsByPath = new LinkedHashMap<>();
+        for (String component : components) {
+            componentsByPath.put(SdkToolsCommandsCurrentBase.getPackagePath(component), component);
+        }
+        final VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IllegalStateException("Channel is not configured");
+        }
+        final Set<String> installed = channel.call(new SdkArchiveInstaller(sdk.getSdkRoot(),
+                new ArrayList<>(componentsByPath.keySet()), repositoryUrl, cache,
+                new StreamTaskListener(logger, Charset.defaultCharset()),
+                Utils.getConfiguredSdkManifestCacheHours()));
+        componentsByPath.keySet().removeAll(installed);
+        return new ArrayList<>(componentsByPath.values());
+    }
+
     /**
      * Installs the platform for an emulator config into the given SDK installation, if necessary.
      *
@@ -328,6 +637,13 @@ public class SdkInstaller {
     private static boolean isPlatformInstalled(PrintStream logger, Launcher launcher,
             AndroidSdk sdk, String platform, String abi,
             final boolean skipSystemInstall) throws IOException, InterruptedException {
+        // Check the package metadata on disk first, which is much quicker than the SDK tools
+        final Boolean indexed = isPlatformInstalled(SdkPackageIndex.load(launcher, sdk),
+                platform, abi, skipSystemInstall);
+        if (indexed != null) {
+            return indexed;
+        }
+
         ByteArrayOutputStream targetList = new ByteArrayOutputStream();
         final SdkCliCommand sdkListTargets = SdkCliCommandFactory.getCommandsForSdk(sdk)
                 .getListExistingTargetsCommand();
@@ -354,6 +670,56 @@ public class SdkInstaller {
         return true;
     }
 
+    /**
+     * Determines whether the given platform, and optionally its system image, are installed, based
+     * on the given package index.
+     *
+     * @param index Package index of the SDK; may be {@code null}.
+     * @param platform The platform, or SDK component, to check.
+     * @param abi The ABI whose system image should be checked; may be {@code null}.
+     * @param skipSystemInstall Whether the system image should not be checked.
+     * @return Whether everything is installed, or {@code null} if this can't be determined from the index.
+     */
+    static Boolean isPlatformInstalled(SdkPackageIndex index, String platform, String abi,
+            final boolean skipSystemInstall) {
+        if (index == null || index.getPackagePaths().isEmpty()) {
+            return null;
+        }
+        if ("platform-tools".equals(platform)) {
+            return index.hasPackage(platform);
+        }
+
+        final AndroidPlatform androidPlatform = AndroidPlatform.valueOf(platform);
+        if (androidPlatform == null || androidPlatform.getSdkLevel() < 0) {
+            return null;
+        }
+        final String platformPackage;
+        if (androidPlatform.isCustomPlatform()) {
+            platformPackage = "add-ons;" + androidPlatform.getAddonName();
+        } else {
+            platformPackage = "platforms;" + androidPlatform.getAndroidTargetName();
+        }
+        if (!index.hasPackage(platformPackage)) {
+            return false;
+        }
+
+        if (!skipSystemInstall && abi != null) {
+            if (androidPlatform.isCustomPlatform()) {
+                // Add-on system images are named differently, so leave these to the SDK tools
+                return null;
+            }
+            final String[] abiSplit = StringUtils.split(abi, '/');
+            final boolean containsTag = (abiSplit.length > 1);
+            final String abiString = (containsTag) ? abiSplit[1] : abiSplit[0];
+            final String tagString = (containsTag) ? abiSplit[0] : "default";
+            return index.hasPackage(String.format("system-images;%s;%s;%s",
+                    androidPlatform.getAndroidTargetName(), tagString, abiString));
+        }
+
+        // Everything we wanted is installed
+        return true;
+    }
+
     private static List<String> getSdkComponentsForPlatform(final PrintStream logger,
             final AndroidSdk sdk, final AndroidPlatform androidPlatform, final String abi,
             final boolean skipSystemImageInstall) {
@@ -439,6 +805,28 @@ public class SdkInstaller {
         }
     }
 
+    /**
+     * Makes the user's ADB keys and debug keystore available in the given SDK home directory, if it
+     * doesn't have its own, so that each workspace doesn't generate (and need authorising) new ones.
+     * <p>
+     * These files are only read, so are hard-linked where possible, rather than copied.
+     *
+     * @param launcher Used for running tasks on the remote node.
+     * @param listener Used to access logger.
+     * @param androidSdkHome The SDK home directory, i.e. the workspace directory.
+     */
+    public static void linkSharedHomeFiles(Launcher launcher, BuildListener listener, String androidSdkHome) {
+        try {
+            VirtualChannel channel = launcher.getChannel();
+            if (channel == null) {
+                throw new IllegalStateException("Channel is not configured");
+            }
+            channel.call(new LinkSharedHomeFilesTask(androidSdkHome, listener));
+        } catch (Exception e) {
+            log(listener.getLogger(), Messages.SHARED_HOME_FILES_FAILED(e.getMessage()));
+        }
+    }
+
     /**
      * Acquires an exclusive lock for the machine we're executing on.
      * <p>
@@ -448,12 +836,22 @@ public class SdkInstaller {
      * @return The semaphore for the current machine, which must be released once finished with.
      */
     private static Semaphore acquireLock() throws InterruptedException, IOException {
-        // Retrieve the lock for this node
-        Semaphore semaphore;
         final Node node = Computer.currentComputer().getNode();
         if (node == null) {
             throw new BuildNodeUnavailableException();
         }
+        return acquireLock(node);
+    }
+
+    /**
+     * Acquires the exclusive SDK installation lock for the given machine.
+     *
+     * @param node The machine on which SDK components will be installed.
+     * @return The semaphore for the given machine, which must be released once finished with.
+     */
+    private static Semaphore acquireLock(Node node) throws InterruptedException {
+        // Retrieve the lock for this node
+        Semaphore semaphore;
         synchronized (node) {
             semaphore = mutexByNode.get(node);
             if (semaphore == null) {
@@ -517,22 +915,164 @@ public class SdkInstaller {
         }
     }
 
-    private static final class DownloadSDKCallable extends MasterToSlaveFileCallable<Boolean> {
+    /** Outcome of downloading the basic SDK. */
+    private enum SdkDownloadResult {
+        /** The SDK tools were extracted directly into place. */
+        EXTRACTED,
+        /** The SDK tools were extracted, but are still within their top-level archive directory. */
+        DOWNLOADED,
+        /** The SDK tools could not be downloaded. */
+        FAILED
+    }
+
+    /** SDK components whose installation has been deferred until the emulator is booting. */
+    static final class DeferredInstall {
+        private final Node node;
+        private final BuildListener owner;
+        private final List<String> components;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final FutureTask<Void> task;
+
+        /**
+         * @param node The node on which the components are to be installed.
+         * @param owner The listener of the build which deferred the installation.
+         * @param components The components to be installed.
+         * @param installation Installs the components.
+         */
+        DeferredInstall(Node node, BuildListener owner, List<String> components,
+                java.util.concurrent.Callable<Void> installation) {
+            this.node = node;
+            this.owner = owner;
+            this.components = components;
+            this.task = new FutureTask<>(installation);
+        }
+    }
+
+    private static final class DownloadSDKCallable extends MasterToSlaveFileCallable<SdkDownloadResult> {
         private final FilePath toolsSubdir;
         private final BuildListener listener;
         private final URL downloadUrl;
+        private final String repositoryUrl;
+        private final SdkArchiveCache cache;
+        private final OfflineRepository offlineRepository;
+        private final long manifestCacheHours;
         private static final long serialVersionUID = 1L;
 
-        private DownloadSDKCallable(FilePath toolsSubdir, BuildListener listener, URL downloadUrl) {
+        private DownloadSDKCallable(FilePath toolsSubdir, BuildListener listener, URL downloadUrl,
+                String repositoryUrl, SdkArchiveCache cache, OfflineRepository offlineRepository,
+                long manifestCacheHours) {
             this.toolsSubdir = toolsSubdir;
             this.listener = listener;
             this.downloadUrl = downloadUrl;
+            this.repositoryUrl = repositoryUrl;
+            this.cache = cache;
+            this.offlineRepository = offlineRepository;
+            this.manifestCacheHours = manifestCacheHours;
         }
 
-        public Boolean invoke(File f, VirtualChannel channel)
+        public SdkDownloadResult invoke(File f, VirtualChannel channel)
                 throws InterruptedException, IOException {
             String msg = Messages.DOWNLOADING_SDK_FROM(downloadUrl);
-            return toolsSubdir.installIfNecessaryFrom(downloadUrl, listener, msg);
+            try {
+                log(listener.getLogger(), msg);
+                SdkArchiveInstaller.installArchive(getArchive(f), cache != null ? cache : SdkArchiveCache.NONE,
+                        new File(f, ".temp"), new File(toolsSubdir.getRemote()), listener.getLogger());
+                return SdkDownloadResult.EXTRACTED;
+            } catch (IOException e) {
+                log(listener.getLogger(), Messages.SDK_ARCHIVE_INSTALL_FAILED(downloadUrl, e.getMessage()));
+            }
+
+            // Without internet access, there's nothing else we can try
+            if (offlineRepository == null && toolsSubdir.installIfNecessaryFrom(downloadUrl, listener, msg)) {
+                return SdkDownloadResult.DOWNLOADED;
+            }
+            return SdkDownloadResult.FAILED;
+        }
+
+        /** Gets the SDK tools archive, along with its checksum, if the repository lists it. */
+        private RepositoryManifest.Archive getArchive(File sdkRoot) throws IOException {
+            final String path = downloadUrl.getPath();
+            final String fileName = path.substring(path.lastIndexOf('/') + 1);
+            final String manifestPath = RepositoryManifest.getManifestPath("cmdline-tools;latest");
+            if (offlineRepository != null) {
+                final RepositoryManifest manifest = ManifestCache.load(sdkRoot, repositoryUrl, manifestPath,
+                        manifestCacheHours);
+                final RepositoryManifest.Archive archive = manifest.findArchive(fileName);
+                if (archive == null) {
+                    throw new FileNotFoundException(fileName);
+                }
+                return archive;
+            }
+            try {
+                final RepositoryManifest manifest = ManifestCache.load(sdkRoot, repositoryUrl, manifestPath,
+                        manifestCacheHours);
+                final RepositoryManifest.Archive archive = manifest.findArchive(fileName);
+                if (archive != null) {
+                    return archive;
+                }
+            } catch (IOException e) {
+                // We can still download the archive, but without verifying it
+            }
+            return new RepositoryManifest.Archive(downloadUrl.toString(), null, -1, null);
+        }
+    }
+
+    /** Generates a local repository from the offline repository, returning its base URL. */
+    private static final class OfflineRepositoryCallable extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final OfflineRepository offlineRepository;
+        private final String sdkRoot;
+
+        private OfflineRepositoryCallable(OfflineRepository offlineRepository, String sdkRoot) {
+            this.offlineRepository = offlineRepository;
+            this.sdkRoot = sdkRoot;
+        }
+
+        public String call() throws IOException {
+            return offlineRepository.generate(new File(sdkRoot));
+        }
+    }
+
+    /** Finds the path of the latest package of a given type listed in the repository, if any. */
+    private static final class LatestPackageCallable extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final String sdkRoot;
+        private final String repositoryUrl;
+        private final String prefix;
+        private final long manifestCacheHours;
+
+        private LatestPackageCallable(String sdkRoot, String repositoryUrl, String prefix,
+                long manifestCacheHours) {
+            this.sdkRoot = sdkRoot;
+            this.repositoryUrl = repositoryUrl;
+            this.prefix = prefix;
+            this.manifestCacheHours = manifestCacheHours;
+        }
+
+        public String call() throws IOException {
+            final RepositoryManifest manifest = ManifestCache.load(new File(sdkRoot), repositoryUrl,
+                    RepositoryManifest.getManifestPath(prefix + ";"), manifestCacheHours);
+            final RepositoryManifest.RemotePackage latest = manifest.getLatestPackage(prefix);
+            return latest == null ? null : latest.getPath();
+        }
+    }
+
+    /** Checks an SDK installation against the offline repository, returning any problems found. */
+    private static final class OfflineVerificationCallable extends MasterToSlaveCallable<List<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final OfflineRepository offlineRepository;
+        private final String sdkRoot;
+        private final ArrayList<String> packagePaths;
+
+        private OfflineVerificationCallable(OfflineRepository offlineRepository, String sdkRoot,
+                List<String> packagePaths) {
+            this.offlineRepository = offlineRepository;
+            this.sdkRoot = sdkRoot;
+            this.packagePaths = packagePaths == null ? null : new ArrayList<>(packagePaths);
+        }
+
+        public List<String> call() throws IOException {
+            return new ArrayList<>(offlineRepository.verify(new File(sdkRoot), packagePaths));
         }
     }
 
@@ -629,6 +1169,42 @@ public class SdkInstaller {
         }
     }
 
+    /** Helper to link the user's shared {@code .android} files into an SDK home directory. */
+    private static final class LinkSharedHomeFilesTask extends MasterToSlaveCallable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Files which are created once per user, and are not modified once created. */
+        private static final String[] SHARED_FILES = { "adbkey", "adbkey.pub", "debug.keystore" };
+
+        private final String androidSdkHome;
+        private final BuildListener listener;
+
+        private LinkSharedHomeFilesTask(String androidSdkHome, BuildListener listener) {
+            this.androidSdkHome = androidSdkHome;
+            this.listener = listener;
+        }
+
+        public Void call() throws IOException {
+            final File sourceDir = new File(System.getProperty("user.home"), ".android");
+            final File targetDir = new File(Utils.getAndroidSdkHomeDirectory(androidSdkHome), ".android");
+            if (!sourceDir.isDirectory() || sourceDir.getCanonicalFile().equals(targetDir.getCanonicalFile())) {
+                return null;
+            }
+            for (String name : SHARED_FILES) {
+                final File source = new File(sourceDir, name);
+                final File target = new File(targetDir, name);
+                if (source.isFile() && !target.exists()) {
+                    final FileLinker.Method method = FileLinker.link(source, target);
+                    if (method == FileLinker.Method.COPY) {
+                        log(listener.getLogger(), Messages.SHARED_HOME_FILE_COPIED(name));
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     /** Helper for getting platform-specific SDK installation information. */
     enum AndroidInstaller {
 
@@ -36,6 +36,13 @@ public class TaskDispatcher extends QueueTaskDispatcher {
 
     @Override
     public CauseOfBlockage canTake(Node node, Task task) {
+        // Wait until there's enough volatile storage for the emulator images, if used on this node;
+        // this doesn't depend on the emulator config, so applies even if its variables can't be resolved
+        final CauseOfBlockage volatileStorageBlockage = checkVolatileStorage(node, task);
+        if (volatileStorageBlockage != null) {
+            return volatileStorageBlockage;
+        }
+
         // If the given task doesn't use the AndroidEmulator BuildWrapper, we don't care.
         // Or, if there is an emulator hash, but with unresolved environment variables, we shouldn't block the build
         String desiredHash = getEmulatorConfigHashForTask(node, task);
@@ -88,6 +95,49 @@ public class TaskDispatcher extends QueueTaskDispatcher {
         return null;
     }
 
+    /**
+     * Checks whether the volatile images of the emulator for the given task would fit in the
+     * volatile storage of the given node, alongside those of the emulators already running there.
+     *
+     * @param node The node on which the task should be executed.
+     * @param task The task which should start an Android emulator.
+     * @return The reason why the task can't be executed yet, or {@code null} if it can.
+     */
+    private static CauseOfBlockage checkVolatileStorage(Node node, Task task) {
+        final VolatileStorageProperty volatileStorage = node.getNodeProperties().get(VolatileStorageProperty.class);
+        if (volatileStorage == null || volatileStorage.capacityMb == 0) {
+            return null;
+        }
+
+        // If the images could never fit, the emulator will keep them on disk, so needn't wait
+        final AndroidEmulator androidWrapper = getAndroidEmulatorForTask(task);
+        final long requiredBytes = androidWrapper == null ? 0 : androidWrapper.getVolatileStorageBytes();
+        if (requiredBytes == 0 || !volatileStorage.canFit(requiredBytes)) {
+            return null;
+        }
+
+        final Computer computer = node.toComputer();
+        if (computer == null) {
+            return null;
+        }
+        long usedBytes = 0;
+        for (Executor e : computer.getExecutors()) {
+            Executable executable = e.getCurrentExecutable();
+            if (executable == null) {
+                continue;
+            }
+
+            AndroidEmulator runningWrapper = getAndroidEmulatorForTask(executable.getParent());
+            if (runningWrapper != null) {
+                usedBytes += runningWrapper.getVolatileStorageBytes();
+            }
+        }
+        if (usedBytes + requiredBytes > volatileStorage.getCapacityBytes()) {
+            return CauseOfBlockage.fromMessage(Messages._WAITING_FOR_VOLATILE_STORAGE());
+        }
+        return null;
+    }
+
     /**
      * Determines the Android emulator configuration for the given task, if any.
      *
@@ -97,32 +147,38 @@ public class TaskDispatcher extends QueueTaskDispatcher {
      *         if the given task is not configured to start an Android emulator.
      */
     private static String getEmulatorConfigHashForTask(Node node, SubTask task) {
-        // If the job doesn't use any BuildWrappers, we don't care
-        if (!(task instanceof BuildableItemWithBuildWrappers)) {
+        // If we aren't one of the wrappers for this build, we don't care
+        AndroidEmulator androidWrapper = getAndroidEmulatorForTask(task);
+        if (androidWrapper == null) {
             return null;
         }
 
-        // Fetch the item that actually contains the BuildWrapper config and downcast it
-        BuildableItemWithBuildWrappers job;
-        MatrixConfiguration matrixBuild = null;
         if (task instanceof MatrixConfiguration) {
-            matrixBuild = (MatrixConfiguration) task;
-            job = matrixBuild.getParent();
-        } else {
-            job = (BuildableItemWithBuildWrappers) task;
+            // If this is a matrix sub-build, substitute in the build variables
+            return androidWrapper.getConfigHash(node, ((MatrixConfiguration) task).getCombination());
         }
+        return androidWrapper.getConfigHash(node);
+    }
 
-        // If we aren't one of the wrappers for this build, we don't care
-        AndroidEmulator androidWrapper = job.getBuildWrappersList().get(AndroidEmulator.class);
-        if (androidWrapper == null) {
+    /**
+     * @param task The task whose Android emulator configuration should be returned.
+     * @return The Android emulator configuration for the task, or {@code null} if the given task is
+     *         not configured to start an Android emulator.
+     */
+    private static AndroidEmulator getAndroidEmulatorForTask(SubTask task) {
+        // If the job doesn't use any BuildWrappers, we don't care
+        if (!(task instanceof BuildableItemWithBuildWrappers)) {
             return null;
         }
 
-        if (matrixBuild != null) {
-            // If this is a matrix sub-build, substitute in the build variables
-            return androidWrapper.getConfigHash(node, matrixBuild.getCombination());
+        // Fetch the item that actually contains the BuildWrapper config
+        BuildableItemWithBuildWrappers job;
+        if (task instanceof MatrixConfiguration) {
+            job = ((MatrixConfiguration) task).getParent();
+        } else {
+            job = (BuildableItemWithBuildWrappers) task;
         }
-        return androidWrapper.getConfigHash(node);
+        return job.getBuildWrappersList().get(AndroidEmulator.class);
     }
 
 }
@@ -0,0 +1,65 @@
+package hudson.plugins.android_emulator;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Configures a build machine to place the volatile disk images of each emulator, i.e. its user
+ * data, cache and SD card, in a RAM-backed directory such as {@code /dev/shm}, so that emulator I/O
+ * does not compete with the build for the disk.
+ *
+ * @see hudson.plugins.android_emulator.util.VolatileImages
+ */
+@ExportedBean
+public class VolatileStorageProperty extends NodeProperty<Node> {
+
+    /** Directory used if none is configured. */
+    public static final String DEFAULT_PATH = "/dev/shm";
+
+    private static final long BYTES_PER_MB = 1024L * 1024;
+
+    /** Directory in which volatile images are placed. */
+    @Exported
+    public final String path;
+
+    /** Space, in MB, which the volatile images of concurrent emulators may take up; zero for no limit. */
+    @Exported
+    public final int capacityMb;
+
+    @DataBoundConstructor
+    public VolatileStorageProperty(String path, int capacityMb) {
+        this.path = Util.fixEmptyAndTrim(path) == null ? DEFAULT_PATH : path.trim();
+        this.capacityMb = Math.max(0, capacityMb);
+    }
+
+    /** @return The capacity in bytes, or zero for no limit. */
+    public long getCapacityBytes() {
+        return capacityMb * BYTES_PER_MB;
+    }
+
+    /**
+     * @param requiredBytes Space which an emulator's volatile images can take up.
+     * @return {@code true} if the images fit within the capacity, when no other emulator is running.
+     */
+    public boolean canFit(long requiredBytes) {
+        return capacityMb == 0 || requiredBytes <= getCapacityBytes();
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.VOLATILE_STORAGE_DISPLAY_NAME();
+        }
+
+    }
+
+}
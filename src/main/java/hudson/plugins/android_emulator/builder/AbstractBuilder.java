@@ -100,6 +100,14 @@ public abstract class AbstractBuilder extends Builder {
             }
         }
 
+        // Ensure that any SDK components still being installed in the background are ready
+        try {
+            SdkInstaller.awaitDeferredInstall(listener);
+        } catch (SdkInstallationException e) {
+            log(listener.getLogger(), Messages.SDK_INSTALLATION_FAILED(), e);
+            return null;
+        }
+
         // Export environment variables
         final String sdkRoot = androidSdk.getSdkRoot();
         build.addAction(new EnvironmentContributingAction() {
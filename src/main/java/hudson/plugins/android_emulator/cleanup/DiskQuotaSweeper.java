@@ -0,0 +1,154 @@
+package hudson.plugins.android_emulator.cleanup;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.BuildableItemWithBuildWrappers;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.TopLevelItem;
+import hudson.plugins.android_emulator.AndroidEmulator;
+import hudson.plugins.android_emulator.AndroidEmulator.DescriptorImpl;
+import hudson.plugins.android_emulator.Messages;
+import hudson.plugins.android_emulator.util.AvdTemplateStore;
+import hudson.plugins.android_emulator.util.Utils;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically frees disk space on each online build machine, by evicting the least-recently-used
+ * AVDs, AVD templates and system images once the configured disk quota or free-space watermark is crossed.
+ *
+ * @see LruEvictor
+ */
+@Extension
+public class DiskQuotaSweeper extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(DiskQuotaSweeper.class.getName());
+
+    private static final long BYTES_PER_GB = 1024L * 1024 * 1024;
+
+    public DiskQuotaSweeper() {
+        super("Android emulator disk quota");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.HOURS.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        final DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        if (descriptor == null || (descriptor.avdDiskQuotaGb <= 0 && descriptor.minFreeDiskSpaceGb <= 0)) {
+            return;
+        }
+        final long quotaBytes = Math.max(0, descriptor.avdDiskQuotaGb) * BYTES_PER_GB;
+        final long minFreeBytes = Math.max(0, descriptor.minFreeDiskSpaceGb) * BYTES_PER_GB;
+
+        for (Computer computer : Jenkins.get().getComputers()) {
+            final Node node = computer.getNode();
+            final VirtualChannel channel = computer.getChannel();
+            if (node == null || channel == null || computer.isOffline()) {
+                continue;
+            }
+
+            final List<String> sdkRoots = new ArrayList<>();
+            final FilePath installDir = node.getRootPath() == null ? null : Utils.getSdkInstallDirectory(node);
+            if (installDir != null) {
+                sdkRoots.add(installDir.getRemote());
+            }
+            // Variables can't be expanded outside of a build, so such SDK roots are skipped
+            final String androidHome = Util.fixEmptyAndTrim(descriptor.androidHome);
+            if (androidHome != null && !androidHome.contains("$")) {
+                sdkRoots.add(androidHome);
+            }
+
+            // AVDs may also be kept in the workspace of each job which doesn't use a named AVD
+            final List<String> workspaces = descriptor.shouldKeepInWorkspace
+                    ? getEmulatorWorkspaces(node) : new ArrayList<String>();
+
+            try {
+                final List<String> evicted = channel.call(
+                        new SweepTask(sdkRoots, workspaces, quotaBytes, minFreeBytes));
+                for (String path : evicted) {
+                    LOGGER.info(Messages.DISK_QUOTA_EVICTED(path, computer.getDisplayName()));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, Messages.DISK_QUOTA_SWEEP_FAILED(computer.getDisplayName(), e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * @param node The build machine.
+     * @return The workspace paths, on the given machine, of the jobs whose AVDs are kept in their workspace.
+     */
+    private static List<String> getEmulatorWorkspaces(Node node) {
+        final List<String> workspaces = new ArrayList<>();
+        for (AbstractProject<?, ?> project : Jenkins.get().getAllItems(AbstractProject.class)) {
+            if (!(project instanceof BuildableItemWithBuildWrappers) || !(project instanceof TopLevelItem)) {
+                continue;
+            }
+            final AndroidEmulator wrapper = ((BuildableItemWithBuildWrappers) project).getBuildWrappersList()
+                    .get(AndroidEmulator.class);
+            if (wrapper == null || Util.fixEmptyAndTrim(wrapper.avdName) != null) {
+                continue;
+            }
+            final FilePath workspace = node.getWorkspaceFor((TopLevelItem) project);
+            if (workspace != null) {
+                workspaces.add(workspace.getRemote());
+            }
+        }
+        return workspaces;
+    }
+
+    /** Evicts AVDs, templates and system images on the build machine, returning the paths of those deleted. */
+    private static final class SweepTask extends MasterToSlaveCallable<List<String>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> sdkRoots;
+        private final List<String> workspaces;
+        private final long quotaBytes;
+        private final long minFreeBytes;
+
+        SweepTask(List<String> sdkRoots, List<String> workspaces, long quotaBytes, long minFreeBytes) {
+            this.sdkRoots = sdkRoots;
+            this.workspaces = workspaces;
+            this.quotaBytes = quotaBytes;
+            this.minFreeBytes = minFreeBytes;
+        }
+
+        public List<String> call() throws IOException {
+            final Set<File> avdHomes = new LinkedHashSet<>();
+            avdHomes.add(new File(Utils.getAndroidSdkHomeDirectory(null), ".android/avd"));
+            for (String workspace : workspaces) {
+                avdHomes.add(new File(Utils.getAndroidSdkHomeDirectory(workspace), ".android/avd"));
+            }
+            final List<File> roots = new ArrayList<>();
+            for (String root : sdkRoots) {
+                roots.add(new File(root));
+            }
+            final File userHome = Utils.getHomeDirectory();
+            final File templateRoot = userHome == null ? null : new File(userHome, AvdTemplateStore.DEFAULT_DIR);
+            return new LruEvictor(new ArrayList<>(avdHomes), templateRoot, roots, quotaBytes, minFreeBytes).evict();
+        }
+
+    }
+
+}
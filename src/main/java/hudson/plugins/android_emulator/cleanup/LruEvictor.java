@@ -0,0 +1,329 @@
+package hudson.plugins.android_emulator.cleanup;
+
+import hudson.plugins.android_emulator.util.AvdTemplateStore;
+import hudson.plugins.android_emulator.util.ConfigFileUtils;
+import hudson.plugins.android_emulator.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frees disk space on a build machine by deleting the least-recently-used AVDs created by this
+ * plugin, the least-recently-used system images, and the least-recently-used AVD templates, once a
+ * disk quota or free-space watermark has been crossed.
+ * <p>
+ * Each time an AVD is used, a marker file is {@link #recordUse(File, File) touched} in both the AVD
+ * directory and the directory of the system image it runs, so that the time of last use is known
+ * even if the files themselves aren't modified.  Only system images which have been used by this
+ * plugin are considered for eviction, so that images installed for other purposes are left alone.
+ * <p>
+ * An AVD is never evicted while an emulator is running it (i.e. it has lock files), nor shortly
+ * after it was last used, as it may be about to start.  A system image is never evicted while an
+ * AVD which is being kept still refers to it.
+ * <p>
+ * Templates share most of their data with the AVDs they were captured from, but as that can't be
+ * measured, their full size counts towards the quota.
+ *
+ * @see AvdTemplateStore
+ */
+public final class LruEvictor {
+
+    /** File which is touched each time an AVD or system image is used. */
+    public static final String LAST_USE_MARKER = ".jenkins-last-use";
+
+    /** Prefix of the names of AVDs generated by this plugin. */
+    static final String AVD_PREFIX = "hudson_";
+
+    /** Recently-used AVDs and images are never evicted, as they may be about to be used again. */
+    static final long MIN_IDLE_MS = 60 * 60 * 1000;
+
+    private static final String SYSTEM_IMAGE_DIR_KEY = "image.sysdir.1";
+
+    private final List<File> avdHomes;
+    private final File templateRoot;
+    private final List<File> sdkRoots;
+    private final long quotaBytes;
+    private final long minFreeBytes;
+    private final long now;
+
+    /**
+     * @param avdHome Directory containing the AVDs, e.g. {@code ~/.android/avd}.
+     * @param sdkRoots Root directories of the SDKs whose system images may be evicted.
+     * @param quotaBytes Maximum total size of evictable AVDs and system images; {@code 0} for no limit.
+     * @param minFreeBytes Minimum free space on the disks containing them; {@code 0} for no limit.
+     */
+    public LruEvictor(File avdHome, List<File> sdkRoots, long quotaBytes, long minFreeBytes) {
+        this(Collections.singletonList(avdHome), null, sdkRoots, quotaBytes, minFreeBytes, System.currentTimeMillis());
+    }
+
+    /**
+     * @param avdHomes Directories containing the AVDs, e.g. {@code ~/.android/avd}, and those kept
+     *        in job workspaces; the quota applies to all of them together.
+     * @param templateRoot Directory containing the AVD templates; may be {@code null}.
+     * @param sdkRoots Root directories of the SDKs whose system images may be evicted.
+     * @param quotaBytes Maximum total size of evictable AVDs, templates and system images; {@code 0} for no limit.
+     * @param minFreeBytes Minimum free space on the disks containing them; {@code 0} for no limit.
+     */
+    public LruEvictor(List<File> avdHomes, File templateRoot, List<File> sdkRoots, long quotaBytes,
+            long minFreeBytes) {
+        this(avdHomes, templateRoot, sdkRoots, quotaBytes, minFreeBytes, System.currentTimeMillis());
+    }
+
+    LruEvictor(List<File> avdHomes, File templateRoot, List<File> sdkRoots, long quotaBytes, long minFreeBytes,
+            long now) {
+        this.avdHomes = new ArrayList<>(avdHomes);
+        this.templateRoot = templateRoot;
+        this.sdkRoots = new ArrayList<>(sdkRoots);
+        this.quotaBytes = quotaBytes;
+        this.minFreeBytes = minFreeBytes;
+        this.now = now;
+    }
+
+    /**
+     * Records that the given AVD, and the system image it uses, are being used now.
+     *
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @param sdkRoot Root directory of the SDK containing the system image; may be {@code null}.
+     */
+    public static void recordUse(File avdDirectory, File sdkRoot) throws IOException {
+        FileSystemUtils.touch(new File(avdDirectory, LAST_USE_MARKER));
+        final String systemImageDir = getSystemImageDir(avdDirectory);
+        if (sdkRoot != null && systemImageDir != null) {
+            final File imageDir = new File(sdkRoot, systemImageDir);
+            if (imageDir.isDirectory()) {
+                FileSystemUtils.touch(new File(imageDir, LAST_USE_MARKER));
+            }
+        }
+    }
+
+    /**
+     * Evicts least-recently-used entries until the quota and free-space watermark are satisfied, or
+     * there's nothing left which may be evicted.
+     *
+     * @return The paths of the evicted AVDs, templates and system images.
+     */
+    public List<String> evict() throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final List<File> allAvds = new ArrayList<>();
+        for (File avdHome : avdHomes) {
+            final File[] avdDirs = avdHome.listFiles();
+            if (avdDirs == null) {
+                continue;
+            }
+            for (File dir : avdDirs) {
+                if (!dir.isDirectory() || !dir.getName().endsWith(".avd")) {
+                    continue;
+                }
+                allAvds.add(dir);
+                if (dir.getName().startsWith(AVD_PREFIX)) {
+                    entries.add(new Entry(dir, Kind.AVD));
+                }
+            }
+        }
+        final File[] templateDirs = templateRoot == null ? null : templateRoot.listFiles();
+        if (templateDirs != null) {
+            for (File dir : templateDirs) {
+                // Templates which are still being captured have a hidden, temporary name
+                if (dir.isDirectory() && !dir.getName().startsWith(".")) {
+                    entries.add(new Entry(dir, Kind.TEMPLATE));
+                }
+            }
+        }
+        for (File sdkRoot : sdkRoots) {
+            for (File imageDir : listSystemImages(sdkRoot)) {
+                if (new File(imageDir, LAST_USE_MARKER).exists()) {
+                    entries.add(new Entry(imageDir, Kind.SYSTEM_IMAGE));
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(e -> e.lastUse));
+
+        long totalSize = 0;
+        for (Entry entry : entries) {
+            totalSize += entry.size;
+        }
+
+        final List<String> evicted = new ArrayList<>();
+        boolean progress = true;
+        while (progress && needsSpace(totalSize)) {
+            // Evicting an AVD may release the system image it uses, so keep going until nothing changes
+            progress = false;
+            for (Entry entry : new ArrayList<>(entries)) {
+                if (!needsSpace(totalSize)) {
+                    break;
+                }
+                if (!isEvictable(entry, allAvds)) {
+                    continue;
+                }
+                delete(entry);
+                entries.remove(entry);
+                allAvds.remove(entry.dir);
+                totalSize -= entry.size;
+                evicted.add(entry.dir.getPath());
+                progress = true;
+            }
+        }
+        return evicted;
+    }
+
+    private boolean needsSpace(long totalSize) {
+        if (quotaBytes > 0 && totalSize > quotaBytes) {
+            return true;
+        }
+        if (minFreeBytes > 0) {
+            for (File avdHome : avdHomes) {
+                if (avdHome.isDirectory() && avdHome.getUsableSpace() < minFreeBytes) {
+                    return true;
+                }
+            }
+            if (templateRoot != null && templateRoot.isDirectory() && templateRoot.getUsableSpace() < minFreeBytes) {
+                return true;
+            }
+            for (File sdkRoot : sdkRoots) {
+                if (sdkRoot.isDirectory() && sdkRoot.getUsableSpace() < minFreeBytes) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isEvictable(Entry entry, List<File> remainingAvds) throws IOException {
+        if (now - entry.lastUse < MIN_IDLE_MS) {
+            return false;
+        }
+        if (entry.kind == Kind.AVD) {
+            return !isLocked(entry.dir);
+        }
+        if (entry.kind == Kind.TEMPLATE) {
+            // Templates are only read while being restored, which first touches their marker
+            return true;
+        }
+        final String imagePath = entry.dir.getCanonicalPath();
+        for (File avd : remainingAvds) {
+            final String systemImageDir = getSystemImageDir(avd);
+            if (systemImageDir == null) {
+                continue;
+            }
+            for (File sdkRoot : sdkRoots) {
+                if (new File(sdkRoot, systemImageDir).getCanonicalPath().equals(imagePath)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return {@code true} if the emulator has locked this AVD, i.e. it's running. */
+    private static boolean isLocked(File avdDirectory) {
+        final String[] names = avdDirectory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".lock")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void delete(Entry entry) throws IOException {
+        if (entry.kind == Kind.AVD) {
+            // Remove the metadata file first, so that a half-deleted AVD is no longer listed
+            final String name = entry.dir.getName();
+            Files.deleteIfExists(new File(entry.dir.getParentFile(),
+                    name.substring(0, name.length() - ".avd".length()) + ".ini").toPath());
+        } else if (entry.kind == Kind.TEMPLATE) {
+            // Likewise, a template without its source path is never restored
+            Files.deleteIfExists(new File(entry.dir, AvdTemplateStore.SOURCE_PATH_FILE).toPath());
+        } else {
+            // Likewise, remove the package metadata first, so the SDK no longer thinks it's installed
+            Files.deleteIfExists(new File(entry.dir, "package.xml").toPath());
+            Files.deleteIfExists(new File(entry.dir, "source.properties").toPath());
+        }
+        FileSystemUtils.deleteRecursive(entry.dir);
+    }
+
+    private static List<File> listSystemImages(File sdkRoot) {
+        // system-images/<platform>/<tag>/<abi>
+        final List<File> images = new ArrayList<>();
+        collectDirectories(new File(sdkRoot, "system-images"), 3, images);
+        return images;
+    }
+
+    private static void collectDirectories(File dir, int depth, List<File> result) {
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.isDirectory() || child.getName().startsWith(".")) {
+                continue;
+            }
+            if (depth == 1) {
+                result.add(child);
+            } else {
+                collectDirectories(child, depth - 1, result);
+            }
+        }
+    }
+
+    private static String getSystemImageDir(File avdDirectory) {
+        final File configFile = new File(avdDirectory, "config.ini");
+        if (!configFile.isFile()) {
+            return null;
+        }
+        try {
+            final Map<String, String> config = ConfigFileUtils.parseConfigFile(configFile);
+            final String dir = config.get(SYSTEM_IMAGE_DIR_KEY);
+            return dir == null || dir.trim().isEmpty() ? null : dir.trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long sizeOf(File file) {
+        if (Files.isSymbolicLink(file.toPath())) {
+            return 0;
+        }
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    /** The types of directory which may be evicted. */
+    private enum Kind {
+        AVD, TEMPLATE, SYSTEM_IMAGE
+    }
+
+    /** An AVD, template or system image which may be evicted. */
+    private static final class Entry {
+        final File dir;
+        final Kind kind;
+        final long lastUse;
+        final long size;
+
+        Entry(File dir, Kind kind) {
+            this.dir = dir;
+            this.kind = kind;
+            final File marker = new File(dir, LAST_USE_MARKER);
+            this.lastUse = marker.exists() ? marker.lastModified() : dir.lastModified();
+            this.size = sizeOf(dir);
+        }
+    }
+
+}
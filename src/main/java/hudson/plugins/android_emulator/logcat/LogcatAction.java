@@ -0,0 +1,210 @@
+package hudson.plugins.android_emulator.logcat;
+
+import hudson.model.Run;
+import hudson.plugins.android_emulator.Messages;
+import jenkins.model.RunAction2;
+import jenkins.util.VirtualFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Exposes the archived emulator logcat of a build, along with the per-test slices of it.
+ * <p>
+ * The test index is read lazily from the archived sidecar file, so the build record itself only
+ * stores the artifact names.  A single test's output can be retrieved via
+ * {@code <build>/logcat/slice?test=<name>}, and the index via {@code <build>/logcat/api/json}.
+ * <p>
+ * The logcat output is either archived as a single file, or as a series of fixed-size segments
+ * which were archived while the build was running; see {@link LogcatSegmentUploader}.
+ */
+@ExportedBean
+public class LogcatAction implements RunAction2 {
+
+    /** Name of the archived logcat file. */
+    public static final String LOGCAT_ARTIFACT = "logcat.txt";
+
+    /** Name of the archived test index. */
+    public static final String INDEX_ARTIFACT = "logcat.index";
+
+    private final int testCount;
+
+    /** Size of each archived logcat segment, or zero if the output was archived as a single file. */
+    private final long segmentSize;
+    private final int segmentCount;
+
+    private transient Run<?, ?> run;
+    private transient LogcatIndex index;
+
+    public LogcatAction(int testCount) {
+        this(testCount, 0, 0);
+    }
+
+    /**
+     * @param testCount Number of tests in the index.
+     * @param segmentSize Size of each archived logcat segment, or zero if archived as a single file.
+     * @param segmentCount Number of archived logcat segments.
+     */
+    public LogcatAction(int testCount, long segmentSize, int segmentCount) {
+        this.testCount = testCount;
+        this.segmentSize = segmentSize;
+        this.segmentCount = segmentCount;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public String getDisplayName() {
+        return Messages.LOGCAT_ACTION_DISPLAY_NAME();
+    }
+
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    public String getUrlName() {
+        return "logcat";
+    }
+
+    @Exported
+    public int getTestCount() {
+        return testCount;
+    }
+
+    @Exported
+    public boolean isSegmented() {
+        return segmentSize > 0;
+    }
+
+    /** @return Paths of the archived logcat files, relative to the artifact root, in order. */
+    @Exported
+    public List<String> getLogcatPaths() {
+        if (!isSegmented()) {
+            return Collections.singletonList(LOGCAT_ARTIFACT);
+        }
+        final List<String> paths = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            paths.add(LogcatSegmentUploader.getSegmentPath(i));
+        }
+        return paths;
+    }
+
+    /** @return All indexed tests, or an empty list if the index could not be read. */
+    @Exported(inline = true)
+    public List<LogcatIndex.Entry> getTests() {
+        final LogcatIndex index = getIndex();
+        return index == null ? Collections.<LogcatIndex.Entry>emptyList() : index.getEntries();
+    }
+
+    private synchronized LogcatIndex getIndex() {
+        if (index == null && run != null) {
+            final VirtualFile indexFile = run.getArtifactManager().root().child(INDEX_ARTIFACT);
+            try (InputStream in = indexFile.open()) {
+                index = LogcatIndex.read(in);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Streams the logcat output of a single test, without reading the rest of the logcat file.
+     *
+     * @param test Name of the test, as reported by the test runner.
+     * @param rsp The response to write the logcat slice to.
+     */
+    public void doSlice(@QueryParameter String test, StaplerResponse rsp) throws IOException, ServletException {
+        run.checkPermission(Run.ARTIFACTS);
+
+        final LogcatIndex index = getIndex();
+        final LogcatIndex.Entry entry = (index == null || test == null) ? null : index.find(test);
+        if (entry == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        final VirtualFile root = run.getArtifactManager().root();
+        try (OutputStream out = rsp.getOutputStream()) {
+            if (!isSegmented()) {
+                try (InputStream in = root.child(LOGCAT_ARTIFACT).open()) {
+                    copyRange(in, out, entry.getStart(), entry.getLength());
+                }
+                return;
+            }
+
+            // Only open the segments which overlap with the test
+            long position = entry.getStart();
+            while (position < entry.getEnd()) {
+                final int segment = (int) (position / segmentSize);
+                final long segmentStart = segment * segmentSize;
+                final long length = Math.min(entry.getEnd(), segmentStart + segmentSize) - position;
+                try (InputStream in = root.child(LogcatSegmentUploader.getSegmentPath(segment)).open()) {
+                    copyRange(in, out, position - segmentStart, length);
+                }
+                position += length;
+            }
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes, starting at {@code start}, from one stream to another.
+     *
+     * @param in Stream to read from.
+     * @param out Stream to write to.
+     * @param start Offset of the first byte to copy.
+     * @param length Number of bytes to copy.
+     * @throws IOException If the stream ends before reaching {@code start}, or copying fails.
+     */
+    static void copyRange(InputStream in, OutputStream out, long start, long length) throws IOException {
+        // For file-backed streams, skipping is a seek rather than a read
+        long toSkip = start;
+        while (toSkip > 0) {
+            final long skipped = in.skip(toSkip);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of logcat file at offset " + (start - toSkip));
+                }
+                toSkip--;
+            } else {
+                toSkip -= skipped;
+            }
+        }
+
+        final byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+}
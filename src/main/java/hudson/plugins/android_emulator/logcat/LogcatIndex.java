@@ -0,0 +1,134 @@
+package hudson.plugins.android_emulator.logcat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Byte ranges of the logcat output belonging to each test executed during a build.
+ * <p>
+ * The index is stored next to the archived logcat file, one test per line, in the format
+ * {@code <start offset> TAB <end offset> TAB <test name>}.
+ */
+public final class LogcatIndex {
+
+    private final List<Entry> entries;
+
+    public LogcatIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /** @return All indexed tests, in the order they were started. */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Finds the first test with the given name.
+     *
+     * @param testName Name of the test, as reported by the test runner, e.g. {@code testFoo(com.example.FooTest)}.
+     * @return The matching entry, or {@code null} if no such test was indexed.
+     */
+    public Entry find(String testName) {
+        for (Entry entry : entries) {
+            if (entry.getName().equals(testName)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes this index in the sidecar file format.
+     *
+     * @param out Stream to write to; it will not be closed.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream out) throws IOException {
+        final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (Entry entry : entries) {
+            writer.write(entry.getStart() + "\t" + entry.getEnd() + "\t" + entry.getName() + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads an index previously written by {@link #write(OutputStream)}.
+     *
+     * @param in Stream to read from; it will not be closed.
+     * @return The parsed index; malformed lines are ignored.
+     * @throws IOException If reading fails.
+     */
+    public static LogcatIndex read(InputStream in) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String[] parts = line.split("\t", 3);
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                entries.add(new Entry(parts[2], Long.parseLong(parts[0]), Long.parseLong(parts[1])));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return new LogcatIndex(entries);
+    }
+
+    /** A single test and the logcat byte range {@code [start, end)} covering its execution. */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Entry {
+
+        private final String name;
+        private final long start;
+        private final long end;
+
+        public Entry(String name, long start, long end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getStart() {
+            return start;
+        }
+
+        @Exported
+        public long getEnd() {
+            return end;
+        }
+
+        @Exported
+        public long getLength() {
+            return end - start;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%d,%d)", name, start, end);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package hudson.plugins.android_emulator.logcat;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Passes logcat output through to the underlying stream, while recording the byte offsets at
+ * which each test starts and finishes, based on the markers written by the instrumentation
+ * test runner, e.g.:
+ * <pre>
+ * 10-19 12:00:00.000 I/TestRunner( 1234): started: testFoo(com.example.FooTest)
+ * 10-19 12:00:01.000 I/TestRunner( 1234): finished: testFoo(com.example.FooTest)
+ * </pre>
+ * The range of a test covers its "started" line up to and including its "finished" line.
+ */
+public class LogcatIndexingOutputStream extends FilterOutputStream {
+
+    /** Matches test runner start/finish markers in both the "time" and "threadtime" logcat formats. */
+    private static final Pattern MARKER = Pattern.compile(
+            "TestRunner\\s*(?:\\(\\s*\\d+\\))?:\\s+(started|finished):\\s+(.*\\S)");
+
+    /** Byte sequence which must appear in a line before we bother matching it against {@link #MARKER}. */
+    private static final byte[] MARKER_TAG = "TestRunner".getBytes(StandardCharsets.US_ASCII);
+
+    /** Lines longer than this can't be test runner markers, so we stop buffering them. */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength;
+    private boolean lineOverflowed;
+    private long lineStart;
+    private long offset;
+
+    /** Tests which have started, but not yet finished, keyed by name. */
+    private final Map<String, Long> running = new LinkedHashMap<>();
+    private final List<LogcatIndex.Entry> completed = new ArrayList<>();
+
+    public LogcatIndexingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        synchronized (this) {
+            consume((byte) b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        // Take the lock once for the whole buffer, rather than for every byte
+        synchronized (this) {
+            for (int i = off; i < off + len; i++) {
+                consume(b[i]);
+            }
+        }
+    }
+
+    /** @return The number of bytes that have been written so far. */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the index of all tests seen so far. Tests which have started but not yet finished
+     * are included, with their range ending at the current offset.
+     *
+     * @return The current test index.
+     */
+    public synchronized LogcatIndex getIndex() {
+        final List<LogcatIndex.Entry> entries = new ArrayList<>(completed);
+        for (Map.Entry<String, Long> test : running.entrySet()) {
+            entries.add(new LogcatIndex.Entry(test.getKey(), test.getValue(), offset));
+        }
+        // Tests are recorded as they finish, but are listed in the order they started
+        entries.sort(Comparator.comparingLong(LogcatIndex.Entry::getStart));
+        return new LogcatIndex(entries);
+    }
+
+    /** Must be called while holding the lock on this stream. */
+    private void consume(byte b) {
+        offset++;
+        if (b == '\r') {
+            // adb may emit "\r\n" or even "\r\r\n"; the line ends with the final '\n'
+            return;
+        }
+        if (b == '\n') {
+            if (lineLength > 0 && !lineOverflowed) {
+                processLine(offset);
+            }
+            lineLength = 0;
+            lineOverflowed = false;
+            lineStart = offset;
+            return;
+        }
+        if (lineLength < MAX_LINE_LENGTH) {
+            line[lineLength++] = b;
+        } else {
+            lineOverflowed = true;
+        }
+    }
+
+    private void processLine(long lineEnd) {
+        if (!containsMarkerTag()) {
+            return;
+        }
+        final Matcher m = MARKER.matcher(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+        if (!m.find()) {
+            return;
+        }
+
+        final String testName = m.group(2);
+        if ("started".equals(m.group(1))) {
+            // A test with the same name may be re-run; the latest start wins
+            running.put(testName, lineStart);
+        } else {
+            final Long start = running.remove(testName);
+            if (start != null) {
+                completed.add(new LogcatIndex.Entry(testName, start, lineEnd));
+            }
+        }
+    }
+
+    private boolean containsMarkerTag() {
+        outer:
+        for (int i = 0; i <= lineLength - MARKER_TAG.length; i++) {
+            for (int j = 0; j < MARKER_TAG.length; j++) {
+                if (line[i + j] != MARKER_TAG[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,192 @@
+package hudson.plugins.android_emulator.logcat;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.ArtifactManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes logcat output to a series of fixed-size segment files in the workspace, archiving each
+ * segment in the background as soon as it is complete, so that only the final segment remains to
+ * be archived when the build finishes.
+ * <p>
+ * Segment {@code n} contains exactly the bytes {@code [n * segmentSize, (n + 1) * segmentSize)}
+ * of the logcat output, and is archived as {@link #getSegmentPath(int) logcat/logcat-n.txt}.
+ */
+public class LogcatSegmentUploader extends OutputStream {
+
+    /** Directory in which segments are archived. */
+    public static final String SEGMENT_DIRECTORY = "logcat";
+
+    /** How long to wait for the final uploads to complete when closing. */
+    private static final long UPLOAD_TIMEOUT_MINUTES = 10;
+
+    private final FilePath workspace;
+    private final String prefix;
+    private final long segmentSize;
+    private final ArtifactManager artifactManager;
+    private final Launcher launcher;
+    private final BuildListener listener;
+
+    /** Uploads are done one at a time, in order, so that segments appear in sequence. */
+    private final ExecutorService uploader = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "Android logcat upload"));
+
+    private int segment;
+    private long segmentWritten;
+    private FilePath segmentFile;
+    private OutputStream segmentStream;
+    private volatile IOException uploadFailure;
+    private boolean closed;
+
+    /**
+     * @param workspace Directory in which to write the segments before they are archived.
+     * @param prefix Prefix for the names of the temporary segment files.
+     * @param segmentSize Maximum size of each segment, in bytes.
+     * @param artifactManager The artifact manager to archive segments with.
+     * @param launcher Launcher used by the artifact manager.
+     * @param listener Listener used by the artifact manager.
+     */
+    public LogcatSegmentUploader(FilePath workspace, String prefix, long segmentSize,
+            ArtifactManager artifactManager, Launcher launcher, BuildListener listener) {
+        this.workspace = workspace;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.artifactManager = artifactManager;
+        this.launcher = launcher;
+        this.listener = listener;
+    }
+
+    /**
+     * @param segment The segment number.
+     * @return The path, relative to the artifact root, at which the given segment is archived.
+     */
+    public static String getSegmentPath(int segment) {
+        return String.format("%s/logcat-%03d.txt", SEGMENT_DIRECTORY, segment);
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (segmentStream == null) {
+                openSegment();
+            }
+            final int count = (int) Math.min(len, segmentSize - segmentWritten);
+            segmentStream.write(b, off, count);
+            segmentWritten += count;
+            off += count;
+            len -= count;
+            if (segmentWritten == segmentSize) {
+                rotate();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (segmentStream != null) {
+            segmentStream.flush();
+        }
+    }
+
+    /**
+     * Archives the final segment, and waits for all uploads to complete.
+     *
+     * @throws IOException If any segment could not be archived.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (segmentStream != null && segmentWritten > 0) {
+                rotate();
+            } else if (segmentStream != null) {
+                segmentStream.close();
+                segmentFile.delete();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            uploader.shutdown();
+        }
+
+        try {
+            if (!uploader.awaitTermination(UPLOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new IOException("Timed-out while archiving logcat segments");
+            }
+        } catch (InterruptedException e) {
+            uploader.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (uploadFailure != null) {
+            throw uploadFailure;
+        }
+    }
+
+    /** @return The number of segments started so far. */
+    public synchronized int getSegmentCount() {
+        return segmentStream == null ? segment : segment + 1;
+    }
+
+    private void openSegment() throws IOException {
+        try {
+            segmentFile = workspace.createTempFile(prefix, ".log");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        segmentStream = segmentFile.write();
+        segmentWritten = 0;
+    }
+
+    private void rotate() throws IOException {
+        segmentStream.close();
+        final FilePath file = segmentFile;
+        final String path = getSegmentPath(segment);
+        uploader.submit(() -> upload(file, path));
+
+        segment++;
+        segmentStream = null;
+        segmentFile = null;
+    }
+
+    private void upload(FilePath file, String path) {
+        try {
+            artifactManager.archive(workspace, launcher, listener,
+                    Collections.singletonMap(path, file.getName()));
+        } catch (IOException e) {
+            if (uploadFailure == null) {
+                uploadFailure = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            file.delete();
+        } catch (IOException | InterruptedException ignore) {
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package hudson.plugins.android_emulator.screenrecord;
+
+import hudson.model.Action;
+import hudson.plugins.android_emulator.Messages;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Links to the archived recording of the emulator screen, taken during a build.
+ */
+@ExportedBean
+public class ScreenRecordAction implements Action {
+
+    private final int minutes;
+
+    /** @param minutes The maximum number of minutes of footage which was kept, or zero if all of it was kept. */
+    public ScreenRecordAction(int minutes) {
+        this.minutes = minutes;
+    }
+
+    @Exported
+    public int getMinutes() {
+        return minutes;
+    }
+
+    /** @return Path of the recording, relative to the build. */
+    @Exported
+    public String getRecordingPath() {
+        return "artifact/" + ScreenRecorder.ARTIFACT;
+    }
+
+    public String getSummary() {
+        if (minutes == 0) {
+            return Messages.SCREEN_RECORDING_SUMMARY_COMPLETE();
+        }
+        return Messages.SCREEN_RECORDING_SUMMARY(minutes);
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+}
@@ -0,0 +1,80 @@
+package hudson.plugins.android_emulator.screenrecord;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.plugins.android_emulator.Messages;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+/**
+ * Archives the screen recording of a build once the build has completed.
+ * <p>
+ * The emulator is shut down before any publishers run, but publishers such as test result
+ * recorders may still change the build result, which determines how much footage we keep.
+ * So the stopped recording is held here until its build has its final result.
+ */
+@Extension
+public class ScreenRecordArchiver extends RunListener<AbstractBuild<?, ?>> {
+
+    /** Stopped recordings, waiting for their build to complete. */
+    private static final Map<AbstractBuild<?, ?>, ScreenRecorder> PENDING =
+            Collections.synchronizedMap(new WeakHashMap<AbstractBuild<?, ?>, ScreenRecorder>());
+
+    /**
+     * Archives the given recording once the build has completed.
+     *
+     * @param build The build which was recorded.
+     * @param recorder The stopped recorder.
+     */
+    public static void archiveOnCompletion(AbstractBuild<?, ?> build, ScreenRecorder recorder) {
+        PENDING.put(build, recorder);
+    }
+
+    @Override
+    public void onCompleted(AbstractBuild<?, ?> build, TaskListener listener) {
+        final ScreenRecorder recorder = PENDING.remove(build);
+        if (recorder == null) {
+            return;
+        }
+
+        // The recording is kept outside of the workspace, which the next build may already be using
+        final Node node = build.getBuiltOn();
+        final Result result = build.getResult();
+        try {
+            try {
+                final FilePath recording = node == null ? null : recorder.join(result);
+                if (recording != null) {
+                    log(listener.getLogger(), Messages.ARCHIVING_SCREEN_RECORDING());
+                    final BuildListener buildListener = listener instanceof BuildListener ? (BuildListener) listener
+                            : new StreamBuildListener(listener.getLogger(), Charset.defaultCharset());
+                    final Launcher launcher = node.createLauncher(buildListener);
+                    build.getArtifactManager().archive(recording.getParent(), launcher, buildListener,
+                            Collections.singletonMap(ScreenRecorder.ARTIFACT, recording.getName()));
+                    final boolean complete = result != null && result.isWorseThan(Result.SUCCESS);
+                    build.addAction(new ScreenRecordAction(complete ? 0 : recorder.getKeepMinutes()));
+                }
+            } finally {
+                recorder.discard();
+            }
+        } catch (IOException e) {
+            log(listener.getLogger(), Messages.SCREEN_RECORDING_FAILED(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package hudson.plugins.android_emulator.screenrecord;
+
+import hudson.FilePath;
+import hudson.model.Result;
+import hudson.plugins.android_emulator.AndroidEmulatorContext;
+import hudson.plugins.android_emulator.sdk.cli.AdbShellCommands;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the emulator screen for the duration of a build; the most recent footage is kept, or all
+ * of it if the build fails.
+ * <p>
+ * The guest's {@code screenrecord} tool can only record for three minutes at a time, so we run it
+ * repeatedly, streaming its raw H.264 output via {@code adb exec-out} straight into chunk files on
+ * the build node.  As the build result isn't known until the build has completed, every chunk is
+ * kept until then, and only the chunks to be archived are joined.  The chunks are kept outside of
+ * the workspace, as the build's lease on the workspace has been released by the time it completes.
+ * Since each chunk is a self-contained H.264 elementary stream, the chunks can be joined into a
+ * single playable file by simple concatenation, without re-encoding.
+ */
+public class ScreenRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(ScreenRecorder.class.getName());
+
+    /** Name of the archived recording. */
+    public static final String ARTIFACT = "screenrecord.h264";
+
+    /** The maximum duration that {@code screenrecord} supports. */
+    static final int CHUNK_SECONDS = 180;
+
+    /** A low bit rate keeps the encoding overhead in the guest down; we're not after high quality. */
+    private static final int BIT_RATE = 2 * 1000 * 1000;
+
+    /** Written once the recording task has finished writing chunks. */
+    static final String DONE_MARKER = ".done";
+
+    /** Number of chunks to archive when the whole recording should be kept. */
+    static final int ALL_CHUNKS = Integer.MAX_VALUE;
+
+    private final FilePath chunkDir;
+    private final Future<Integer> recording;
+    private final int keepMinutes;
+
+    private ScreenRecorder(FilePath chunkDir, Future<Integer> recording, int keepMinutes) {
+        this.chunkDir = chunkDir;
+        this.recording = recording;
+        this.keepMinutes = keepMinutes;
+    }
+
+    /**
+     * Starts recording the screen of the given emulator, on the node where it is running.
+     *
+     * @param emu The emulator to record.
+     * @param adbShellCmds The adb commands for the emulator's API level.
+     * @param recordingRoot Directory, outside of the workspace, in which to store the recording chunks.
+     * @param keepMinutes How many minutes of footage to keep, unless the build fails.
+     * @return The running recorder.
+     */
+    public static ScreenRecorder start(AndroidEmulatorContext emu, AdbShellCommands adbShellCmds,
+            FilePath recordingRoot, int keepMinutes) throws IOException, InterruptedException {
+        final VirtualChannel channel = emu.launcher().getChannel();
+        if (channel == null) {
+            throw new IllegalStateException("Channel is not configured");
+        }
+
+        recordingRoot.mkdirs();
+        final FilePath chunkDir = recordingRoot.createTempDir("screenrecord_", "");
+        final List<String> command = emu.getToolCommand(
+                adbShellCmds.getScreenRecordCommand(emu.serial(), CHUNK_SECONDS, BIT_RATE)).toList();
+        final Map<String, String> env = new HashMap<>(emu.getEnvironment(null));
+        final RecordTask task = new RecordTask(command, env, chunkDir.getRemote());
+        return new ScreenRecorder(chunkDir, channel.callAsync(task), keepMinutes);
+    }
+
+    /**
+     * @param keepMinutes How many minutes of footage to keep.
+     * @return The number of chunks needed to cover the given period, plus the chunk being recorded.
+     */
+    static int getChunksToKeep(int keepMinutes) {
+        final int chunks = (keepMinutes * 60 + CHUNK_SECONDS - 1) / CHUNK_SECONDS;
+        return Math.max(1, chunks) + 1;
+    }
+
+    /**
+     * @param result The final result of the build.
+     * @param keepMinutes How many minutes of footage to keep, unless the build fails.
+     * @return The number of most recent chunks to archive; {@link #ALL_CHUNKS} if the build failed.
+     */
+    static int getChunksToArchive(Result result, int keepMinutes) {
+        if (result != null && result.isWorseThan(Result.SUCCESS)) {
+            return ALL_CHUNKS;
+        }
+        return getChunksToKeep(keepMinutes);
+    }
+
+    /** @return How many minutes of footage are kept, unless the build fails. */
+    public int getKeepMinutes() {
+        return keepMinutes;
+    }
+
+    /** Stops recording; the chunk currently being recorded is kept. */
+    public void stop() {
+        recording.cancel(true);
+    }
+
+    /**
+     * Joins the footage to be kept into a single file, once {@link #stop() stopped}.
+     * The file remains until the recording is {@linkplain #discard() discarded}.
+     *
+     * @param result The final result of the build, which determines how much footage is kept.
+     * @return The joined recording, named {@link #ARTIFACT}, or {@code null} if nothing was recorded.
+     */
+    public FilePath join(Result result) throws IOException, InterruptedException {
+        final FilePath target = chunkDir.child(ARTIFACT);
+        final long size = chunkDir.act(new FinishTask(target.getRemote(), getChunksToArchive(result, keepMinutes)));
+        return size > 0 ? target : null;
+    }
+
+    /** Deletes the recording, once {@link #stop() stopped} and the recording task has finished. */
+    public void discard() throws IOException, InterruptedException {
+        try {
+            chunkDir.act(new FinishTask(null, 0));
+        } finally {
+            chunkDir.deleteRecursive();
+        }
+    }
+
+    /** Repeatedly records the screen into chunk files, until interrupted. */
+    static final class RecordTask extends MasterToSlaveCallable<Integer, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Give up if recording fails this many times in a row, e.g. if the guest has no screenrecord. */
+        private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+        private final List<String> command;
+        private final Map<String, String> env;
+        private final String chunkDir;
+
+        RecordTask(List<String> command, Map<String, String> env, String chunkDir) {
+            this.command = new ArrayList<>(command);
+            this.env = env;
+            this.chunkDir = chunkDir;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            final File dir = new File(chunkDir);
+            int chunk = 0;
+            int failures = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted() && failures < MAX_CONSECUTIVE_FAILURES) {
+                    final File chunkFile = getChunkFile(dir, chunk);
+                    final ProcessBuilder pb = new ProcessBuilder(command)
+                            .redirectOutput(chunkFile)
+                            .redirectError(ProcessBuilder.Redirect.appendTo(new File(dir, "screenrecord.err")));
+                    pb.environment().putAll(env);
+
+                    final Process process = pb.start();
+                    try {
+                        process.waitFor();
+                    } catch (InterruptedException e) {
+                        // Stop recording; the emulator is about to be shut down
+                        process.destroy();
+                        process.waitFor(5, TimeUnit.SECONDS);
+                        chunk++;
+                        break;
+                    }
+
+                    if (chunkFile.length() == 0) {
+                        failures++;
+                        if (!chunkFile.delete()) {
+                            LOGGER.log(Level.FINE, "Failed to delete empty chunk {0}", chunkFile);
+                        }
+                        continue;
+                    }
+                    failures = 0;
+                    chunk++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                new FileOutputStream(new File(dir, DONE_MARKER)).close();
+            }
+            return chunk;
+        }
+    }
+
+    /** Joins the most recent chunks into a single file, or discards them. */
+    static final class FinishTask extends MasterToSlaveFileCallable<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** How long to wait for the recording task to notice that it should stop. */
+        private static final long STOP_TIMEOUT_MS = 15 * 1000;
+
+        private final String target;
+        private final int chunksToJoin;
+
+        FinishTask(String target, int chunksToJoin) {
+            this.target = target;
+            this.chunksToJoin = chunksToJoin;
+        }
+
+        @Override
+        public Long invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+            while (!new File(dir, DONE_MARKER).exists() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            if (target == null) {
+                return 0L;
+            }
+
+            final File[] chunks = dir.listFiles((d, name) -> name.startsWith("chunk-") && name.endsWith(".h264"));
+            if (chunks == null || chunks.length == 0) {
+                return 0L;
+            }
+            // Chunk names are zero-padded, so sorting by name puts them in recording order
+            Arrays.sort(chunks);
+
+            final byte[] buffer = new byte[64 * 1024];
+            long size = 0;
+            try (OutputStream out = new FileOutputStream(target)) {
+                for (int i = Math.max(0, chunks.length - chunksToJoin); i < chunks.length; i++) {
+                    try (InputStream in = new FileInputStream(chunks[i])) {
+                        int read;
+                        while ((read = in.read(buffer)) >= 0) {
+                            out.write(buffer, 0, read);
+                            size += read;
+                        }
+                    }
+                }
+            }
+            return size;
+        }
+    }
+
+    static File getChunkFile(File dir, int chunk) {
+        return new File(dir, String.format("chunk-%05d.h264", chunk));
+    }
+
+}
@@ -104,13 +104,29 @@ public class AndroidSdk implements Serializable {
     }
 
     /**
-     * Determines if the AndroidSdk supports creation of snapshots to enable persistence,
-     * currently in Android Emulator v2.0 the usage of snapshots leads to an error on creation
-     * of the virtual device. So this option is currently disabled.
-     * @return {@code true} if this SDK supports snapshots in AVD creation
+     * Determines if the AndroidSdk supports booting the emulator from a named snapshot, either
+     * stored in the AVD's {@code snapshots.img} by the classic emulator, or as a Quick Boot
+     * snapshot by the Android Emulator v2.0.
+     * @return {@code true} if this SDK supports snapshots
      */
     public boolean supportsSnapshots() {
-        return getSdkToolsMajorVersion() >= SDK_TOOLS_SNAPSHOTS && !supportsEmulatorV2Full();
+        return getSdkToolsMajorVersion() >= SDK_TOOLS_SNAPSHOTS || supportsQuickBootSnapshots();
+    }
+
+    /**
+     * @return {@code true} if snapshots are Quick Boot snapshots, stored in the AVD's
+     *  {@code snapshots} directory, rather than in a {@code snapshots.img} file.
+     */
+    public boolean supportsQuickBootSnapshots() {
+        return supportsEmulatorV2Full();
+    }
+
+    /**
+     * @return {@code true} if an AVD must be created with a {@code snapshots.img} file in order to
+     *  support snapshots; Android Emulator v2.0 fails to create AVDs with one.
+     */
+    public boolean requiresSnapshotImage() {
+        return supportsSnapshots() && !supportsQuickBootSnapshots();
     }
 
     public boolean supportsComponentInstallation() {
@@ -0,0 +1,253 @@
+package hudson.plugins.android_emulator.sdk;
+
+import hudson.Launcher;
+import hudson.Util;
+import hudson.plugins.android_emulator.util.ConfigFileUtils;
+import hudson.remoting.VirtualChannel;
+import hudson.util.VersionNumber;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the packages installed in an Android SDK, built by reading the {@code package.xml} or
+ * {@code source.properties} metadata of each package directly, rather than by running
+ * {@code sdkmanager} or {@code avdmanager}.
+ * <p>
+ * Packages are identified by their SDK path, e.g. {@code platforms;android-24} or
+ * {@code system-images;android-24;google_apis;x86}.  Indexes are cached in the JVM of the node on
+ * which the SDK is installed, and are rebuilt whenever the SDK directory structure changes.
+ */
+public final class SdkPackageIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Deepest level at which package metadata is found, i.e. {@code system-images/android-24/default/x86}. */
+    private static final int MAX_PACKAGE_DEPTH = 4;
+
+    private static final String PACKAGE_XML = "package.xml";
+    private static final String SOURCE_PROPERTIES = "source.properties";
+
+    private static final Pattern PACKAGE_PATH = Pattern.compile("<localPackage\\b[^>]*\\bpath=\"([^\"]+)\"");
+    private static final Pattern PACKAGE_REVISION = Pattern.compile(
+            "<revision>\\s*<major>(\\d+)</major>(?:\\s*<minor>(\\d+)</minor>)?(?:\\s*<micro>(\\d+)</micro>)?");
+
+    /** Indexes which have been built on this node, keyed by SDK root. */
+    private static final Map<String, SdkPackageIndex> CACHE = new ConcurrentHashMap<>();
+
+    /** Installed package revisions, keyed by package path. */
+    private final Map<String, String> packages;
+
+    /** Identifies the state of the SDK directories which this index was built from. */
+    private final long fingerprint;
+
+    SdkPackageIndex(Map<String, String> packages, long fingerprint) {
+        this.packages = Collections.unmodifiableMap(new TreeMap<>(packages));
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Retrieves the package index for the given SDK, from the node on which it's installed.
+     *
+     * @param launcher Launcher for the node on which the SDK is installed.
+     * @param sdk The SDK to index.
+     * @return The package index, or {@code null} if the SDK root is not known.
+     */
+    public static SdkPackageIndex load(Launcher launcher, AndroidSdk sdk) throws IOException, InterruptedException {
+        if (!sdk.hasKnownRoot()) {
+            return null;
+        }
+        final VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IllegalStateException("Channel is not configured");
+        }
+        return channel.call(new LoadTask(sdk.getSdkRoot()));
+    }
+
+    /**
+     * Returns the package index for the SDK at the given location on this machine, re-using the
+     * cached copy if nothing has been installed or removed since it was built.
+     *
+     * @param sdkRoot Root directory of the SDK.
+     * @return The package index.
+     */
+    public static SdkPackageIndex forSdkRoot(File sdkRoot) throws IOException {
+        final long fingerprint = fingerprint(sdkRoot, 0);
+        final String key = sdkRoot.getAbsolutePath();
+        final SdkPackageIndex cached = CACHE.get(key);
+        if (cached != null && cached.fingerprint == fingerprint) {
+            return cached;
+        }
+
+        final Map<String, String> packages = new TreeMap<>();
+        scan(sdkRoot, "", 0, packages);
+        final SdkPackageIndex index = new SdkPackageIndex(packages, fingerprint);
+        CACHE.put(key, index);
+        return index;
+    }
+
+    /** @return The paths of all installed packages. */
+    public Set<String> getPackagePaths() {
+        return packages.keySet();
+    }
+
+    /**
+     * @param path Package path, e.g. {@code platforms;android-24}.
+     * @return {@code true} if the package is installed.
+     */
+    public boolean hasPackage(String path) {
+        return packages.containsKey(path);
+    }
+
+    /**
+     * @param path Package path, e.g. {@code platforms;android-24}.
+     * @return The installed revision of the package, or {@code null} if unknown or not installed.
+     */
+    public String getRevision(String path) {
+        return packages.get(path);
+    }
+
+    /**
+     * Finds the installed package with the highest version, among those with the given prefix,
+     * e.g. the latest of {@code build-tools;28.0.3} and {@code build-tools;29.0.2}.
+     *
+     * @param prefix Package path prefix, without the trailing {@code ;}, e.g. {@code build-tools}.
+     * @return The path of the latest package, or {@code null} if none are installed.
+     */
+    public String getLatestPackage(String prefix) {
+        String latest = null;
+        VersionNumber latestVersion = null;
+        for (String path : packages.keySet()) {
+            if (!path.startsWith(prefix + ";")) {
+                continue;
+            }
+            final VersionNumber version = new VersionNumber(path.substring(prefix.length() + 1));
+            if (latestVersion == null || latestVersion.isOlderThan(version)) {
+                latest = path;
+                latestVersion = version;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Computes a value which changes whenever a package directory or package metadata file is
+     * added, removed or replaced, without reading any of the files.
+     */
+    private static long fingerprint(File dir, int depth) {
+        long hash = dir.getName().hashCode() * 31L + dir.lastModified();
+        if (isPackageDirectory(dir)) {
+            hash = hash * 31 + new File(dir, PACKAGE_XML).lastModified();
+            return hash * 31 + new File(dir, SOURCE_PROPERTIES).lastModified();
+        }
+        if (depth < MAX_PACKAGE_DEPTH) {
+            for (File child : listDirectories(dir)) {
+                hash = hash * 31 + fingerprint(child, depth + 1);
+            }
+        }
+        return hash;
+    }
+
+    private static void scan(File dir, String relativePath, int depth, Map<String, String> packages) {
+        if (depth > 0 && isPackageDirectory(dir)) {
+            readPackage(dir, relativePath, packages);
+            return;
+        }
+        if (depth < MAX_PACKAGE_DEPTH) {
+            for (File child : listDirectories(dir)) {
+                final String childPath = relativePath.isEmpty() ? child.getName() : relativePath + ";" + child.getName();
+                scan(child, childPath, depth + 1, packages);
+            }
+        }
+    }
+
+    private static void readPackage(File dir, String relativePath, Map<String, String> packages) {
+        String path = null;
+        String revision = null;
+
+        final File packageXml = new File(dir, PACKAGE_XML);
+        if (packageXml.isFile()) {
+            try {
+                final String xml = new String(Files.readAllBytes(packageXml.toPath()), StandardCharsets.UTF_8);
+                final Matcher pathMatcher = PACKAGE_PATH.matcher(xml);
+                if (pathMatcher.find()) {
+                    path = pathMatcher.group(1);
+                    final Matcher revisionMatcher = PACKAGE_REVISION.matcher(xml);
+                    if (revisionMatcher.find(pathMatcher.end())) {
+                        revision = formatRevision(revisionMatcher);
+                    }
+                }
+            } catch (IOException ignore) {
+                // Fall back to the properties file, if any
+            }
+        }
+
+        if (path == null) {
+            final File sourceProperties = new File(dir, SOURCE_PROPERTIES);
+            if (sourceProperties.isFile()) {
+                try {
+                    final Map<String, String> properties = ConfigFileUtils.parseConfigFile(sourceProperties);
+                    path = Util.fixEmptyAndTrim(properties.get("Pkg.Path"));
+                    revision = Util.fixEmptyAndTrim(properties.get("Pkg.Revision"));
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        // Older packages don't declare their path, but it always corresponds to their location
+        packages.put(path != null ? path : relativePath, revision);
+    }
+
+    private static String formatRevision(Matcher m) {
+        final StringBuilder revision = new StringBuilder(m.group(1));
+        if (m.group(2) != null) {
+            revision.append('.').append(m.group(2));
+            if (m.group(3) != null) {
+                revision.append('.').append(m.group(3));
+            }
+        }
+        return revision.toString();
+    }
+
+    private static boolean isPackageDirectory(File dir) {
+        return new File(dir, PACKAGE_XML).isFile() || new File(dir, SOURCE_PROPERTIES).isFile();
+    }
+
+    private static File[] listDirectories(File dir) {
+        // Skip hidden directories, e.g. the SDK manager's temporary download and install directories
+        final File[] children = dir.listFiles(f -> f.isDirectory() && !f.getName().startsWith("."));
+        if (children == null) {
+            return new File[0];
+        }
+        return children;
+    }
+
+    /** Builds, or retrieves the cached, package index on the node where the SDK is installed. */
+    private static final class LoadTask extends MasterToSlaveCallable<SdkPackageIndex, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String sdkRoot;
+
+        LoadTask(String sdkRoot) {
+            this.sdkRoot = sdkRoot;
+        }
+
+        @Override
+        public SdkPackageIndex call() throws IOException {
+            return forSdkRoot(new File(sdkRoot));
+        }
+    }
+
+}
@@ -24,4 +24,6 @@ public interface AdbShellCommands {
     SdkCliCommand getMonkeyInputCommand(final String deviceSerial,
             final long seedValue, final int throttleMs,
             final String extraArgs, final int eventCount);
+
+    SdkCliCommand getScreenRecordCommand(final String deviceSerial, final int timeLimitSecs, final int bitRate);
 }
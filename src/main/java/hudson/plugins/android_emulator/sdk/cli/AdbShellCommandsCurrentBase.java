@@ -69,6 +69,14 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
         return getAdbShellCommand(deviceSerial, command);
     }
 
+    @Override
+    public SdkCliCommand getScreenRecordCommand(final String deviceSerial, final int timeLimitSecs, final int bitRate) {
+        // Raw H.264 is written to stdout; 'exec-out' ensures that the binary output isn't mangled by a pty
+        final String command = String.format("screenrecord --output-format=h264 --bit-rate %d --time-limit %d -",
+                bitRate, timeLimitSecs);
+        return getAdbExecOutCommand(deviceSerial, command);
+    }
+
     /**
      * Generic method to generate and 'adb shell' command to run on the given device.
      *
@@ -101,4 +109,22 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
     protected SdkCliCommand getAdbShellCommand(final String deviceSerial, final String command) {
         return getAdbShellCommand(deviceSerial, false, command);
     }
+
+    /**
+     * Generic method to generate an 'adb exec-out' command to run on the given device, whose
+     * binary output is passed through unmodified.
+     *
+     * @param deviceSerial device to run adb command on (add via '-s' option)
+     * @param command the command to run on the device
+     * @return {@code SdkCliCommand} object which holds the ADB-Tool and the generated command
+     */
+    protected SdkCliCommand getAdbExecOutCommand(final String deviceSerial, final String command) {
+        final String deviceSerialArgs;
+        if (deviceSerial != null && !deviceSerial.isEmpty()) {
+            deviceSerialArgs = "-s " + deviceSerial + " ";
+        } else {
+            deviceSerialArgs = "";
+        }
+        return new SdkCliCommand(Tool.ADB, String.format("%sexec-out %s", deviceSerialArgs, command));
+    }
 }
@@ -18,18 +18,7 @@ public class SdkToolsCommandsCurrentBase implements SdkToolsCommands {
         final StringBuilder complist = new StringBuilder();
 
         for (final String component : components) {
-            final String modifiedComponent = component
-                    .replaceAll("^tool$", "tools")
-                    .replaceAll("^platform-tool$", "platform-tools")
-                    .replaceAll("^extra-google-", "extras;google;")
-                    .replaceAll("^extra-android-", "extras;android;")
-                    .replaceAll("^addon-", "add-ons;addon-")
-                    .replaceAll("^build-tools-", "build-tools;")
-                    .replaceAll("^android-", "platforms;android-")
-                    .replaceAll("^sys-img-(.*)-android-([0-9]*)", "system-images;android-$2;default;$1")
-                    .replaceAll("^sys-img-(.*)-(.*)-([0-9]*)", "system-images;android-$3;$2;$1");
-
-            complist.append(modifiedComponent);
+            complist.append(getPackagePath(component));
             complist.append(' ');
         }
 
@@ -37,6 +26,26 @@ public class SdkToolsCommandsCurrentBase implements SdkToolsCommands {
         return new SdkCliCommand(Tool.SDKMANAGER, upgradeArgs);
     }
 
+    /**
+     * Converts a component name, as used by the legacy {@code android} tool, to the package path
+     * used by {@code sdkmanager}, e.g. {@code android-24} becomes {@code platforms;android-24}.
+     *
+     * @param component The component name; package paths are returned unchanged.
+     * @return The package path.
+     */
+    public static String getPackagePath(final String component) {
+        return component
+                .replaceAll("^tool$", "tools")
+                .replaceAll("^platform-tool$", "platform-tools")
+                .replaceAll("^extra-google-", "extras;google;")
+                .replaceAll("^extra-android-", "extras;android;")
+                .replaceAll("^addon-", "add-ons;addon-")
+                .replaceAll("^build-tools-", "build-tools;")
+                .replaceAll("^android-", "platforms;android-")
+                .replaceAll("^sys-img-(.*)-android-([0-9]*)", "system-images;android-$2;default;$1")
+                .replaceAll("^sys-img-(.*)-(.*)-([0-9]*)", "system-images;android-$3;$2;$1");
+    }
+
     @Override
     public SdkCliCommand getListSdkComponentsCommand() {
         return new SdkCliCommand(Tool.SDKMANAGER, "--list --verbose");
@@ -0,0 +1,324 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import hudson.Util;
+import hudson.plugins.android_emulator.Messages;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads archives over unreliable connections.
+ * <p>
+ * Downloaded bytes are appended to a {@code .part} file next to the target, so if the connection
+ * drops, the download continues from where it stopped via an HTTP {@code Range} request, after a
+ * backoff period.  A {@code .part} file left behind by an earlier, failed, attempt is resumed in the
+ * same way.  Client errors, other than timeouts and rate limiting, are not retried, as they will
+ * not go away by themselves.  The SHA-1 and/or SHA-256 checksums of the archive are calculated
+ * while the bytes are streamed, and are verified before the archive is moved into place.
+ */
+public final class ArchiveDownloader {
+
+    /** Default number of times to try connecting, or re-connecting, before giving up. */
+    private static final int DEFAULT_MAX_ATTEMPTS = 6;
+
+    /** Default delay before the first retry; this is doubled for each further retry. */
+    private static final long DEFAULT_INITIAL_BACKOFF_MS = 2 * 1000;
+
+    /** Upper limit for the delay between retries. */
+    private static final long MAX_BACKOFF_MS = 60 * 1000;
+
+    /** Default timeout for connecting to, or reading from, a server. */
+    private static final int DEFAULT_TIMEOUT_MS = 60 * 1000;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final int timeoutMs;
+
+    public ArchiveDownloader() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    ArchiveDownloader(int maxAttempts, long initialBackoffMs, int timeoutMs) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @param target The file being downloaded.
+     * @return The partial file used while downloading the given file.
+     */
+    public static File getPartFile(File target) {
+        return new File(target.getPath() + ".part");
+    }
+
+    /**
+     * Downloads the given URL to a file, resuming any previous partial download.
+     *
+     * @param url The URL to download.
+     * @param target The file to write to; only written once the download is complete and verified.
+     * @param sha1 Expected SHA-1 checksum, in hex; may be {@code null}.
+     * @param sha256 Expected SHA-256 checksum, in hex; may be {@code null}.
+     * @param handler Processes the full archive contents while they are downloaded; may be {@code null}.
+     * @param logger Logs things.
+     * @throws IOException If the download failed, even after retrying, or a checksum does not match.
+     */
+    public void download(URL url, File target, String sha1, String sha256, SdkArchiveCache.StreamHandler handler,
+            PrintStream logger) throws IOException {
+        final File part = getPartFile(target);
+        final MessageDigest sha1Digest = getDigest("SHA-1");
+        final MessageDigest sha256Digest = getDigest("SHA-256");
+
+        try (ResumingInputStream download = new ResumingInputStream(url, part, logger);
+             InputStream in = new DigestInputStream(new DigestInputStream(download, sha1Digest), sha256Digest)) {
+            if (handler != null) {
+                handler.handle(in);
+            }
+            final byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // Everything read is written to the partial file
+            }
+        }
+
+        if (!matches(sha1, sha1Digest) || !matches(sha256, sha256Digest)) {
+            // There's no point resuming a corrupt download
+            Files.deleteIfExists(part.toPath());
+            throw new IOException(Messages.SDK_ARCHIVE_CHECKSUM_MISMATCH(url));
+        }
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static boolean matches(String expected, MessageDigest digest) {
+        return expected == null || expected.equalsIgnoreCase(Util.toHexString(digest.digest()));
+    }
+
+    private static MessageDigest getDigest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @param status An HTTP status code.
+     * @return {@code true} if the status is a client error which retrying won't fix, e.g. 404; this
+     *         excludes 408 (Request Timeout) and 429 (Too Many Requests).
+     */
+    static boolean isPermanentFailure(int status) {
+        return status >= 400 && status < 500 && status != HttpURLConnection.HTTP_CLIENT_TIMEOUT && status != 429;
+    }
+
+    /** Thrown when the server rejects the request in a way which retrying won't fix. */
+    private static final class ClientErrorException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        ClientErrorException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Stream of a remote file, which first replays any previously-downloaded part of the file, and
+     * transparently re-connects if the connection fails.
+     */
+    private final class ResumingInputStream extends InputStream {
+
+        private final URL url;
+        private final PrintStream logger;
+        private final OutputStream partOut;
+
+        /** Previously-downloaded bytes, which are replayed before downloading the rest. */
+        private InputStream existing;
+
+        /** Number of bytes returned so far, i.e. the offset in the file. */
+        private long position;
+
+        /** Total size of the file, or {@code -1} if unknown. */
+        private long length = -1;
+
+        private InputStream connection;
+        private int failures;
+
+        ResumingInputStream(URL url, File part, PrintStream logger) throws IOException {
+            this.url = url;
+            this.logger = logger;
+            if (part.length() > 0) {
+                existing = new FileInputStream(part);
+                log(logger, Messages.RESUMING_SDK_ARCHIVE_DOWNLOAD(url, part.length()));
+            }
+            this.partOut = new FileOutputStream(part, true);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (existing != null) {
+                final int count = existing.read(b, off, len);
+                if (count >= 0) {
+                    position += count;
+                    return count;
+                }
+                existing.close();
+                existing = null;
+            }
+
+            while (true) {
+                try {
+                    if (connection == null) {
+                        if (length >= 0 && position >= length) {
+                            return -1;
+                        }
+                        connection = connect();
+                        if (connection == null) {
+                            return -1;
+                        }
+                    }
+                    final int count = connection.read(b, off, len);
+                    if (count < 0) {
+                        if (length >= 0 && position < length) {
+                            throw new EOFException("Connection closed after " + position + " of " + length + " bytes");
+                        }
+                        return -1;
+                    }
+                    partOut.write(b, off, count);
+                    position += count;
+                    failures = 0;
+                    return count;
+                } catch (IOException e) {
+                    closeConnection();
+                    if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    if (e instanceof ClientErrorException) {
+                        throw e;
+                    }
+                    if (++failures >= maxAttempts) {
+                        throw e;
+                    }
+                    final long backoff = Math.min(MAX_BACKOFF_MS, initialBackoffMs << (failures - 1));
+                    log(logger, Messages.SDK_ARCHIVE_DOWNLOAD_RETRYING(url, e.getMessage(), backoff / 1000));
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Opens a connection which continues from the current position.
+         *
+         * @return The stream, or {@code null} if there's nothing left to download.
+         */
+        private InputStream connect() throws IOException {
+            final URLConnection c = url.openConnection();
+            c.setConnectTimeout(timeoutMs);
+            c.setReadTimeout(timeoutMs);
+            if (position > 0) {
+                c.setRequestProperty("Range", "bytes=" + position + "-");
+            }
+            if (!(c instanceof HttpURLConnection)) {
+                return skip(c.getInputStream(), position);
+            }
+
+            final HttpURLConnection http = (HttpURLConnection) c;
+            final int status = http.getResponseCode();
+            if (status == 416 && position > 0) {
+                // We already have the whole file
+                http.disconnect();
+                return null;
+            }
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                final Matcher m = CONTENT_RANGE.matcher(String.valueOf(http.getHeaderField("Content-Range")));
+                if (!m.matches() || Long.parseLong(m.group(1)) != position) {
+                    http.disconnect();
+                    throw new IOException("Unexpected Content-Range: " + http.getHeaderField("Content-Range"));
+                }
+                if (!m.group(2).equals("*")) {
+                    length = Long.parseLong(m.group(2));
+                }
+                return http.getInputStream();
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                if (isPermanentFailure(status)) {
+                    throw new ClientErrorException("HTTP " + status + " from " + url);
+                }
+                throw new IOException("HTTP " + status + " from " + url);
+            }
+
+            // The server doesn't support ranges, so skip what we already have
+            if (http.getContentLengthLong() >= 0) {
+                length = http.getContentLengthLong();
+            }
+            return skip(http.getInputStream(), position);
+        }
+
+        private InputStream skip(InputStream in, long count) throws IOException {
+            long remaining = count;
+            while (remaining > 0) {
+                final long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        in.close();
+                        throw new EOFException("File is shorter than the partial download");
+                    }
+                    remaining--;
+                } else {
+                    remaining -= skipped;
+                }
+            }
+            return in;
+        }
+
+        private void closeConnection() {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException ignore) {
+                }
+                connection = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeConnection();
+            if (existing != null) {
+                existing.close();
+            }
+            partOut.close();
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import hudson.plugins.android_emulator.util.FileSystemUtils;
+
+/**
+ * Extracts SDK package archives while they are still being downloaded, by reading the archive
+ * sequentially with a {@link ZipInputStream}, rather than waiting for the whole file first.
+ * <p>
+ * SDK archives contain a single top-level directory (e.g. {@code android-7.0/}) whose name differs
+ * from the package's install location, so this is stripped from each entry.
+ * <p>
+ * Unix file modes are only recorded in the ZIP central directory, at the end of the archive, so
+ * executable bits and symbolic links are {@link #applyFileModes(File, File) applied} once the
+ * archive has been fully written to disk.
+ */
+public final class ArchiveExtractor implements SdkArchiveCache.StreamHandler {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int HOST_UNIX = 3;
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFLNK = 0120000;
+
+    private final File targetDir;
+
+    /** @param targetDir Directory into which the archive contents should be extracted. */
+    public ArchiveExtractor(File targetDir) {
+        this.targetDir = targetDir;
+    }
+
+    /**
+     * Extracts the given archive stream into the target directory, replacing anything extracted
+     * by a previous attempt.
+     *
+     * @param archive Stream of the archive, which will be read to the end.
+     */
+    @Override
+    public void handle(InputStream archive) throws IOException {
+        FileSystemUtils.deleteRecursive(targetDir);
+        if (!targetDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + targetDir);
+        }
+
+        final String targetPath = targetDir.getCanonicalPath() + File.separator;
+        final ZipInputStream zip = new ZipInputStream(archive);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            final String name = stripTopLevelDirectory(entry.getName());
+            if (name.isEmpty()) {
+                continue;
+            }
+            final File file = new File(targetDir, name);
+            if (!file.getCanonicalPath().startsWith(targetPath)) {
+                throw new IOException("Archive entry is outside of the target directory: " + entry.getName());
+            }
+
+            if (entry.isDirectory()) {
+                if (!file.isDirectory() && !file.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + file);
+                }
+                continue;
+            }
+            final File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory: " + parent);
+            }
+            Files.copy(zip, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Consume the central directory too, so that the whole archive is seen by the caller
+        final byte[] buffer = new byte[8192];
+        while (archive.read(buffer) >= 0) {
+            // Discard
+        }
+    }
+
+    /**
+     * Applies the Unix file modes recorded in the given archive to the files extracted from it,
+     * i.e. marks executables as such, and recreates symbolic links.
+     *
+     * @param archive The complete archive file.
+     * @param targetDir Directory into which the archive was extracted.
+     */
+    public static void applyFileModes(File archive, File targetDir) throws IOException {
+        for (Map.Entry<String, Integer> entry : readFileModes(archive).entrySet()) {
+            final String name = stripTopLevelDirectory(entry.getKey());
+            if (name.isEmpty()) {
+                continue;
+            }
+            final File file = new File(targetDir, name);
+            final int mode = entry.getValue();
+            if ((mode & S_IFMT) == S_IFLNK && file.isFile()) {
+                // Links are stored as files whose content is the link target
+                final String target = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                Files.delete(file.toPath());
+                Files.createSymbolicLink(file.toPath(), file.toPath().getFileSystem().getPath(target));
+            } else if ((mode & 0111) != 0 && file.isFile() && !file.setExecutable(true, false)) {
+                throw new IOException("Failed to make file executable: " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads the Unix file modes of the entries in the given archive, from its central directory.
+     *
+     * @param archive The archive file.
+     * @return The file mode of each entry which has one, keyed by entry name.
+     */
+    static Map<String, Integer> readFileModes(File archive) throws IOException {
+        final Map<String, Integer> modes = new HashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+            // The end record is at least 22 bytes, and may be followed by a comment of up to 64 KiB
+            final long length = file.length();
+            final int searchLength = (int) Math.min(length, 22 + 0xffff);
+            final byte[] tail = new byte[searchLength];
+            file.seek(length - searchLength);
+            file.readFully(tail);
+
+            int end = -1;
+            for (int i = searchLength - 22; i >= 0; i--) {
+                if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                throw new IOException("Not a ZIP archive: " + archive);
+            }
+            final long directorySize = readInt(tail, end + 12) & 0xffffffffL;
+            final long directoryOffset = readInt(tail, end + 16) & 0xffffffffL;
+            if (directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+                // ZIP64 archives aren't used for SDK packages, so we don't bother reading them
+                return modes;
+            }
+
+            final byte[] directory = new byte[(int) directorySize];
+            file.seek(directoryOffset);
+            file.readFully(directory);
+            int offset = 0;
+            while (offset + 46 <= directory.length && readInt(directory, offset) == CENTRAL_DIRECTORY_HEADER) {
+                final int madeBy = readShort(directory, offset + 4);
+                final int nameLength = readShort(directory, offset + 28);
+                final int extraLength = readShort(directory, offset + 30);
+                final int commentLength = readShort(directory, offset + 32);
+                final int externalAttributes = readInt(directory, offset + 38);
+                final String name = new String(directory, offset + 46, nameLength, StandardCharsets.UTF_8);
+                final int mode = externalAttributes >>> 16;
+                if ((madeBy >> 8) == HOST_UNIX && mode != 0) {
+                    modes.put(name, mode);
+                }
+                offset += 46 + nameLength + extraLength + commentLength;
+            }
+        }
+        return modes;
+    }
+
+    private static String stripTopLevelDirectory(String name) {
+        final int slash = name.indexOf('/');
+        return slash < 0 ? name : name.substring(slash + 1);
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return readShort(b, offset) | readShort(b, offset + 2) << 16;
+    }
+
+}
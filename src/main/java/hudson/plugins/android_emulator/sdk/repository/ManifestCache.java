@@ -0,0 +1,140 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps local copies of SDK {@link RepositoryManifest repository manifests}, so that resolving
+ * package names and revisions doesn't require downloading the manifests, or running
+ * {@code sdkmanager --list}, every time.
+ * <p>
+ * Each manifest is stored on disk alongside the SDK.  Once a copy is older than the configured
+ * time-to-live, the manifest is downloaded again; if that fails, the outdated copy continues to be
+ * used.  A manifest is only stored once it has been verified to parse, so a truncated download
+ * never replaces a good copy.
+ */
+public final class ManifestCache {
+
+    /** Default time for which a downloaded manifest is used before being downloaded again. */
+    public static final long DEFAULT_TTL_HOURS = 24;
+
+    /** Directory within the SDK root where manifests are stored. */
+    static final String CACHE_DIR = ".jenkins-manifests";
+
+    /** Timeout for connecting to, or reading from, the repository. */
+    private static final int TIMEOUT_MS = 60 * 1000;
+
+    private final File directory;
+    private final long ttlMillis;
+
+    /**
+     * @param directory Directory in which to store the manifests.
+     * @param ttlMillis Time for which a manifest is used before being downloaded again.
+     */
+    public ManifestCache(File directory, long ttlMillis) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param sdkRoot Root directory of the SDK whose packages will be resolved.
+     * @param ttlHours Time for which a manifest is used before being downloaded again.
+     * @return A cache which stores manifests within the given SDK.
+     */
+    public static ManifestCache forSdkRoot(File sdkRoot, long ttlHours) {
+        return new ManifestCache(new File(sdkRoot, CACHE_DIR), TimeUnit.HOURS.toMillis(ttlHours));
+    }
+
+    /**
+     * Loads the given repository manifest, via the cache within the given SDK if the repository is
+     * remote; local repositories, e.g. an {@link OfflineRepository}, are always read directly.
+     *
+     * @param sdkRoot Root directory of the SDK whose packages will be resolved.
+     * @param repositoryUrl Base URL of the repository, ending with a slash.
+     * @param manifestPath Path of the manifest, relative to the repository.
+     * @param ttlHours Time for which a manifest is used before being downloaded again; zero to
+     *        always download it.
+     * @return The parsed manifest.
+     * @throws IOException If the manifest could not be loaded.
+     */
+    public static RepositoryManifest load(File sdkRoot, String repositoryUrl, String manifestPath,
+            long ttlHours) throws IOException {
+        final String scheme = repositoryUrl.toLowerCase(Locale.ENGLISH);
+        if (ttlHours <= 0 || !(scheme.startsWith("http:") || scheme.startsWith("https:"))) {
+            return RepositoryManifest.load(new URL(repositoryUrl + manifestPath));
+        }
+        return forSdkRoot(sdkRoot, ttlHours).get(repositoryUrl, manifestPath);
+    }
+
+    /**
+     * Gets the given repository manifest, downloading it only if there's no up-to-date local copy.
+     *
+     * @param repositoryUrl Base URL of the repository, ending with a slash.
+     * @param manifestPath Path of the manifest, relative to the repository, e.g. {@code repository2-1.xml}.
+     * @return The parsed manifest.
+     * @throws IOException If the manifest could not be downloaded, and there's no local copy.
+     */
+    public RepositoryManifest get(String repositoryUrl, String manifestPath) throws IOException {
+        final URL url = new URL(repositoryUrl + manifestPath);
+        final File file = new File(new File(directory, Util.getDigestOf(repositoryUrl)),
+                manifestPath.replace('/', '_'));
+
+        if (!file.isFile() || System.currentTimeMillis() - file.lastModified() >= ttlMillis) {
+            try {
+                download(url, file);
+            } catch (IOException e) {
+                if (!file.isFile()) {
+                    throw e;
+                }
+                // Better to resolve packages from an outdated manifest than not at all
+            }
+        }
+        return read(file, url);
+    }
+
+    /** Downloads the manifest, replacing the local copy only once it has been verified to parse. */
+    private static void download(URL url, File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parent);
+        }
+        final File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            final URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            try (InputStream in = connection.getInputStream()) {
+                Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (InputStream in = Files.newInputStream(temp.toPath())) {
+                RepositoryManifest.parse(in, url);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static RepositoryManifest read(File file, URL url) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            // Relative archive URLs are resolved against the original location, not the local copy
+            return RepositoryManifest.parse(in, url);
+        }
+    }
+
+}
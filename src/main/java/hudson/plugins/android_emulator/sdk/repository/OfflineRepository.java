@@ -0,0 +1,205 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import hudson.Util;
+import hudson.plugins.android_emulator.Messages;
+import hudson.plugins.android_emulator.sdk.SdkPackageIndex;
+import hudson.plugins.android_emulator.util.FileSystemUtils;
+import hudson.util.VersionNumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A directory of pre-fetched Android SDK packages, for build machines which cannot reach the
+ * official repository.
+ * <p>
+ * The directory contains copies of the official repository manifests at their usual relative paths
+ * (e.g. {@code repository2-1.xml} and {@code sys-img/google_apis/sys-img2-1.xml}), along with the
+ * package archives listed in them.  Archives may be placed anywhere within the directory, as they
+ * are found by file name, so only the packages which are actually needed have to be copied.
+ * <p>
+ * From this, a local repository is {@link #generate(File) generated} whose manifests only list the
+ * packages whose archives are present, with each archive URL pointing at the bundled file.  Both
+ * the plugin's own installer and {@code sdkmanager} (via {@code SDK_TEST_BASE_URL}) then resolve
+ * packages from it, without any network access.
+ */
+public final class OfflineRepository implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Environment variable which overrides the repository base URL used by {@code sdkmanager}. */
+    public static final String ENV_VAR_SDK_BASE_URL = "SDK_TEST_BASE_URL";
+
+    /** Directory within the SDK's temporary directory where the local repository is generated. */
+    private static final String REPOSITORY_DIR = "offline-repository";
+
+    /** Repository manifests which list packages, relative to the repository root. */
+    private static final Pattern PACKAGE_MANIFEST = Pattern.compile(
+            "(repository2|addon2|sys-img/[^/]+/sys-img2)-\\d+\\.xml");
+
+    /** Manifests listing the other manifests, which {@code sdkmanager} reads first. */
+    private static final Pattern SITE_LIST = Pattern.compile("addons_list-\\d+\\.xml");
+
+    /** Deepest level at which manifests or archives are searched for. */
+    private static final int MAX_DEPTH = 4;
+
+    private final String directory;
+
+    private OfflineRepository(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param location Bundle directory, or {@code file:} URL; may be empty.
+     * @return The offline repository at the given location, or {@code null} if no location was given.
+     */
+    public static OfflineRepository forLocation(String location) {
+        location = Util.fixEmptyAndTrim(location);
+        if (location == null) {
+            return null;
+        }
+        if (location.toLowerCase(Locale.ENGLISH).startsWith("file:")) {
+            return new OfflineRepository(new File(URI.create(location)).getPath());
+        }
+        return new OfflineRepository(location);
+    }
+
+    /** @return The bundle directory, as seen from the build machine. */
+    public File getDirectory() {
+        return new File(directory);
+    }
+
+    /**
+     * Generates a local repository from the bundle, within the given SDK's temporary directory.
+     * <p>
+     * This should be called on the machine where packages are to be installed.
+     *
+     * @param sdkRoot Root directory of the SDK into which packages will be installed.
+     * @return The base URL of the generated repository, ending with a slash.
+     * @throws IOException If the bundle could not be read, or contains no manifests.
+     */
+    public String generate(File sdkRoot) throws IOException {
+        final File bundle = getDirectory();
+        final Map<String, File> manifests = new LinkedHashMap<>();
+        final Map<String, File> archives = new HashMap<>();
+        scan(bundle, "", 0, manifests, archives);
+        if (manifests.isEmpty()) {
+            throw new IOException(Messages.OFFLINE_SDK_REPOSITORY_EMPTY(bundle));
+        }
+
+        final File output = new File(new File(sdkRoot, SdkArchiveInstaller.TEMP_DIR), REPOSITORY_DIR);
+        FileSystemUtils.deleteRecursive(output);
+        for (Map.Entry<String, File> manifest : manifests.entrySet()) {
+            final File target = new File(output, manifest.getKey());
+            final File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException(Messages.FAILED_TO_CREATE_FILE(parent.getAbsolutePath()));
+            }
+            if (SITE_LIST.matcher(manifest.getKey()).matches()) {
+                Files.copy(manifest.getValue().toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                loadManifest(manifest.getValue()).writeLocalCopy(target, archives);
+            }
+        }
+        return output.toURI().toString();
+    }
+
+    /**
+     * Checks an installed SDK against the package revisions listed in the bundle, without
+     * installing anything.
+     * <p>
+     * This should be called on the machine where the SDK is installed.
+     *
+     * @param sdkRoot Root directory of the SDK to check.
+     * @param packagePaths Paths of the packages which must be installed, or {@code null} to check
+     *        every installed package which is also listed in the bundle.
+     * @return A description of each problem found; empty if the SDK matches the bundle.
+     * @throws IOException If the bundle manifests could not be read.
+     */
+    public List<String> verify(File sdkRoot, Collection<String> packagePaths) throws IOException {
+        final Map<String, File> manifestFiles = new LinkedHashMap<>();
+        scan(getDirectory(), "", 0, manifestFiles, new HashMap<String, File>());
+        final List<RepositoryManifest> manifests = new ArrayList<>();
+        for (Map.Entry<String, File> manifest : manifestFiles.entrySet()) {
+            if (!SITE_LIST.matcher(manifest.getKey()).matches()) {
+                manifests.add(loadManifest(manifest.getValue()));
+            }
+        }
+
+        final List<String> problems = new ArrayList<>();
+        if (!sdkRoot.isDirectory()) {
+            problems.add(Messages.OFFLINE_SDK_NOT_INSTALLED(sdkRoot));
+            return problems;
+        }
+        final SdkPackageIndex index = SdkPackageIndex.forSdkRoot(sdkRoot);
+        final Collection<String> paths = packagePaths != null ? packagePaths : index.getPackagePaths();
+        for (String path : paths) {
+            if (!index.hasPackage(path)) {
+                problems.add(Messages.OFFLINE_SDK_PACKAGE_MISSING(path));
+                continue;
+            }
+            final String expected = getRevision(manifests, path);
+            final String installed = index.getRevision(path);
+            if (expected != null && installed != null
+                    && new VersionNumber(expected).compareTo(new VersionNumber(installed)) != 0) {
+                problems.add(Messages.OFFLINE_SDK_PACKAGE_MISMATCH(path, installed, expected));
+            }
+        }
+        return problems;
+    }
+
+    private static String getRevision(List<RepositoryManifest> manifests, String path) {
+        for (RepositoryManifest manifest : manifests) {
+            final RepositoryManifest.RemotePackage pkg = manifest.getPackage(path);
+            if (pkg != null) {
+                return pkg.getRevision();
+            }
+        }
+        return null;
+    }
+
+    private static RepositoryManifest loadManifest(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return RepositoryManifest.parse(in, file.toURI().toURL());
+        }
+    }
+
+    /** Finds the manifests, keyed by relative path, and the archives, keyed by file name, in the bundle. */
+    private static void scan(File dir, String relativePath, int depth, Map<String, File> manifests,
+            Map<String, File> archives) {
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            final String name = child.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            final String childPath = relativePath + name;
+            if (child.isDirectory()) {
+                if (depth < MAX_DEPTH) {
+                    scan(child, childPath + "/", depth + 1, manifests, archives);
+                }
+            } else if (PACKAGE_MANIFEST.matcher(childPath).matches() || SITE_LIST.matcher(childPath).matches()) {
+                manifests.put(childPath, child);
+            } else if (!name.endsWith(".xml") && !archives.containsKey(name)) {
+                archives.put(name, child);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,479 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import hudson.util.VersionNumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * A parsed Android SDK repository manifest, e.g. {@code repository2-1.xml}, which lists the
+ * packages that can be downloaded, along with the URL, size and SHA-1 checksum of each archive.
+ */
+public final class RepositoryManifest {
+
+    /** Base URL of the official Android SDK repository. */
+    public static final String BASE_URL = "https://dl.google.com/android/repository/";
+
+    private static final String NAMESPACE_COMMON = "http://schemas.android.com/repository/android/common/01";
+    private static final String NAMESPACE_XMLNS = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+    /** Elements of a remote package which are also recorded for the locally-installed package. */
+    private static final String[] LOCAL_PACKAGE_ELEMENTS = {
+            "type-details", "revision", "display-name", "uses-license", "dependencies" };
+
+    /** Timeout for connecting to, or reading from, the repository. */
+    private static final int TIMEOUT_MS = 60 * 1000;
+
+    private final Document document;
+    private final URL baseUrl;
+    private final Map<String, Element> packages;
+    private final Map<String, Element> licenses;
+
+    private RepositoryManifest(Document document, URL baseUrl) {
+        this.document = document;
+        this.baseUrl = baseUrl;
+        this.packages = new LinkedHashMap<>();
+        this.licenses = new LinkedHashMap<>();
+
+        final Element root = document.getDocumentElement();
+        for (Element license : getChildElements(root, "license")) {
+            licenses.put(license.getAttribute("id"), license);
+        }
+        for (Element pkg : getChildElements(root, "remotePackage")) {
+            final String path = pkg.getAttribute("path");
+            // The same package may be listed on several channels; we only want stable releases
+            if (!packages.containsKey(path) || isStableChannel(pkg)) {
+                packages.put(path, pkg);
+            }
+        }
+    }
+
+    /**
+     * Determines which repository manifest lists the given package.
+     *
+     * @param packagePath Package path, e.g. {@code system-images;android-24;google_apis;x86}.
+     * @return The URL of the manifest, relative to {@link #BASE_URL}.
+     */
+    public static String getManifestPath(String packagePath) {
+        final String[] parts = packagePath.split(";");
+        if (parts[0].equals("system-images") && parts.length == 4) {
+            final String tag = parts[2].equals("default") ? "android" : parts[2];
+            return String.format("sys-img/%s/sys-img2-1.xml", tag);
+        }
+        if (parts[0].equals("add-ons") || parts[0].equals("extras")) {
+            return "addon2-1.xml";
+        }
+        return "repository2-1.xml";
+    }
+
+    /**
+     * Downloads and parses the given repository manifest.
+     *
+     * @param url URL of the manifest.
+     * @return The parsed manifest.
+     * @throws IOException If the manifest could not be downloaded, or could not be parsed.
+     */
+    public static RepositoryManifest load(URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try (InputStream in = connection.getInputStream()) {
+            return parse(in, url);
+        }
+    }
+
+    /**
+     * Parses a repository manifest.
+     *
+     * @param in The manifest contents.
+     * @param baseUrl URL against which relative archive URLs are resolved.
+     * @return The parsed manifest.
+     * @throws IOException If the manifest could not be read, or could not be parsed.
+     */
+    public static RepositoryManifest parse(InputStream in, URL baseUrl) throws IOException {
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            final DocumentBuilder builder = factory.newDocumentBuilder();
+            return new RepositoryManifest(builder.parse(in), baseUrl);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse SDK repository manifest: " + baseUrl, e);
+        }
+    }
+
+    /** @return The host OS name, as used in repository manifests. */
+    public static String getHostOs() {
+        final String os = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+        if (os.contains("mac")) {
+            return "macosx";
+        }
+        if (os.contains("windows")) {
+            return "windows";
+        }
+        return "linux";
+    }
+
+    /**
+     * @param path Package path, e.g. {@code platforms;android-24}.
+     * @return The package with the given path, or {@code null} if it isn't listed.
+     */
+    public RemotePackage getPackage(String path) {
+        final Element pkg = packages.get(path);
+        return pkg == null ? null : new RemotePackage(pkg);
+    }
+
+    /**
+     * Finds the stable package with the highest revision among those with the given type, e.g. the
+     * latest {@code build-tools}.
+     *
+     * @param prefix The first segment of the package path, e.g. {@code build-tools}.
+     * @return The latest such package, or {@code null} if none is listed.
+     */
+    public RemotePackage getLatestPackage(String prefix) {
+        RemotePackage latest = null;
+        VersionNumber latestVersion = null;
+        for (Map.Entry<String, Element> entry : packages.entrySet()) {
+            if (!entry.getKey().startsWith(prefix + ";") || !isStableChannel(entry.getValue())) {
+                continue;
+            }
+            final RemotePackage pkg = new RemotePackage(entry.getValue());
+            final String revision = pkg.getRevision();
+            if (revision == null) {
+                continue;
+            }
+            final VersionNumber version = new VersionNumber(revision);
+            if (latestVersion == null || latestVersion.isOlderThan(version)) {
+                latest = pkg;
+                latestVersion = version;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Finds the archive with the given file name, in any package.
+     *
+     * @param fileName File name of the archive, e.g. {@code platform-24_r03.zip}.
+     * @return The archive, or {@code null} if it isn't listed.
+     */
+    public Archive findArchive(String fileName) {
+        for (Element pkg : packages.values()) {
+            for (Archive archive : new RemotePackage(pkg).getArchives()) {
+                if (archive.getFileName().equals(fileName)) {
+                    return archive;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a copy of this manifest which only lists the archives available in the given set of
+     * files, with each archive URL pointing at the corresponding file.  Packages which have no such
+     * archives are omitted.
+     *
+     * @param file The file to write.
+     * @param archiveFiles Available archive files, keyed by file name.
+     * @return The number of packages listed in the written manifest.
+     * @throws IOException If the file could not be written.
+     */
+    public int writeLocalCopy(File file, Map<String, File> archiveFiles) throws IOException {
+        final Document copy = (Document) document.cloneNode(true);
+        final Element root = copy.getDocumentElement();
+        int count = 0;
+        for (Element pkg : getChildElements(root, "remotePackage")) {
+            final Element archives = getChildElement(pkg, "archives");
+            boolean available = false;
+            if (archives != null) {
+                for (Element archive : getChildElements(archives, "archive")) {
+                    final Element complete = getChildElement(archive, "complete");
+                    final Element url = complete == null ? null : getChildElement(complete, "url");
+                    final File local = url == null ? null : archiveFiles.get(getFileName(url.getTextContent().trim()));
+                    if (local == null) {
+                        archives.removeChild(archive);
+                    } else {
+                        url.setTextContent(local.toURI().toString());
+                        available = true;
+                    }
+                }
+            }
+            if (available) {
+                count++;
+            } else {
+                root.removeChild(pkg);
+            }
+        }
+        write(copy, file);
+        return count;
+    }
+
+    private static String getFileName(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    private static void write(Document document, File file) throws IOException {
+        try {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(document), new StreamResult(file));
+        } catch (TransformerException e) {
+            throw new IOException("Failed to write " + file, e);
+        }
+    }
+
+    private static boolean isStableChannel(Element pkg) {
+        final List<Element> channels = getChildElements(pkg, "channelRef");
+        return channels.isEmpty() || channels.get(0).getAttribute("ref").equals("channel-0");
+    }
+
+    private static List<Element> getChildElements(Element parent, String localName) {
+        final List<Element> elements = new ArrayList<>();
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child instanceof Element && localName.equals(getLocalName(child))) {
+                elements.add((Element) child);
+            }
+        }
+        return elements;
+    }
+
+    private static Element getChildElement(Element parent, String localName) {
+        final List<Element> elements = getChildElements(parent, localName);
+        return elements.isEmpty() ? null : elements.get(0);
+    }
+
+    private static String getChildText(Element parent, String localName) {
+        final Element child = getChildElement(parent, localName);
+        return child == null ? null : child.getTextContent().trim();
+    }
+
+    private static String getLocalName(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    /** A package listed in the repository. */
+    public final class RemotePackage {
+
+        private final Element element;
+
+        private RemotePackage(Element element) {
+            this.element = element;
+        }
+
+        /** @return The package path, e.g. {@code platforms;android-24}. */
+        public String getPath() {
+            return element.getAttribute("path");
+        }
+
+        /** @return The package revision, e.g. {@code 28.0.3}, or {@code null} if not known. */
+        public String getRevision() {
+            final Element revision = getChildElement(element, "revision");
+            final String major = revision == null ? null : getChildText(revision, "major");
+            if (major == null) {
+                return null;
+            }
+            final StringBuilder result = new StringBuilder(major);
+            final String minor = getChildText(revision, "minor");
+            if (minor != null) {
+                result.append('.').append(minor);
+                final String micro = getChildText(revision, "micro");
+                if (micro != null) {
+                    result.append('.').append(micro);
+                }
+            }
+            return result.toString();
+        }
+
+        /** @return The archives from which this package can be installed. */
+        public List<Archive> getArchives() {
+            final Element archives = getChildElement(element, "archives");
+            if (archives == null) {
+                return Collections.emptyList();
+            }
+            final List<Archive> result = new ArrayList<>();
+            for (Element archive : getChildElements(archives, "archive")) {
+                final Element complete = getChildElement(archive, "complete");
+                if (complete == null) {
+                    continue;
+                }
+                try {
+                    final URL url = new URL(baseUrl, getChildText(complete, "url"));
+                    final String size = getChildText(complete, "size");
+                    String sha1 = null;
+                    String sha256 = null;
+                    for (Element checksum : getChildElements(complete, "checksum")) {
+                        final String type = checksum.getAttribute("type").replace("-", "");
+                        if (type.isEmpty() || type.equalsIgnoreCase("sha1")) {
+                            sha1 = checksum.getTextContent().trim();
+                        } else if (type.equalsIgnoreCase("sha256")) {
+                            sha256 = checksum.getTextContent().trim();
+                        }
+                    }
+                    result.add(new Archive(url.toString(), sha1, sha256,
+                            size == null ? -1 : Long.parseLong(size), getChildText(archive, "host-os")));
+                } catch (MalformedURLException | NumberFormatException e) {
+                    // Ignore archives that we wouldn't be able to download anyway
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @param hostOs Host OS, as returned by {@link RepositoryManifest#getHostOs()}.
+         * @return The archive for the given host OS, or {@code null} if there is none.
+         */
+        public Archive getArchive(String hostOs) {
+            for (Archive archive : getArchives()) {
+                if (archive.getHostOs() == null || archive.getHostOs().equals(hostOs)) {
+                    return archive;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Writes the {@code package.xml} metadata file, which the SDK tools use to recognise this
+         * package as being installed.
+         *
+         * @param packageDir The directory in which this package was installed.
+         * @throws IOException If the file could not be written.
+         */
+        public void writePackageXml(File packageDir) throws IOException {
+            try {
+                final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                final Document local = factory.newDocumentBuilder().newDocument();
+                local.setXmlStandalone(true);
+
+                // Declare the same namespace prefixes as the manifest, so that "xsi:type" values still resolve
+                final Element manifestRoot = document.getDocumentElement();
+                String commonNamespace = NAMESPACE_COMMON;
+                final NamedNodeMap attributes = manifestRoot.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    final Attr attr = (Attr) attributes.item(i);
+                    if (NAMESPACE_XMLNS.equals(attr.getNamespaceURI())
+                            && attr.getValue().contains("/repository/android/common/")) {
+                        commonNamespace = attr.getValue();
+                    }
+                }
+                final Element root = local.createElementNS(commonNamespace, "common:repository");
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    final Attr attr = (Attr) attributes.item(i);
+                    if (NAMESPACE_XMLNS.equals(attr.getNamespaceURI()) && !attr.getLocalName().equals("common")) {
+                        root.setAttributeNS(NAMESPACE_XMLNS, attr.getName(), attr.getValue());
+                    }
+                }
+                local.appendChild(root);
+
+                final String licenseRef = getChildElement(element, "uses-license") == null ? null
+                        : getChildElement(element, "uses-license").getAttribute("ref");
+                if (licenseRef != null && licenses.containsKey(licenseRef)) {
+                    root.appendChild(local.importNode(licenses.get(licenseRef), true));
+                }
+
+                final Element localPackage = local.createElement("localPackage");
+                localPackage.setAttribute("path", getPath());
+                localPackage.setAttribute("obsolete", "false");
+                for (String name : LOCAL_PACKAGE_ELEMENTS) {
+                    final Element child = getChildElement(element, name);
+                    if (child != null) {
+                        localPackage.appendChild(local.importNode(child, true));
+                    }
+                }
+                root.appendChild(localPackage);
+
+                write(local, new File(packageDir, "package.xml"));
+            } catch (ParserConfigurationException e) {
+                throw new IOException("Failed to write package.xml for " + getPath(), e);
+            }
+        }
+    }
+
+    /** A downloadable archive of a package. */
+    public static final class Archive implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String url;
+        private final String sha1;
+        private final String sha256;
+        private final long size;
+        private final String hostOs;
+
+        public Archive(String url, String sha1, long size, String hostOs) {
+            this(url, sha1, null, size, hostOs);
+        }
+
+        public Archive(String url, String sha1, String sha256, long size, String hostOs) {
+            this.url = url;
+            this.sha1 = sha1 == null ? null : sha1.toLowerCase(Locale.ENGLISH);
+            this.sha256 = sha256 == null ? null : sha256.toLowerCase(Locale.ENGLISH);
+            this.size = size;
+            this.hostOs = hostOs;
+        }
+
+        /** @return The absolute URL of the archive. */
+        public String getUrl() {
+            return url;
+        }
+
+        /** @return The file name of the archive. */
+        public String getFileName() {
+            return RepositoryManifest.getFileName(url);
+        }
+
+        /** @return The SHA-1 checksum of the archive, in lower case hex, or {@code null} if not known. */
+        public String getSha1() {
+            return sha1;
+        }
+
+        /** @return The SHA-256 checksum of the archive, in lower case hex, or {@code null} if not known. */
+        public String getSha256() {
+            return sha256;
+        }
+
+        /** @return The size of the archive in bytes, or {@code -1} if not known. */
+        public long getSize() {
+            return size;
+        }
+
+        /** @return The host OS the archive is for, or {@code null} if it can be used on any OS. */
+        public String getHostOs() {
+            return hostOs;
+        }
+    }
+
+}
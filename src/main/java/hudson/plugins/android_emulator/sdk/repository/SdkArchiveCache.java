@@ -0,0 +1,286 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import hudson.Util;
+import hudson.plugins.android_emulator.Messages;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.input.TeeInputStream;
+
+/**
+ * Cache of Android SDK package archives, shared between build machines, where each archive is
+ * stored under its SHA-1 checksum as listed in the {@link RepositoryManifest repository manifest}.
+ * <p>
+ * The cache location may be a directory (e.g. on a network share) as seen from the build machine,
+ * a {@code file:} URL, or an HTTP(S) URL.  Archives are fetched with a {@code GET} request for
+ * {@code <location>/<sha1>.zip}; on a cache miss, the archive is downloaded from the official
+ * repository instead and is then added to the cache, via a {@code PUT} request in the HTTP case.
+ * Checksums are verified while the archive is being copied, so a corrupt or truncated cache entry is
+ * never used.
+ * <p>
+ * Archives can also be {@link StreamHandler processed} while they're being fetched, e.g. extracted.
+ */
+public final class SdkArchiveCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Fetches archives directly from their original location, without caching them. */
+    public static final SdkArchiveCache NONE = new SdkArchiveCache(null, null);
+
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+
+    /** Timeout for connecting to, or reading from, a server. */
+    private static final int TIMEOUT_MS = 60 * 1000;
+
+    /** Cache directory, if the cache is on the filesystem. */
+    private final String directory;
+
+    /** Cache base URL, ending with a slash, if the cache is on an HTTP server. */
+    private final String baseUrl;
+
+    private SdkArchiveCache(String directory, String baseUrl) {
+        this.directory = directory;
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * @param location Cache directory, or {@code file:}, {@code http:} or {@code https:} URL; may be empty.
+     * @return The cache at the given location, or {@code null} if no location was given.
+     */
+    public static SdkArchiveCache forLocation(String location) {
+        location = Util.fixEmptyAndTrim(location);
+        if (location == null) {
+            return null;
+        }
+        final String lowerCase = location.toLowerCase(Locale.ENGLISH);
+        if (lowerCase.startsWith("http://") || lowerCase.startsWith("https://")) {
+            return new SdkArchiveCache(null, location.endsWith("/") ? location : location + "/");
+        }
+        if (lowerCase.startsWith("file:")) {
+            return new SdkArchiveCache(new File(URI.create(location)).getPath(), null);
+        }
+        return new SdkArchiveCache(location, null);
+    }
+
+    /**
+     * Retrieves the given archive from the cache or, failing that, from its original location,
+     * in which case it's also added to the cache.
+     * <p>
+     * This should be called on the machine where the archive is to be installed.
+     *
+     * @param archive The archive to fetch.
+     * @param tempDir Directory in which the archive should be written.
+     * @param logger Logs things.
+     * @return A temporary file containing the verified archive, which the caller should delete.
+     * @throws IOException If the archive could not be downloaded, or failed verification.
+     */
+    public File fetch(RepositoryManifest.Archive archive, File tempDir, PrintStream logger) throws IOException {
+        return fetch(archive, tempDir, logger, null);
+    }
+
+    /**
+     * Retrieves the given archive from the cache or, failing that, from its original location,
+     * in which case it's also added to the cache.
+     * <p>
+     * The given handler sees the archive contents as they are fetched.  If the cached copy turns out
+     * to be corrupt, the handler will be called again for the copy from the original location.
+     *
+     * @param archive The archive to fetch.
+     * @param tempDir Directory in which the archive should be written.
+     * @param logger Logs things.
+     * @param handler Processes the archive while it's being fetched; may be {@code null}.
+     * @return A temporary file containing the verified archive, which the caller should delete.
+     * @throws IOException If the archive could not be downloaded, failed verification, or could not
+     *         be processed by the handler.  A partial download is kept, and will be resumed by the
+     *         next call for the same archive.
+     */
+    public File fetch(RepositoryManifest.Archive archive, File tempDir, PrintStream logger,
+            StreamHandler handler) throws IOException {
+        final String sha1 = archive.getSha1();
+        // Use a predictable name, so that an interrupted download can be resumed by a later build
+        final File target = new File(tempDir, archive.getFileName());
+        boolean success = false;
+        try {
+            if (sha1 != null && SHA1.matcher(sha1).matches()) {
+                try (InputStream in = openCached(sha1)) {
+                    if (in != null) {
+                        if (copyVerifying(in, target, sha1, handler)) {
+                            log(logger, Messages.SDK_ARCHIVE_CACHE_HIT(archive.getFileName(), sha1));
+                            success = true;
+                            return target;
+                        }
+                        log(logger, Messages.SDK_ARCHIVE_CHECKSUM_MISMATCH(getCacheLocation(sha1)));
+                    }
+                } catch (IOException e) {
+                    log(logger, Messages.SDK_ARCHIVE_CACHE_UNAVAILABLE(getCacheLocation(sha1), e.getMessage()));
+                }
+            }
+
+            log(logger, Messages.DOWNLOADING_SDK_ARCHIVE(archive.getUrl()));
+            new ArchiveDownloader().download(new URL(archive.getUrl()), target, sha1, archive.getSha256(),
+                    handler, logger);
+
+            if (sha1 != null && SHA1.matcher(sha1).matches()) {
+                try {
+                    store(sha1, target);
+                } catch (IOException e) {
+                    log(logger, Messages.SDK_ARCHIVE_CACHE_STORE_FAILED(getCacheLocation(sha1), e.getMessage()));
+                }
+            }
+            success = true;
+            return target;
+        } finally {
+            if (!success && !target.delete()) {
+                target.deleteOnExit();
+            }
+        }
+    }
+
+    /** @return A stream of the cached archive, or {@code null} if it's not cached. */
+    private InputStream openCached(String sha1) throws IOException {
+        if (this == NONE || (directory == null && baseUrl == null)) {
+            return null;
+        }
+        if (directory != null) {
+            try {
+                return new FileInputStream(new File(directory, getFileName(sha1)));
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        final URLConnection connection = openConnection(new URL(getCacheLocation(sha1)));
+        if (connection instanceof HttpURLConnection) {
+            final int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+        }
+        return connection.getInputStream();
+    }
+
+    /** Adds the given, already-verified, archive to the cache. */
+    private void store(String sha1, File archive) throws IOException {
+        if (directory == null && baseUrl == null) {
+            return;
+        }
+        if (directory != null) {
+            // Write under a temporary name first, so that other machines never see a partial file
+            final File dir = new File(directory);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException(Messages.FAILED_TO_CREATE_FILE(dir.getAbsolutePath()));
+            }
+            final File temp = File.createTempFile(sha1, ".tmp", dir);
+            try {
+                Files.copy(archive.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                final File target = new File(dir, getFileName(sha1));
+                try {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+            return;
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) openConnection(new URL(getCacheLocation(sha1)));
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(archive.length());
+        connection.setRequestProperty("Content-Type", "application/zip");
+        try (OutputStream out = connection.getOutputStream()) {
+            Files.copy(archive.toPath(), out);
+        }
+        final int status = connection.getResponseCode();
+        connection.disconnect();
+        if (status / 100 != 2) {
+            throw new IOException("HTTP " + status);
+        }
+    }
+
+    private String getCacheLocation(String sha1) {
+        if (directory != null) {
+            return new File(directory, getFileName(sha1)).getPath();
+        }
+        return baseUrl + getFileName(sha1);
+    }
+
+    private static String getFileName(String sha1) {
+        return sha1 + ".zip";
+    }
+
+    private static URLConnection openConnection(URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        return connection;
+    }
+
+    /**
+     * Copies the given stream to a file, calculating its SHA-1 checksum along the way.
+     *
+     * @param in The stream to copy.
+     * @param target The file to write to.
+     * @param sha1 The expected checksum, or {@code null} if it should not be verified.
+     * @param handler Processes the stream while it's being copied; may be {@code null}.
+     * @return {@code true} if the checksum matches, or was not verified.
+     */
+    static boolean copyVerifying(InputStream in, File target, String sha1, StreamHandler handler)
+            throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream digestIn = new DigestInputStream(in, digest);
+             OutputStream out = new FileOutputStream(target)) {
+            final InputStream tee = new TeeInputStream(digestIn, out);
+            if (handler != null) {
+                handler.handle(tee);
+            }
+            // Copy whatever the handler didn't read
+            final byte[] buffer = new byte[64 * 1024];
+            while (tee.read(buffer) >= 0) {
+                // The tee writes to the target file
+            }
+        }
+        return sha1 == null || sha1.equals(Util.toHexString(digest.digest()));
+    }
+
+    /** Processes an archive while it's being fetched. */
+    public interface StreamHandler {
+
+        /**
+         * @param archive Stream of the archive contents.  Any part not read by this method is
+         *        still fetched and verified afterwards.
+         */
+        void handle(InputStream archive) throws IOException;
+    }
+
+}
@@ -0,0 +1,226 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import hudson.model.TaskListener;
+import hudson.plugins.android_emulator.Messages;
+import hudson.plugins.android_emulator.sdk.SdkPackageIndex;
+import hudson.plugins.android_emulator.util.FileSystemUtils;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.VersionNumber;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Installs SDK packages directly from their archives, rather than via {@code sdkmanager}, which
+ * downloads and then extracts each package in turn.
+ * <p>
+ * Independent packages are installed concurrently, and each archive is extracted while it's still
+ * being downloaded, optionally via an {@link SdkArchiveCache}.  Packages which are already installed
+ * at the revision in the repository are not downloaded again.  Packages which cannot be found in
+ * the repository manifests, or which fail to install, are left for {@code sdkmanager} to deal with.
+ */
+public final class SdkArchiveInstaller extends MasterToSlaveCallable<Set<String>, InterruptedException> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Directory within the SDK root where archives are downloaded and extracted before installation. */
+    static final String TEMP_DIR = ".temp";
+
+    /** Maximum number of packages to download at once. */
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+
+    private final String sdkRoot;
+    private final List<String> packagePaths;
+    private final String repositoryUrl;
+    private final SdkArchiveCache cache;
+    private final TaskListener listener;
+    private final long manifestCacheHours;
+
+    /**
+     * @param sdkRoot Root directory of the SDK to install into.
+     * @param packagePaths Paths of the packages to install, e.g. {@code platforms;android-24}.
+     * @param repositoryUrl Base URL of the repository to install from, ending with a slash, e.g.
+     *        {@link RepositoryManifest#BASE_URL}.
+     * @param cache The cache to fetch archives from; may be {@link SdkArchiveCache#NONE}.
+     * @param listener Used for logging.
+     */
+    public SdkArchiveInstaller(String sdkRoot, List<String> packagePaths, String repositoryUrl,
+            SdkArchiveCache cache, TaskListener listener) {
+        this(sdkRoot, packagePaths, repositoryUrl, cache, listener, 0);
+    }
+
+    /**
+     * @param sdkRoot Root directory of the SDK to install into.
+     * @param packagePaths Paths of the packages to install, e.g. {@code platforms;android-24}.
+     * @param repositoryUrl Base URL of the repository to install from, ending with a slash.
+     * @param cache The cache to fetch archives from; may be {@link SdkArchiveCache#NONE}.
+     * @param listener Used for logging.
+     * @param manifestCacheHours Time for which downloaded repository manifests are reused, via a
+     *        {@link ManifestCache}; zero to always download them.
+     */
+    public SdkArchiveInstaller(String sdkRoot, List<String> packagePaths, String repositoryUrl,
+            SdkArchiveCache cache, TaskListener listener, long manifestCacheHours) {
+        this.sdkRoot = sdkRoot;
+        this.packagePaths = new ArrayList<>(packagePaths);
+        this.repositoryUrl = repositoryUrl;
+        this.cache = cache;
+        this.listener = listener;
+        this.manifestCacheHours = manifestCacheHours;
+    }
+
+    /** @return The paths of the packages which were installed. */
+    @Override
+    public Set<String> call() throws InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Find the archive for each package; there are only a few manifests, so fetch these up front
+        final Set<String> installed = new LinkedHashSet<>();
+        final Map<String, RepositoryManifest> manifests = new HashMap<>();
+        final Map<RepositoryManifest.RemotePackage, RepositoryManifest.Archive> archives = new LinkedHashMap<>();
+        for (String path : packagePaths) {
+            try {
+                final String manifestPath = RepositoryManifest.getManifestPath(path);
+                RepositoryManifest manifest = manifests.get(manifestPath);
+                if (manifest == null) {
+                    manifest = ManifestCache.load(new File(sdkRoot), repositoryUrl, manifestPath,
+                            manifestCacheHours);
+                    manifests.put(manifestPath, manifest);
+                }
+                final RepositoryManifest.RemotePackage pkg = manifest.getPackage(path);
+                if (pkg != null && isInstalled(new File(sdkRoot), pkg)) {
+                    log(logger, Messages.SDK_PACKAGE_ALREADY_INSTALLED(path, pkg.getRevision()));
+                    installed.add(path);
+                    continue;
+                }
+                final RepositoryManifest.Archive archive = pkg == null ? null
+                        : pkg.getArchive(RepositoryManifest.getHostOs());
+                if (archive != null) {
+                    archives.put(pkg, archive);
+                }
+            } catch (IOException e) {
+                log(logger, Messages.SDK_ARCHIVE_INSTALL_FAILED(path, e.getMessage()));
+            }
+        }
+        if (archives.isEmpty()) {
+            return installed;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(archives.size(), MAX_CONCURRENT_DOWNLOADS),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Android SDK package installation"));
+        try {
+            final Map<String, Future<?>> installations = new LinkedHashMap<>();
+            for (Map.Entry<RepositoryManifest.RemotePackage, RepositoryManifest.Archive> entry : archives.entrySet()) {
+                final RepositoryManifest.RemotePackage pkg = entry.getKey();
+                final RepositoryManifest.Archive archive = entry.getValue();
+                installations.put(pkg.getPath(), executor.submit(() -> {
+                    install(new File(sdkRoot), pkg, archive, cache, logger);
+                    return null;
+                }));
+            }
+
+            for (Map.Entry<String, Future<?>> installation : installations.entrySet()) {
+                try {
+                    installation.getValue().get();
+                    installed.add(installation.getKey());
+                } catch (ExecutionException e) {
+                    log(logger, Messages.SDK_ARCHIVE_INSTALL_FAILED(installation.getKey(), e.getCause().getMessage()));
+                }
+            }
+            return installed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param sdkRoot Root directory of the SDK.
+     * @param pkg The package from the repository.
+     * @return {@code true} if the package is already installed, at the same revision as in the repository.
+     */
+    static boolean isInstalled(File sdkRoot, RepositoryManifest.RemotePackage pkg) {
+        final String revision = pkg.getRevision();
+        final String installedRevision;
+        try {
+            installedRevision = SdkPackageIndex.forSdkRoot(sdkRoot).getRevision(pkg.getPath());
+        } catch (IOException e) {
+            // Just install the package again
+            return false;
+        }
+        return revision != null && installedRevision != null
+                && new VersionNumber(revision).compareTo(new VersionNumber(installedRevision)) == 0;
+    }
+
+    /**
+     * Installs a package from the given archive, replacing any existing installation.
+     *
+     * @param sdkRoot Root directory of the SDK to install into.
+     * @param pkg The package to install.
+     * @param archive The archive of the package to install.
+     * @param cache The cache to fetch archives from.
+     * @param logger Logs things.
+     */
+    static void install(File sdkRoot, RepositoryManifest.RemotePackage pkg, RepositoryManifest.Archive archive,
+            SdkArchiveCache cache, PrintStream logger) throws IOException {
+        log(logger, Messages.INSTALLING_SDK_ARCHIVE(pkg.getPath()));
+        final File target = new File(sdkRoot, pkg.getPath().replace(';', File.separatorChar));
+        installArchive(archive, cache, new File(sdkRoot, TEMP_DIR), target, logger);
+        pkg.writePackageXml(target);
+    }
+
+    /**
+     * Downloads and extracts the given archive into the target directory, replacing its contents.
+     * <p>
+     * The archive is extracted to a temporary directory while downloading, which is then moved into
+     * place, so that a partially-installed package never appears in the SDK.
+     *
+     * @param archive The archive to install.
+     * @param cache The cache to fetch archives from.
+     * @param tempDir Directory for temporary files, which must be on the same filesystem as {@code target}.
+     * @param target Directory into which the archive contents should be installed.
+     * @param logger Logs things.
+     */
+    public static void installArchive(RepositoryManifest.Archive archive, SdkArchiveCache cache, File tempDir,
+            File target, PrintStream logger) throws IOException {
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+            throw new IOException(Messages.FAILED_TO_CREATE_FILE(tempDir.getAbsolutePath()));
+        }
+
+        final File staging = Files.createTempDirectory(tempDir.toPath(), "package").toFile();
+        File zip = null;
+        try {
+            zip = cache.fetch(archive, tempDir, logger, new ArchiveExtractor(staging));
+            ArchiveExtractor.applyFileModes(zip, staging);
+
+            FileSystemUtils.deleteRecursive(target);
+            final File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException(Messages.FAILED_TO_CREATE_FILE(parent.getAbsolutePath()));
+            }
+            Files.move(staging.toPath(), target.toPath());
+        } finally {
+            if (zip != null) {
+                Files.deleteIfExists(zip.toPath());
+            }
+            FileSystemUtils.deleteRecursive(staging);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import hudson.plugins.android_emulator.sdk.SdkPackageIndex;
+
+/**
+ * Records the inputs from which an AVD was created, i.e. its target, system image, screen, SD card
+ * and hardware properties, in a file within the AVD directory, so that on subsequent builds we can
+ * tell whether an existing AVD still matches what's required, without recreating it.
+ * <p>
+ * Where inputs differ, some can be {@linkplain #requiresRebuild patched} into the existing AVD,
+ * while others, such as a changed system image, mean the AVD must be rebuilt.
+ */
+public final class AvdFingerprint {
+
+    /** File within the AVD directory containing the fingerprint. */
+    static final String FILE_NAME = "jenkins-fingerprint.ini";
+
+    public static final String TARGET = "target";
+    public static final String SYSTEM_IMAGE = "image.package";
+    public static final String SYSTEM_IMAGE_REVISION = "image.revision";
+    public static final String DEVICE = "device";
+    public static final String SKIN = "skin.name";
+    public static final String DENSITY = "hw.lcd.density";
+    public static final String SD_CARD = "sdcard.size";
+
+    /** Prefix of keys which record the hardware properties applied to the AVD config. */
+    public static final String HARDWARE_PREFIX = "hardware.";
+
+    /** Inputs which can't be changed in an existing AVD. */
+    private static final Set<String> REBUILD_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            TARGET, SYSTEM_IMAGE, SYSTEM_IMAGE_REVISION, DEVICE, SKIN)));
+
+    private final Map<String, String> values = new TreeMap<>();
+
+    /**
+     * Sets an input; {@code null} values are ignored, so that unset inputs are simply absent.
+     *
+     * @param key The input name.
+     * @param value The input value.
+     * @return This instance.
+     */
+    public AvdFingerprint put(String key, String value) {
+        if (value != null) {
+            values.put(key, value);
+        }
+        return this;
+    }
+
+    /** @return The value of the given input, or {@code null} if unset. */
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    /** @return All inputs recorded in this fingerprint, including hardware properties. */
+    public Map<String, String> getValues() {
+        return new TreeMap<>(values);
+    }
+
+    /** @return The hardware properties recorded in this fingerprint, without their prefix. */
+    public Map<String, String> getHardwareProperties() {
+        final Map<String, String> properties = new TreeMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey().startsWith(HARDWARE_PREFIX)) {
+                properties.put(entry.getKey().substring(HARDWARE_PREFIX.length()), entry.getValue());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Replaces the hardware properties recorded in this fingerprint.
+     *
+     * @param properties The hardware properties which have been applied to the AVD.
+     * @return This instance.
+     */
+    public AvdFingerprint setHardwareProperties(Map<String, String> properties) {
+        values.keySet().removeIf(key -> key.startsWith(HARDWARE_PREFIX));
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            values.put(HARDWARE_PREFIX + entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Determines which of the AVD creation inputs differ between this fingerprint and the required one;
+     * hardware properties are not compared, as they're applied separately.
+     *
+     * @param required The fingerprint of the AVD that's required.
+     * @return The names of the inputs which differ; empty if the AVD matches.
+     */
+    public Set<String> getChangedInputs(AvdFingerprint required) {
+        final Set<String> keys = new TreeSet<>(values.keySet());
+        keys.addAll(required.values.keySet());
+        keys.removeIf(key -> key.startsWith(HARDWARE_PREFIX));
+
+        final Set<String> changed = new TreeSet<>();
+        for (String key : keys) {
+            final String value = values.get(key);
+            if (value == null ? required.values.get(key) != null : !value.equals(required.values.get(key))) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param changedInputs Inputs which differ, as returned by {@link #getChangedInputs}.
+     * @return {@code true} if the AVD must be rebuilt, rather than patched, to apply the changes.
+     */
+    public static boolean requiresRebuild(Set<String> changedInputs) {
+        for (String key : changedInputs) {
+            if (REBUILD_KEYS.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the fingerprint stored in the given AVD.
+     *
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @return The fingerprint, or {@code null} if the AVD doesn't have one, or it can't be read.
+     */
+    public static AvdFingerprint read(File avdDirectory) {
+        final File file = new File(avdDirectory, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final AvdFingerprint fingerprint = new AvdFingerprint();
+            fingerprint.values.putAll(ConfigFileUtils.parseConfigFile(file));
+            return fingerprint;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores this fingerprint in the given AVD, replacing any existing fingerprint.
+     *
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @throws IOException If the fingerprint could not be written.
+     */
+    public void write(File avdDirectory) throws IOException {
+        ConfigFileUtils.writeConfigFile(new File(avdDirectory, FILE_NAME), values);
+    }
+
+    /**
+     * Determines the installed revision of an SDK package, as given by the {@link SdkPackageIndex}.
+     *
+     * @param sdkRoot Root directory of the SDK.
+     * @param packagePath Package path, e.g. {@code system-images;android-24;default;x86}.
+     * @return The revision, e.g. {@code 5.1}, or {@code null} if the package isn't installed.
+     */
+    public static String getPackageRevision(File sdkRoot, String packagePath) {
+        if (sdkRoot == null || packagePath == null) {
+            return null;
+        }
+        try {
+            return SdkPackageIndex.forSdkRoot(sdkRoot).getRevision(packagePath);
+        } catch (IOException e) {
+            // Treat as unknown
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package hudson.plugins.android_emulator.util;
+
+import hudson.Util;
+import hudson.plugins.android_emulator.cleanup.LruEvictor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Keeps "golden" copies of AVDs which have been booted and snapshotted, keyed by a hash of their
+ * configuration, so that a newly-created AVD with the same configuration can be started from a
+ * warm snapshot, rather than having to go through a full first boot.
+ * <p>
+ * Templates are only ever captured as copy-on-write reflinks of the AVD's disk images, so they take
+ * almost no extra disk space; if the filesystem doesn't support reflinks, no template is kept.
+ * Restoring a template clones its images into the new AVD (again via a reflink, where possible).
+ * <p>
+ * The emulator's qcow2 overlays and snapshot metadata refer to the AVD's images by absolute path,
+ * so a template is only ever restored into an AVD at the same location as the one it was captured
+ * from, i.e. callers should include the AVD's location in the {@linkplain #getKey key}.
+ * <p>
+ * Each template has a {@link LruEvictor#LAST_USE_MARKER} which is touched when it is captured or
+ * restored, so that unused templates can be evicted along with unused AVDs.
+ */
+public final class AvdTemplateStore {
+
+    /** Directory, within the user's home directory, in which templates are kept. */
+    public static final String DEFAULT_DIR = ".android/avd-templates";
+
+    /**
+     * File within each template which records the path of the AVD it was captured from; a template
+     * without this file is incomplete, and is never restored.
+     */
+    public static final String SOURCE_PATH_FILE = "jenkins-template-source";
+
+    /** Files which are specific to each AVD, or are regenerated on each boot, so are never cloned. */
+    private static final Set<String> EXCLUDED_FILES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "config.ini", "hardware-qemu.ini", "emulator-user.ini", "sdcard.img",
+            AvdFingerprint.FILE_NAME, SOURCE_PATH_FILE, LruEvictor.LAST_USE_MARKER)));
+
+    private final File root;
+
+    /** @param root Directory in which templates are kept. */
+    public AvdTemplateStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @param inputs Everything which affects the contents of the booted AVD, e.g. its fingerprint.
+     * @return A key identifying the template for an AVD with the given inputs.
+     */
+    public static String getKey(Map<String, String> inputs) {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : new TreeMap<>(inputs).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return Util.getDigestOf(sb.toString());
+    }
+
+    /**
+     * Captures the given AVD as the template for the given key, unless one already exists.
+     * The emulator must not be writing to the AVD's images, e.g. it must be paused.
+     *
+     * @param key Template key, from {@link #getKey}.
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @return {@code true} if the template was captured.
+     * @throws IOException If the template directory could not be written.
+     */
+    public boolean capture(String key, File avdDirectory) throws IOException {
+        final File template = new File(root, key);
+        if (template.isDirectory()) {
+            return false;
+        }
+
+        // Build the template in a temporary directory, so that it only appears once complete
+        final File temp = new File(root, "." + key + "." + UUID.randomUUID() + ".tmp");
+        if (!temp.mkdirs()) {
+            throw new IOException("Failed to create directory: " + temp);
+        }
+        try {
+            if (!reflinkTree(avdDirectory, temp)) {
+                return false;
+            }
+            Files.write(new File(temp, SOURCE_PATH_FILE).toPath(),
+                    avdDirectory.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            Files.createFile(new File(temp, LruEvictor.LAST_USE_MARKER).toPath());
+            try {
+                Files.move(temp.toPath(), template.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Another build captured the same template first
+                return false;
+            }
+            return true;
+        } finally {
+            FileSystemUtils.deleteRecursive(temp);
+        }
+    }
+
+    /**
+     * Restores the template for the given key into the given AVD, replacing its disk images.
+     *
+     * @param key Template key, from {@link #getKey}.
+     * @param avdDirectory The AVD's {@code .avd} directory, which must already exist.
+     * @return {@code true} if a template existed for an AVD at the same location, and was restored.
+     * @throws IOException If the template could not be restored.
+     */
+    public boolean restore(String key, File avdDirectory) throws IOException {
+        final File template = new File(root, key);
+        final File sourcePathFile = new File(template, SOURCE_PATH_FILE);
+        if (!sourcePathFile.isFile()) {
+            return false;
+        }
+        final String sourcePath = new String(Files.readAllBytes(sourcePathFile.toPath()), StandardCharsets.UTF_8);
+        if (!sourcePath.equals(avdDirectory.getAbsolutePath())) {
+            return false;
+        }
+        FileSystemUtils.touch(new File(template, LruEvictor.LAST_USE_MARKER));
+        cloneTree(template, avdDirectory);
+        return true;
+    }
+
+    /** @return {@code false} if any file could not be reflinked. */
+    private static boolean reflinkTree(File source, File target) throws IOException {
+        final File[] children = source.listFiles();
+        if (children == null) {
+            return true;
+        }
+        for (File child : children) {
+            if (isExcluded(child)) {
+                continue;
+            }
+            final File targetChild = new File(target, child.getName());
+            if (child.isDirectory()) {
+                if (!targetChild.mkdirs() || !reflinkTree(child, targetChild)) {
+                    return false;
+                }
+            } else if (!FileLinker.tryReflink(child, targetChild)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void cloneTree(File source, File target) throws IOException {
+        final File[] children = source.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (isExcluded(child)) {
+                continue;
+            }
+            final File targetChild = new File(target, child.getName());
+            if (child.isDirectory()) {
+                if (!targetChild.isDirectory() && !targetChild.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + targetChild);
+                }
+                cloneTree(child, targetChild);
+            } else {
+                // The images will be written to by the emulator, so mustn't be hard-linked
+                FileLinker.cloneFile(child, targetChild);
+            }
+        }
+    }
+
+    private static boolean isExcluded(File file) {
+        final String name = file.getName();
+        return EXCLUDED_FILES.contains(name) || name.endsWith(".lock") || name.endsWith(".tmp");
+    }
+
+}
@@ -0,0 +1,154 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates an AVD by writing its configuration files directly, as {@code avdmanager create avd}
+ * would, rather than by launching and interacting with {@code avdmanager}, which takes much longer.
+ * <p>
+ * The AVD's {@code config.ini} is based on the defaults provided by the system image, i.e. its
+ * {@code hardware.ini}, on top of which the given properties are set in a single write.
+ * Device definitions are not supported, as the built-in ones are only available to the SDK tools.
+ */
+public final class AvdWriter {
+
+    private static final String CONFIG_FILE = "config.ini";
+
+    /** File within the system image directory which provides hardware defaults. */
+    private static final String HARDWARE_DEFAULTS_FILE = "hardware.ini";
+
+    /** Display name of the tag in a system image's {@code package.xml}. */
+    private static final Pattern TAG_DISPLAY = Pattern.compile(
+            "<tag>\\s*<id>[^<]*</id>\\s*<display>([^<]*)</display>");
+
+    private final File avdHome;
+    private final File sdkRoot;
+
+    /**
+     * @param avdHome Directory containing the AVDs, e.g. {@code ~/.android/avd}.
+     * @param sdkRoot Root directory of the SDK containing the system image.
+     */
+    public AvdWriter(File avdHome, File sdkRoot) {
+        this.avdHome = avdHome;
+        this.sdkRoot = sdkRoot;
+    }
+
+    /**
+     * @param systemImagePackagePath Package path, e.g. {@code system-images;android-24;default;x86}.
+     * @return The path of the system image directory, relative to the SDK root and ending with a
+     *         slash, or {@code null} if the package path doesn't refer to a system image.
+     */
+    public static String getSystemImageDir(String systemImagePackagePath) {
+        final String[] parts = systemImagePackagePath == null ? new String[0] : systemImagePackagePath.split(";");
+        if (parts.length != 4 || !parts[0].equals("system-images")) {
+            return null;
+        }
+        return String.join("/", parts) + "/";
+    }
+
+    /**
+     * Determines whether an AVD can be written for the given system image, i.e. it's installed.
+     *
+     * @param systemImagePackagePath Package path, e.g. {@code system-images;android-24;default;x86}.
+     * @return {@code true} if {@link #write} can be used for this system image.
+     */
+    public boolean canWrite(String systemImagePackagePath) {
+        final String systemImageDir = getSystemImageDir(systemImagePackagePath);
+        return systemImageDir != null && new File(sdkRoot, systemImageDir).isDirectory();
+    }
+
+    /**
+     * Writes the configuration of a new AVD, replacing any existing AVD with the same name.
+     *
+     * @param avdName Name of the AVD.
+     * @param target Platform target of the AVD, e.g. {@code android-24}.
+     * @param systemImagePackagePath Package path of the system image, e.g. {@code system-images;android-24;default;x86}.
+     * @param properties Further properties to set in the AVD config, e.g. the screen density.
+     * @return The AVD directory.
+     * @throws IOException If the system image isn't installed, or the files could not be written.
+     */
+    public File write(String avdName, String target, String systemImagePackagePath,
+            Map<String, String> properties) throws IOException {
+        final String systemImageDir = getSystemImageDir(systemImagePackagePath);
+        final File imageDir = systemImageDir == null ? null : new File(sdkRoot, systemImageDir);
+        if (imageDir == null || !imageDir.isDirectory()) {
+            throw new IOException("System image is not installed: " + systemImagePackagePath);
+        }
+        final String[] parts = systemImagePackagePath.split(";");
+        final String tag = parts[2];
+        final String abi = parts[3];
+
+        // Start with the system image defaults, then add the values avdmanager would set
+        final Map<String, String> config = new TreeMap<>();
+        final File hardwareDefaults = new File(imageDir, HARDWARE_DEFAULTS_FILE);
+        if (hardwareDefaults.isFile()) {
+            config.putAll(ConfigFileUtils.parseConfigFile(hardwareDefaults));
+        }
+        config.put("avd.ini.encoding", "UTF-8");
+        config.put("abi.type", abi);
+        config.put("hw.cpu.arch", getCpuArch(abi));
+        if (abi.equals("armeabi-v7a")) {
+            config.put("hw.cpu.model", "cortex-a8");
+        }
+        config.put("image.sysdir.1", systemImageDir);
+        config.put("tag.id", tag);
+        config.put("tag.display", getTagDisplay(imageDir, tag));
+        config.putAll(properties);
+
+        final File avdDirectory = new File(avdHome, avdName + ".avd");
+        if (!avdDirectory.isDirectory() && !avdDirectory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + avdDirectory);
+        }
+        ConfigFileUtils.writeConfigFile(new File(avdDirectory, CONFIG_FILE), config);
+
+        // Write the metadata file last, so that the AVD is only listed once it's complete
+        final Map<String, String> metadata = new TreeMap<>();
+        metadata.put("avd.ini.encoding", "UTF-8");
+        metadata.put("path", avdDirectory.getAbsolutePath());
+        metadata.put("path.rel", "avd" + File.separator + avdDirectory.getName());
+        metadata.put("target", target);
+        ConfigFileUtils.writeConfigFile(new File(avdHome, avdName + ".ini"), metadata);
+        return avdDirectory;
+    }
+
+    /** @return The emulator CPU architecture for the given ABI. */
+    static String getCpuArch(String abi) {
+        if (abi.startsWith("arm64")) {
+            return "arm64";
+        }
+        if (abi.startsWith("arm")) {
+            return "arm";
+        }
+        if (abi.startsWith("mips64")) {
+            return "mips64";
+        }
+        return abi;
+    }
+
+    /**
+     * @return The display name of the system image's tag, e.g. {@code Google APIs}, as given by its
+     *         package metadata, otherwise the tag ID itself.
+     */
+    private static String getTagDisplay(File imageDir, String tag) throws IOException {
+        if (tag.equals("default")) {
+            return "Default";
+        }
+        final File packageXml = new File(imageDir, "package.xml");
+        if (packageXml.isFile()) {
+            final String xml = new String(Files.readAllBytes(packageXml.toPath()), StandardCharsets.UTF_8);
+            final Matcher matcher = TAG_DISPLAY.matcher(xml);
+            if (matcher.find()) {
+                return matcher.group(1).trim();
+            }
+        }
+        return tag;
+    }
+
+}
@@ -0,0 +1,179 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Edits a simple INI file (i.e. {@code key=value} lines), such as an AVD's {@code config.ini}.
+ * <p>
+ * Any number of values can be changed, after which the file is written once, via
+ * {@link ConfigFileUtils#writeAtomically}, so that it is never left partially written.  Unlike
+ * rewriting the file from a parsed map, the original order of the keys is kept, along with any
+ * comments and blank lines; new keys are appended to the end of the file.
+ */
+public final class ConfigFileEditor {
+
+    private final File configFile;
+    private final List<String> lines = new ArrayList<>();
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private final String lineSeparator;
+    private boolean modified;
+
+    private ConfigFileEditor(File configFile, String content) {
+        this.configFile = configFile;
+        this.lineSeparator = content.isEmpty() || content.contains("\r\n") ? "\r\n" : "\n";
+        for (String line : content.split("\r?\n", -1)) {
+            lines.add(line);
+        }
+        // A trailing line separator doesn't start another line
+        if (lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        for (String line : lines) {
+            final String key = getKey(line);
+            if (key != null) {
+                values.put(key, getValue(line));
+            }
+        }
+    }
+
+    /**
+     * Reads the given file, ready for editing.
+     *
+     * @param configFile The file to edit; if it doesn't exist, it will be created when committed.
+     * @return The editor.
+     * @throws IOException If the file exists but could not be read.
+     */
+    public static ConfigFileEditor open(File configFile) throws IOException {
+        final String content = configFile.exists()
+                ? new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8) : "";
+        return new ConfigFileEditor(configFile, content);
+    }
+
+    /**
+     * @param key The key to look up.
+     * @return The current value for the key, including any uncommitted edit, or {@code null} if unset.
+     */
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    /** @return The current key-value pairs, including any uncommitted edits, in file order. */
+    public Map<String, String> getValues() {
+        return new LinkedHashMap<>(values);
+    }
+
+    /**
+     * Sets or overwrites a key-value pair.
+     *
+     * @param key Key to set.
+     * @param value Value to set.
+     * @return This instance.
+     */
+    public ConfigFileEditor set(String key, String value) {
+        if (value.equals(values.get(key))) {
+            return this;
+        }
+        boolean found = false;
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            if (key.equals(getKey(line))) {
+                lines.set(i, replaceValue(line, value));
+                found = true;
+            }
+        }
+        if (!found) {
+            lines.add(key + "=" + value);
+        }
+        values.put(key, value);
+        modified = true;
+        return this;
+    }
+
+    /**
+     * Sets or overwrites each of the given key-value pairs.
+     *
+     * @param newValues Pairs to set.
+     * @return This instance.
+     */
+    public ConfigFileEditor setAll(Map<String, String> newValues) {
+        for (Map.Entry<String, String> entry : newValues.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Removes a key, if it is set.
+     *
+     * @param key Key to remove.
+     * @return This instance.
+     */
+    public ConfigFileEditor remove(String key) {
+        if (values.remove(key) != null) {
+            lines.removeIf(line -> key.equals(getKey(line)));
+            modified = true;
+        }
+        return this;
+    }
+
+    /** @return {@code true} if there are edits which haven't been committed. */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Writes the edited file, replacing the original atomically; does nothing if nothing was changed.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    public void commit() throws IOException {
+        if (!modified) {
+            return;
+        }
+        final StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append(lineSeparator);
+        }
+        ConfigFileUtils.writeAtomically(configFile, content.toString().getBytes(StandardCharsets.UTF_8));
+        modified = false;
+    }
+
+    /**
+     * @return The key of the given line, or {@code null} if it's a comment or blank, using the same
+     *         rules as {@link ConfigFileUtils#parseConfigFile}.
+     */
+    private static String getKey(String line) {
+        final String trimmed = line.replaceFirst("^\\s++", "");
+        if (trimmed.startsWith("#") || trimmed.startsWith(";") || trimmed.isEmpty()) {
+            return null;
+        }
+        final String key = trimmed.split("=", 2)[0].trim();
+        return key.isEmpty() ? null : key;
+    }
+
+    private static String getValue(String line) {
+        final int separator = line.indexOf('=');
+        return separator < 0 ? "" : line.substring(separator + 1).replaceFirst("^\\s++", "");
+    }
+
+    /** @return The line with its value replaced, keeping its original spacing around the separator. */
+    private static String replaceValue(String line, String value) {
+        final int separator = line.indexOf('=');
+        if (separator < 0) {
+            return line + "=" + value;
+        }
+        int start = separator + 1;
+        while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        return line.substring(0, start) + value;
+    }
+
+}
@@ -1,14 +1,18 @@
 package hudson.plugins.android_emulator.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -124,9 +128,9 @@ public class ConfigFileUtils {
         final Properties props = new Properties();
         props.putAll(values);
 
-        try (FileOutputStream fos = new FileOutputStream(configFile)) {
-            props.store(fos, null);
-        }
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        props.store(content, null);
+        writeAtomically(configFile, content.toByteArray());
     }
 
     /**
@@ -138,12 +142,39 @@ public class ConfigFileUtils {
      */
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private static void writeConfigFileSimpleINIFormat(final File configFile, final Map<String,String> values) throws IOException {
-        PrintWriter out = new PrintWriter(configFile);
+        final StringBuilder content = new StringBuilder();
         for (final Entry<String, String> entry : values.entrySet()) {
-            out.print(entry.getKey() + "=" + entry.getValue() + "\r\n");
+            content.append(entry.getKey()).append("=").append(entry.getValue()).append("\r\n");
+        }
+        writeAtomically(configFile, content.toString().getBytes());
+    }
+
+    /**
+     * Replaces the contents of a file atomically: the new content is written to a temporary file in
+     * the same directory, synced to disk, then moved into place, so that a crash never leaves a
+     * truncated or partially-written file behind.
+     *
+     * @param file the file to write.
+     * @param content the new contents of the file.
+     * @throws IOException If the file could not be written.
+     */
+    static void writeAtomically(final File file, final byte[] content) throws IOException {
+        // Unlike File.createTempFile, this leaves the default permissions in place
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File temp = new File(dir, "." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(content);
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
         }
-        out.flush();
-        out.close();
     }
 
     /**
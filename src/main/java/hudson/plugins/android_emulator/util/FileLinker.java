@@ -0,0 +1,197 @@
+package hudson.plugins.android_emulator.util;
+
+import hudson.Functions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Materialises shared files in other locations, e.g. in job workspaces, using as little disk space
+ * and I/O as the filesystem allows.
+ * <p>
+ * Files which will only be read can be hard-linked, so that they take no extra space at all.  Files
+ * which may be modified must not be hard-linked, as that would modify the original too; these are
+ * instead cloned via a copy-on-write reflink, on filesystems which support them (e.g. Btrfs, XFS and
+ * APFS), which similarly takes no extra space until the clone is modified.  Failing that, files are
+ * copied as normal.
+ */
+public final class FileLinker {
+
+    /** How a file was materialised. */
+    public enum Method {
+        /** The target is a hard link to the source. */
+        HARD_LINK,
+        /** The target is a copy-on-write clone of the source. */
+        REFLINK,
+        /** The target is a full copy of the source. */
+        COPY
+    }
+
+    /** How long to wait for the external tool which creates a reflink. */
+    private static final long REFLINK_TIMEOUT_SECONDS = 30;
+
+    /** Pairs of source and target filesystems between which reflinks can't be made, so that we don't keep trying. */
+    private static final Map<String, Boolean> REFLINK_UNSUPPORTED = new ConcurrentHashMap<>();
+
+    private FileLinker() {}
+
+    /**
+     * Makes the given file available at the target location, where it will only be read.
+     *
+     * @param source The file to link to.
+     * @param target Where the file should appear; replaced if it already exists.
+     * @return How the file was materialised.
+     * @throws IOException If the file could not be linked or copied.
+     */
+    public static Method link(File source, File target) throws IOException {
+        prepareTarget(target);
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            return Method.HARD_LINK;
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. the target is on a different filesystem, or it doesn't support hard links
+        }
+        return cloneFile(source, target);
+    }
+
+    /**
+     * Makes an independent copy of the given file at the target location, which may be modified
+     * without affecting the source.
+     *
+     * @param source The file to copy.
+     * @param target Where the copy should be written; replaced if it already exists.
+     * @return How the file was materialised; never {@link Method#HARD_LINK}.
+     * @throws IOException If the file could not be cloned or copied.
+     */
+    public static Method cloneFile(File source, File target) throws IOException {
+        prepareTarget(target);
+        if (reflink(source, target)) {
+            return Method.REFLINK;
+        }
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES);
+        return Method.COPY;
+    }
+
+    /**
+     * Makes a copy-on-write clone of the given file at the target location, if the filesystem
+     * supports it; unlike {@link #cloneFile}, this never falls back to a full copy.
+     *
+     * @param source The file to clone.
+     * @param target Where the clone should be created; replaced if it already exists.
+     * @return {@code true} if the clone was created, otherwise the target does not exist.
+     * @throws IOException If an existing target could not be replaced.
+     */
+    public static boolean tryReflink(File source, File target) throws IOException {
+        prepareTarget(target);
+        return reflink(source, target);
+    }
+
+    private static void prepareTarget(File target) throws IOException {
+        final File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parent);
+        }
+        Files.deleteIfExists(target.toPath());
+    }
+
+    /**
+     * Attempts to create a copy-on-write clone of the source file.
+     * <p>
+     * Java has no API for this, so we rely on {@code cp}, which uses the {@code FICLONE} ioctl on
+     * Linux, and {@code clonefile(2)} on macOS.  Clones can only be made within a filesystem, so
+     * we don't try otherwise.
+     *
+     * @return {@code true} if the clone was created.
+     */
+    private static boolean reflink(File source, File target) {
+        if (Functions.isWindows()) {
+            return false;
+        }
+        final String sourceStore = getFileStoreName(source.getAbsoluteFile().toPath());
+        final String targetStore = getFileStoreName(target.getAbsoluteFile().getParentFile().toPath());
+        if (sourceStore == null || !sourceStore.equals(targetStore)) {
+            return false;
+        }
+        final String key = sourceStore + " -> " + targetStore;
+        if (REFLINK_UNSUPPORTED.containsKey(key)) {
+            return false;
+        }
+
+        final boolean isMac = System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("mac");
+        final ProcessBuilder pb = isMac
+                ? new ProcessBuilder("cp", "-c", source.getAbsolutePath(), target.getAbsolutePath())
+                : new ProcessBuilder("cp", "--reflink=always", source.getAbsolutePath(), target.getAbsolutePath());
+        pb.redirectErrorStream(true);
+        try {
+            final Process process = pb.start();
+            if (!process.waitFor(REFLINK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                // This may just be a slow disk, so we'll try again next time
+                process.destroyForcibly();
+            } else if (process.exitValue() == 0) {
+                return true;
+            } else if (isReflinkUnsupported(readOutput(process))) {
+                // Only remember failures which will happen every time, rather than e.g. a full disk
+                REFLINK_UNSUPPORTED.put(key, Boolean.TRUE);
+            }
+        } catch (IOException e) {
+            // No usable "cp" command
+            REFLINK_UNSUPPORTED.put(key, Boolean.TRUE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Files.deleteIfExists(target.toPath());
+        } catch (IOException e) {
+            // The subsequent copy will replace it anyway
+        }
+        return false;
+    }
+
+    /**
+     * @param output The error output of a failed {@code cp} reflink command.
+     * @return {@code true} if the output shows that reflinks can't be made, rather than that this copy failed.
+     */
+    static boolean isReflinkUnsupported(String output) {
+        final String message = output.toLowerCase(Locale.ENGLISH);
+        // e.g. "Operation not supported" (EOPNOTSUPP), or a "cp" without the reflink option
+        return message.contains("not supported") || message.contains("unrecognized option")
+                || message.contains("illegal option") || message.contains("invalid option");
+    }
+
+    /** @return The output of a process which has exited; this is only ever a short error message. */
+    private static String readOutput(Process process) throws IOException {
+        try (InputStream in = process.getInputStream()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), Charset.defaultCharset());
+        }
+    }
+
+    private static String getFileStoreName(Path path) {
+        try {
+            // This includes the mount point, so distinguishes between filesystems of the same type
+            final FileStore store = Files.getFileStore(path);
+            return store.toString();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
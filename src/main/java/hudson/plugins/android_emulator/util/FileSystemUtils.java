@@ -0,0 +1,48 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+
+/**
+ * File operations for code which runs on build machines, and so works with {@link File}s directly
+ * rather than via {@link hudson.FilePath}.
+ */
+public final class FileSystemUtils {
+
+    private FileSystemUtils() {}
+
+    /**
+     * Creates the given file if it doesn't exist, otherwise updates its modification time.
+     *
+     * @param file The file to touch.
+     * @throws IOException If the file could not be created or updated.
+     */
+    public static void touch(File file) throws IOException {
+        if (!file.exists()) {
+            Files.createFile(file.toPath());
+        } else if (!file.setLastModified(System.currentTimeMillis())) {
+            throw new IOException("Failed to update " + file);
+        }
+    }
+
+    /**
+     * Deletes the given file or directory, not following symbolic links.
+     *
+     * @param file The file or directory to delete; nothing happens if it doesn't exist.
+     * @throws IOException If anything could not be deleted.
+     */
+    public static void deleteRecursive(File file) throws IOException {
+        if (Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            final File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursive(child);
+                }
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+}
@@ -0,0 +1,233 @@
+package hudson.plugins.android_emulator.util;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interacts with a running process: its output is read as it arrives, and passed line-by-line to a
+ * {@link LineListener}, while any prompts are answered as soon as they appear, according to the
+ * configured {@link #respond rules}.
+ * <p>
+ * Output is read with blocking reads on a shared pool of daemon threads, so no thread is tied up
+ * while no process is running, and nothing is polled.  Rules are also checked against an incomplete
+ * line, as prompts usually wait for input without printing a newline.
+ */
+public final class ProcessInteraction {
+
+    /** Receives each line of output from the process. */
+    public interface LineListener {
+        /** @param line A non-empty line of output, without its line terminator. */
+        void onLine(String line);
+    }
+
+    /** Threads which read process output; these are only kept alive while being used. */
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "Android process output reader"));
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream output;
+    private final OutputStream input;
+    private final List<Rule> rules = new ArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private LineListener listener;
+    private volatile long lastOutputTime;
+
+    /**
+     * @param output The process output (i.e. {@link Process#getInputStream()}) to read from.
+     * @param input The process input (i.e. {@link Process#getOutputStream()}) to which responses are
+     *        written; may be {@code null} if no responses are to be sent.
+     */
+    public ProcessInteraction(InputStream output, OutputStream input) {
+        this.output = output;
+        this.input = input;
+    }
+
+    /**
+     * Adds a rule which answers a prompt: whenever a line of output, complete or not, contains the
+     * given text, the response is sent, followed by a newline.  Each line triggers at most one response.
+     *
+     * @param prompt Text which identifies the prompt.
+     * @param response Response to send, without a newline.
+     * @return This instance.
+     */
+    public ProcessInteraction respond(String prompt, String response) {
+        rules.add(new Rule(prompt, response));
+        return this;
+    }
+
+    /**
+     * @param listener Receives each line of output; called on the reading thread.
+     * @return This instance.
+     */
+    public ProcessInteraction onLine(LineListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Starts reading the process output in the background.
+     *
+     * @return This instance.
+     */
+    public ProcessInteraction start() {
+        lastOutputTime = System.currentTimeMillis();
+        if (output == null) {
+            finished.countDown();
+        } else {
+            READERS.execute(this::read);
+        }
+        return this;
+    }
+
+    /**
+     * Waits until the process output has been read to the end, i.e. the process has exited.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return {@code true} if all output has been read, or {@code false} if the timeout elapsed first.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /** @return How long ago, in milliseconds, the process last produced any output. */
+    public long getIdleMillis() {
+        return System.currentTimeMillis() - lastOutputTime;
+    }
+
+    /**
+     * Sends the given text to the process, followed by a newline.
+     *
+     * @param text Text to send.
+     * @throws IOException If the text could not be written, e.g. the process has exited.
+     */
+    public void send(String text) throws IOException {
+        if (input == null) {
+            throw new IOException("Process input is not available");
+        }
+        synchronized (input) {
+            input.write((text + "\r\n").getBytes(StandardCharsets.UTF_8));
+            input.flush();
+        }
+    }
+
+    private void read() {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final LineBuffer line = new LineBuffer();
+        try {
+            int len;
+            while ((len = output.read(buffer)) != -1) {
+                lastOutputTime = System.currentTimeMillis();
+                for (int i = 0; i < len; i++) {
+                    final byte b = buffer[i];
+                    if (b == '\n' || b == '\r') {
+                        // Neither byte can occur within a multi-byte UTF-8 sequence, so this is safe
+                        endLine(line);
+                    } else {
+                        line.append(b);
+                    }
+                }
+
+                // Check whether the output so far is a prompt, waiting for input
+                if (line.size() > 0 && !line.responded) {
+                    line.responded = applyRules(line.toString());
+                }
+            }
+        } catch (IOException e) {
+            // The stream was closed, e.g. because the process was killed
+        } finally {
+            endLine(line);
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            finished.countDown();
+        }
+    }
+
+    private void endLine(LineBuffer line) {
+        if (line.size() == 0) {
+            return;
+        }
+        final String text = line.toString();
+        final boolean responded = line.responded;
+        line.reset();
+
+        if (listener != null) {
+            listener.onLine(text);
+        }
+        if (!responded) {
+            applyRules(text);
+        }
+    }
+
+    /** @return {@code true} if a response was sent. */
+    private boolean applyRules(String text) {
+        for (Rule rule : rules) {
+            if (text.contains(rule.prompt)) {
+                try {
+                    send(rule.response);
+                } catch (IOException e) {
+                    // The process has likely exited, which we'll notice when the output ends
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** A prompt and its response. */
+    private static final class Rule {
+        final String prompt;
+        final String response;
+
+        Rule(String prompt, String response) {
+            this.prompt = prompt;
+            this.response = response;
+        }
+    }
+
+    /** Accumulates the bytes of the current line, reusing its storage between lines. */
+    private static final class LineBuffer {
+        private byte[] bytes = new byte[256];
+        private int size;
+        boolean responded;
+
+        void append(byte b) {
+            if (size == bytes.length) {
+                final byte[] larger = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, larger, 0, size);
+                bytes = larger;
+            }
+            bytes[size++] = b;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+            responded = false;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, size, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates empty FAT32-formatted SD card images, as {@code mksdcard} would, but without writing out
+ * the whole image: the file is created sparse, and only the boot sectors and the start of each FAT
+ * are written, so creating a card takes a few kilobytes of I/O regardless of its size.
+ * <p>
+ * A pristine image of each size can additionally be kept in a cache directory, from which new
+ * images are cloned via a copy-on-write reflink, on filesystems which support them.  Otherwise the
+ * image is formatted directly, as a full copy would lose the sparseness.
+ */
+public final class SdCardImage {
+
+    /** Size of the card, e.g. {@code 512M}, as accepted by {@code mksdcard}. */
+    private static final Pattern SIZE = Pattern.compile("([0-9]{1,12})([KMG])?", Pattern.CASE_INSENSITIVE);
+
+    /** Smallest card which the emulator will accept. */
+    static final long MIN_SIZE_BYTES = 9 * 1024 * 1024;
+
+    private static final int BYTES_PER_SECTOR = 512;
+    private static final int RESERVED_SECTORS = 32;
+    private static final int NUM_FATS = 2;
+    private static final int FSINFO_SECTOR = 1;
+    private static final int BACKUP_BOOT_SECTOR = 6;
+    private static final int ROOT_CLUSTER = 2;
+    private static final int MEDIA_DESCRIPTOR = 0xF8;
+    private static final int END_OF_CHAIN = 0x0FFFFFFF;
+    private static final String VOLUME_LABEL = "NO NAME    ";
+
+    private SdCardImage() {}
+
+    /**
+     * @param size Size of the card, e.g. {@code 512M}, {@code 1G}, or a number of bytes.
+     * @return The size in bytes, or {@code -1} if the size is invalid or unsupported.
+     */
+    public static long parseSize(String size) {
+        if (size == null) {
+            return -1;
+        }
+        final Matcher matcher = SIZE.matcher(size.trim());
+        if (!matcher.matches()) {
+            return -1;
+        }
+        long bytes = Long.parseLong(matcher.group(1));
+        final String unit = matcher.group(2) == null ? "" : matcher.group(2).toUpperCase(Locale.ENGLISH);
+        switch (unit) {
+            case "G":
+                bytes *= 1024;
+                // fall through
+            case "M":
+                bytes *= 1024;
+                // fall through
+            case "K":
+                bytes *= 1024;
+                break;
+            default:
+                break;
+        }
+        final long maxBytes = 0xFFFFFFFFL * BYTES_PER_SECTOR;
+        return bytes < MIN_SIZE_BYTES || bytes > maxBytes ? -1 : bytes;
+    }
+
+    /**
+     * Creates an empty SD card image, cloning it from a cached pristine image where possible.
+     *
+     * @param image The image file to create; replaced if it already exists.
+     * @param sizeBytes Size of the card, as returned by {@link #parseSize}.
+     * @param cacheDir Directory in which pristine images are kept, which should be on the same
+     *        filesystem as the image; or {@code null} to format the image directly.
+     */
+    public static void create(File image, long sizeBytes, File cacheDir) throws IOException {
+        if (cacheDir != null) {
+            final File pristine = new File(cacheDir, String.format("sdcard-%d.img", sizeBytes));
+            if (!pristine.isFile()) {
+                if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + cacheDir);
+                }
+                // Format to a temporary file first, so a concurrent build never sees a partial image
+                final File temp = File.createTempFile("sdcard-", ".tmp", cacheDir);
+                try {
+                    format(temp, sizeBytes);
+                    Files.move(temp.toPath(), pristine.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp.toPath());
+                }
+            }
+            if (FileLinker.tryReflink(pristine, image)) {
+                return;
+            }
+        }
+        format(image, sizeBytes);
+    }
+
+    /**
+     * Writes an empty FAT32 filesystem of the given size into a new sparse file.
+     *
+     * @param image The image file to create; replaced if it already exists.
+     * @param sizeBytes Size of the card, as returned by {@link #parseSize}.
+     */
+    public static void format(File image, long sizeBytes) throws IOException {
+        if (sizeBytes < MIN_SIZE_BYTES) {
+            throw new IllegalArgumentException("SD card is too small: " + sizeBytes);
+        }
+        final long totalSectors = sizeBytes / BYTES_PER_SECTOR;
+        final int sectorsPerCluster = getSectorsPerCluster(totalSectors);
+
+        // Calculate the FAT size as per the FAT specification; this may slightly overestimate
+        final long tmp1 = totalSectors - RESERVED_SECTORS;
+        final long tmp2 = (256L * sectorsPerCluster + NUM_FATS) / 2;
+        final long fatSectors = (tmp1 + tmp2 - 1) / tmp2;
+        final long clusterCount = (totalSectors - RESERVED_SECTORS - NUM_FATS * fatSectors) / sectorsPerCluster;
+
+        Files.deleteIfExists(image.toPath());
+        try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+            // Extending the file leaves it sparse; everything not written below reads as zero,
+            // which includes the free FAT entries and the empty root directory
+            file.setLength(totalSectors * BYTES_PER_SECTOR);
+
+            final byte[] bootSector = getBootSector(totalSectors, sectorsPerCluster, fatSectors);
+            final byte[] fsInfoSector = getFsInfoSector(clusterCount);
+            writeSector(file, 0, bootSector);
+            writeSector(file, FSINFO_SECTOR, fsInfoSector);
+            writeSector(file, BACKUP_BOOT_SECTOR, bootSector);
+            writeSector(file, BACKUP_BOOT_SECTOR + FSINFO_SECTOR, fsInfoSector);
+
+            // The first FAT entries hold the media descriptor, and the root directory's single cluster
+            final ByteBuffer fat = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            fat.putInt(0x0FFFFF00 | MEDIA_DESCRIPTOR);
+            fat.putInt(END_OF_CHAIN);
+            fat.putInt(END_OF_CHAIN);
+            for (int i = 0; i < NUM_FATS; i++) {
+                writeSector(file, RESERVED_SECTORS + i * fatSectors, fat.array());
+            }
+        }
+    }
+
+    /** @return The cluster size for the given disk size, as recommended by the FAT specification. */
+    static int getSectorsPerCluster(long totalSectors) {
+        if (totalSectors <= 532480) {
+            // Up to 260MB; this includes cards too small to be "proper" FAT32, as mksdcard creates
+            return 1;
+        }
+        if (totalSectors <= 16777216) {
+            return 8;
+        }
+        if (totalSectors <= 33554432) {
+            return 16;
+        }
+        if (totalSectors <= 67108864) {
+            return 32;
+        }
+        return 64;
+    }
+
+    private static byte[] getBootSector(long totalSectors, int sectorsPerCluster, long fatSectors) {
+        final ByteBuffer sector = ByteBuffer.allocate(BYTES_PER_SECTOR).order(ByteOrder.LITTLE_ENDIAN);
+        sector.put(new byte[] { (byte) 0xEB, 0x58, (byte) 0x90 });
+        sector.put("MSWIN4.1".getBytes(StandardCharsets.US_ASCII));
+        sector.putShort((short) BYTES_PER_SECTOR);
+        sector.put((byte) sectorsPerCluster);
+        sector.putShort((short) RESERVED_SECTORS);
+        sector.put((byte) NUM_FATS);
+        sector.putShort((short) 0); // root entries, unused for FAT32
+        sector.putShort((short) 0); // 16-bit sector count, unused for FAT32
+        sector.put((byte) MEDIA_DESCRIPTOR);
+        sector.putShort((short) 0); // 16-bit FAT size, must be zero for FAT32
+        sector.putShort((short) 63); // sectors per track
+        sector.putShort((short) 255); // heads
+        sector.putInt(0); // hidden sectors
+        sector.putInt((int) totalSectors);
+        sector.putInt((int) fatSectors);
+        sector.putShort((short) 0); // flags: FATs are mirrored
+        sector.putShort((short) 0); // version 0.0
+        sector.putInt(ROOT_CLUSTER);
+        sector.putShort((short) FSINFO_SECTOR);
+        sector.putShort((short) BACKUP_BOOT_SECTOR);
+        sector.position(64);
+        sector.put((byte) 0x80); // drive number
+        sector.put((byte) 0);
+        sector.put((byte) 0x29); // extended boot signature
+        sector.putInt((int) (System.currentTimeMillis() / 1000)); // volume ID
+        sector.put(VOLUME_LABEL.getBytes(StandardCharsets.US_ASCII));
+        sector.put("FAT32   ".getBytes(StandardCharsets.US_ASCII));
+        sector.position(510);
+        sector.put((byte) 0x55);
+        sector.put((byte) 0xAA);
+        return sector.array();
+    }
+
+    private static byte[] getFsInfoSector(long clusterCount) {
+        final ByteBuffer sector = ByteBuffer.allocate(BYTES_PER_SECTOR).order(ByteOrder.LITTLE_ENDIAN);
+        sector.putInt(0x41615252);
+        sector.position(484);
+        sector.putInt(0x61417272);
+        sector.putInt((int) (clusterCount - 1)); // free clusters: all but the root directory
+        sector.putInt(ROOT_CLUSTER + 1); // next free cluster
+        sector.position(508);
+        sector.putInt(0xAA550000);
+        return sector.array();
+    }
+
+    private static void writeSector(RandomAccessFile file, long sector, byte[] data) throws IOException {
+        file.seek(sector * BYTES_PER_SECTOR);
+        file.write(data);
+    }
+
+}
@@ -0,0 +1,134 @@
+package hudson.plugins.android_emulator.util;
+
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.plugins.android_emulator.sdk.ToolLocator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which Android SDK was found on this node for a given set of candidate directories, so
+ * that each build step doesn't have to validate every candidate and re-parse the SDK Tools metadata.
+ * <p>
+ * An entry is only used while it still appears to be accurate: the SDK Tools' {@code source.properties}
+ * must be unchanged, and none of the candidates which were rejected in favour of the chosen SDK may
+ * have changed, as they could since have become valid SDKs.  Checking this takes a handful of
+ * {@code stat} calls, rather than a full validation of each candidate.
+ */
+final class SdkDiscoveryCache {
+
+    private static final String SOURCE_PROPERTIES = ToolLocator.TOOLS_DIR + "/source.properties";
+
+    /** Directories whose appearance or modification might turn a rejected candidate into a valid SDK. */
+    private static final String[] CANDIDATE_DIRECTORIES = {
+            ToolLocator.TOOLS_DIR, ToolLocator.TOOLS_BIN_DIR, ToolLocator.EMULATOR_DIR,
+            ToolLocator.PLATFORM_TOOLS_DIR, "cmdline-tools"
+    };
+
+    /** SDKs found on this node, keyed by the candidate directories and SDK home. */
+    private static final Map<List<String>, Entry> CACHE = new ConcurrentHashMap<>();
+
+    private SdkDiscoveryCache() {}
+
+    /**
+     * @param candidates The directories which would be checked for an SDK, in order of preference.
+     * @param sdkHome The SDK home directory.
+     * @return The SDK previously found among the given candidates, or {@code null} if there's no
+     * cached SDK, or it may no longer be the right one.
+     */
+    static AndroidSdk get(List<String> candidates, String sdkHome) {
+        final List<String> key = getKey(candidates, sdkHome);
+        final Entry entry = CACHE.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isValid(candidates)) {
+            CACHE.remove(key, entry);
+            return null;
+        }
+        return entry.sdk;
+    }
+
+    /**
+     * Records that the SDK was found among the given candidates.
+     *
+     * @param candidates The directories which were checked for an SDK, in order of preference.
+     * @param sdkHome The SDK home directory.
+     * @param sdk The SDK which was found, whose root must be one of the candidates.
+     */
+    static void put(List<String> candidates, String sdkHome, AndroidSdk sdk) {
+        final int index = candidates.indexOf(sdk.getSdkRoot());
+        if (index < 0) {
+            return;
+        }
+        final long[] rejected = new long[index];
+        for (int i = 0; i < index; i++) {
+            rejected[i] = getCandidateStamp(candidates.get(i));
+        }
+        CACHE.put(getKey(candidates, sdkHome), new Entry(sdk, index, getSdkStamp(sdk.getSdkRoot()), rejected));
+    }
+
+    /** Forgets all cached SDKs. */
+    static void clear() {
+        CACHE.clear();
+    }
+
+    private static List<String> getKey(List<String> candidates, String sdkHome) {
+        final List<String> key = new ArrayList<>(candidates);
+        key.add(sdkHome);
+        return key;
+    }
+
+    /** @return A value which changes whenever the SDK Tools in the given SDK are updated or removed. */
+    private static long getSdkStamp(String sdkRoot) {
+        final File root = new File(sdkRoot);
+        if (!root.isDirectory()) {
+            return -1;
+        }
+        final File properties = new File(root, SOURCE_PROPERTIES);
+        return properties.lastModified() * 31 + properties.length();
+    }
+
+    /** @return A value which changes whenever SDK tools may have been installed into the given directory. */
+    private static long getCandidateStamp(String candidate) {
+        if (candidate == null || candidate.trim().isEmpty()) {
+            return 0;
+        }
+        final File dir = new File(candidate);
+        long stamp = dir.lastModified();
+        for (String subdirectory : CANDIDATE_DIRECTORIES) {
+            stamp = stamp * 31 + new File(dir, subdirectory).lastModified();
+        }
+        return stamp;
+    }
+
+    private static final class Entry {
+        final AndroidSdk sdk;
+        final int index;
+        final long sdkStamp;
+        final long[] rejectedStamps;
+
+        Entry(AndroidSdk sdk, int index, long sdkStamp, long[] rejectedStamps) {
+            this.sdk = sdk;
+            this.index = index;
+            this.sdkStamp = sdkStamp;
+            this.rejectedStamps = rejectedStamps;
+        }
+
+        boolean isValid(List<String> candidates) {
+            if (sdkStamp == -1 || getSdkStamp(candidates.get(index)) != sdkStamp) {
+                return false;
+            }
+            for (int i = 0; i < rejectedStamps.length; i++) {
+                if (getCandidateStamp(candidates.get(i)) != rejectedStamps[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the files of a system image into the page cache before the emulator starts, so that the
+ * first boot after the machine has restarted doesn't stall on the many small random reads which the
+ * emulator makes of them.
+ * <p>
+ * Each file is memory-mapped in chunks, and each chunk which isn't already resident is loaded,
+ * which reads it sequentially.  Java doesn't expose the residency of individual pages, so whether
+ * the files were already cached is reported at the granularity of these chunks.
+ */
+public final class SystemImagePrefetcher {
+
+    /** System image files which the emulator reads while booting. */
+    private static final String[] FILES = {
+        "system.img", "vendor.img", "ramdisk.img", "kernel-ranchu", "kernel-ranchu-64", "kernel-qemu"
+    };
+
+    /** Size of each mapping; small enough that a partly-cached file is mostly counted as cached. */
+    static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private SystemImagePrefetcher() {}
+
+    /** The amount of data prefetched. */
+    public static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Total size of the files which were prefetched. */
+        public final long totalBytes;
+
+        /** Amount of the files which was already in the page cache. */
+        public final long residentBytes;
+
+        Result(long totalBytes, long residentBytes) {
+            this.totalBytes = totalBytes;
+            this.residentBytes = residentBytes;
+        }
+
+    }
+
+    /**
+     * Reads the boot files of the given system image into the page cache.
+     *
+     * @param systemImageDirectory The system image directory, containing e.g. {@code system.img}.
+     * @return The amount of data prefetched.
+     * @throws IOException If a file could not be read.
+     */
+    public static Result prefetch(File systemImageDirectory) throws IOException {
+        long totalBytes = 0;
+        long residentBytes = 0;
+        for (String name : FILES) {
+            final File file = new File(systemImageDirectory, name);
+            if (!file.isFile()) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final long size = channel.size();
+                for (long position = 0; position < size; position += CHUNK_SIZE) {
+                    final long length = Math.min(CHUNK_SIZE, size - position);
+                    final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    if (chunk.isLoaded()) {
+                        residentBytes += length;
+                    } else {
+                        chunk.load();
+                    }
+                }
+                totalBytes += size;
+            }
+        }
+        return new Result(totalBytes, residentBytes);
+    }
+
+}
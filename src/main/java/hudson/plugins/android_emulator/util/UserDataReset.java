@@ -0,0 +1,107 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Resets the user data of an AVD before the emulator starts, by cloning the pristine user data
+ * image from its system image, rather than having the emulator do so via {@code -wipe-data}.
+ * <p>
+ * On filesystems which support reflinks, the clone is copy-on-write, so the reset takes no time and
+ * writes nothing, however large the image.  As the system image may have been updated since the AVD
+ * was created, this is only done when the AVD's {@linkplain AvdFingerprint fingerprint} shows that
+ * it was created from the revision of the system image which is currently installed.
+ * <p>
+ * The AVD's snapshots, and the qcow2 overlays which hold both the emulator's writes to each image
+ * and the disk state of its snapshots, depend on the old data, so are deleted too.
+ */
+public final class UserDataReset {
+
+    /** The AVD's user data image, which the emulator writes to. */
+    static final String USER_DATA_IMAGE = "userdata-qemu.img";
+
+    /** The pristine user data image, within the system image directory. */
+    static final String PRISTINE_USER_DATA_IMAGE = "userdata.img";
+
+    /** Key for the encrypted user data in newer system images, which is replaced along with the data. */
+    static final String ENCRYPTION_KEY_IMAGE = "encryptionkey.img";
+
+    /** Cache image, which the emulator recreates when the data is wiped. */
+    private static final String CACHE_IMAGE = "cache.img";
+
+    /** Suffix of the overlays which the emulator creates on top of each image. */
+    private static final String OVERLAY_SUFFIX = ".qcow2";
+
+    /** Directory within the AVD containing its snapshots, including the Quick Boot snapshot. */
+    private static final String SNAPSHOTS_DIR = "snapshots";
+
+    private UserDataReset() {}
+
+    /**
+     * Replaces the user data of the given AVD with a clone of the pristine image from its system image.
+     *
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @param sdkRoot Root directory of the SDK containing the AVD's system image.
+     * @return {@code true} if the data was reset; {@code false} if it must be wiped by the emulator.
+     * @throws IOException If the user data could not be replaced.
+     */
+    public static boolean reset(File avdDirectory, File sdkRoot) throws IOException {
+        final File pristineImage = getPristineImage(avdDirectory, sdkRoot);
+        if (pristineImage == null) {
+            return false;
+        }
+
+        // Remove the snapshots first, so that none is left referring to images which have gone
+        FileSystemUtils.deleteRecursive(new File(avdDirectory, SNAPSHOTS_DIR));
+        Files.deleteIfExists(new File(avdDirectory, CACHE_IMAGE).toPath());
+        final File[] overlays = avdDirectory.listFiles((dir, name) -> name.endsWith(OVERLAY_SUFFIX));
+        if (overlays != null) {
+            for (File overlay : overlays) {
+                Files.deleteIfExists(overlay.toPath());
+            }
+        }
+        final File encryptionKey = new File(pristineImage.getParentFile(), ENCRYPTION_KEY_IMAGE);
+        if (encryptionKey.isFile()) {
+            cloneImage(encryptionKey, new File(avdDirectory, ENCRYPTION_KEY_IMAGE));
+        }
+        cloneImage(pristineImage, new File(avdDirectory, USER_DATA_IMAGE));
+        return true;
+    }
+
+    private static void cloneImage(File source, File target) throws IOException {
+        // Clone to a temporary file first, so that a failure can't leave the AVD with a partial image
+        final File temp = new File(target.getParentFile(), "." + target.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            FileLinker.cloneFile(source, temp);
+            if (!temp.canWrite() && !temp.setWritable(true)) {
+                throw new IOException("Failed to make writable: " + temp);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * @return The pristine user data image for the given AVD, or {@code null} if the AVD has no
+     *         fingerprint, or its system image is no longer installed at the same revision.
+     */
+    private static File getPristineImage(File avdDirectory, File sdkRoot) {
+        final AvdFingerprint fingerprint = AvdFingerprint.read(avdDirectory);
+        if (fingerprint == null || sdkRoot == null) {
+            return null;
+        }
+        final String systemImage = fingerprint.get(AvdFingerprint.SYSTEM_IMAGE);
+        final String revision = fingerprint.get(AvdFingerprint.SYSTEM_IMAGE_REVISION);
+        if (systemImage == null || revision == null
+                || !revision.equals(AvdFingerprint.getPackageRevision(sdkRoot, systemImage))) {
+            return null;
+        }
+        final File image = new File(new File(sdkRoot, systemImage.replace(';', '/')), PRISTINE_USER_DATA_IMAGE);
+        return image.isFile() ? image : null;
+    }
+
+}
@@ -48,6 +48,7 @@ import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.Tool;
 import hudson.plugins.android_emulator.sdk.ToolLocator;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.sdk.repository.ManifestCache;
 import hudson.remoting.Callable;
 import hudson.remoting.Future;
 import hudson.remoting.VirtualChannel;
@@ -73,6 +74,56 @@ public class Utils {
         return null;
     }
 
+    /**
+     * Retrieves the configured location of the shared SDK archive cache.
+     *
+     * @return The configured cache location, if any.
+     */
+    public static String getConfiguredSdkArchiveCache() {
+        DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        if (descriptor != null) {
+            return descriptor.sdkArchiveCache;
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the configured location of the offline SDK repository.
+     *
+     * @return The configured offline repository directory, if any.
+     */
+    public static String getConfiguredSdkOfflineRepository() {
+        DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        if (descriptor != null) {
+            return descriptor.sdkOfflineRepository;
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves how long downloaded SDK repository manifests should be reused for.
+     *
+     * @return The configured time-to-live, in hours; zero if manifests should always be downloaded.
+     */
+    public static long getConfiguredSdkManifestCacheHours() {
+        DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        if (descriptor != null) {
+            return descriptor.sdkManifestCacheHours;
+        }
+        return ManifestCache.DEFAULT_TTL_HOURS;
+    }
+
+    /**
+     * Determines whether SDK installations should only be verified against the offline repository.
+     *
+     * @return {@code true} if an offline repository is configured, and nothing should be installed from it.
+     */
+    public static boolean isSdkOfflineVerifyOnly() {
+        DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        return descriptor != null && descriptor.sdkOfflineVerifyOnly
+                && Util.fixEmptyAndTrim(descriptor.sdkOfflineRepository) != null;
+    }
+
     /**
      * Gets a combined set of environment variables for the current computer and build.
      *
@@ -395,6 +446,24 @@ public class Utils {
         return root.child("tools").child("android-sdk");
     }
 
+    /**
+     * Retrieves the directory in which screen recordings are kept on the given node until their
+     * build has completed; it is outside of any workspace, as they outlive the workspace lease.
+     *
+     * @param node The node on which the emulator runs.
+     * @return Path within the node's root directory.
+     */
+    public static final FilePath getScreenRecordDirectory(Node node) {
+        if (node == null) {
+            throw new IllegalArgumentException("Node is null");
+        }
+        FilePath root = node.getRootPath();
+        if (root == null) {
+            throw new IllegalArgumentException("Node " + node.getDisplayName() + " seems to be offline");
+        }
+        return root.child("android-screenrecord");
+    }
+
     /**
      * Parse the given command-line and return the appropriate environment variables if known
      * options are found.
@@ -871,6 +940,13 @@ public class Utils {
 
         public AndroidSdk call() throws IOException {
             final List<String> potentialSdkDirs = getPotentialSdkDirs();
+
+            // Re-use the SDK found by a previous build step, if nothing relevant has changed since
+            final AndroidSdk cachedSdk = SdkDiscoveryCache.get(potentialSdkDirs, androidSdkHome);
+            if (cachedSdk != null) {
+                return cachedSdk;
+            }
+
             final StringBuilder determinationLog = new StringBuilder();
 
             // Check each directory to see if it's a valid Android SDK
@@ -882,7 +958,9 @@ public class Utils {
                 final ValidationResult result = Utils.validateAndroidHome(new File(potentialSdkDir), true, false);
                 if (!result.isFatal()) {
                     // Create SDK instance with what we know so far
-                    return new AndroidSdk(potentialSdkDir, androidSdkHome);
+                    final AndroidSdk sdk = new AndroidSdk(potentialSdkDir, androidSdkHome);
+                    SdkDiscoveryCache.put(potentialSdkDirs, androidSdkHome, sdk);
+                    return sdk;
                 } else {
                     determinationLog.append("['" + potentialSdkDir + "']: " + result.getMessage() + "\n");
                 }
@@ -0,0 +1,212 @@
+package hudson.plugins.android_emulator.util;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Places the volatile disk images of an AVD, i.e. those which the emulator writes to while running,
+ * in a separate directory, typically RAM-backed such as {@code /dev/shm}, so that emulator I/O does
+ * not compete with the build for the disk.
+ * <p>
+ * The images in the AVD directory remain the persistent copy: they're copied into the volatile
+ * directory before the emulator starts, and are only updated when explicitly {@linkplain #persist
+ * persisted}, e.g. after creating the initial snapshot.  Copies preserve sparseness, so an image
+ * only takes as much RAM as the data actually written to it.
+ */
+public final class VolatileImages {
+
+    /** Emulator options which specify the location of each volatile image, and the image's file name. */
+    private static final Map<String, String> IMAGES = new TreeMap<>();
+    static {
+        IMAGES.put("-data", "userdata-qemu.img");
+        IMAGES.put("-cache", "cache.img");
+        IMAGES.put("-sdcard", "sdcard.img");
+        IMAGES.put("-snapstorage", "snapshots.img");
+    }
+
+    /** Options for which the emulator creates the image, if it doesn't exist. */
+    private static final String[] CREATED_BY_EMULATOR = { "-data", "-cache" };
+
+    /** Suffix of the copy-on-write overlays which newer emulator versions create next to each image. */
+    private static final String OVERLAY_SUFFIX = ".qcow2";
+
+    /** Data partition size assumed if the AVD doesn't configure one. */
+    static final long DEFAULT_DATA_PARTITION_BYTES = 2048L * 1024 * 1024;
+
+    /** Cache partition size used by the emulator, unless configured otherwise. */
+    static final long DEFAULT_CACHE_PARTITION_BYTES = 66L * 1024 * 1024;
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private VolatileImages() {}
+
+    /**
+     * Estimates how much space the volatile images of an AVD can take up, which is the most that
+     * the emulator could write to them.
+     *
+     * @param sdCardSize The AVD's SD card size, e.g. {@code 512M}, or {@code null} if it has none.
+     * @param hardwareProperties The AVD's hardware properties, which may configure the partition sizes.
+     * @return The estimated number of bytes.
+     */
+    public static long estimateSize(String sdCardSize, Map<String, String> hardwareProperties) {
+        return Math.max(0, parseSize(sdCardSize))
+                + getPartitionSize(hardwareProperties, "disk.dataPartition.size", DEFAULT_DATA_PARTITION_BYTES)
+                + getPartitionSize(hardwareProperties, "disk.cachePartition.size", DEFAULT_CACHE_PARTITION_BYTES);
+    }
+
+    /**
+     * @param root The volatile storage directory configured for the machine, e.g. {@code /dev/shm}.
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @return The directory within the volatile storage where the AVD's images are placed, which is
+     *         the same on each build, so that snapshots referring to the images remain valid.
+     */
+    public static File getDirectory(File root, File avdDirectory) {
+        return new File(root, "android-avd-" + Util.getDigestOf(avdDirectory.getAbsolutePath()));
+    }
+
+    /**
+     * Copies the AVD's images into the given volatile directory, replacing any left over from an
+     * earlier build.
+     *
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @param directory The directory in which to place the images, from {@link #getDirectory}.
+     * @return Emulator options, mapped to the path of the image each should refer to.
+     * @throws IOException If the images could not be copied.
+     */
+    public static Map<String, String> prepare(File avdDirectory, File directory) throws IOException {
+        delete(directory);
+        if (!directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+
+        final Map<String, String> options = new TreeMap<>();
+        for (Map.Entry<String, String> image : IMAGES.entrySet()) {
+            final File source = new File(avdDirectory, image.getValue());
+            final File target = new File(directory, image.getValue());
+            if (source.isFile()) {
+                copySparse(source, target);
+                final File overlay = new File(avdDirectory, image.getValue() + OVERLAY_SUFFIX);
+                if (overlay.isFile()) {
+                    copySparse(overlay, new File(directory, overlay.getName()));
+                }
+            } else if (!isCreatedByEmulator(image.getKey())) {
+                continue;
+            }
+            options.put(image.getKey(), target.getAbsolutePath());
+        }
+        return options;
+    }
+
+    /**
+     * Copies the images from the volatile directory back into the AVD.
+     * The emulator must not be writing to the images, e.g. it must be paused.
+     *
+     * @param directory The directory in which the images were placed.
+     * @param avdDirectory The AVD's {@code .avd} directory.
+     * @throws IOException If the images could not be copied.
+     */
+    public static void persist(File directory, File avdDirectory) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // Copy to a temporary file first, so that a failure can't leave the AVD with a partial image
+            final File target = new File(avdDirectory, file.getName());
+            final File temp = new File(avdDirectory, "." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                copySparse(file, temp);
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+
+    /**
+     * Deletes the given volatile directory, and the images within it.
+     *
+     * @param directory The directory in which the images were placed.
+     * @throws IOException If the images could not be deleted.
+     */
+    public static void delete(File directory) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    /** Copies a file, leaving holes in the target wherever the source contains a block of zeros. */
+    static void copySparse(File source, File target) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            out.setLength(0);
+            final FileChannel outChannel = out.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            long position = 0;
+            while (true) {
+                buffer.clear();
+                final int read = in.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                if (!isZero(buffer)) {
+                    while (buffer.hasRemaining()) {
+                        outChannel.write(buffer, position + buffer.position());
+                    }
+                }
+                position += read;
+            }
+            out.setLength(position);
+        }
+    }
+
+    private static boolean isZero(ByteBuffer buffer) {
+        final byte[] bytes = buffer.array();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (bytes[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCreatedByEmulator(String option) {
+        for (String created : CREATED_BY_EMULATOR) {
+            if (created.equals(option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getPartitionSize(Map<String, String> hardwareProperties, String key, long defaultBytes) {
+        final long bytes = hardwareProperties == null ? -1 : parseSize(hardwareProperties.get(key));
+        return bytes < 0 ? defaultBytes : bytes;
+    }
+
+    /** Parses sizes as written in AVD config files, e.g. {@code 2G}, {@code 66MB} or a number of bytes. */
+    private static long parseSize(String size) {
+        if (size == null) {
+            return -1;
+        }
+        return SdCardImage.parseSize(size.toUpperCase(Locale.ENGLISH).replaceAll("[ B]", ""));
+    }
+
+}
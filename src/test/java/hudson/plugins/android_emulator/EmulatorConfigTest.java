@@ -1,12 +1,24 @@
 package hudson.plugins.android_emulator;
 
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.Tool;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class EmulatorConfigTest {
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test // JENKINS-26338
     public void shouldSelectExecutor64WhenPassedAsExecutorAndAvdIsSelected() {
         EmulatorConfig emulatorConfigWithAvdName =
@@ -23,4 +35,50 @@ public class EmulatorConfigTest {
         assertEquals(Tool.EMULATOR64_ARM, emulatorConfigWithNoAvdName.getExecutable());
     }
 
+    @Test
+    public void shouldWipeDataWithEmulatorUnlessAlreadyReset() throws Exception {
+        final AndroidSdk sdk = createSdkWithTools("26.1.1");
+        final EmulatorConfig config = createConfig(true);
+
+        final String wipeArgs = getCommandArguments(config, SnapshotState.INITIALISE, sdk);
+        assertTrue(wipeArgs.contains(" -wipe-data"));
+        assertTrue(wipeArgs.contains(" -no-snapshot-load"));
+
+        config.setDataReset();
+        final String resetArgs = getCommandArguments(config, SnapshotState.INITIALISE, sdk);
+        assertFalse(resetArgs.contains(" -wipe-data"));
+        assertTrue(resetArgs.contains(" -no-snapshot-load"));
+        assertTrue(resetArgs.contains(" -no-snapshot-save"));
+    }
+
+    @Test
+    public void shouldNotLoadQuickBootSnapshotWhenDataIsWiped() throws Exception {
+        final AndroidSdk sdk = createSdkWithTools("26.1.1");
+
+        // Snapshot-free builds otherwise keep the emulator's default Quick Boot behaviour
+        assertFalse(getCommandArguments(createConfig(false), SnapshotState.NONE, sdk).contains(" -no-snapshot-load"));
+
+        final EmulatorConfig config = createConfig(true);
+        assertTrue(getCommandArguments(config, SnapshotState.NONE, sdk).contains(" -no-snapshot-load"));
+        config.setDataReset();
+        assertTrue(getCommandArguments(config, SnapshotState.NONE, sdk).contains(" -no-snapshot-load"));
+    }
+
+    private static EmulatorConfig createConfig(boolean wipeData) {
+        return EmulatorConfig.create("test", null, null, null, null, null, wipeData, false, true, null, null, null,
+                null, null, null);
+    }
+
+    private static String getCommandArguments(EmulatorConfig config, SnapshotState snapshotState, AndroidSdk sdk) {
+        return config.getCommandArguments(snapshotState, sdk, 5554, 5555, 5556, 60);
+    }
+
+    private AndroidSdk createSdkWithTools(String version) throws Exception {
+        final File sdkRoot = tmp.newFolder("sdk");
+        final File properties = new File(sdkRoot, "tools/source.properties");
+        properties.getParentFile().mkdirs();
+        Files.write(properties.toPath(), ("Pkg.Revision=" + version + "\n").getBytes(StandardCharsets.UTF_8));
+        return new AndroidSdk(sdkRoot.getPath(), null);
+    }
+
 }
@@ -0,0 +1,110 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class EmulatorLogForwarderTest {
+
+    @Test
+    public void testRepeatedLinesAreCollapsed() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final EmulatorLogForwarder forwarder = new EmulatorLogForwarder(new PrintStream(log, true, "UTF-8"), "test");
+        final OutputStream stdout = forwarder.newSource("stdout", 1024);
+
+        for (int i = 0; i < 5; i++) {
+            write(stdout, "emulator: WARNING: something odd\r\n");
+        }
+        write(stdout, "emulator: done\n");
+        forwarder.close();
+
+        final String[] lines = log.toString("UTF-8").split("\\R");
+        assertEquals(3, lines.length);
+        assertEquals("emulator: WARNING: something odd", lines[0]);
+        assertEquals(AndroidEmulator.LOG_PREFIX + Messages.EMULATOR_OUTPUT_REPEATED(4), lines[1]);
+        assertEquals("emulator: done", lines[2]);
+    }
+
+    @Test
+    public void testBudgetIsEnforcedPerSource() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final EmulatorLogForwarder forwarder = new EmulatorLogForwarder(new PrintStream(log, true, "UTF-8"), "test");
+        final OutputStream stdout = forwarder.newSource("stdout", 100);
+        final OutputStream stderr = forwarder.newSource("stderr", 100);
+
+        for (int i = 0; i < 100; i++) {
+            write(stdout, "stdout line " + i + "\n");
+        }
+        write(stderr, "stderr line\n");
+        forwarder.close();
+
+        final String output = log.toString("UTF-8");
+        assertTrue(output.contains("stdout line 0"));
+        assertFalse(output.contains("stdout line 99"));
+        assertTrue(output.contains("stderr line"));
+        assertTrue(output.contains(Messages.EMULATOR_OUTPUT_BUDGET_EXCEEDED("stdout", 0)));
+    }
+
+    @Test
+    public void testUnterminatedLineIsWrittenOnClose() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final EmulatorLogForwarder forwarder = new EmulatorLogForwarder(new PrintStream(log, true, "UTF-8"), "test");
+        write(forwarder.newSource("stdout", 1024), "partial");
+        forwarder.close();
+
+        assertEquals("partial", log.toString("UTF-8").trim());
+    }
+
+    @Test
+    public void testLinesAreSkippedRatherThanBlockingWhenLogFallsBehind() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final CountDownLatch release = new CountDownLatch(1);
+        final OutputStream slowLog = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                log.write(b);
+            }
+        };
+        final EmulatorLogForwarder forwarder = new EmulatorLogForwarder(new PrintStream(slowLog, true, "UTF-8"), "test");
+        final OutputStream stdout = forwarder.newSource("stdout", Long.MAX_VALUE);
+
+        // Writing doesn't block, even though the build log isn't being written to
+        final int lineCount = EmulatorLogForwarder.QUEUE_CAPACITY * 2;
+        for (int i = 0; i < lineCount; i++) {
+            write(stdout, "line " + i + "\n");
+        }
+        release.countDown();
+        forwarder.close();
+
+        final String[] lines = log.toString("UTF-8").split("\\R");
+        int written = 0;
+        for (String line : lines) {
+            if (line.startsWith("line ")) {
+                written++;
+            }
+        }
+        assertTrue(written < lineCount);
+        assertEquals(AndroidEmulator.LOG_PREFIX + Messages.EMULATOR_OUTPUT_SKIPPED("stdout", lineCount - written),
+                lines[lines.length - 1]);
+    }
+
+        private static void write(OutputStream out, String text) throws Exception {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
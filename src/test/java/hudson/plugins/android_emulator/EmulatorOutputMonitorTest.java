@@ -0,0 +1,103 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import hudson.plugins.android_emulator.EmulatorOutputMonitor.Event;
+
+public class EmulatorOutputMonitorTest {
+
+    @Test
+    public void testImageInUse() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        write(monitor, "emulator: WARNING: Crash service did not start\n"
+                + "emulator: ERROR: the user data image is used by another emulator. aborting\n");
+
+        assertEquals(Event.IMAGE_IN_USE, monitor.getFatalEvent());
+        assertEquals(Event.IMAGE_IN_USE, monitor.awaitFatalEvent(0));
+        assertEquals("emulator: ERROR: the user data image is used by another emulator. aborting",
+                monitor.getLine(Event.IMAGE_IN_USE));
+        assertTrue(monitor.await(Event.ERROR, 0));
+    }
+
+    @Test
+    public void testKvmUnavailable() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        write(monitor, "ERROR   | x86_64 emulation currently requires hardware acceleration!\r\n");
+
+        assertEquals(Event.KVM_UNAVAILABLE, monitor.getFatalEvent());
+    }
+
+    @Test
+    public void testNonFatalErrors() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        write(monitor, "emulator: ERROR: AdbHostServer.cpp:102: Unable to connect to adb daemon on port: 5037\n");
+
+        assertNull(monitor.getFatalEvent());
+        assertNull(monitor.awaitFatalEvent(10));
+        assertTrue(monitor.await(Event.ERROR, 0));
+    }
+
+    @Test
+    public void testBootCompletedAcrossWrites() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        write(monitor, "INFO    | Boot compl");
+        assertFalse(monitor.await(Event.BOOT_COMPLETED, 0));
+
+        write(monitor, "eted in 12345 ms\n");
+        assertTrue(monitor.await(Event.BOOT_COMPLETED, 0));
+    }
+
+    @Test
+    public void testAwaitWakesUpOnEvent() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        final Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                write(monitor, "emulator: ERROR: the system image is used by another emulator\n");
+            } catch (Exception ignore) {
+            }
+        });
+        writer.start();
+
+        final long start = System.currentTimeMillis();
+        assertEquals(Event.IMAGE_IN_USE, monitor.awaitFatalEvent(30 * 1000));
+        assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+        writer.join();
+    }
+
+    @Test
+    public void testPartialBuffer() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        final byte[] output = "xxINFO    | Boot completed\nemulator: ERROR: bad\nxx".getBytes(StandardCharsets.UTF_8);
+        monitor.write(output, 2, output.length - 4);
+
+        assertTrue(monitor.await(Event.BOOT_COMPLETED, 0));
+        assertEquals("INFO    | Boot completed", monitor.getLine(Event.BOOT_COMPLETED));
+        assertEquals("emulator: ERROR: bad", monitor.getLine(Event.ERROR));
+    }
+
+    @Test
+    public void testLongLinesAreTruncated() throws Exception {
+        final EmulatorOutputMonitor monitor = new EmulatorOutputMonitor();
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            line.append('x');
+        }
+        write(monitor, line + "image is used by another emulator\n");
+
+        assertNull(monitor.getFatalEvent());
+    }
+
+    private static void write(EmulatorOutputMonitor monitor, String output) throws IOException {
+        monitor.write(output.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,112 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import hudson.model.BuildListener;
+import hudson.model.Node;
+
+public class SdkInstallerTest {
+
+    private final Node node = mock(Node.class);
+
+    @Test
+    public void testAwaitInstallsIfNotStarted() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final BuildListener listener = createListener();
+        register(listener, () -> {
+            runs.incrementAndGet();
+            return null;
+        });
+
+        SdkInstaller.awaitDeferredInstall(node, listener);
+
+        assertEquals(1, runs.get());
+        assertNull(SdkInstaller.getDeferredInstall(node));
+    }
+
+    @Test
+    public void testAwaitWaitsForStartedInstall() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final BuildListener listener = createListener();
+        register(listener, () -> {
+            release.await();
+            runs.incrementAndGet();
+            return null;
+        });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SdkInstaller.startDeferredInstall(node, listener, executor);
+            // Starting again has no effect
+            SdkInstaller.startDeferredInstall(node, listener, executor);
+            release.countDown();
+            SdkInstaller.awaitDeferredInstall(node, listener);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, runs.get());
+        assertNull(SdkInstaller.getDeferredInstall(node));
+    }
+
+    @Test
+    public void testFailedInstallIsReportedAndForgotten() throws Exception {
+        final BuildListener listener = createListener();
+        final IOException failure = new IOException("Download failed");
+        register(listener, () -> {
+            throw failure;
+        });
+
+        try {
+            SdkInstaller.awaitDeferredInstall(node, listener);
+            fail("Expected SdkInstallationException");
+        } catch (SdkInstallationException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertNull(SdkInstaller.getDeferredInstall(node));
+    }
+
+    @Test
+    public void testOnlyOwnerCanAbandonInstall() throws Exception {
+        final BuildListener owner = createListener();
+        register(owner, () -> null);
+
+        SdkInstaller.abandonDeferredInstall(node, createListener());
+        assertNotNull(SdkInstaller.getDeferredInstall(node));
+
+        SdkInstaller.abandonDeferredInstall(node, owner);
+        assertNull(SdkInstaller.getDeferredInstall(node));
+    }
+
+    private void register(BuildListener owner, java.util.concurrent.Callable<Void> installation) {
+        SdkInstaller.registerDeferredInstall(new SdkInstaller.DeferredInstall(node, owner,
+                Arrays.asList("build-tools;28.0.3"), installation));
+    }
+
+    private static BuildListener createListener() {
+        final BuildListener listener = mock(BuildListener.class);
+        when(listener.getLogger()).thenReturn(new PrintStream(new ByteArrayOutputStream()));
+        return listener;
+    }
+
+}
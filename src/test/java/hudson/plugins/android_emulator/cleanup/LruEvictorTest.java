@@ -0,0 +1,206 @@
+package hudson.plugins.android_emulator.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.android_emulator.util.AvdTemplateStore;
+
+public class LruEvictorTest {
+
+    private static final long NOW = 100 * LruEvictor.MIN_IDLE_MS;
+    private static final int SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File avdHome;
+    private File sdkRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        avdHome = tmp.newFolder("avd");
+        sdkRoot = tmp.newFolder("sdk");
+    }
+
+    @Test
+    public void testNothingEvictedWithinQuota() throws Exception {
+        createAvd("hudson_a", null, 10);
+        createAvd("hudson_b", null, 20);
+
+        assertTrue(evict(2 * SIZE).isEmpty());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictedFirst() throws Exception {
+        final File oldest = createAvd("hudson_a", null, 10);
+        final File newest = createAvd("hudson_b", null, 20);
+
+        final List<String> evicted = evict(SIZE);
+
+        assertEquals(Collections.singletonList(oldest.getPath()), evicted);
+        assertFalse(oldest.exists());
+        assertFalse(new File(avdHome, "hudson_a.ini").exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void testOnlyPluginAvdsEvicted() throws Exception {
+        final File other = createAvd("my_phone", null, 10);
+        createAvd("hudson_b", null, 20);
+
+        evict(1);
+
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void testRunningAvdNotEvicted() throws Exception {
+        final File running = createAvd("hudson_a", null, 10);
+        new File(running, "hardware-qemu.ini.lock").mkdir();
+        final File idle = createAvd("hudson_b", null, 20);
+
+        evict(SIZE);
+
+        assertTrue(running.exists());
+        assertFalse(idle.exists());
+    }
+
+    @Test
+    public void testRecentlyUsedNotEvicted() throws Exception {
+        final File avd = createAvd("hudson_a", null, 99.5);
+
+        assertTrue(evict(1).isEmpty());
+        assertTrue(avd.exists());
+    }
+
+    @Test
+    public void testImageProtectedWhileReferenced() throws Exception {
+        final String sysDir = "system-images/android-24/default/x86/";
+        final File image = createImage(sysDir, 5);
+        final File avd = createAvd("hudson_a", sysDir, 30);
+
+        // The image is older, but can only be evicted once the AVD using it has gone
+        final List<String> evicted = evict(1);
+
+        assertEquals(2, evicted.size());
+        assertEquals(avd.getPath(), evicted.get(0));
+        assertFalse(image.exists());
+    }
+
+    @Test
+    public void testUnusedImagesNotEvicted() throws Exception {
+        final File image = new File(sdkRoot, "system-images/android-24/default/x86");
+        write(new File(image, "system.img"), SIZE);
+
+        assertTrue(evict(1).isEmpty());
+        assertTrue(image.exists());
+    }
+
+    @Test
+    public void testWorkspaceAvdsShareQuota() throws Exception {
+        final File workspaceAvdHome = new File(tmp.getRoot(), "workspace/.android/avd");
+        assertTrue(workspaceAvdHome.mkdirs());
+        final File oldest = createAvd(workspaceAvdHome, "hudson_a", null, 10);
+        final File newest = createAvd("hudson_b", null, 20);
+
+        final List<String> evicted = new LruEvictor(Arrays.asList(avdHome, workspaceAvdHome), null,
+                Collections.singletonList(sdkRoot), SIZE, 0, NOW).evict();
+
+        assertEquals(Collections.singletonList(oldest.getPath()), evicted);
+        assertFalse(new File(workspaceAvdHome, "hudson_a.ini").exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void testTemplatesEvictedWithAvds() throws Exception {
+        final File templateRoot = tmp.newFolder("templates");
+        final File oldest = createTemplate(templateRoot, "a", 10);
+        final File avd = createAvd("hudson_b", null, 20);
+        final File newest = createTemplate(templateRoot, "c", 30);
+        final File capturing = new File(templateRoot, ".d.tmp");
+        write(new File(capturing, "userdata-qemu.img"), SIZE);
+
+        final List<String> evicted = new LruEvictor(Collections.singletonList(avdHome), templateRoot,
+                Collections.singletonList(sdkRoot), SIZE, 0, NOW).evict();
+
+        assertEquals(Arrays.asList(oldest.getPath(), avd.getPath()), evicted);
+        assertFalse(oldest.exists());
+        assertTrue(newest.exists());
+        assertTrue(capturing.exists());
+    }
+
+    @Test
+    public void testRecordUse() throws Exception {
+        final String sysDir = "system-images/android-24/default/x86/";
+        final File image = createImage(sysDir, 5);
+        final File avd = createAvd("hudson_a", sysDir, 10);
+
+        LruEvictor.recordUse(avd, sdkRoot);
+
+        final long now = System.currentTimeMillis();
+        assertTrue(now - new File(avd, LruEvictor.LAST_USE_MARKER).lastModified() < LruEvictor.MIN_IDLE_MS);
+        assertTrue(now - new File(image, LruEvictor.LAST_USE_MARKER).lastModified() < LruEvictor.MIN_IDLE_MS);
+    }
+
+    private List<String> evict(long quotaBytes) throws Exception {
+        return new LruEvictor(Collections.singletonList(avdHome), null, Collections.singletonList(sdkRoot),
+                quotaBytes, 0, NOW).evict();
+    }
+
+    /** Creates an AVD of {@link #SIZE} bytes, last used the given number of idle periods ago. */
+    private File createAvd(String name, String sysDir, double lastUse) throws Exception {
+        return createAvd(avdHome, name, sysDir, lastUse);
+    }
+
+    private static File createAvd(File avdHome, String name, String sysDir, double lastUse) throws Exception {
+        final File avd = new File(avdHome, name + ".avd");
+        write(new File(avd, "userdata-qemu.img"), SIZE);
+        if (sysDir != null) {
+            Files.write(new File(avd, "config.ini").toPath(),
+                    ("image.sysdir.1=" + sysDir + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        write(new File(avdHome, name + ".ini"), 0);
+        markUsed(avd, lastUse);
+        return avd;
+    }
+
+    private static File createTemplate(File templateRoot, String key, double lastUse) throws Exception {
+        final File template = new File(templateRoot, key);
+        write(new File(template, "userdata-qemu.img"), SIZE);
+        write(new File(template, AvdTemplateStore.SOURCE_PATH_FILE), 0);
+        markUsed(template, lastUse);
+        return template;
+    }
+
+    private File createImage(String sysDir, double lastUse) throws Exception {
+        final File image = new File(sdkRoot, sysDir);
+        write(new File(image, "system.img"), SIZE);
+        markUsed(image, lastUse);
+        return image;
+    }
+
+    private static void markUsed(File dir, double lastUse) throws Exception {
+        final File marker = new File(dir, LruEvictor.LAST_USE_MARKER);
+        write(marker, 0);
+        assertTrue(marker.setLastModified((long) (lastUse * LruEvictor.MIN_IDLE_MS)));
+    }
+
+    private static void write(File file, int size) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[size]);
+    }
+
+}
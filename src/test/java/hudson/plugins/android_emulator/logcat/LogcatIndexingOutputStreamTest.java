@@ -0,0 +1,109 @@
+package hudson.plugins.android_emulator.logcat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LogcatIndexingOutputStreamTest {
+
+    private static final String PREAMBLE = "10-19 12:00:00.000 I/ActivityManager(  512): Start proc com.example\r\n";
+    private static final String FOO_STARTED = "10-19 12:00:00.100 I/TestRunner( 1234): started: testFoo(com.example.FooTest)\r\n";
+    private static final String FOO_OUTPUT = "10-19 12:00:00.200 D/FooTest( 1234): hello\r\n";
+    private static final String FOO_FINISHED = "10-19 12:00:00.300 I/TestRunner( 1234): finished: testFoo(com.example.FooTest)\r\n";
+    private static final String BAR_STARTED = "10-19 12:00:00.400  1234  1250 I TestRunner: started: testBar(com.example.BarTest)\n";
+
+    @Test
+    public void testIndexesStartedAndFinishedTests() throws IOException {
+        final String log = PREAMBLE + FOO_STARTED + FOO_OUTPUT + FOO_FINISHED + BAR_STARTED;
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final LogcatIndexingOutputStream out = new LogcatIndexingOutputStream(sink);
+        out.write(log.getBytes(StandardCharsets.UTF_8));
+
+        final LogcatIndex index = out.getIndex();
+        assertEquals(2, index.getEntries().size());
+        assertEquals(log, sink.toString("UTF-8"));
+
+        final LogcatIndex.Entry foo = index.find("testFoo(com.example.FooTest)");
+        assertEquals(PREAMBLE.length(), foo.getStart());
+        assertEquals(FOO_STARTED + FOO_OUTPUT + FOO_FINISHED, slice(log, foo));
+
+        // Unfinished tests run up to the end of the output
+        final LogcatIndex.Entry bar = index.find("testBar(com.example.BarTest)");
+        assertEquals(BAR_STARTED, slice(log, bar));
+        assertEquals(log.length(), bar.getEnd());
+    }
+
+    @Test
+    public void testMarkersSplitAcrossWrites() throws IOException {
+        final String log = FOO_STARTED + FOO_OUTPUT + FOO_FINISHED;
+        final LogcatIndexingOutputStream out = new LogcatIndexingOutputStream(new ByteArrayOutputStream());
+        for (byte b : log.getBytes(StandardCharsets.UTF_8)) {
+            out.write(b);
+        }
+
+        final LogcatIndex.Entry foo = out.getIndex().find("testFoo(com.example.FooTest)");
+        assertEquals(0, foo.getStart());
+        assertEquals(log.length(), foo.getEnd());
+        assertEquals(log.length(), out.getOffset());
+    }
+
+    @Test
+    public void testEntriesInStartOrder() throws IOException {
+        // Bar runs within Foo, so finishes first
+        final String barFinished = "10-19 12:00:00.500 I/TestRunner( 1234): finished: testBar(com.example.BarTest)\n";
+        final String bazStarted = "10-19 12:00:00.600 I/TestRunner( 1234): started: testBaz(com.example.BazTest)\n";
+        final String log = FOO_STARTED + BAR_STARTED + barFinished + FOO_FINISHED + bazStarted;
+        final LogcatIndexingOutputStream out = new LogcatIndexingOutputStream(new ByteArrayOutputStream());
+        out.write(log.getBytes(StandardCharsets.UTF_8));
+
+        final List<LogcatIndex.Entry> entries = out.getIndex().getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("testFoo(com.example.FooTest)", entries.get(0).getName());
+        assertEquals("testBar(com.example.BarTest)", entries.get(1).getName());
+        assertEquals("testBaz(com.example.BazTest)", entries.get(2).getName());
+    }
+
+    @Test
+    public void testNoTests() throws IOException {
+        final LogcatIndexingOutputStream out = new LogcatIndexingOutputStream(new ByteArrayOutputStream());
+        out.write((PREAMBLE + FOO_OUTPUT).getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(out.getIndex().isEmpty());
+        assertNull(out.getIndex().find("testFoo(com.example.FooTest)"));
+    }
+
+    @Test
+    public void testIndexRoundTrip() throws IOException {
+        final LogcatIndexingOutputStream out = new LogcatIndexingOutputStream(new ByteArrayOutputStream());
+        out.write((PREAMBLE + FOO_STARTED + FOO_FINISHED + BAR_STARTED).getBytes(StandardCharsets.UTF_8));
+        final LogcatIndex index = out.getIndex();
+
+        final ByteArrayOutputStream serialised = new ByteArrayOutputStream();
+        index.write(serialised);
+        serialised.write("garbage\n".getBytes(StandardCharsets.UTF_8));
+        final LogcatIndex parsed = LogcatIndex.read(new ByteArrayInputStream(serialised.toByteArray()));
+
+        assertEquals(index.getEntries().toString(), parsed.getEntries().toString());
+    }
+
+    @Test
+    public void testCopyRange() throws IOException {
+        final byte[] data = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogcatAction.copyRange(new ByteArrayInputStream(data), out, 3, 4);
+        assertEquals("3456", out.toString("US-ASCII"));
+    }
+
+    private static String slice(String log, LogcatIndex.Entry entry) {
+        return log.substring((int) entry.getStart(), (int) entry.getEnd());
+    }
+
+}
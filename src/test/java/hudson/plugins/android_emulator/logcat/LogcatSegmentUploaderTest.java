@@ -0,0 +1,101 @@
+package hudson.plugins.android_emulator.logcat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import jenkins.model.ArtifactManager;
+import jenkins.util.VirtualFile;
+
+public class LogcatSegmentUploaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSegmentsAreArchivedWithExactSizes() throws Exception {
+        final File workspace = tmp.newFolder("workspace");
+        final File artifacts = tmp.newFolder("artifacts");
+        final LogcatSegmentUploader uploader = new LogcatSegmentUploader(new FilePath(workspace), "logcat_", 10,
+                new CopyingArtifactManager(artifacts), null, null);
+
+        final byte[] data = "0123456789abcdefghijABCDEFGHIJxyz".getBytes(StandardCharsets.US_ASCII);
+        uploader.write(data, 0, 7);
+        uploader.write(data, 7, 20);
+        uploader.write(data[27]);
+        uploader.write(data, 28, data.length - 28);
+        uploader.close();
+
+        assertEquals(4, uploader.getSegmentCount());
+        final ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < 4; i++) {
+            final File segment = new File(artifacts, LogcatSegmentUploader.getSegmentPath(i));
+            assertEquals(i < 3 ? 10 : 3, segment.length());
+            joined.write(Files.readAllBytes(segment.toPath()));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+
+        // Temporary segment files are removed once archived
+        assertEquals(0, workspace.list().length);
+    }
+
+    @Test
+    public void testNothingArchivedWithoutOutput() throws Exception {
+        final File artifacts = tmp.newFolder("artifacts");
+        final LogcatSegmentUploader uploader = new LogcatSegmentUploader(new FilePath(tmp.newFolder("workspace")),
+                "logcat_", 10, new CopyingArtifactManager(artifacts), null, null);
+        uploader.close();
+
+        assertEquals(0, uploader.getSegmentCount());
+        assertEquals(0, artifacts.list().length);
+    }
+
+    /** Archives files by copying them to a local directory. */
+    private static final class CopyingArtifactManager extends ArtifactManager {
+
+        private final File root;
+
+        CopyingArtifactManager(File root) {
+            this.root = root;
+        }
+
+        @Override
+        public void onLoad(Run<?, ?> build) {
+        }
+
+        @Override
+        public void archive(FilePath workspace, Launcher launcher, BuildListener listener,
+                Map<String, String> artifacts) throws IOException, InterruptedException {
+            for (Map.Entry<String, String> artifact : artifacts.entrySet()) {
+                final FilePath target = new FilePath(new File(root, artifact.getKey()));
+                target.getParent().mkdirs();
+                workspace.child(artifact.getValue()).copyTo(target);
+            }
+        }
+
+        @Override
+        public boolean delete() {
+            return false;
+        }
+
+        @Override
+        public VirtualFile root() {
+            return VirtualFile.forFile(root);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package hudson.plugins.android_emulator.screenrecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.model.Result;
+
+public class ScreenRecorderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testChunksToKeepCoverWindowPlusCurrentChunk() {
+        // Chunks are three minutes long
+        assertEquals(2, ScreenRecorder.getChunksToKeep(1));
+        assertEquals(2, ScreenRecorder.getChunksToKeep(3));
+        assertEquals(3, ScreenRecorder.getChunksToKeep(4));
+        assertEquals(5, ScreenRecorder.getChunksToKeep(12));
+    }
+
+    @Test
+    public void testAtLeastOneCompleteChunkIsKept() {
+        assertEquals(2, ScreenRecorder.getChunksToKeep(0));
+    }
+
+    @Test
+    public void testEverythingIsArchivedUnlessTheBuildSucceeds() {
+        assertEquals(ScreenRecorder.getChunksToKeep(6), ScreenRecorder.getChunksToArchive(Result.SUCCESS, 6));
+        assertEquals(ScreenRecorder.ALL_CHUNKS, ScreenRecorder.getChunksToArchive(Result.UNSTABLE, 6));
+        assertEquals(ScreenRecorder.ALL_CHUNKS, ScreenRecorder.getChunksToArchive(Result.FAILURE, 6));
+        assertEquals(ScreenRecorder.ALL_CHUNKS, ScreenRecorder.getChunksToArchive(Result.ABORTED, 6));
+    }
+
+    @Test
+    public void testFinishJoinsMostRecentChunks() throws Exception {
+        final File dir = createChunks("a", "b", "c");
+        final File target = new File(tmp.getRoot(), "recording.h264");
+
+        final long size = new ScreenRecorder.FinishTask(target.getPath(), 2).invoke(dir, null);
+
+        assertEquals(2, size);
+        assertEquals("bc", read(target));
+    }
+
+    @Test
+    public void testFinishJoinsAllChunks() throws Exception {
+        final File dir = createChunks("a", "b", "c");
+        final File target = new File(tmp.getRoot(), "recording.h264");
+
+        new ScreenRecorder.FinishTask(target.getPath(), ScreenRecorder.ALL_CHUNKS).invoke(dir, null);
+
+        assertEquals("abc", read(target));
+    }
+
+    @Test
+    public void testFinishJoinsIntoChunkDirectory() throws Exception {
+        final File dir = createChunks("a", "b", "c");
+        final File target = new File(dir, ScreenRecorder.ARTIFACT);
+
+        assertEquals(3, (long) new ScreenRecorder.FinishTask(target.getPath(), ScreenRecorder.ALL_CHUNKS).invoke(dir, null));
+        assertEquals("abc", read(target));
+    }
+
+    @Test
+    public void testFinishDiscards() throws Exception {
+        final File dir = createChunks("a");
+
+        assertEquals(0, (long) new ScreenRecorder.FinishTask(null, 0).invoke(dir, null));
+        assertEquals(2, dir.list().length);
+    }
+
+    @Test
+    public void testRecordingStopsAfterRepeatedFailures() throws Exception {
+        assumeTrue(isUnix());
+        final File dir = tmp.newFolder("chunks");
+        final ScreenRecorder.RecordTask task = new ScreenRecorder.RecordTask(
+                Arrays.asList("sh", "-c", "exit 1"), Collections.<String, String>emptyMap(), dir.getPath());
+
+        assertEquals(0, (int) task.call());
+        assertTrue(new File(dir, ScreenRecorder.DONE_MARKER).exists());
+        assertFalse(ScreenRecorder.getChunkFile(dir, 0).exists());
+    }
+
+    @Test
+    public void testStoppingKeepsCurrentChunk() throws Exception {
+        assumeTrue(isUnix());
+        final File dir = tmp.newFolder("chunks");
+        final ScreenRecorder.RecordTask task = new ScreenRecorder.RecordTask(
+                Arrays.asList("sh", "-c", "printf frames; exec sleep 30"), Collections.<String, String>emptyMap(),
+                dir.getPath());
+        final File chunk = ScreenRecorder.getChunkFile(dir, 0);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> recording = executor.submit(task::call);
+            final long deadline = System.currentTimeMillis() + 10 * 1000;
+            while (chunk.length() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            recording.cancel(true);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("frames", read(chunk));
+        assertTrue(new File(dir, ScreenRecorder.DONE_MARKER).exists());
+    }
+
+    private File createChunks(String... contents) throws Exception {
+        final File dir = tmp.newFolder("chunks");
+        for (int i = 0; i < contents.length; i++) {
+            Files.write(ScreenRecorder.getChunkFile(dir, i).toPath(), contents[i].getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(new File(dir, ScreenRecorder.DONE_MARKER).createNewFile());
+        return dir;
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isUnix() {
+        return File.pathSeparatorChar == ':';
+    }
+
+}
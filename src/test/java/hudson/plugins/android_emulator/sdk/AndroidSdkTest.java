@@ -32,6 +32,23 @@ public class AndroidSdkTest extends TestCase {
         assertEqualsHelperEmulatorEngineV2Support("27", true, true);
     }
 
+    @Test
+    public void testSnapshotSupport() {
+        assertFalse(createSdkWithTools(null).supportsSnapshots());
+        assertFalse(createSdkWithTools("8").supportsSnapshots());
+
+        // The classic emulator stores snapshots in the AVD's snapshots.img
+        assertTrue(createSdkWithTools("9").supportsSnapshots());
+        assertTrue(createSdkWithTools("25.3").requiresSnapshotImage());
+        assertFalse(createSdkWithTools("25.3").supportsQuickBootSnapshots());
+
+        // Emulator 2.x uses Quick Boot snapshots instead
+        assertTrue(createSdkWithTools("26").supportsSnapshots());
+        assertTrue(createSdkWithTools("26").supportsQuickBootSnapshots());
+        assertFalse(createSdkWithTools("26").requiresSnapshotImage());
+        assertTrue(createSdkWithTools("27").supportsQuickBootSnapshots());
+    }
+
     @Test
     public void testUseLegacySdkStructure() {
         assertFalse(createSdkWithTools(null).useLegacySdkStructure());
@@ -0,0 +1,106 @@
+package hudson.plugins.android_emulator.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SdkPackageIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPackagesAreReadFromMetadata() throws Exception {
+        final File sdkRoot = tmp.newFolder("sdk");
+        writePackageXml(sdkRoot, "platforms/android-24", "platforms;android-24", "2");
+        writePackageXml(sdkRoot, "system-images/android-24/google_apis/x86", "system-images;android-24;google_apis;x86", "24.1.3");
+        writeSourceProperties(sdkRoot, "platform-tools", "Pkg.Revision=29.0.5\nPkg.Path=platform-tools\n");
+        // Older packages don't declare their path
+        writeSourceProperties(sdkRoot, "add-ons/addon-google_apis-google-19", "Pkg.Revision=20\n");
+        // Hidden directories and directories without metadata are ignored
+        writePackageXml(sdkRoot, ".temp/platforms/android-25", "platforms;android-25", "1");
+        new File(sdkRoot, "platforms/android-26").mkdirs();
+
+        final SdkPackageIndex index = SdkPackageIndex.forSdkRoot(sdkRoot);
+
+        assertEquals(4, index.getPackagePaths().size());
+        assertTrue(index.hasPackage("platforms;android-24"));
+        assertTrue(index.hasPackage("system-images;android-24;google_apis;x86"));
+        assertTrue(index.hasPackage("platform-tools"));
+        assertTrue(index.hasPackage("add-ons;addon-google_apis-google-19"));
+        assertFalse(index.hasPackage("platforms;android-25"));
+        assertFalse(index.hasPackage("platforms;android-26"));
+
+        assertEquals("2", index.getRevision("platforms;android-24"));
+        assertEquals("24.1.3", index.getRevision("system-images;android-24;google_apis;x86"));
+        assertEquals("29.0.5", index.getRevision("platform-tools"));
+    }
+
+    @Test
+    public void testLatestPackageComparesVersions() throws Exception {
+        final File sdkRoot = tmp.newFolder("sdk");
+        writePackageXml(sdkRoot, "build-tools/9.0.0", "build-tools;9.0.0", "9");
+        writePackageXml(sdkRoot, "build-tools/28.0.3", "build-tools;28.0.3", "28.0.3");
+        writePackageXml(sdkRoot, "build-tools/28.0.10", "build-tools;28.0.10", "28.0.10");
+
+        final SdkPackageIndex index = SdkPackageIndex.forSdkRoot(sdkRoot);
+
+        assertEquals("build-tools;28.0.10", index.getLatestPackage("build-tools"));
+        assertNull(index.getLatestPackage("platforms"));
+    }
+
+    @Test
+    public void testIndexIsCachedUntilPackagesChange() throws Exception {
+        final File sdkRoot = tmp.newFolder("sdk");
+        writePackageXml(sdkRoot, "platforms/android-24", "platforms;android-24", "2");
+
+        final SdkPackageIndex first = SdkPackageIndex.forSdkRoot(sdkRoot);
+        assertSame(first, SdkPackageIndex.forSdkRoot(sdkRoot));
+
+        writePackageXml(sdkRoot, "platforms/android-28", "platforms;android-28", "6");
+        // Ensure the change is visible, regardless of the filesystem's timestamp granularity
+        new File(sdkRoot, "platforms").setLastModified(System.currentTimeMillis() + 10000);
+
+        final SdkPackageIndex second = SdkPackageIndex.forSdkRoot(sdkRoot);
+        assertTrue(second.hasPackage("platforms;android-28"));
+        assertFalse(first.hasPackage("platforms;android-28"));
+    }
+
+    private static void writePackageXml(File sdkRoot, String dir, String path, String revision) throws IOException {
+        final String[] parts = revision.split("\\.");
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        xml.append("<ns2:repository xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\">");
+        xml.append("<localPackage path=\"").append(path).append("\" obsolete=\"false\">");
+        xml.append("<type-details/><revision><major>").append(parts[0]).append("</major>");
+        if (parts.length > 1) {
+            xml.append("<minor>").append(parts[1]).append("</minor>");
+        }
+        if (parts.length > 2) {
+            xml.append("<micro>").append(parts[2]).append("</micro>");
+        }
+        xml.append("</revision><display-name>Test</display-name></localPackage></ns2:repository>\n");
+        write(new File(new File(sdkRoot, dir), "package.xml"), xml.toString());
+    }
+
+    private static void writeSourceProperties(File sdkRoot, String dir, String content) throws IOException {
+        write(new File(new File(sdkRoot, dir), "source.properties"), content);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -115,6 +115,14 @@ public class AdbShellCommandsTest {
                 SdkCliCommandFactory.getAdbShellCommandForAPILevel( 3).getMonkeyInputCommand("xid", 73, 333, "--monitor-native-crashes", 33));
     }
 
+    @Test
+    public void testAdbScreenRecordCommand() {
+        assertAdbShellCommand("-s dummyId exec-out screenrecord --output-format=h264 --bit-rate 2000000 --time-limit 180 -",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(25).getScreenRecordCommand("dummyId", 180, 2000000));
+        assertAdbShellCommand("exec-out screenrecord --output-format=h264 --bit-rate 4000000 --time-limit 60 -",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(21).getScreenRecordCommand(null, 60, 4000000));
+    }
+
     @Test
     public void testWithoudDeviceIdentifier() {
         assertAdbShellCommand("shell ps", SdkCliCommandFactory.getAdbShellCommandForAPILevel(25).getListProcessesCommand(null));
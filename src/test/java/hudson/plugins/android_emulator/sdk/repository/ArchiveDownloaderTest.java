@@ -0,0 +1,223 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import hudson.Util;
+
+public class ArchiveDownloaderTest {
+
+    /** Stalled connections are detected by timing out, as with a misbehaving proxy. */
+    private static final int TIMEOUT_MS = 500;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final byte[] content = new byte[256 * 1024];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    /** Number of requests whose response should be cut off half-way through. */
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    private volatile boolean supportsRanges = true;
+    private volatile boolean unavailable;
+    private volatile int errorStatus;
+
+    private HttpServer server;
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/archive.zip", this::serve);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/archive.zip");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testInterruptedDownloadIsResumed() throws Exception {
+        failuresToInject.set(2);
+        final File target = new File(tmp.getRoot(), "archive.zip");
+        final ByteArrayOutputStream seen = new ByteArrayOutputStream();
+
+        downloader().download(url, target, digest("SHA-1"), digest("SHA-256"), in -> {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                seen.write(buffer, 0, read);
+            }
+        }, logger());
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertArrayEquals(content, seen.toByteArray());
+        assertFalse(ArchiveDownloader.getPartFile(target).exists());
+        assertEquals(3, ranges.size());
+        assertNull(ranges.get(0));
+        assertEquals("bytes=" + content.length / 2 + "-", ranges.get(1));
+    }
+
+    @Test
+    public void testPartialFileIsResumed() throws Exception {
+        final File target = new File(tmp.getRoot(), "archive.zip");
+        Files.write(ArchiveDownloader.getPartFile(target).toPath(), Arrays.copyOf(content, 1000));
+
+        downloader().download(url, target, digest("SHA-1"), null, null, logger());
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(Arrays.asList("bytes=1000-"), ranges);
+    }
+
+    @Test
+    public void testServerWithoutRangeSupport() throws Exception {
+        supportsRanges = false;
+        failuresToInject.set(1);
+        final File target = new File(tmp.getRoot(), "archive.zip");
+
+        downloader().download(url, target, null, digest("SHA-256"), null, logger());
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testChecksumMismatchDiscardsDownload() throws Exception {
+        final File target = new File(tmp.getRoot(), "archive.zip");
+        try {
+            downloader().download(url, target, "0000000000000000000000000000000000000000", null, null, logger());
+            fail("Expected checksum failure");
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+        assertFalse(ArchiveDownloader.getPartFile(target).exists());
+    }
+
+    @Test
+    public void testGivesUpAfterRepeatedFailures() throws Exception {
+        unavailable = true;
+        final File target = new File(tmp.getRoot(), "archive.zip");
+        try {
+            new ArchiveDownloader(3, 1, TIMEOUT_MS).download(url, target, null, null, null, logger());
+            fail("Expected download failure");
+        } catch (IOException expected) {
+        }
+        assertEquals(3, ranges.size());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws Exception {
+        errorStatus = 404;
+        final File target = new File(tmp.getRoot(), "archive.zip");
+        try {
+            new ArchiveDownloader(3, 1, TIMEOUT_MS).download(url, target, null, null, null, logger());
+            fail("Expected download failure");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, ranges.size());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void testRateLimitingIsRetried() throws Exception {
+        errorStatus = 429;
+        final File target = new File(tmp.getRoot(), "archive.zip");
+        try {
+            new ArchiveDownloader(3, 1, TIMEOUT_MS).download(url, target, null, null, null, logger());
+            fail("Expected download failure");
+        } catch (IOException expected) {
+        }
+        assertEquals(3, ranges.size());
+    }
+
+    @Test
+    public void testPermanentFailures() {
+        assertTrue(ArchiveDownloader.isPermanentFailure(403));
+        assertTrue(ArchiveDownloader.isPermanentFailure(404));
+        assertTrue(ArchiveDownloader.isPermanentFailure(410));
+        assertFalse(ArchiveDownloader.isPermanentFailure(408));
+        assertFalse(ArchiveDownloader.isPermanentFailure(429));
+        assertFalse(ArchiveDownloader.isPermanentFailure(500));
+        assertFalse(ArchiveDownloader.isPermanentFailure(503));
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add(range);
+        if (unavailable) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        if (errorStatus != 0) {
+            exchange.sendResponseHeaders(errorStatus, -1);
+            exchange.close();
+            return;
+        }
+        int start = 0;
+        if (range != null && supportsRanges) {
+            start = Integer.parseInt(range.replaceAll("bytes=(\\d+)-", "$1"));
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - start);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+
+        final boolean fail = failuresToInject.getAndDecrement() > 0;
+        final int end = fail ? Math.max(start + 1, content.length / 2) : content.length;
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, start, end - start);
+            out.flush();
+        } catch (IOException ignore) {
+            // The server complains when the response is shorter than promised
+        }
+        if (fail) {
+            exchange.close();
+        }
+    }
+
+    private ArchiveDownloader downloader() {
+        return new ArchiveDownloader(5, 1, TIMEOUT_MS);
+    }
+
+    private String digest(String algorithm) throws Exception {
+        return Util.toHexString(MessageDigest.getInstance(algorithm).digest(content));
+    }
+
+    private static PrintStream logger() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+
+}
@@ -0,0 +1,138 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ManifestCacheTest {
+
+    private static final long TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File repository;
+    private String repositoryUrl;
+    private ManifestCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        // A local directory stands in for the remote repository
+        repository = tmp.newFolder("repository");
+        repositoryUrl = repository.toURI().toString();
+        cache = new ManifestCache(tmp.newFolder("cache"), TTL_MS);
+    }
+
+    @Test
+    public void testLatestPackageIsResolved() throws Exception {
+        publish(buildTools("28.0.3", 0) + buildTools("30.0.2", 0) + buildTools("31.0.0-rc1", 2)
+                + buildTools("29.0.3", 0));
+
+        final RepositoryManifest manifest = cache.get(repositoryUrl, "repository2-1.xml");
+
+        assertEquals("build-tools;30.0.2", manifest.getLatestPackage("build-tools").getPath());
+        assertNull(manifest.getLatestPackage("ndk"));
+    }
+
+    @Test
+    public void testManifestIsReusedUntilExpired() throws Exception {
+        publish(buildTools("28.0.3", 0));
+        cache.get(repositoryUrl, "repository2-1.xml");
+
+        // Changes in the repository aren't seen while the local copy is fresh
+        publish(buildTools("30.0.2", 0));
+        assertEquals("build-tools;28.0.3", getLatestBuildTools());
+
+        // But they are once it has expired
+        expire();
+        assertEquals("build-tools;30.0.2", getLatestBuildTools());
+    }
+
+    @Test
+    public void testExpiredManifestIsUsedWhenRepositoryUnavailable() throws Exception {
+        publish(buildTools("28.0.3", 0));
+        cache.get(repositoryUrl, "repository2-1.xml");
+
+        expire();
+        assertTrue(new File(repository, "repository2-1.xml").delete());
+        assertEquals("build-tools;28.0.3", getLatestBuildTools());
+    }
+
+    @Test
+    public void testInvalidManifestDoesNotReplaceLocalCopy() throws Exception {
+        publish(buildTools("28.0.3", 0));
+        cache.get(repositoryUrl, "repository2-1.xml");
+
+        expire();
+        write(new File(repository, "repository2-1.xml"), "<sdk:sdk-repository");
+        assertEquals("build-tools;28.0.3", getLatestBuildTools());
+    }
+
+    @Test
+    public void testMissingManifestFails() throws Exception {
+        try {
+            cache.get(repositoryUrl, "repository2-1.xml");
+            fail("Expected the missing manifest to cause an exception");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testArchiveUrlsResolveAgainstRepository() throws Exception {
+        publish(buildTools("30.0.2", 0));
+
+        final RepositoryManifest.Archive archive = cache.get(repositoryUrl, "repository2-1.xml")
+                .getPackage("build-tools;30.0.2").getArchive("linux");
+
+        assertEquals(repositoryUrl + "build-tools_r30.0.2.zip", archive.getUrl());
+    }
+
+    private String getLatestBuildTools() throws IOException {
+        return cache.get(repositoryUrl, "repository2-1.xml").getLatestPackage("build-tools").getPath();
+    }
+
+    /** Makes every stored manifest older than the time-to-live. */
+    private void expire() {
+        final long expired = System.currentTimeMillis() - 2 * TTL_MS;
+        for (File dir : new File(tmp.getRoot(), "cache").listFiles()) {
+            for (File file : dir.listFiles()) {
+                assertTrue(file.setLastModified(expired));
+            }
+        }
+    }
+
+    private void publish(String packages) throws Exception {
+        write(new File(repository, "repository2-1.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<sdk:sdk-repository xmlns:sdk=\"http://schemas.android.com/sdk/android/repo/repository2/01\">"
+                + packages + "</sdk:sdk-repository>\n");
+    }
+
+    private static String buildTools(String version, int channel) {
+        final String[] parts = version.split("-")[0].split("\\.");
+        return "<remotePackage path=\"build-tools;" + version + "\">"
+                + "<revision><major>" + parts[0] + "</major><minor>" + parts[1] + "</minor>"
+                + "<micro>" + parts[2] + "</micro></revision><channelRef ref=\"channel-" + channel + "\"/>"
+                + "<archives><archive><complete><size>1</size>"
+                + "<checksum>0123456789abcdef0123456789abcdef01234567</checksum>"
+                + "<url>build-tools_r" + version + ".zip</url></complete></archive></archives>"
+                + "</remotePackage>";
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
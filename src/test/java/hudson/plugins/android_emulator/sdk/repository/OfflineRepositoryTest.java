@@ -0,0 +1,107 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OfflineRepositoryTest {
+
+    private static final String MANIFEST = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<sdk:sdk-repository xmlns:sdk=\"http://schemas.android.com/sdk/android/repo/repository2/01\""
+            + " xmlns:common=\"http://schemas.android.com/repository/android/common/01\">"
+            + "<remotePackage path=\"platforms;android-24\">"
+            + "<revision><major>3</major></revision>"
+            + "<archives><archive><complete><size>4</size>"
+            + "<checksum>0123456789abcdef0123456789abcdef01234567</checksum>"
+            + "<url>platform-24_r03.zip</url></complete></archive></archives></remotePackage>"
+            + "<remotePackage path=\"build-tools;30.0.2\">"
+            + "<revision><major>30</major><minor>0</minor><micro>2</micro></revision>"
+            + "<archives><archive><complete><size>4</size>"
+            + "<checksum>1111111111111111111111111111111111111111</checksum>"
+            + "<url>build-tools_r30.0.2-linux.zip</url></complete></archive></archives></remotePackage>"
+            + "</sdk:sdk-repository>\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File bundle;
+    private File sdkRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        bundle = tmp.newFolder("bundle");
+        sdkRoot = tmp.newFolder("sdk");
+        write(new File(bundle, "repository2-1.xml"), MANIFEST);
+        write(new File(bundle, "addons_list-3.xml"), "<sites/>");
+        write(new File(bundle, "archives/platform-24_r03.zip"), "data");
+    }
+
+    @Test
+    public void testBlankLocationIsIgnored() {
+        assertNull(OfflineRepository.forLocation(" "));
+        assertEquals(bundle, OfflineRepository.forLocation(bundle.toURI().toString()).getDirectory());
+    }
+
+    @Test
+    public void testRepositoryOnlyListsBundledArchives() throws Exception {
+        final String baseUrl = OfflineRepository.forLocation(bundle.getPath()).generate(sdkRoot);
+
+        assertTrue(baseUrl.endsWith("/"));
+        final RepositoryManifest manifest = RepositoryManifest.load(new URL(baseUrl + "repository2-1.xml"));
+        final RepositoryManifest.Archive archive = manifest.getPackage("platforms;android-24").getArchive("linux");
+        assertEquals(new File(bundle, "archives/platform-24_r03.zip").toURI().toString(), archive.getUrl());
+        assertEquals("0123456789abcdef0123456789abcdef01234567", archive.getSha1());
+        assertNull(manifest.getPackage("build-tools;30.0.2"));
+        assertTrue(new File(new URL(baseUrl + "addons_list-3.xml").toURI()).isFile());
+    }
+
+    @Test
+    public void testBundleWithoutManifestsIsRejected() throws Exception {
+        try {
+            OfflineRepository.forLocation(tmp.newFolder("empty").getPath()).generate(sdkRoot);
+            fail("Expected an empty bundle to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testInstalledRevisionsAreVerified() throws Exception {
+        writePackage("platforms/android-24", "platforms;android-24", "<major>2</major>");
+        writePackage("build-tools/30.0.2", "build-tools;30.0.2", "<major>30</major><minor>0</minor><micro>2</micro>");
+        final OfflineRepository repository = OfflineRepository.forLocation(bundle.getPath());
+
+        final List<String> problems = repository.verify(sdkRoot, null);
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0).contains("platforms;android-24"));
+
+        final List<String> missing = repository.verify(sdkRoot, Arrays.asList("build-tools;30.0.2", "emulator"));
+        assertEquals(1, missing.size());
+        assertTrue(missing.get(0).contains("emulator"));
+    }
+
+    private void writePackage(String dir, String path, String revision) throws Exception {
+        write(new File(sdkRoot, dir + "/package.xml"), "<ns2:repository xmlns:ns2=\"x\">"
+                + "<localPackage path=\"" + path + "\"><revision>" + revision + "</revision></localPackage>"
+                + "</ns2:repository>");
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,101 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepositoryManifestTest {
+
+    private static final String MANIFEST = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<sdk:sdk-repository xmlns:sdk=\"http://schemas.android.com/sdk/android/repo/repository2/01\""
+            + " xmlns:common=\"http://schemas.android.com/repository/android/common/01\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+            + "<license id=\"android-sdk-license\" type=\"text\">Terms</license>"
+            + "<channel id=\"channel-0\">stable</channel><channel id=\"channel-3\">canary</channel>"
+            + "<remotePackage path=\"platforms;android-24\">"
+            + "<type-details xsi:type=\"sdk:platformDetailsType\"><api-level>24</api-level></type-details>"
+            + "<revision><major>3</major></revision><display-name>Android SDK Platform 24</display-name>"
+            + "<uses-license ref=\"android-sdk-license\"/><channelRef ref=\"channel-0\"/>"
+            + "<archives><archive><complete><size>1234</size>"
+            + "<checksum>0123456789ABCDEF0123456789ABCDEF01234567</checksum>"
+            + "<url>platform-24_r03.zip</url></complete></archive></archives></remotePackage>"
+            + "<remotePackage path=\"emulator\">"
+            + "<revision><major>31</major></revision><channelRef ref=\"channel-3\"/>"
+            + "<archives><archive><complete><size>1</size><checksum>1111111111111111111111111111111111111111</checksum>"
+            + "<url>emulator-canary.zip</url></complete><host-os>linux</host-os></archive></archives></remotePackage>"
+            + "<remotePackage path=\"emulator\">"
+            + "<revision><major>30</major></revision><channelRef ref=\"channel-0\"/>"
+            + "<archives><archive><complete><size>1</size><checksum>2222222222222222222222222222222222222222</checksum>"
+            + "<url>emulator-darwin.zip</url></complete><host-os>macosx</host-os></archive>"
+            + "<archive><complete><size>1</size><checksum>3333333333333333333333333333333333333333</checksum>"
+            + "<url>https://example.com/emulator-linux.zip</url></complete><host-os>linux</host-os></archive>"
+            + "</archives></remotePackage>"
+            + "</sdk:sdk-repository>\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testArchivesAreResolved() throws Exception {
+        final RepositoryManifest manifest = parse();
+
+        final RepositoryManifest.Archive platform = manifest.getPackage("platforms;android-24").getArchive("linux");
+        assertEquals(RepositoryManifest.BASE_URL + "platform-24_r03.zip", platform.getUrl());
+        assertEquals("platform-24_r03.zip", platform.getFileName());
+        assertEquals("0123456789abcdef0123456789abcdef01234567", platform.getSha1());
+        assertEquals(1234, platform.getSize());
+        assertNull(manifest.getPackage("platforms;android-25"));
+
+        // Stable releases are preferred, and archives are chosen by host OS
+        final RepositoryManifest.RemotePackage emulator = manifest.getPackage("emulator");
+        assertEquals("https://example.com/emulator-linux.zip", emulator.getArchive("linux").getUrl());
+        assertEquals("2222222222222222222222222222222222222222", emulator.getArchive("macosx").getSha1());
+        assertNull(emulator.getArchive("windows"));
+
+        assertNotNull(manifest.findArchive("emulator-darwin.zip"));
+        assertNull(manifest.findArchive("emulator-canary.zip"));
+    }
+
+    @Test
+    public void testManifestPaths() {
+        assertEquals("repository2-1.xml", RepositoryManifest.getManifestPath("platforms;android-24"));
+        assertEquals("repository2-1.xml", RepositoryManifest.getManifestPath("build-tools;30.0.2"));
+        assertEquals("addon2-1.xml", RepositoryManifest.getManifestPath("extras;google;m2repository"));
+        assertEquals("sys-img/android/sys-img2-1.xml",
+                RepositoryManifest.getManifestPath("system-images;android-24;default;x86"));
+        assertEquals("sys-img/google_apis/sys-img2-1.xml",
+                RepositoryManifest.getManifestPath("system-images;android-30;google_apis;x86_64"));
+    }
+
+    @Test
+    public void testPackageXmlIsWritten() throws Exception {
+        final File dir = tmp.newFolder("android-24");
+        parse().getPackage("platforms;android-24").writePackageXml(dir);
+
+        final String xml = new String(Files.readAllBytes(new File(dir, "package.xml").toPath()), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<localPackage obsolete=\"false\" path=\"platforms;android-24\">")
+                || xml.contains("<localPackage path=\"platforms;android-24\" obsolete=\"false\">"));
+        assertTrue(xml.contains("xsi:type=\"sdk:platformDetailsType\""));
+        assertTrue(xml.contains("xmlns:sdk=\"http://schemas.android.com/sdk/android/repo/repository2/01\""));
+        assertTrue(xml.contains("<major>3</major>"));
+        assertTrue(xml.contains("android-sdk-license"));
+        assertTrue(!xml.contains("archives"));
+    }
+
+    private static RepositoryManifest parse() throws Exception {
+        return RepositoryManifest.parse(new ByteArrayInputStream(MANIFEST.getBytes(StandardCharsets.UTF_8)),
+                new URL(RepositoryManifest.BASE_URL + "repository2-1.xml"));
+    }
+
+}
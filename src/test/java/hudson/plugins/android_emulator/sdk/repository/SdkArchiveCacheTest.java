@@ -0,0 +1,95 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.Util;
+
+public class SdkArchiveCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testMissIsDownloadedAndStored() throws Exception {
+        final byte[] content = "archive contents".getBytes(StandardCharsets.UTF_8);
+        final File origin = write(tmp.newFile("origin.zip"), content);
+        final File cacheDir = tmp.newFolder("cache");
+        final RepositoryManifest.Archive archive = archive(origin, content);
+        final SdkArchiveCache cache = SdkArchiveCache.forLocation(cacheDir.getPath());
+
+        final File first = cache.fetch(archive, tmp.newFolder("work1"), logger());
+        assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(new File(cacheDir, archive.getSha1() + ".zip").toPath()));
+
+        // Once cached, the original location isn't needed
+        assertTrue(origin.delete());
+        final File second = cache.fetch(archive, tmp.newFolder("work2"), logger());
+        assertArrayEquals(content, Files.readAllBytes(second.toPath()));
+    }
+
+    @Test
+    public void testCorruptEntryIsReplaced() throws Exception {
+        final byte[] content = "archive contents".getBytes(StandardCharsets.UTF_8);
+        final File origin = write(tmp.newFile("origin.zip"), content);
+        final File cacheDir = tmp.newFolder("cache");
+        final RepositoryManifest.Archive archive = archive(origin, content);
+        final File entry = write(new File(cacheDir, archive.getSha1() + ".zip"), "truncated".getBytes(StandardCharsets.UTF_8));
+
+        final File fetched = SdkArchiveCache.forLocation(cacheDir.toURI().toString())
+                .fetch(archive, tmp.newFolder("work"), logger());
+        assertArrayEquals(content, Files.readAllBytes(fetched.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(entry.toPath()));
+    }
+
+    @Test
+    public void testChecksumMismatchFails() throws Exception {
+        final File origin = write(tmp.newFile("origin.zip"), "unexpected".getBytes(StandardCharsets.UTF_8));
+        final File cacheDir = tmp.newFolder("cache");
+        final File work = tmp.newFolder("work");
+        final RepositoryManifest.Archive archive = archive(origin, "expected".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            SdkArchiveCache.forLocation(cacheDir.getPath()).fetch(archive, work, logger());
+            fail("Expected checksum failure");
+        } catch (IOException expected) {
+        }
+        assertFalse(new File(cacheDir, archive.getSha1() + ".zip").exists());
+        assertTrue(work.list().length == 0);
+    }
+
+    @Test
+    public void testBlankLocationDisablesCache() {
+        assertNull(SdkArchiveCache.forLocation(null));
+        assertNull(SdkArchiveCache.forLocation("  "));
+    }
+
+    private static RepositoryManifest.Archive archive(File origin, byte[] expectedContent) throws Exception {
+        final String sha1 = Util.toHexString(java.security.MessageDigest.getInstance("SHA-1").digest(expectedContent));
+        return new RepositoryManifest.Archive(origin.toURI().toString(), sha1, expectedContent.length, null);
+    }
+
+    private static File write(File file, byte[] content) throws IOException {
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static PrintStream logger() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+
+}
@@ -0,0 +1,149 @@
+package hudson.plugins.android_emulator.sdk.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.util.StreamTaskListener;
+
+public class SdkArchiveInstallerTest {
+
+    private static final String MANIFEST = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<sdk:sdk-repository xmlns:sdk=\"http://schemas.android.com/sdk/android/repo/repository2/01\">"
+            + "<channel id=\"channel-0\">stable</channel>"
+            + "<remotePackage path=\"build-tools;28.0.3\">"
+            + "<revision><major>28</major><minor>0</minor><micro>3</micro></revision><channelRef ref=\"channel-0\"/>"
+            + "<archives><archive><complete><size>1</size><checksum>1111111111111111111111111111111111111111</checksum>"
+            + "<url>missing.zip</url></complete></archive></archives></remotePackage>"
+            + "</sdk:sdk-repository>\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testArchiveIsExtractedIntoPlace() throws Exception {
+        Assume.assumeFalse(File.pathSeparatorChar == ';');
+
+        final File zip = tmp.newFile("tool.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            addEntry(out, "tool-1.0/", null);
+            addEntry(out, "tool-1.0/bin/run", "#!/bin/sh\n");
+            addEntry(out, "tool-1.0/lib/readme.txt", "Hello\n");
+            addEntry(out, "tool-1.0/lib/link", "readme.txt");
+        }
+        setUnixMode(zip, "tool-1.0/bin/run", 0100755);
+        setUnixMode(zip, "tool-1.0/lib/readme.txt", 0100644);
+        setUnixMode(zip, "tool-1.0/lib/link", 0120777);
+
+        final File sdkRoot = tmp.newFolder("sdk");
+        final File target = new File(sdkRoot, "tool");
+        // Anything previously installed is replaced
+        assertTrue(new File(target, "old").mkdirs());
+
+        final File tempDir = new File(sdkRoot, SdkArchiveInstaller.TEMP_DIR);
+        final RepositoryManifest.Archive archive = new RepositoryManifest.Archive(zip.toURI().toString(), null, -1, null);
+        SdkArchiveInstaller.installArchive(archive, SdkArchiveCache.NONE, tempDir, target,
+                new PrintStream(new ByteArrayOutputStream()));
+
+        assertFalse(new File(target, "old").exists());
+        assertFalse(new File(target, "tool-1.0").exists());
+        assertTrue(new File(target, "bin/run").canExecute());
+        assertFalse(new File(target, "lib/readme.txt").canExecute());
+        assertArrayEquals("Hello\n".getBytes(StandardCharsets.UTF_8),
+                Files.readAllBytes(new File(target, "lib/readme.txt").toPath()));
+        assertTrue(Files.isSymbolicLink(new File(target, "lib/link").toPath()));
+        assertEquals("readme.txt", Files.readSymbolicLink(new File(target, "lib/link").toPath()).toString());
+
+        // Nothing is left behind
+        assertEquals(0, tempDir.list().length);
+    }
+
+    @Test
+    public void testInstalledPackageIsNotDownloaded() throws Exception {
+        final File repository = tmp.newFolder("repository");
+        Files.write(new File(repository, "repository2-1.xml").toPath(), MANIFEST.getBytes(StandardCharsets.UTF_8));
+        final File sdkRoot = tmp.newFolder("sdk");
+        final File packageDir = new File(sdkRoot, "build-tools/28.0.3");
+        assertTrue(packageDir.mkdirs());
+        Files.write(new File(packageDir, "source.properties").toPath(),
+                "Pkg.Revision=28.0.3\n".getBytes(StandardCharsets.UTF_8));
+
+        // The archive doesn't exist, so this would fail if the package were downloaded
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final Set<String> installed = new SdkArchiveInstaller(sdkRoot.getPath(),
+                Collections.singletonList("build-tools;28.0.3"), repository.toURI().toString(),
+                SdkArchiveCache.NONE, new StreamTaskListener(log)).call();
+
+        assertEquals(Collections.singleton("build-tools;28.0.3"), installed);
+        assertTrue(new File(packageDir, "source.properties").exists());
+        assertFalse(new File(sdkRoot, SdkArchiveInstaller.TEMP_DIR).exists());
+    }
+
+    @Test
+    public void testIsInstalled() throws Exception {
+        final RepositoryManifest.RemotePackage pkg = RepositoryManifest.parse(
+                new ByteArrayInputStream(MANIFEST.getBytes(StandardCharsets.UTF_8)),
+                new URL(RepositoryManifest.BASE_URL)).getPackage("build-tools;28.0.3");
+        final File sdkRoot = tmp.newFolder("sdk");
+        final File packageDir = new File(sdkRoot, "build-tools/28.0.3");
+        assertFalse(SdkArchiveInstaller.isInstalled(sdkRoot, pkg));
+
+        assertTrue(packageDir.mkdirs());
+        final File properties = new File(packageDir, "source.properties");
+        Files.write(properties.toPath(), "Pkg.Revision=28.0.2\n".getBytes(StandardCharsets.UTF_8));
+        assertFalse(SdkArchiveInstaller.isInstalled(sdkRoot, pkg));
+
+        Files.write(properties.toPath(), "Pkg.Revision=28.0.3\n".getBytes(StandardCharsets.UTF_8));
+        // The package index notices updates by their modification time, which may not have changed yet
+        assertTrue(properties.setLastModified(properties.lastModified() + 2000));
+        assertTrue(SdkArchiveInstaller.isInstalled(sdkRoot, pkg));
+    }
+
+    private static void addEntry(ZipOutputStream out, String name, String content) throws Exception {
+        out.putNextEntry(new ZipEntry(name));
+        if (content != null) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        out.closeEntry();
+    }
+
+    /** Sets the Unix file mode of an entry, which {@link ZipOutputStream} has no API for. */
+    private static void setUnixMode(File zip, String name, int mode) throws Exception {
+        final byte[] data = Files.readAllBytes(zip.toPath());
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + 46 < data.length; i++) {
+            if (data[i] != 0x50 || data[i + 1] != 0x4b || data[i + 2] != 0x01 || data[i + 3] != 0x02) {
+                continue;
+            }
+            final int nameLength = (data[i + 28] & 0xff) | (data[i + 29] & 0xff) << 8;
+            if (nameLength == nameBytes.length
+                    && new String(data, i + 46, nameLength, StandardCharsets.UTF_8).equals(name)) {
+                data[i + 5] = 3;
+                data[i + 40] = (byte) mode;
+                data[i + 41] = (byte) (mode >> 8);
+                Files.write(zip.toPath(), data);
+                return;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+}
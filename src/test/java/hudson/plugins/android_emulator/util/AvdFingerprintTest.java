@@ -0,0 +1,104 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AvdFingerprintTest {
+
+    private static final String SYSTEM_IMAGE = "system-images;android-24;default;x86";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testMatchingFingerprint() throws Exception {
+        final File avdDir = tmp.newFolder("test.avd");
+        createFingerprint().setHardwareProperties(Collections.singletonMap("hw.ramSize", "1024")).write(avdDir);
+
+        final AvdFingerprint existing = AvdFingerprint.read(avdDir);
+
+        // Hardware properties are applied separately, so don't affect the comparison
+        assertTrue(existing.getChangedInputs(createFingerprint()).isEmpty());
+        assertEquals("1024", existing.getHardwareProperties().get("hw.ramSize"));
+    }
+
+    @Test
+    public void testPatchableChange() {
+        final AvdFingerprint required = createFingerprint().put(AvdFingerprint.SD_CARD, "128M");
+
+        final Set<String> changed = createFingerprint().getChangedInputs(required);
+
+        assertEquals(Collections.singleton(AvdFingerprint.SD_CARD), changed);
+        assertFalse(AvdFingerprint.requiresRebuild(changed));
+    }
+
+    @Test
+    public void testRemovedInputIsChanged() {
+        final AvdFingerprint required = new AvdFingerprint()
+                .put(AvdFingerprint.TARGET, "android-24")
+                .put(AvdFingerprint.SYSTEM_IMAGE, SYSTEM_IMAGE)
+                .put(AvdFingerprint.SYSTEM_IMAGE_REVISION, "5.0.0")
+                .put(AvdFingerprint.DENSITY, "240")
+                .put(AvdFingerprint.SD_CARD, null);
+
+        final Set<String> changed = createFingerprint().getChangedInputs(required);
+
+        assertEquals(Collections.singleton(AvdFingerprint.SD_CARD), changed);
+    }
+
+    @Test
+    public void testSystemImageUpdateRequiresRebuild() {
+        final AvdFingerprint required = createFingerprint().put(AvdFingerprint.SYSTEM_IMAGE_REVISION, "6.0.0");
+
+        final Set<String> changed = createFingerprint().getChangedInputs(required);
+
+        assertEquals(Collections.singleton(AvdFingerprint.SYSTEM_IMAGE_REVISION), changed);
+        assertTrue(AvdFingerprint.requiresRebuild(changed));
+    }
+
+    @Test
+    public void testMissingFingerprint() throws Exception {
+        assertNull(AvdFingerprint.read(tmp.newFolder("test.avd")));
+    }
+
+    @Test
+    public void testPackageRevision() throws Exception {
+        final File sdkRoot = tmp.newFolder("sdk");
+        assertNull(AvdFingerprint.getPackageRevision(sdkRoot, SYSTEM_IMAGE));
+
+        final File imageDir = new File(sdkRoot, "system-images/android-24/default/x86");
+        assertTrue(imageDir.mkdirs());
+        Files.write(new File(imageDir, "source.properties").toPath(),
+                "Pkg.Revision=4\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("4", AvdFingerprint.getPackageRevision(sdkRoot, SYSTEM_IMAGE));
+
+        // package.xml takes precedence, as it's what sdkmanager maintains
+        Files.write(new File(imageDir, "package.xml").toPath(), ("<localPackage path=\"" + SYSTEM_IMAGE + "\">"
+                + "<revision><major>5</major><minor>1</minor></revision>"
+                + "<dependencies><dependency path=\"emulator\"><min-revision><major>26</major></min-revision>"
+                + "</dependency></dependencies></localPackage>").getBytes(StandardCharsets.UTF_8));
+        assertEquals("5.1", AvdFingerprint.getPackageRevision(sdkRoot, SYSTEM_IMAGE));
+    }
+
+    private static AvdFingerprint createFingerprint() {
+        return new AvdFingerprint()
+                .put(AvdFingerprint.TARGET, "android-24")
+                .put(AvdFingerprint.SYSTEM_IMAGE, SYSTEM_IMAGE)
+                .put(AvdFingerprint.SYSTEM_IMAGE_REVISION, "5.0.0")
+                .put(AvdFingerprint.DENSITY, "240")
+                .put(AvdFingerprint.SD_CARD, "64M");
+    }
+
+}
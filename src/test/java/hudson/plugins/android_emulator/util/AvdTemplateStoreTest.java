@@ -0,0 +1,138 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.android_emulator.cleanup.LruEvictor;
+
+public class AvdTemplateStoreTest {
+
+    private static final byte[] USERDATA = "booted userdata".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private File goldenAvd;
+
+    @Before
+    public void setUp() throws Exception {
+        root = new File(tmp.getRoot(), "templates");
+        goldenAvd = tmp.newFolder("golden.avd");
+        write(new File(goldenAvd, "config.ini"), "image.sysdir.1=system-images/android-24/default/x86/");
+        write(new File(goldenAvd, "hardware-qemu.ini"), "disk.dataPartition.path=" + goldenAvd.getAbsolutePath());
+        Files.write(new File(goldenAvd, "userdata-qemu.img").toPath(), USERDATA);
+        write(new File(goldenAvd, "snapshots/jenkins/hardware.ini"),
+                "disk.dataPartition.path=" + goldenAvd.getAbsolutePath() + "/userdata-qemu.img");
+        write(new File(goldenAvd, "snapshots/jenkins/ram.bin"), "ram");
+        write(new File(goldenAvd, "multiinstance.lock"), "");
+    }
+
+    @Test
+    public void testKeyDependsOnInputs() {
+        final Map<String, String> inputs = new TreeMap<>();
+        inputs.put("target", "android-24");
+        inputs.put("hardware.hw.ramSize", "1024");
+        final String key = AvdTemplateStore.getKey(inputs);
+
+        assertEquals(key, AvdTemplateStore.getKey(new TreeMap<>(inputs)));
+        inputs.put("hardware.hw.ramSize", "2048");
+        assertNotEquals(key, AvdTemplateStore.getKey(inputs));
+    }
+
+    @Test
+    public void testCaptureLeavesNoPartialTemplate() throws Exception {
+        final AvdTemplateStore store = new AvdTemplateStore(root);
+
+        final boolean captured = store.capture("key", goldenAvd);
+
+        // Templates are only kept where the filesystem supports reflinks
+        final String[] entries = root.list();
+        assertEquals(captured ? 1 : 0, entries.length);
+        if (captured) {
+            assertEquals("key", entries[0]);
+            assertFalse(new File(root, "key/config.ini").exists());
+            assertFalse(new File(root, "key/multiinstance.lock").exists());
+            assertTrue(new File(root, "key/" + LruEvictor.LAST_USE_MARKER).exists());
+            assertFalse(store.capture("key", goldenAvd));
+        }
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        // The AVD has been deleted and recreated since the template was captured
+        final File newAvd = tmp.newFolder("new.avd");
+        createTemplate("key", newAvd);
+        write(new File(newAvd, "config.ini"), "own config");
+
+        final AvdTemplateStore store = new AvdTemplateStore(root);
+        assertFalse(store.restore("other", newAvd));
+        assertTrue(store.restore("key", newAvd));
+
+        // Images and snapshots are cloned unchanged, as they already refer to this location
+        assertArrayEquals(USERDATA, Files.readAllBytes(new File(newAvd, "userdata-qemu.img").toPath()));
+        assertEquals("disk.dataPartition.path=" + newAvd.getAbsolutePath() + "/userdata-qemu.img",
+                read(new File(newAvd, "snapshots/jenkins/hardware.ini")));
+        assertEquals("ram", read(new File(newAvd, "snapshots/jenkins/ram.bin")));
+
+        // The AVD's own files are left alone
+        assertEquals("own config", read(new File(newAvd, "config.ini")));
+        assertFalse(new File(newAvd, "hardware-qemu.ini").exists());
+        assertFalse(new File(newAvd, AvdTemplateStore.SOURCE_PATH_FILE).exists());
+        assertFalse(new File(newAvd, LruEvictor.LAST_USE_MARKER).exists());
+
+        // The template's use is recorded
+        final File marker = new File(root, "key/" + LruEvictor.LAST_USE_MARKER);
+        assertTrue(System.currentTimeMillis() - marker.lastModified() < 60 * 1000);
+
+        // Modifying the new AVD doesn't affect the template
+        Files.write(new File(newAvd, "userdata-qemu.img").toPath(), "modified".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(USERDATA, Files.readAllBytes(new File(root, "key/userdata-qemu.img").toPath()));
+    }
+
+    @Test
+    public void testTemplateOfOtherLocationNotRestored() throws Exception {
+        // Overlays and snapshots refer to the images at the location the template was captured from
+        createTemplate("key", goldenAvd);
+        final File newAvd = tmp.newFolder("new.avd");
+
+        assertFalse(new AvdTemplateStore(root).restore("key", newAvd));
+        assertFalse(new File(newAvd, "userdata-qemu.img").exists());
+    }
+
+    /** Creates a template as {@link AvdTemplateStore#capture} would, but without requiring reflinks. */
+    private void createTemplate(String key, File sourceAvd) throws Exception {
+        final File template = new File(root, key);
+        assertTrue(template.mkdirs());
+        Files.write(new File(template, "userdata-qemu.img").toPath(), USERDATA);
+        write(new File(template, "snapshots/jenkins/hardware.ini"),
+                "disk.dataPartition.path=" + sourceAvd.getAbsolutePath() + "/userdata-qemu.img");
+        write(new File(template, "snapshots/jenkins/ram.bin"), "ram");
+        write(new File(template, AvdTemplateStore.SOURCE_PATH_FILE), sourceAvd.getAbsolutePath());
+        write(new File(template, LruEvictor.LAST_USE_MARKER), "");
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
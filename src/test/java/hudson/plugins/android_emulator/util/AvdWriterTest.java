@@ -0,0 +1,93 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AvdWriterTest {
+
+    private static final String IMAGE = "system-images;android-24;google_apis;x86";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File avdHome;
+    private File sdkRoot;
+    private AvdWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        avdHome = tmp.newFolder("avd");
+        sdkRoot = tmp.newFolder("sdk");
+        writer = new AvdWriter(avdHome, sdkRoot);
+    }
+
+    @Test
+    public void testSystemImageDir() {
+        assertEquals("system-images/android-24/google_apis/x86/", AvdWriter.getSystemImageDir(IMAGE));
+        assertNull(AvdWriter.getSystemImageDir("platforms;android-24"));
+    }
+
+    @Test
+    public void testMissingSystemImageIsRejected() throws Exception {
+        assertFalse(writer.canWrite(IMAGE));
+        try {
+            writer.write("test", "android-24", IMAGE, Collections.<String, String>emptyMap());
+            fail("Expected a missing system image to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testAvdIsWritten() throws Exception {
+        final File imageDir = new File(sdkRoot, "system-images/android-24/google_apis/x86");
+        write(new File(imageDir, "hardware.ini"), "hw.ramSize=1536\nhw.lcd.density=160\n");
+        write(new File(imageDir, "package.xml"), "<localPackage path=\"" + IMAGE + "\"><type-details>"
+                + "<tag><id>google_apis</id><display>Google APIs</display></tag></type-details></localPackage>");
+        assertTrue(writer.canWrite(IMAGE));
+
+        final File avdDir = writer.write("test", "android-24", IMAGE,
+                Collections.singletonMap("hw.lcd.density", "240"));
+
+        assertEquals(new File(avdHome, "test.avd"), avdDir);
+        final Map<String, String> config = ConfigFileUtils.parseConfigFile(new File(avdDir, "config.ini"));
+        assertEquals("1536", config.get("hw.ramSize"));
+        assertEquals("240", config.get("hw.lcd.density"));
+        assertEquals("x86", config.get("abi.type"));
+        assertEquals("x86", config.get("hw.cpu.arch"));
+        assertEquals("system-images/android-24/google_apis/x86/", config.get("image.sysdir.1"));
+        assertEquals("google_apis", config.get("tag.id"));
+        assertEquals("Google APIs", config.get("tag.display"));
+
+        final Map<String, String> metadata = ConfigFileUtils.parseConfigFile(new File(avdHome, "test.ini"));
+        assertEquals(avdDir.getAbsolutePath(), metadata.get("path"));
+        assertEquals("android-24", metadata.get("target"));
+    }
+
+    @Test
+    public void testCpuArch() {
+        assertEquals("arm", AvdWriter.getCpuArch("armeabi-v7a"));
+        assertEquals("arm64", AvdWriter.getCpuArch("arm64-v8a"));
+        assertEquals("x86_64", AvdWriter.getCpuArch("x86_64"));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,96 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConfigFileEditorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File configFile;
+
+    @Before
+    public void setUp() throws Exception {
+        configFile = new File(tmp.getRoot(), "config.ini");
+    }
+
+    @Test
+    public void testEditsPreserveOrderAndComments() throws Exception {
+        write("# AVD config\r\nhw.lcd.density=160\r\n\r\nabi.type = x86\r\n; trailing comment\r\n");
+
+        final Map<String, String> values = new LinkedHashMap<>();
+        values.put("sdcard.size", "64M");
+        values.put("abi.type", "x86_64");
+        ConfigFileEditor.open(configFile)
+                .set("hw.lcd.density", "240")
+                .setAll(values)
+                .commit();
+
+        assertEquals("# AVD config\r\nhw.lcd.density=240\r\n\r\nabi.type = x86_64\r\n; trailing comment\r\n"
+                + "sdcard.size=64M\r\n", read());
+        assertEquals("x86_64", ConfigFileUtils.parseConfigFile(configFile).get("abi.type"));
+    }
+
+    @Test
+    public void testValuesMatchParser() throws Exception {
+        write("key=a=b\nnovalue=\n  indented=  value\nbare\n#comment=1\n");
+
+        final ConfigFileEditor editor = ConfigFileEditor.open(configFile);
+
+        assertEquals(ConfigFileUtils.parseConfigFile(configFile), editor.getValues());
+        assertEquals("value", editor.get("indented"));
+        assertNull(editor.get("#comment"));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        write("a=1\nb=2\nc=3\n");
+
+        ConfigFileEditor.open(configFile).remove("b").remove("missing").commit();
+
+        assertEquals("a=1\nc=3\n", read());
+    }
+
+    @Test
+    public void testUnchangedFileIsNotWritten() throws Exception {
+        write("a=1\n");
+        assertTrue(configFile.setLastModified(1000));
+
+        final ConfigFileEditor editor = ConfigFileEditor.open(configFile).set("a", "1");
+        assertFalse(editor.isModified());
+        editor.commit();
+
+        assertEquals(1000, configFile.lastModified());
+    }
+
+    @Test
+    public void testCreatesFileWithoutLeavingTemporaryFiles() throws Exception {
+        ConfigFileEditor.open(configFile).set("a", "1").commit();
+
+        assertEquals("a=1\r\n", read());
+        assertEquals(1, tmp.getRoot().list().length);
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(configFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read() throws Exception {
+        return new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
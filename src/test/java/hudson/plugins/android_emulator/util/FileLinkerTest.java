@@ -0,0 +1,77 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileLinkerTest {
+
+    private static final byte[] CONTENT = "shared".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File source;
+
+    @Before
+    public void setUp() throws Exception {
+        source = tmp.newFile("source");
+        Files.write(source.toPath(), CONTENT);
+    }
+
+    @Test
+    public void testLinkSharesFile() throws Exception {
+        final File target = new File(tmp.getRoot(), "workspace/.android/target");
+
+        final FileLinker.Method method = FileLinker.link(source, target);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        if (method == FileLinker.Method.HARD_LINK) {
+            assertTrue(Files.isSameFile(source.toPath(), target.toPath()));
+        }
+    }
+
+    @Test
+    public void testLinkReplacesExistingFile() throws Exception {
+        final File target = tmp.newFile("target");
+        Files.write(target.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+        FileLinker.link(source, target);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testCloneIsIndependent() throws Exception {
+        final File target = new File(tmp.getRoot(), "clone");
+
+        final FileLinker.Method method = FileLinker.cloneFile(source, target);
+        assertNotEquals(FileLinker.Method.HARD_LINK, method);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+
+        // Writing to the clone must not affect the shared original
+        Files.write(target.toPath(), "modified".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+    }
+
+    @Test
+    public void testOnlyUnsupportedReflinksAreRemembered() {
+        assertTrue(FileLinker.isReflinkUnsupported("cp: failed to clone 'b' from 'a': Operation not supported\n"));
+        assertTrue(FileLinker.isReflinkUnsupported("cp: unrecognized option '--reflink=always'\n"));
+        assertTrue(FileLinker.isReflinkUnsupported("cp: illegal option -- c\n"));
+        assertFalse(FileLinker.isReflinkUnsupported("cp: cannot stat 'a': No such file or directory\n"));
+        assertFalse(FileLinker.isReflinkUnsupported("cp: failed to clone 'b' from 'a': No space left on device\n"));
+        assertFalse(FileLinker.isReflinkUnsupported("cp: failed to clone 'b' from 'a': Invalid cross-device link\n"));
+    }
+
+}
@@ -0,0 +1,53 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemUtilsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testTouch() throws Exception {
+        final File marker = new File(tmp.getRoot(), "marker");
+        FileSystemUtils.touch(marker);
+        assertTrue(marker.isFile());
+
+        assertTrue(marker.setLastModified(0));
+        FileSystemUtils.touch(marker);
+        assertTrue(marker.lastModified() > 0);
+    }
+
+    @Test
+    public void testDeleteRecursiveDoesNotFollowLinks() throws Exception {
+        // Symbolic links generally can't be created on Windows
+        Assume.assumeFalse(File.pathSeparatorChar == ';');
+
+        final File outside = tmp.newFolder("outside");
+        final File kept = new File(outside, "kept");
+        assertTrue(kept.createNewFile());
+
+        final File dir = new File(tmp.getRoot(), "dir/nested");
+        assertTrue(dir.mkdirs());
+        assertTrue(new File(dir, "file").createNewFile());
+        Files.createSymbolicLink(new File(dir, "link").toPath(), outside.toPath());
+
+        FileSystemUtils.deleteRecursive(new File(tmp.getRoot(), "dir"));
+
+        assertFalse(new File(tmp.getRoot(), "dir").exists());
+        assertTrue(kept.exists());
+
+        // Deleting something which doesn't exist is fine
+        FileSystemUtils.deleteRecursive(new File(tmp.getRoot(), "dir"));
+    }
+
+}
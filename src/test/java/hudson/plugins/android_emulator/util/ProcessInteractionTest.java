@@ -0,0 +1,82 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProcessInteractionTest {
+
+    @Test
+    public void testLinesAreDelivered() throws Exception {
+        final byte[] output = "first\r\nsecond\n\n\u00fc\u00f1\u00ed\rlast".getBytes(StandardCharsets.UTF_8);
+        final List<String> lines = new CopyOnWriteArrayList<>();
+
+        final ProcessInteraction interaction = new ProcessInteraction(new ByteArrayInputStream(output), null)
+                .onLine(lines::add)
+                .start();
+
+        assertTrue(interaction.awaitCompletion(10, TimeUnit.SECONDS));
+        assertEquals(4, lines.size());
+        assertEquals("first", lines.get(0));
+        assertEquals("second", lines.get(1));
+        assertEquals("\u00fc\u00f1\u00ed", lines.get(2));
+        assertEquals("last", lines.get(3));
+    }
+
+    @Test
+    public void testPromptWithoutNewlineIsAnswered() throws Exception {
+        // Process output, written by the "process", and read by the interaction
+        final PipedOutputStream processStdout = new PipedOutputStream();
+        final PipedInputStream output = new PipedInputStream(processStdout);
+        // Process input, written by the interaction, and read by the "process"
+        final PipedInputStream processStdin = new PipedInputStream();
+        final PipedOutputStream input = new PipedOutputStream(processStdin);
+        final BufferedReader stdin = new BufferedReader(new InputStreamReader(processStdin, StandardCharsets.UTF_8));
+
+        final List<String> lines = new CopyOnWriteArrayList<>();
+        final ProcessInteraction interaction = new ProcessInteraction(output, input)
+                .respond("custom hardware", "no")
+                .onLine(lines::add)
+                .start();
+
+        // The response must arrive while the prompt line is still incomplete
+        processStdout.write("Do you wish to create a custom hardware profile? [no] ".getBytes(StandardCharsets.UTF_8));
+        processStdout.flush();
+        assertEquals("no", stdin.readLine());
+
+        // Completing the prompt line must not trigger a second response; only the next prompt is answered
+        processStdout.write("\nanother custom hardware line\n".getBytes(StandardCharsets.UTF_8));
+        processStdout.close();
+
+        assertTrue(interaction.awaitCompletion(10, TimeUnit.SECONDS));
+        assertEquals(2, lines.size());
+        assertEquals("Do you wish to create a custom hardware profile? [no] ", lines.get(0));
+        assertEquals("no", stdin.readLine());
+        input.close();
+        assertEquals(null, stdin.readLine());
+    }
+
+    @Test
+    public void testAwaitCompletionTimesOut() throws Exception {
+        final PipedOutputStream processStdout = new PipedOutputStream();
+        final ProcessInteraction interaction =
+                new ProcessInteraction(new PipedInputStream(processStdout), null).start();
+
+        assertFalse(interaction.awaitCompletion(50, TimeUnit.MILLISECONDS));
+        processStdout.close();
+        assertTrue(interaction.awaitCompletion(10, TimeUnit.SECONDS));
+    }
+
+}
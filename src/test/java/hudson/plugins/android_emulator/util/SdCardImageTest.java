@@ -0,0 +1,117 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SdCardImageTest {
+
+    private static final long SIZE_64M = 64L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testParseSize() {
+        assertEquals(SIZE_64M, SdCardImage.parseSize("64M"));
+        assertEquals(SIZE_64M, SdCardImage.parseSize("65536k"));
+        assertEquals(2L * 1024 * 1024 * 1024, SdCardImage.parseSize("2G"));
+        assertEquals(SIZE_64M, SdCardImage.parseSize(String.valueOf(SIZE_64M)));
+
+        assertEquals(-1, SdCardImage.parseSize(null));
+        assertEquals(-1, SdCardImage.parseSize("8M"));
+        assertEquals(-1, SdCardImage.parseSize("64MB"));
+        assertEquals(-1, SdCardImage.parseSize("lots"));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final File image = new File(tmp.getRoot(), "sdcard.img");
+
+        SdCardImage.format(image, SIZE_64M);
+
+        assertEquals(SIZE_64M, image.length());
+        final ByteBuffer boot = readSector(image, 0);
+        assertEquals(512, boot.getShort(11));
+        assertEquals(1, boot.get(13));
+        assertEquals(32, boot.getShort(14));
+        assertEquals(2, boot.get(16));
+        assertEquals(0, boot.getShort(22));
+        assertEquals(SIZE_64M / 512, boot.getInt(32));
+        assertEquals(2, boot.getInt(44));
+        assertEquals("FAT32   ", getString(boot, 82, 8));
+        assertEquals((short) 0xAA55, boot.getShort(510));
+
+        // The FATs must be large enough to cover every cluster
+        final long fatSectors = boot.getInt(36);
+        final long clusters = (SIZE_64M / 512 - 32 - 2 * fatSectors);
+        assertTrue(fatSectors * 512 / 4 >= clusters + 2);
+
+        // The backup boot sector must match
+        assertArrayEquals(boot.array(), readSector(image, 6).array());
+
+        // The FSInfo sector reports all but the root directory cluster as free
+        final ByteBuffer fsInfo = readSector(image, 1);
+        assertEquals(0x41615252, fsInfo.getInt(0));
+        assertEquals(0x61417272, fsInfo.getInt(484));
+        assertEquals(clusters - 1, fsInfo.getInt(488));
+
+        // Both FATs mark the reserved entries and the root directory as in use
+        for (int i = 0; i < 2; i++) {
+            final ByteBuffer fat = readSector(image, 32 + i * fatSectors);
+            assertEquals(0x0FFFFFF8, fat.getInt(0));
+            assertEquals(0x0FFFFFFF, fat.getInt(4));
+            assertEquals(0x0FFFFFFF, fat.getInt(8));
+            assertEquals(0, fat.getInt(12));
+        }
+    }
+
+    @Test
+    public void testCreateUsesCache() throws Exception {
+        final File cacheDir = new File(tmp.getRoot(), "cache");
+        final File image = new File(tmp.getRoot(), "avd/sdcard.img");
+        assertTrue(image.getParentFile().mkdirs());
+        Files.write(image.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+        SdCardImage.create(image, SIZE_64M, cacheDir);
+
+        final File pristine = new File(cacheDir, "sdcard-" + SIZE_64M + ".img");
+        assertTrue(pristine.isFile());
+        assertEquals(SIZE_64M, pristine.length());
+        assertEquals(SIZE_64M, image.length());
+        assertEquals("FAT32   ", getString(readSector(image, 0), 82, 8));
+        assertEquals(1, cacheDir.list().length);
+    }
+
+    @Test
+    public void testSectorsPerCluster() {
+        assertEquals(1, SdCardImage.getSectorsPerCluster(SIZE_64M / 512));
+        assertEquals(8, SdCardImage.getSectorsPerCluster(512L * 1024 * 1024 / 512));
+        assertEquals(64, SdCardImage.getSectorsPerCluster(64L * 1024 * 1024 * 1024 / 512));
+    }
+
+    private static ByteBuffer readSector(File image, long sector) throws Exception {
+        final byte[] data = new byte[512];
+        try (RandomAccessFile file = new RandomAccessFile(image, "r")) {
+            file.seek(sector * 512);
+            file.readFully(data);
+        }
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String getString(ByteBuffer buffer, int offset, int length) {
+        return new String(buffer.array(), offset, length, StandardCharsets.US_ASCII);
+    }
+
+}
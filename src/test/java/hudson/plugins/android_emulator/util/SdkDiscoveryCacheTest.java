@@ -0,0 +1,92 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+
+public class SdkDiscoveryCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File preferred;
+    private File sdkRoot;
+    private File sourceProperties;
+    private List<String> candidates;
+
+    @Before
+    public void setUp() throws Exception {
+        SdkDiscoveryCache.clear();
+        preferred = tmp.newFolder("preferred");
+        sdkRoot = tmp.newFolder("sdk");
+        sourceProperties = new File(sdkRoot, "tools/source.properties");
+        sourceProperties.getParentFile().mkdirs();
+        writeSourceProperties("26.1.1");
+        candidates = Arrays.asList(preferred.getPath(), sdkRoot.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        SdkDiscoveryCache.clear();
+    }
+
+    @Test
+    public void testSdkIsCached() throws Exception {
+        final AndroidSdk sdk = new AndroidSdk(sdkRoot.getPath(), "/home");
+        SdkDiscoveryCache.put(candidates, "/home", sdk);
+
+        assertSame(sdk, SdkDiscoveryCache.get(candidates, "/home"));
+        assertNull(SdkDiscoveryCache.get(candidates, "/other-home"));
+        assertNull(SdkDiscoveryCache.get(Arrays.asList(sdkRoot.getPath()), "/home"));
+    }
+
+    @Test
+    public void testUpdatedToolsInvalidateEntry() throws Exception {
+        SdkDiscoveryCache.put(candidates, "/home", new AndroidSdk(sdkRoot.getPath(), "/home"));
+
+        writeSourceProperties("26.1.10");
+        sourceProperties.setLastModified(sourceProperties.lastModified() + 10000);
+
+        assertNull(SdkDiscoveryCache.get(candidates, "/home"));
+    }
+
+    @Test
+    public void testRemovedSdkInvalidatesEntry() throws Exception {
+        SdkDiscoveryCache.put(candidates, "/home", new AndroidSdk(sdkRoot.getPath(), "/home"));
+
+        Files.delete(sourceProperties.toPath());
+        Files.delete(sourceProperties.getParentFile().toPath());
+        Files.delete(sdkRoot.toPath());
+
+        assertNull(SdkDiscoveryCache.get(candidates, "/home"));
+    }
+
+    @Test
+    public void testChangedPreferredCandidateInvalidatesEntry() throws Exception {
+        SdkDiscoveryCache.put(candidates, "/home", new AndroidSdk(sdkRoot.getPath(), "/home"));
+
+        // Installing tools into a previously-rejected candidate may make it the preferred SDK
+        new File(preferred, "tools").mkdir();
+
+        assertNull(SdkDiscoveryCache.get(candidates, "/home"));
+    }
+
+    private void writeSourceProperties(String revision) throws Exception {
+        Files.write(sourceProperties.toPath(),
+                ("Pkg.Path=tools\nPkg.Revision=" + revision + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+}
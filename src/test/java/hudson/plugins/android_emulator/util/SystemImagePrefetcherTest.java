@@ -0,0 +1,47 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SystemImagePrefetcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final File imageDir = tmp.newFolder("x86");
+        createFile(new File(imageDir, "system.img"), SystemImagePrefetcher.CHUNK_SIZE * 2 + 100);
+        createFile(new File(imageDir, "ramdisk.img"), 1000);
+        createFile(new File(imageDir, "userdata.img"), 5000);
+
+        final SystemImagePrefetcher.Result result = SystemImagePrefetcher.prefetch(imageDir);
+
+        // Only the files read during boot are prefetched
+        assertEquals(SystemImagePrefetcher.CHUNK_SIZE * 2 + 1100, result.totalBytes);
+        assertTrue(result.residentBytes <= result.totalBytes);
+    }
+
+    @Test
+    public void testMissingDirectory() throws Exception {
+        final SystemImagePrefetcher.Result result = SystemImagePrefetcher.prefetch(new File(tmp.getRoot(), "missing"));
+
+        assertEquals(0, result.totalBytes);
+        assertEquals(0, result.residentBytes);
+    }
+
+    private static void createFile(File file, long size) throws Exception {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(size);
+            out.write(1);
+        }
+    }
+
+}
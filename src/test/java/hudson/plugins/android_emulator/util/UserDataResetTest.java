@@ -0,0 +1,94 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserDataResetTest {
+
+    private static final String SYSTEM_IMAGE = "system-images;android-24;default;x86";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File sdkRoot;
+    private File imageDir;
+    private File avdDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        sdkRoot = tmp.newFolder("sdk");
+        imageDir = new File(sdkRoot, "system-images/android-24/default/x86");
+        write(new File(imageDir, "source.properties"), "Pkg.Revision=5\n");
+        write(new File(imageDir, UserDataReset.PRISTINE_USER_DATA_IMAGE), "pristine");
+
+        avdDirectory = tmp.newFolder("test.avd");
+        write(new File(avdDirectory, UserDataReset.USER_DATA_IMAGE), "used");
+        write(new File(avdDirectory, UserDataReset.USER_DATA_IMAGE + ".qcow2"), "overlay");
+        write(new File(avdDirectory, "cache.img"), "cache");
+        write(new File(avdDirectory, "sdcard.img"), "sdcard");
+        write(new File(avdDirectory, "system.img.qcow2"), "overlay");
+        write(new File(avdDirectory, "snapshots/default_boot/snapshot.pb"), "snapshot");
+        write(new File(avdDirectory, "snapshots/jenkins/ram.bin"), "ram");
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        createFingerprint("5").write(avdDirectory);
+        assertTrue(new File(imageDir, UserDataReset.PRISTINE_USER_DATA_IMAGE).setReadOnly());
+
+        assertTrue(UserDataReset.reset(avdDirectory, sdkRoot));
+
+        final File userData = new File(avdDirectory, UserDataReset.USER_DATA_IMAGE);
+        assertEquals("pristine", read(userData));
+        assertTrue(userData.canWrite());
+        assertFalse(new File(avdDirectory, UserDataReset.USER_DATA_IMAGE + ".qcow2").exists());
+        assertFalse(new File(avdDirectory, "cache.img").exists());
+        assertEquals("sdcard", read(new File(avdDirectory, "sdcard.img")));
+
+        // Snapshots, and the overlays holding their disk state, refer to the old data
+        assertFalse(new File(avdDirectory, "system.img.qcow2").exists());
+        assertFalse(new File(avdDirectory, "snapshots").exists());
+        assertEquals("pristine", read(new File(imageDir, UserDataReset.PRISTINE_USER_DATA_IMAGE)));
+    }
+
+    @Test
+    public void testUpdatedSystemImageIsNotUsed() throws Exception {
+        createFingerprint("4").write(avdDirectory);
+
+        assertFalse(UserDataReset.reset(avdDirectory, sdkRoot));
+        assertEquals("used", read(new File(avdDirectory, UserDataReset.USER_DATA_IMAGE)));
+        assertTrue(new File(avdDirectory, "snapshots/jenkins/ram.bin").exists());
+    }
+
+    @Test
+    public void testAvdWithoutFingerprintIsNotReset() throws Exception {
+        assertFalse(UserDataReset.reset(avdDirectory, sdkRoot));
+        assertEquals("used", read(new File(avdDirectory, UserDataReset.USER_DATA_IMAGE)));
+    }
+
+    private static AvdFingerprint createFingerprint(String revision) {
+        return new AvdFingerprint()
+                .put(AvdFingerprint.SYSTEM_IMAGE, SYSTEM_IMAGE)
+                .put(AvdFingerprint.SYSTEM_IMAGE_REVISION, revision);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,108 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolatileImagesTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File avdDirectory;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        avdDirectory = tmp.newFolder("test.avd");
+        directory = VolatileImages.getDirectory(tmp.newFolder("shm"), avdDirectory);
+    }
+
+    @Test
+    public void testEstimateSize() {
+        assertEquals(VolatileImages.DEFAULT_DATA_PARTITION_BYTES + VolatileImages.DEFAULT_CACHE_PARTITION_BYTES,
+                VolatileImages.estimateSize(null, null));
+
+        // Sizes containing unexpanded variables fall back to the defaults
+        final long expected = 64 * MB + 800 * MB + VolatileImages.DEFAULT_CACHE_PARTITION_BYTES;
+        assertEquals(expected, VolatileImages.estimateSize("64M",
+                Collections.singletonMap("disk.dataPartition.size", "800MB")));
+        assertEquals(VolatileImages.estimateSize(null, null), VolatileImages.estimateSize("${SIZE}",
+                Collections.singletonMap("disk.dataPartition.size", "${DATA_SIZE}")));
+    }
+
+    @Test
+    public void testPrepare() throws Exception {
+        write(new File(avdDirectory, "userdata-qemu.img"), "userdata");
+        write(new File(avdDirectory, "userdata-qemu.img.qcow2"), "overlay");
+        write(new File(avdDirectory, "config.ini"), "config");
+        write(new File(directory, "stale.img"), "stale");
+
+        final Map<String, String> options = VolatileImages.prepare(avdDirectory, directory);
+
+        // The emulator creates the data and cache images if necessary, but the SD card must already exist
+        assertEquals(new File(directory, "userdata-qemu.img").getAbsolutePath(), options.get("-data"));
+        assertEquals(new File(directory, "cache.img").getAbsolutePath(), options.get("-cache"));
+        assertFalse(options.containsKey("-sdcard"));
+        assertEquals("userdata", read(new File(directory, "userdata-qemu.img")));
+        assertEquals("overlay", read(new File(directory, "userdata-qemu.img.qcow2")));
+        assertFalse(new File(directory, "config.ini").exists());
+        assertFalse(new File(directory, "stale.img").exists());
+    }
+
+    @Test
+    public void testPersistAndDelete() throws Exception {
+        write(new File(avdDirectory, "userdata-qemu.img"), "userdata");
+        VolatileImages.prepare(avdDirectory, directory);
+        write(new File(directory, "userdata-qemu.img"), "booted");
+
+        VolatileImages.persist(directory, avdDirectory);
+        VolatileImages.delete(directory);
+
+        assertEquals("booted", read(new File(avdDirectory, "userdata-qemu.img")));
+        assertEquals(1, avdDirectory.list().length);
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void testCopySparse() throws Exception {
+        final File source = tmp.newFile("sdcard.img");
+        final byte[] header = "header".getBytes(StandardCharsets.UTF_8);
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            file.setLength(64 * MB);
+            file.write(header);
+            file.seek(32 * MB + 7);
+            file.write(header);
+        }
+        final File target = new File(tmp.getRoot(), "copy.img");
+
+        VolatileImages.copySparse(source, target);
+
+        assertEquals(source.length(), target.length());
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(target.toPath()));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}